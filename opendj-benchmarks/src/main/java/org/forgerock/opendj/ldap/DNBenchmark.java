@@ -0,0 +1,101 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opends.server.BenchmarkUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the parsing, normalization and comparison of DNs, which are done
+ * for every request and for every entry read from a backend.
+ * <p>
+ * DNs are cached per thread by {@link DN#valueOf(String)}, so the benchmarks
+ * cycle over more distinct DNs than the cache holds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DNBenchmark
+{
+  private static final int NB_DNS = 1024;
+
+  private final String[] dnStrings = new String[NB_DNS];
+  private final DN[] dns = new DN[NB_DNS];
+  private int index;
+
+  /** Builds the DNs used by the benchmarks. */
+  @Setup
+  public void setUp()
+  {
+    BenchmarkUtils.bootstrap();
+    for (int i = 0; i < NB_DNS; i++)
+    {
+      dnStrings[i] = "UID=User." + i + ", OU=People,DC=Example,DC=com";
+      dns[i] = DN.valueOf(dnStrings[i]);
+      dns[i].toNormalizedByteString();
+    }
+  }
+
+  private int nextIndex()
+  {
+    index = (index + 1) % NB_DNS;
+    return index;
+  }
+
+  /** Parsing of a DN string. */
+  @Benchmark
+  public DN valueOf()
+  {
+    return DN.valueOf(dnStrings[nextIndex()]);
+  }
+
+  /** Parsing of a DN string, followed by its normalization as done for index keys. */
+  @Benchmark
+  public ByteString valueOfAndNormalize()
+  {
+    return DN.valueOf(dnStrings[nextIndex()]).toNormalizedByteString();
+  }
+
+  /** Comparison of two parsed DNs. */
+  @Benchmark
+  public int compareTo()
+  {
+    final int i = nextIndex();
+    return dns[i].compareTo(dns[NB_DNS - 1 - i]);
+  }
+
+  /** Hierarchy check, as done for the search scope. */
+  @Benchmark
+  public boolean isSubordinateOrEqualTo()
+  {
+    final int i = nextIndex();
+    return dns[i].isSubordinateOrEqualTo(dns[i].parent());
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server;
+
+import java.io.StringReader;
+
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Entry;
+import org.opends.server.types.LDIFImportConfig;
+import org.opends.server.util.LDIFReader;
+
+/** Utility methods shared by the benchmarks. */
+public final class BenchmarkUtils
+{
+  private static boolean bootstrapped;
+
+  private BenchmarkUtils()
+  {
+    // Utility class
+  }
+
+  /**
+   * Initializes the server in client mode, as done by the offline tools, so
+   * that the core schema is available. Calling this method more than once has
+   * no effect.
+   */
+  public static synchronized void bootstrap()
+  {
+    if (!bootstrapped)
+    {
+      DirectoryServer.bootstrapClient();
+      bootstrapped = true;
+    }
+  }
+
+  /**
+   * Returns the entry built from the provided LDIF lines.
+   *
+   * @param ldifLines
+   *          the LDIF lines of the entry
+   * @return the entry built from the provided LDIF lines
+   * @throws Exception
+   *           if the LDIF is not valid
+   */
+  public static Entry makeEntry(String... ldifLines) throws Exception
+  {
+    bootstrap();
+    final StringBuilder ldif = new StringBuilder();
+    for (String line : ldifLines)
+    {
+      ldif.append(line).append('\n');
+    }
+    try (LDIFReader reader = new LDIFReader(new LDIFImportConfig(new StringReader(ldif.toString()))))
+    {
+      return reader.readEntry(false);
+    }
+  }
+
+  /**
+   * Returns a typical user entry, with the provided identifier.
+   *
+   * @param id
+   *          the identifier of the user
+   * @return a typical user entry
+   * @throws Exception
+   *           if the entry cannot be built
+   */
+  public static Entry makeUserEntry(int id) throws Exception
+  {
+    return makeEntry(
+        "dn: uid=user." + id + ",ou=People,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: user." + id,
+        "cn: Aaccf Amar " + id,
+        "sn: Amar",
+        "givenName: Aaccf",
+        "initials: ASA",
+        "mail: user." + id + "@example.com",
+        "telephoneNumber: +1 685 622 6202",
+        "mobile: +1 010 154 3228",
+        "homePhone: +1 225 216 5900",
+        "pager: +1 779 041 6341",
+        "employeeNumber: " + id,
+        "street: 01251 Chestnut Street",
+        "l: Panama City",
+        "st: DE",
+        "postalCode: 50369",
+        "postalAddress: Aaccf Amar$01251 Chestnut Street$Panama City, DE  50369",
+        "description: This is the description for Aaccf Amar.",
+        "userPassword: {SSHA}Wyx8mGvE1W7uDIeC9pJDdnhQbxgMnH+ao4mrpw==");
+  }
+}
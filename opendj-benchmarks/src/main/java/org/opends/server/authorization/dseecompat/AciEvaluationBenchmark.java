@@ -0,0 +1,506 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.authorization.dseecompat;
+
+import static org.opends.server.authorization.dseecompat.Aci.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.opends.server.BenchmarkUtils;
+import org.opends.server.api.Group;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Entry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the evaluation of the access control instructions, as done by
+ * {@link AciHandler} for every entry and attribute returned by a search.
+ * <p>
+ * The access control handler needs a running server to build its containers
+ * from operations and client connections, so this benchmark runs its candidate
+ * lookup, target matching and bind rule evaluation steps with a self-contained
+ * evaluation context, through {@link AciHandler#evaluateCandidateAcis}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AciEvaluationBenchmark
+{
+  private static final String[] ACIS = {
+    "(targetattr!=\"userPassword||authPassword\")"
+        + "(version 3.0; acl \"Anonymous read access\"; allow (read,search,compare) userdn=\"ldap:///anyone\";)",
+    "(targetattr=\"userPassword\")"
+        + "(version 3.0; acl \"No password read\"; deny (read,search,compare) userdn=\"ldap:///anyone\";)",
+    "(targetattr=\"*\")(version 3.0; acl \"Self write\"; allow (write) userdn=\"ldap:///self\";)",
+    "(target=\"ldap:///ou=People,dc=example,dc=com\")(targetfilter=\"(objectClass=person)\")"
+        + "(targetattr=\"mail||telephoneNumber\")(version 3.0; acl \"Directory administrators\"; allow (all) "
+        + "userdn=\"ldap:///uid=admin,dc=example,dc=com\" and authmethod=\"simple\";)",
+    "(targetattr=\"*\")(version 3.0; acl \"Local network\"; allow (read,search) ip=\"192.168.0.*\";)",
+  };
+
+  /** The number of additional ACIs which do not apply to the evaluated entry, for example for other subtrees. */
+  @Param({ "0", "100" })
+  private int unrelatedAcis;
+
+  /** Whether the client is authenticated. */
+  @Param({ "true", "false" })
+  private boolean authenticated;
+
+  private final AciHandler aciHandler = new AciHandler();
+  private AciList aciList;
+  private Entry entry;
+  private final List<AttributeType> attributeTypes = new ArrayList<>();
+  private BenchmarkContext context;
+
+  /** Decodes the ACIs and builds the evaluated entry. */
+  @Setup
+  public void setUp() throws Exception
+  {
+    BenchmarkUtils.bootstrap();
+    aciList = new AciList(DN.valueOf("cn=Access Control Handler,cn=config"));
+    final DN baseDN = DN.valueOf("dc=example,dc=com");
+    final TreeSet<Aci> acis = new TreeSet<>();
+    for (String aci : ACIS)
+    {
+      acis.add(Aci.decode(ByteString.valueOfUtf8(aci), baseDN));
+    }
+    aciList.addAci(baseDN, acis);
+    for (int i = 0; i < unrelatedAcis; i++)
+    {
+      final DN dn = DN.valueOf("ou=Group " + i + ",dc=example,dc=com");
+      final TreeSet<Aci> otherAcis = new TreeSet<>();
+      otherAcis.add(Aci.decode(ByteString.valueOfUtf8(ACIS[2]), dn));
+      aciList.addAci(dn, otherAcis);
+    }
+
+    entry = BenchmarkUtils.makeUserEntry(0);
+    for (List<Attribute> attributes : entry.getUserAttributes().values())
+    {
+      for (Attribute attribute : attributes)
+      {
+        attributeTypes.add(attribute.getAttributeDescription().getAttributeType());
+      }
+    }
+    context = new BenchmarkContext(entry, authenticated ? DN.valueOf("uid=user.1,ou=People,dc=example,dc=com") : null);
+  }
+
+  /** Decoding of an ACI, done when the server starts and when ACIs are modified. */
+  @Benchmark
+  public Aci decode() throws AciException
+  {
+    return Aci.decode(ByteString.valueOfUtf8(ACIS[3]), entry.getName());
+  }
+
+  /** Evaluation of the read access to each attribute of an entry, as done when returning a search result. */
+  @Benchmark
+  public int readAccessToAllAttributes()
+  {
+    int allowed = 0;
+    final List<Aci> candidates = aciList.getCandidateAcis(entry.getName());
+    for (AttributeType attributeType : attributeTypes)
+    {
+      context.reset(ACI_READ, attributeType);
+      if (aciHandler.evaluateCandidateAcis(candidates, context))
+      {
+        allowed++;
+      }
+    }
+    return allowed;
+  }
+
+  /** An evaluation context for a client connected from the loopback address with a simple bind. */
+  private static final class BenchmarkContext implements AciTargetMatchContext, AciEvalContext
+  {
+    private final Entry resourceEntry;
+    private final DN clientDN;
+    private final Set<Aci> targAttrFilterAcis = new HashSet<>();
+    private int rights;
+    private AttributeType currentAttributeType;
+    private boolean isFirstAttribute;
+    private boolean entryTestRule;
+    private boolean targAttrFiltersMatch;
+    private String targAttrFiltersAciName;
+    private int targAttrMatch;
+    private int evalAllAttributes;
+    private List<Aci> allowList;
+    private List<Aci> denyList;
+    private EnumEvalReason evalReason;
+    private Aci decidingAci;
+    private String evalSummary;
+
+    private BenchmarkContext(Entry resourceEntry, DN clientDN)
+    {
+      this.resourceEntry = resourceEntry;
+      this.clientDN = clientDN;
+    }
+
+    private void reset(int rights, AttributeType attributeType)
+    {
+      this.rights = rights;
+      this.currentAttributeType = attributeType;
+      this.isFirstAttribute = true;
+      this.entryTestRule = false;
+      this.targAttrFiltersMatch = false;
+      this.evalAllAttributes = 0;
+      this.evalReason = null;
+      this.decidingAci = null;
+    }
+
+    @Override
+    public void setDenyList(List<Aci> denyList)
+    {
+      this.denyList = denyList;
+    }
+
+    @Override
+    public void setAllowList(List<Aci> allowList)
+    {
+      this.allowList = allowList;
+    }
+
+    @Override
+    public List<Aci> getDenyList()
+    {
+      return denyList;
+    }
+
+    @Override
+    public List<Aci> getAllowList()
+    {
+      return allowList;
+    }
+
+    @Override
+    public Entry getResourceEntry()
+    {
+      return resourceEntry;
+    }
+
+    @Override
+    public DN getResourceDN()
+    {
+      return resourceEntry.getName();
+    }
+
+    @Override
+    public DN getClientDN()
+    {
+      return clientDN != null ? clientDN : DN.rootDN();
+    }
+
+    @Override
+    public Entry getClientEntry()
+    {
+      return null;
+    }
+
+    @Override
+    public boolean isAnonymousUser()
+    {
+      return clientDN == null;
+    }
+
+    @Override
+    public AttributeType getCurrentAttributeType()
+    {
+      return currentAttributeType;
+    }
+
+    @Override
+    public void setCurrentAttributeType(AttributeType type)
+    {
+      this.currentAttributeType = type;
+    }
+
+    @Override
+    public ByteString getCurrentAttributeValue()
+    {
+      return null;
+    }
+
+    @Override
+    public void setCurrentAttributeValue(ByteString v)
+    {
+      // Values are not evaluated by this benchmark
+    }
+
+    @Override
+    public boolean isFirstAttribute()
+    {
+      return isFirstAttribute;
+    }
+
+    @Override
+    public void setIsFirstAttribute(boolean isFirst)
+    {
+      this.isFirstAttribute = isFirst;
+    }
+
+    @Override
+    public void setEntryTestRule(boolean val)
+    {
+      this.entryTestRule = val;
+    }
+
+    @Override
+    public boolean hasEntryTestRule()
+    {
+      return entryTestRule;
+    }
+
+    @Override
+    public int getRights()
+    {
+      return rights;
+    }
+
+    @Override
+    public boolean hasRights(int rights)
+    {
+      return (this.rights & rights) != 0;
+    }
+
+    @Override
+    public void setRights(int rights)
+    {
+      this.rights = rights;
+    }
+
+    @Override
+    public String getControlOID()
+    {
+      return null;
+    }
+
+    @Override
+    public String getExtOpOID()
+    {
+      return null;
+    }
+
+    @Override
+    public void setTargAttrFiltersMatch(boolean v)
+    {
+      this.targAttrFiltersMatch = v;
+    }
+
+    @Override
+    public boolean getTargAttrFiltersMatch()
+    {
+      return targAttrFiltersMatch;
+    }
+
+    @Override
+    public void addTargAttrFiltersMatchAci(Aci aci)
+    {
+      targAttrFilterAcis.add(aci);
+    }
+
+    @Override
+    public boolean hasTargAttrFiltersMatchAci(Aci aci)
+    {
+      return targAttrFilterAcis.contains(aci);
+    }
+
+    @Override
+    public boolean isTargAttrFilterMatchAciEmpty()
+    {
+      return targAttrFilterAcis.isEmpty();
+    }
+
+    @Override
+    public void setTargAttrFiltersAciName(String name)
+    {
+      this.targAttrFiltersAciName = name;
+    }
+
+    @Override
+    public String getTargAttrFiltersAciName()
+    {
+      return targAttrFiltersAciName;
+    }
+
+    @Override
+    public void setTargAttrFiltersMatchOp(int flag)
+    {
+      targAttrMatch |= flag;
+    }
+
+    @Override
+    public boolean hasTargAttrFiltersMatchOp(int flag)
+    {
+      return (targAttrMatch & flag) != 0;
+    }
+
+    @Override
+    public boolean isGetEffectiveRightsEval()
+    {
+      return false;
+    }
+
+    @Override
+    public void setEvalUserAttributes(int v)
+    {
+      if (rights == ACI_READ)
+      {
+        evalAllAttributes |= v == ACI_FOUND_USER_ATTR_RULE ? ACI_FOUND_USER_ATTR_RULE : ACI_USER_ATTR_STAR_MATCHED;
+      }
+    }
+
+    @Override
+    public void setEvalOpAttributes(int v)
+    {
+      if (rights == ACI_READ)
+      {
+        evalAllAttributes |= v == ACI_FOUND_OP_ATTR_RULE ? ACI_FOUND_OP_ATTR_RULE : ACI_OP_ATTR_PLUS_MATCHED;
+      }
+    }
+
+    @Override
+    public boolean hasEvalUserAttributes()
+    {
+      return (evalAllAttributes & ACI_FOUND_USER_ATTR_RULE) != 0;
+    }
+
+    @Override
+    public boolean hasEvalOpAttributes()
+    {
+      return (evalAllAttributes & ACI_FOUND_OP_ATTR_RULE) != 0;
+    }
+
+    @Override
+    public void clearEvalAttributes(int v)
+    {
+      evalAllAttributes = v == 0 ? 0 : evalAllAttributes & ~v;
+    }
+
+    @Override
+    public boolean isDenyEval()
+    {
+      return EnumEvalReason.NO_ALLOW_ACIS.equals(evalReason) || EnumEvalReason.EVALUATED_DENY_ACI.equals(evalReason);
+    }
+
+    @Override
+    public String getHostName()
+    {
+      return "localhost";
+    }
+
+    @Override
+    public InetAddress getRemoteAddress()
+    {
+      return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public EnumEvalResult hasAuthenticationMethod(EnumAuthMethod authMethod, String saslMech)
+    {
+      final boolean matched = authMethod == EnumAuthMethod.AUTHMETHOD_NONE
+          || (authMethod == EnumAuthMethod.AUTHMETHOD_SIMPLE && clientDN != null);
+      return matched ? EnumEvalResult.TRUE : EnumEvalResult.FALSE;
+    }
+
+    @Override
+    public boolean isAddOperation()
+    {
+      return false;
+    }
+
+    @Override
+    public boolean isMemberOf(Group<?> group)
+    {
+      return false;
+    }
+
+    @Override
+    public void setEvaluationResult(EnumEvalReason reason, Aci decidingAci)
+    {
+      this.evalReason = reason;
+      this.decidingAci = decidingAci;
+    }
+
+    @Override
+    public EnumEvalReason getEvalReason()
+    {
+      return evalReason;
+    }
+
+    @Override
+    public String getDecidingAciName()
+    {
+      return decidingAci != null ? decidingAci.getName() : null;
+    }
+
+    @Override
+    public boolean isProxiedAuthorization()
+    {
+      return false;
+    }
+
+    @Override
+    public void setEvalSummary(String summary)
+    {
+      this.evalSummary = summary;
+    }
+
+    @Override
+    public String getEvalSummary()
+    {
+      return evalSummary;
+    }
+
+    @Override
+    public String rightToString()
+    {
+      return hasRights(ACI_READ) ? "read" : null;
+    }
+
+    @Override
+    public int getCurrentSSF()
+    {
+      return 0;
+    }
+
+    @Override
+    public AciDecisionCache getDecisionCache()
+    {
+      // Every bind rule is evaluated, as with geteffectiverights evaluations
+      return null;
+    }
+  }
+}
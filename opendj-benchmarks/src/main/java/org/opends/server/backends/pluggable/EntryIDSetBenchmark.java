@@ -0,0 +1,140 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.server.backends.pluggable.EntryIDSet.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the set algebra and the codecs of {@link EntryIDSet}, which are
+ * used to evaluate every indexed search filter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EntryIDSetBenchmark
+{
+  /** The number of entry IDs in each set. */
+  @Param({ "100", "10000", "1000000" })
+  private int size;
+
+  /** The proportion of the entry IDs range present in each set, in percent. */
+  @Param({ "1", "50" })
+  private int density;
+
+  private long[] ids1;
+  private long[] ids2;
+  private ByteString encodedV2;
+  private ByteString encodedV4;
+
+  /** Builds two overlapping sets of entry IDs and their encoded forms. */
+  @Setup
+  public void setUp()
+  {
+    final Random random = new Random(0);
+    ids1 = randomIDs(random);
+    ids2 = randomIDs(random);
+    encodedV2 = CODEC_V2.encode(newDefinedSet(ids1));
+    encodedV4 = CODEC_V4.encode(newDefinedSet(ids1));
+  }
+
+  /** Returns sorted and distinct entry IDs, separated by gaps matching the density. */
+  private long[] randomIDs(final Random random)
+  {
+    final int maxGap = 2 * 100 / density - 1;
+    final long[] ids = new long[size];
+    long id = 0;
+    for (int i = 0; i < size; i++)
+    {
+      id += 1 + random.nextInt(maxGap);
+      ids[i] = id;
+    }
+    return ids;
+  }
+
+  /** Intersection, used for the AND filters. */
+  @Benchmark
+  public EntryIDSet retainAll()
+  {
+    final EntryIDSet set = newDefinedSet(ids1.clone());
+    set.retainAll(newDefinedSet(ids2));
+    return set;
+  }
+
+  /** Union, used for the OR filters. */
+  @Benchmark
+  public EntryIDSet addAll()
+  {
+    final EntryIDSet set = newDefinedSet(ids1.clone());
+    set.addAll(newDefinedSet(ids2));
+    return set;
+  }
+
+  /** Difference, used when updating the indexes. */
+  @Benchmark
+  public EntryIDSet removeAll()
+  {
+    final EntryIDSet set = newDefinedSet(ids1.clone());
+    set.removeAll(newDefinedSet(ids2));
+    return set;
+  }
+
+  /** Encoding with the default codec. */
+  @Benchmark
+  public ByteString encodeV2()
+  {
+    return CODEC_V2.encode(newDefinedSet(ids1));
+  }
+
+  /** Decoding with the default codec. */
+  @Benchmark
+  public EntryIDSet decodeV2()
+  {
+    return CODEC_V2.decode(ByteString.empty(), encodedV2);
+  }
+
+  /** Encoding with the bitmap codec. */
+  @Benchmark
+  public ByteString encodeV4()
+  {
+    return CODEC_V4.encode(newDefinedSet(ids1));
+  }
+
+  /** Decoding with the bitmap codec. */
+  @Benchmark
+  public EntryIDSet decodeV4()
+  {
+    return CODEC_V4.decode(ByteString.empty(), encodedV4);
+  }
+}
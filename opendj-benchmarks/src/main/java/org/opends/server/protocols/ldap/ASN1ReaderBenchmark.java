@@ -0,0 +1,157 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.io.ASN1;
+import org.forgerock.opendj.io.ASN1Writer;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DereferenceAliasesPolicy;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.BenchmarkUtils;
+import org.opends.server.types.LDAPException;
+import org.opends.server.types.RawFilter;
+import org.opends.server.types.SearchResultEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the decoding of LDAP messages, both from a byte sequence as done
+ * by the SDK and from a channel as done by the LDAP connection handler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ASN1ReaderBenchmark
+{
+  /** The decoded message, a small request or a large response. */
+  @Param({ "searchRequest", "searchResultEntry" })
+  private String message;
+
+  /** The size of the buffer used by the channel reader, as configured on the LDAP connection handler. */
+  @Param({ "4096" })
+  private int bufferSize;
+
+  private ByteString encodedMessage;
+  private ReplayChannel channel;
+  private ASN1ByteChannelReader channelReader;
+
+  /** Encodes the message. */
+  @Setup
+  public void setUp() throws Exception
+  {
+    final ProtocolOp protocolOp;
+    if ("searchRequest".equals(message))
+    {
+      protocolOp = new SearchRequestProtocolOp(ByteString.valueOfUtf8("ou=People,dc=example,dc=com"),
+          SearchScope.WHOLE_SUBTREE, DereferenceAliasesPolicy.NEVER, 0, 0, false,
+          RawFilter.create("(&(objectClass=person)(uid=user.0))"), Collections.singleton("cn"));
+    }
+    else
+    {
+      protocolOp = new SearchResultEntryProtocolOp(new SearchResultEntry(BenchmarkUtils.makeUserEntry(0)));
+    }
+    final ByteStringBuilder builder = new ByteStringBuilder();
+    final ASN1Writer writer = ASN1.getWriter(builder);
+    new LDAPMessage(1, protocolOp).write(writer);
+    writer.flush();
+    encodedMessage = builder.toByteString();
+
+    channel = new ReplayChannel(encodedMessage.toByteArray());
+    channelReader = new ASN1ByteChannelReader(channel, bufferSize, 0);
+  }
+
+  /** Decoding from a byte sequence. */
+  @Benchmark
+  public LDAPMessage readFromByteSequence() throws LDAPException
+  {
+    return LDAPReader.readMessage(ASN1.getReader(encodedMessage));
+  }
+
+  /** Decoding from a channel, the message being received again each time. */
+  @Benchmark
+  public LDAPMessage readFromChannel() throws IOException, LDAPException
+  {
+    channel.rewind();
+    channelReader.processChannelData();
+    if (!channelReader.elementAvailable())
+    {
+      throw new IllegalStateException("The buffer size is too small to receive the message at once");
+    }
+    return LDAPReader.readMessage(channelReader);
+  }
+
+  /** A channel providing the same bytes each time it is rewound. */
+  private static final class ReplayChannel implements ReadableByteChannel
+  {
+    private final ByteBuffer bytes;
+
+    private ReplayChannel(byte[] bytes)
+    {
+      this.bytes = ByteBuffer.wrap(bytes);
+    }
+
+    private void rewind()
+    {
+      bytes.rewind();
+    }
+
+    @Override
+    public int read(ByteBuffer dst)
+    {
+      if (!bytes.hasRemaining())
+      {
+        return -1;
+      }
+      final int length = Math.min(dst.remaining(), bytes.remaining());
+      final ByteBuffer slice = bytes.slice();
+      slice.limit(length);
+      dst.put(slice);
+      bytes.position(bytes.position() + length);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+      // Nothing to do
+    }
+  }
+}
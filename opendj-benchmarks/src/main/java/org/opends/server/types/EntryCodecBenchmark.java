@@ -0,0 +1,85 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.types;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.BenchmarkUtils;
+import org.opends.server.api.CompressedSchema;
+import org.opends.server.core.DirectoryServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the encoding and decoding of entries, as done by the pluggable
+ * backends for every entry written to or read from the id2entry tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EntryCodecBenchmark
+{
+  /** Whether the attribute descriptions and object classes are replaced by tokens, as done by default. */
+  @Param({ "true", "false" })
+  private boolean compressSchema;
+
+  private Entry entry;
+  private EntryEncodeConfig encodeConfig;
+  private CompressedSchema compressedSchema;
+  private ByteString encodedEntry;
+  private final ByteStringBuilder buffer = new ByteStringBuilder();
+
+  /** Builds the entry and its encoded form. */
+  @Setup
+  public void setUp() throws Exception
+  {
+    entry = BenchmarkUtils.makeUserEntry(0);
+    // An in-memory compressed schema, the tokens are created on the first encoding
+    compressedSchema = new CompressedSchema(DirectoryServer.getInstance().getServerContext());
+    encodeConfig = new EntryEncodeConfig(true, compressSchema, compressSchema, compressedSchema);
+    encodedEntry = encode();
+  }
+
+  /** Encoding of an entry. */
+  @Benchmark
+  public ByteString encode() throws DirectoryException
+  {
+    buffer.clear();
+    entry.encode(buffer, encodeConfig);
+    return buffer.toByteString();
+  }
+
+  /** Decoding of an entry. */
+  @Benchmark
+  public Entry decode() throws DirectoryException
+  {
+    return Entry.decode(encodedEntry.asReader(), compressedSchema);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.types;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opends.server.BenchmarkUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the parsing of search filters and their evaluation against an
+ * entry, which is done for every candidate entry of a search.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchFilterBenchmark
+{
+  /** The evaluated filter. */
+  @Param({
+    "(uid=user.0)",
+    "(objectClass=*)",
+    "(cn=aaccf*)",
+    "(&(objectClass=person)(|(mail=user.0@example.com)(employeeNumber>=1000)))",
+    "(!(description=*missing*))" })
+  private String filterString;
+
+  private SearchFilter filter;
+  private Entry entry;
+
+  /** Builds the filter and the entry. */
+  @Setup
+  public void setUp() throws Exception
+  {
+    entry = BenchmarkUtils.makeUserEntry(0);
+    filter = SearchFilter.createFilterFromString(filterString);
+  }
+
+  /** Parsing of the filter. */
+  @Benchmark
+  public SearchFilter createFilterFromString() throws DirectoryException
+  {
+    return SearchFilter.createFilterFromString(filterString);
+  }
+
+  /** Evaluation of the filter against the entry. */
+  @Benchmark
+  public boolean matchesEntry() throws DirectoryException
+  {
+    return filter.matchesEntry(entry);
+  }
+}
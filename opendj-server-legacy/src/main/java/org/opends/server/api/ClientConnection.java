@@ -35,6 +35,7 @@ import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.opends.server.api.plugin.PluginResult;
 import org.opends.server.core.AuthenticatedUsers;
 import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.GroupManager;
 import org.opends.server.core.PersistentSearch;
 import org.opends.server.core.PluginConfigManager;
 import org.opends.server.core.SearchOperation;
@@ -1410,9 +1411,11 @@ public abstract class ClientConnection
     }
 
     HashSet<Group<?>> groupSet = new HashSet<>();
-    for (Group<?> g : DirectoryServer.getGroupManager().getGroupInstances())
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    for (DN groupDN : groupManager.getGroupDNs(userEntry))
     {
-      if (g.isMember(userEntry))
+      Group<?> g = groupManager.getGroupInstance(groupDN);
+      if (g != null)
       {
         groupSet.add(g);
       }
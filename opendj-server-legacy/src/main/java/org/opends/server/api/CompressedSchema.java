@@ -221,6 +221,19 @@ public class CompressedSchema
     {
       return Attributes.create(attrType, readValue(reader));
     }
+    else if (numValues > 1)
+    {
+      // Building multi-valued attributes normalizes all the values:
+      // only do it if the attribute is actually used
+      final int valuesStart = reader.position();
+      for (int i = 0; i < numValues; i++)
+      {
+        reader.skip(reader.readBERLength());
+      }
+      final int valuesLength = reader.position() - valuesStart;
+      reader.position(valuesStart);
+      return new LazyAttribute(ad, numValues, reader.readByteSequence(valuesLength).toByteString());
+    }
     else
     {
       // Read the appropriate number of values.
@@ -410,6 +410,22 @@ public abstract class Group<T extends GroupImplementationCfg>
    */
   public abstract boolean mayAlterMemberList();
 
+  /**
+   * Indicates whether the membership of this group is entirely
+   * defined by the list of member DNs returned by
+   * {@link #getMembers()}, so that the group manager may maintain a
+   * reverse index from the members to this group. Groups returning
+   * {@code true} must report every change made to their member list
+   * to {@link org.opends.server.core.GroupManager#updateMembershipIndex}.
+   *
+   * @return  {@code true} if the membership of this group may be
+   *          indexed, or {@code false} if the group must be asked.
+   */
+  public boolean isMembershipIndexable()
+  {
+    return false;
+  }
+
   /**
    * Attempt to make multiple changes to the group's member list.
    *
@@ -0,0 +1,166 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.api;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.AttributeDescription;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ConditionResult;
+import org.opends.server.types.AbstractAttribute;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.AttributeBuilder;
+
+/**
+ * A multi-valued attribute decoded from an encoded entry, whose values are only decoded when first accessed.
+ * <p>
+ * Building a multi-valued attribute normalizes all its values, which is wasted when the attribute is neither used
+ * by the search filter, nor by access control, nor returned to the client. This attribute keeps the encoded values
+ * until one of the methods needing them is called. The attribute description and the number of values are known
+ * without decoding.
+ */
+final class LazyAttribute extends AbstractAttribute
+{
+  private final AttributeDescription attributeDescription;
+  private final int numValues;
+  /** The encoded values, as a sequence of BER length and value pairs, null once decoded. */
+  private ByteString encodedValues;
+  /** The decoded attribute, null until first accessed. */
+  private volatile Attribute attribute;
+
+  /**
+   * Creates a new lazily decoded attribute.
+   *
+   * @param attributeDescription
+   *          The attribute description
+   * @param numValues
+   *          The number of encoded values
+   * @param encodedValues
+   *          The encoded values, which must not change afterwards
+   */
+  LazyAttribute(AttributeDescription attributeDescription, int numValues, ByteString encodedValues)
+  {
+    this.attributeDescription = attributeDescription;
+    this.numValues = numValues;
+    this.encodedValues = encodedValues;
+  }
+
+  private Attribute getAttribute()
+  {
+    Attribute a = attribute;
+    if (a == null)
+    {
+      synchronized (this)
+      {
+        a = attribute;
+        if (a == null)
+        {
+          a = decodeValues();
+          attribute = a;
+          encodedValues = null;
+        }
+      }
+    }
+    return a;
+  }
+
+  private Attribute decodeValues()
+  {
+    final AttributeBuilder builder = new AttributeBuilder(attributeDescription);
+    final ByteSequenceReader reader = encodedValues.asReader();
+    for (int i = 0; i < numValues; i++)
+    {
+      builder.add(reader.readByteSequence(reader.readBERLength()).toByteString());
+    }
+    return builder.toAttribute();
+  }
+
+  @Override
+  public ConditionResult approximatelyEqualTo(ByteString assertionValue)
+  {
+    return getAttribute().approximatelyEqualTo(assertionValue);
+  }
+
+  @Override
+  public boolean contains(ByteString value)
+  {
+    return getAttribute().contains(value);
+  }
+
+  @Override
+  public ConditionResult matchesEqualityAssertion(ByteString assertionValue)
+  {
+    return getAttribute().matchesEqualityAssertion(assertionValue);
+  }
+
+  @Override
+  public AttributeDescription getAttributeDescription()
+  {
+    return attributeDescription;
+  }
+
+  @Override
+  public ConditionResult greaterThanOrEqualTo(ByteString assertionValue)
+  {
+    return getAttribute().greaterThanOrEqualTo(assertionValue);
+  }
+
+  @Override
+  public boolean isVirtual()
+  {
+    return false;
+  }
+
+  @Override
+  public Iterator<ByteString> iterator()
+  {
+    return getAttribute().iterator();
+  }
+
+  @Override
+  public ConditionResult lessThanOrEqualTo(ByteString assertionValue)
+  {
+    return getAttribute().lessThanOrEqualTo(assertionValue);
+  }
+
+  @Override
+  public ConditionResult matchesSubstring(ByteString subInitial, List<ByteString> subAny, ByteString subFinal)
+  {
+    return getAttribute().matchesSubstring(subInitial, subAny, subFinal);
+  }
+
+  @Override
+  public int size()
+  {
+    // Stored values are distinct, no need to decode them for counting
+    final Attribute a = attribute;
+    return a != null ? a.size() : numValues;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return getAttribute().hashCode();
+  }
+
+  @Override
+  public void toString(StringBuilder buffer)
+  {
+    getAttribute().toString(buffer);
+  }
+}
@@ -253,7 +253,7 @@ public class AciBody {
             if(!p.hasRights(getEvalRights(evalCtx))) {
                 continue;
             }
-            res=p.getBindRule().evaluate(evalCtx);
+            res=evaluate(p.getBindRule(), evalCtx);
             // The evaluation result could be FAIL. Stop processing and return
             //FAIL. Maybe an internal search failed.
             if(res != TRUE && res != FALSE) {
@@ -273,6 +273,14 @@ public class AciBody {
         return res;
     }
 
+  private static EnumEvalResult evaluate(BindRule bindRule, AciEvalContext evalCtx) {
+    final AciDecisionCache decisionCache = evalCtx.getDecisionCache();
+    if (decisionCache != null) {
+      return decisionCache.evaluate(bindRule, evalCtx);
+    }
+    return bindRule.evaluate(evalCtx);
+  }
+
   /**
    * Returns the name string.
    * @return The name string.
@@ -25,6 +25,7 @@ import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.DN;
@@ -33,11 +34,13 @@ import org.opends.server.api.ClientConnection;
 import org.opends.server.api.Group;
 import org.opends.server.controls.GetEffectiveRightsRequestControl;
 import org.opends.server.core.AddOperation;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.GroupManager;
 import org.opends.server.core.SearchOperation;
-import org.opends.server.protocols.ldap.LDAPClientConnection;
+import org.opends.server.extensions.TLSCapableConnection;
 import org.opends.server.types.AuthenticationInfo;
 import org.opends.server.types.AuthenticationType;
-import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Control;
 import org.opends.server.types.Entry;
 import org.opends.server.types.Operation;
 
@@ -165,6 +168,19 @@ abstract class AciContainer implements AciTargetMatchContext, AciEvalContext {
   /** AuthenticationInfo class to use. */
   private final AuthenticationInfo authInfo;
 
+    /** The DNs of the groups the client is a member of, computed on first use. */
+    private Set<DN> clientGroupDNs;
+    /** The client DN for which the group DNs were computed. */
+    private DN clientGroupDNsOwner;
+
+    /** The cache of the bind rule results, null if bind rules must always be evaluated. */
+    private AciDecisionCache decisionCache;
+
+    /** The candidate ACIs of the resource entry, computed from the ACI list generation below. */
+    private List<Aci> candidateAcis;
+    /** The generation of the ACI list used to compute the candidate ACIs. */
+    private long candidateAcisGeneration;
+
   /**
      * This constructor is used by all currently supported LDAP operations
      * except the generic access control check that can be used by
@@ -628,8 +644,8 @@ abstract class AciContainer implements AciTargetMatchContext, AciEvalContext {
              */
             if (authInfo.hasAuthenticationType(AuthenticationType.SASL)
                 && authInfo.hasSASLMechanism(saslMech)
-                && clientConnection instanceof LDAPClientConnection) {
-                LDAPClientConnection lc = (LDAPClientConnection) clientConnection;
+                && clientConnection instanceof TLSCapableConnection) {
+                TLSCapableConnection lc = (TLSCapableConnection) clientConnection;
                 Certificate[] certChain = lc.getClientCertificateChain();
                 if (certChain.length != 0) {
                   matched = EnumEvalResult.TRUE;
@@ -649,18 +665,18 @@ abstract class AciContainer implements AciTargetMatchContext, AciEvalContext {
 
     @Override
     public boolean isMemberOf(Group<?> group) {
-        try {
-            if(useAuthzid) {
-                return group.isMember(this.authzid);
+        final DN clientDN = getClientDN();
+        if (clientGroupDNs == null || !clientDN.equals(clientGroupDNsOwner)) {
+            final GroupManager groupManager = DirectoryServer.getGroupManager();
+            final Entry e = getClientEntry();
+            if (!useAuthzid && e != null) {
+                clientGroupDNs = groupManager.getGroupDNs(e);
+            } else {
+                clientGroupDNs = groupManager.getGroupDNs(clientDN);
             }
-            Entry e = getClientEntry();
-            if (e != null) {
-                return group.isMember(e);
-            }
-            return group.isMember(getClientDN());
-        } catch (DirectoryException ex) {
-            return false;
+            clientGroupDNsOwner = clientDN;
         }
+        return clientGroupDNs.contains(group.getGroupDN());
     }
 
   /**
@@ -796,6 +812,55 @@ abstract class AciContainer implements AciTargetMatchContext, AciEvalContext {
       return clientConnection.getSSF();
   }
 
+    @Override
+    public AciDecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    /**
+     * Sets up the cache of the bind rule results for the evaluations done with
+     * the provided generation of the ACI list. No cache is used for
+     * geteffectiverights evaluations, which switch the client DN, and for
+     * persistent searches, which may outlive group membership changes.
+     *
+     * @param aciGeneration The current generation of the ACI list.
+     */
+    void useDecisionCache(long aciGeneration) {
+        if (isGetEffectiveRightsEval || hasGetEffectiveRightsControl
+            || useAuthzid || isPersistentSearch()) {
+            decisionCache = null;
+        } else {
+            decisionCache = AciDecisionCache.getInstance(
+                operation, getClientDN(), authInfo, aciGeneration);
+        }
+    }
+
+    private boolean isPersistentSearch() {
+        for (Control control : operation.getRequestControls()) {
+            if (OID_PERSISTENT_SEARCH.equals(control.getOID())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ACIs that are candidates for the evaluation of the resource
+     * entry. The candidates are computed once per generation of the ACI list
+     * and reused for all the attributes of the resource entry.
+     *
+     * @param aciList The ACI list to get the candidate ACIs from.
+     * @param aciGeneration The current generation of the ACI list.
+     * @return The list of candidate ACIs, which must not be modified.
+     */
+    List<Aci> getCandidateAcis(AciList aciList, long aciGeneration) {
+        if (candidateAcis == null || candidateAcisGeneration != aciGeneration) {
+            candidateAcis = aciList.getCandidateAcis(getResourceDN());
+            candidateAcisGeneration = aciGeneration;
+        }
+        return candidateAcis;
+    }
+
   @Override
   public String toString()
   {
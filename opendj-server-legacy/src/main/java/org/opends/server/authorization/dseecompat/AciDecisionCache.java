@@ -0,0 +1,113 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.authorization.dseecompat;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.types.AuthenticationInfo;
+import org.opends.server.types.Operation;
+
+/**
+ * Caches the results of the bind rules evaluated on behalf of a client during an operation.
+ * <p>
+ * A search evaluates the same ACIs for every returned entry and every returned attribute, but the bind rules which
+ * only depend on the client and its connection (userdn without "self" or "parent", groupdn, ip, dns, authmethod and
+ * ssf) always evaluate to the same result. These results are cached in an operation attachment and reused until the
+ * client or the ACIs change. The cache lives no longer than the operation because group membership changes are not
+ * versioned.
+ */
+final class AciDecisionCache
+{
+  /** The name of the operation attachment holding the decision cache. */
+  private static final String DECISION_CACHE = "aciDecisionCache";
+
+  /** The client DN for which the bind rules were evaluated. */
+  private final DN clientDN;
+  /** The authentication information for which the bind rules were evaluated. */
+  private final AuthenticationInfo authInfo;
+  /** The generation of the ACI list when the bind rules were evaluated. */
+  private final long aciGeneration;
+  /** The results of the bind rules evaluated so far, keyed by bind rule identity. */
+  private final ConcurrentMap<BindRule, EnumEvalResult> results = new ConcurrentHashMap<>();
+
+  private AciDecisionCache(DN clientDN, AuthenticationInfo authInfo, long aciGeneration)
+  {
+    this.clientDN = clientDN;
+    this.authInfo = authInfo;
+    this.aciGeneration = aciGeneration;
+  }
+
+  /**
+   * Returns the decision cache of the provided operation, creating a new one if the operation has no cache yet or if
+   * its cache was created for another client or another generation of the ACI list.
+   *
+   * @param operation
+   *          The operation being evaluated.
+   * @param clientDN
+   *          The client DN used in the evaluation.
+   * @param authInfo
+   *          The authentication information used in the evaluation.
+   * @param aciGeneration
+   *          The current generation of the ACI list.
+   * @return The decision cache to use for evaluating the operation.
+   */
+  static AciDecisionCache getInstance(Operation operation, DN clientDN, AuthenticationInfo authInfo,
+      long aciGeneration)
+  {
+    final AciDecisionCache cache = operation.getAttachment(DECISION_CACHE);
+    if (cache != null
+        && cache.aciGeneration == aciGeneration
+        && cache.authInfo == authInfo
+        && cache.clientDN.equals(clientDN))
+    {
+      return cache;
+    }
+    final AciDecisionCache newCache = new AciDecisionCache(clientDN, authInfo, aciGeneration);
+    operation.setAttachment(DECISION_CACHE, newCache);
+    return newCache;
+  }
+
+  /**
+   * Evaluates the provided bind rule, reusing the result of a previous evaluation when the bind rule only depends on
+   * the client.
+   *
+   * @param bindRule
+   *          The bind rule to evaluate.
+   * @param evalCtx
+   *          The evaluation context to use in the evaluation.
+   * @return An enumeration result of the evaluation.
+   */
+  EnumEvalResult evaluate(BindRule bindRule, AciEvalContext evalCtx)
+  {
+    if (!bindRule.dependsOnClientOnly())
+    {
+      return bindRule.evaluate(evalCtx);
+    }
+    EnumEvalResult result = results.get(bindRule);
+    if (result == null)
+    {
+      result = bindRule.evaluate(evalCtx);
+      // Do not cache failures, e.g. an internal search failing while evaluating a group
+      if (result == EnumEvalResult.TRUE || result == EnumEvalResult.FALSE)
+      {
+        results.put(bindRule, result);
+      }
+    }
+    return result;
+  }
+}
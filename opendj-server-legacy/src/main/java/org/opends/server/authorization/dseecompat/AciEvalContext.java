@@ -296,4 +296,12 @@ public interface AciEvalContext
      * @return The current SSF of the connection.
      */
     int getCurrentSSF();
+
+    /**
+     * Return the cache of the bind rule results to use for this evaluation.
+     *
+     * @return The decision cache to use, or null if the bind rules must always
+     * be evaluated.
+     */
+    AciDecisionCache getDecisionCache();
 }
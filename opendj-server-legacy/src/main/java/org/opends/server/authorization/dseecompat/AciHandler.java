@@ -34,6 +34,7 @@ import org.forgerock.opendj.ldap.RDN;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.server.config.server.DseeCompatAccessControlHandlerCfg;
+import org.forgerock.util.annotations.VisibleForTesting;
 import org.opends.server.api.AccessControlHandler;
 import org.opends.server.api.ClientConnection;
 import org.opends.server.backends.pluggable.SuffixContainer;
@@ -491,7 +492,6 @@ public final class AciHandler extends
    */
   boolean accessAllowed(AciContainer container)
   {
-    DN dn = container.getResourceDN();
     // For ACI_WRITE_ADD and ACI_WRITE_DELETE set the ACI_WRITE
     // right.
     if (container.hasRights(ACI_WRITE_ADD)
@@ -526,13 +526,16 @@ public final class AciHandler extends
     }
 
     // First get all allowed candidate ACIs.
-    List<Aci> candidates = aciList.getCandidateAcis(dn);
+    final long aciGeneration = aciList.getGeneration();
+    List<Aci> candidates = container.getCandidateAcis(aciList, aciGeneration);
     /*
      * Create an applicable list of ACIs by target matching each
      * candidate ACI against the container's target match view.
      */
     createApplicableList(candidates, container);
-    // Evaluate the applicable list.
+    // Evaluate the applicable list, reusing the bind rule results
+    // which only depend on the client.
+    container.useDecisionCache(aciGeneration);
     final boolean ret = testApplicableLists(container);
     // Build summary string if doing geteffectiverights eval.
     if (container.isGetEffectiveRightsEval())
@@ -873,6 +876,28 @@ public final class AciHandler extends
     return true;
   }
 
+  /**
+   * Evaluates the provided candidate ACIs, as done by
+   * {@link #accessAllowed(AciContainer)} once it has retrieved them. Only
+   * exposed for benchmarking the evaluation, since the operation based
+   * containers cannot be built without a running server.
+   *
+   * @param <C>
+   *          The type of the context.
+   * @param candidates
+   *          List of all possible ACI candidates.
+   * @param context
+   *          The target matching and evaluation context to use.
+   * @return True if access is allowed.
+   */
+  @VisibleForTesting
+  <C extends AciTargetMatchContext & AciEvalContext> boolean evaluateCandidateAcis(
+      List<Aci> candidates, C context)
+  {
+    createApplicableList(candidates, context);
+    return testApplicableLists(context);
+  }
+
   /**
    * Creates the allow and deny ACI lists based on the provided target
    * match context. These lists are stored in the evaluation context.
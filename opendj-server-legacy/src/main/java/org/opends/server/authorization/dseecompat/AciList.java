@@ -61,6 +61,12 @@ public class AciList {
   /** The configuration DN used to compare against the global ACI entry DN. */
   private final DN configDN;
 
+  /**
+   * Incremented each time the ACIs may have changed. Allows the callers to reuse
+   * the results computed from a given state of the ACIs.
+   */
+  private volatile long generation;
+
   /**
    * Constructor to create an ACI list to cache ACI attribute types.
    * @param configDN The configuration entry DN.
@@ -69,6 +75,21 @@ public class AciList {
      this.configDN=configDN;
   }
 
+  /**
+   * Returns the current generation of the ACI list, which changes each time
+   * ACIs are added, modified, removed or renamed.
+   *
+   * @return The current generation of the ACI list.
+   */
+  public long getGeneration() {
+    return generation;
+  }
+
+  private void releaseWriteLock() {
+    generation++;
+    lock.writeLock().unlock();
+  }
+
   /**
    * Using the base DN, return a list of ACIs that are candidates for
    * evaluation by walking up from the base DN towards the root of the
@@ -156,7 +177,7 @@ public class AciList {
     }
     finally
     {
-      lock.writeLock().unlock();
+      releaseWriteLock();
     }
   }
 
@@ -177,7 +198,7 @@ public class AciList {
     }
     finally
     {
-      lock.writeLock().unlock();
+      releaseWriteLock();
     }
   }
 
@@ -217,7 +238,7 @@ public class AciList {
     }
     finally
     {
-      lock.writeLock().unlock();
+      releaseWriteLock();
     }
   }
 
@@ -306,7 +327,7 @@ public class AciList {
     }
     finally
     {
-      lock.writeLock().unlock();
+      releaseWriteLock();
     }
   }
 
@@ -360,7 +381,7 @@ public class AciList {
     }
     finally
     {
-      lock.writeLock().unlock();
+      releaseWriteLock();
     }
   }
 
@@ -387,7 +408,7 @@ public class AciList {
     }
     finally
     {
-      lock.writeLock().unlock();
+      releaseWriteLock();
     }
   }
 
@@ -431,7 +452,7 @@ public class AciList {
     }
     finally
     {
-      lock.writeLock().unlock();
+      releaseWriteLock();
     }
   }
 }
@@ -42,6 +42,11 @@ public class BindRule {
     private final EnumBooleanTypes booleanType;
     /** The keyword of a simple bind rule. */
     private final EnumBindRuleKeyword keyword;
+    /**
+     * True if the evaluation of this bind rule only depends on the client and its
+     * connection, and not on the resource entry or on the time of the evaluation.
+     */
+    private final boolean dependsOnClientOnly;
 
     /** Regular expression group position of a bind rule keyword. */
     private static final int keywordPos = 1;
@@ -90,6 +95,23 @@ public class BindRule {
         this.booleanType = null;
         this.left = null;
         this.right = null;
+        this.dependsOnClientOnly = dependsOnClientOnly(keyword, rule);
+    }
+
+    private static boolean dependsOnClientOnly(EnumBindRuleKeyword keyword, KeywordBindRule rule) {
+        switch (keyword) {
+        case USERDN:
+            return !((UserDN) rule).dependsOnResource();
+        case GROUPDN:
+        case IP:
+        case DNS:
+        case AUTHMETHOD:
+        case SSF:
+            return true;
+        default:
+            // userattr depends on the resource entry, dayofweek and timeofday on the time
+            return false;
+        }
     }
 
     /*
@@ -130,6 +152,7 @@ public class BindRule {
         this.booleanType = booleanType;
         this.left = left;
         this.right = right;
+        this.dependsOnClientOnly = left.dependsOnClientOnly && right.dependsOnClientOnly;
     }
 
     /*
@@ -471,6 +494,17 @@ public class BindRule {
         return EnumEvalResult.negateIfNeeded(ret, negate);
     }
 
+    /**
+     * Indicates whether the evaluation of this bind rule only depends on the
+     * client and its connection, so that its result can be reused for all the
+     * evaluations done on behalf of the same client during an operation.
+     * @return True if the evaluation of this bind rule does not depend on the
+     * resource entry or on the time of the evaluation.
+     */
+    boolean dependsOnClientOnly() {
+        return dependsOnClientOnly;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
@@ -42,6 +42,8 @@ public class RebuildConfig
   private final List<String> rebuildList = new ArrayList<>();
   private String tmpDirectory;
   private boolean isClearDegradedState;
+  private boolean isBackground;
+  private int maxEntriesPerSecond;
 
   /**
    * Get the base DN to rebuild.
@@ -228,4 +230,51 @@ public class RebuildConfig
     this.isClearDegradedState = isClearDegradedState;
   }
 
+  /**
+   * Returns {@code true} if indexes should be rebuilt in the background while
+   * the backend remains online.
+   *
+   * @return {@code true} if indexes should be rebuilt in the background.
+   */
+  public boolean isBackground()
+  {
+    return isBackground;
+  }
+
+  /**
+   * Sets whether indexes should be rebuilt in the background while the backend
+   * remains online.
+   *
+   * @param isBackground
+   *          {@code true} if indexes should be rebuilt in the background.
+   */
+  public void setBackground(boolean isBackground)
+  {
+    this.isBackground = isBackground;
+  }
+
+  /**
+   * Returns the maximum number of entries processed per second by a background
+   * rebuild.
+   *
+   * @return The maximum number of entries processed per second, or 0 if there
+   *         is no limit.
+   */
+  public int getMaxEntriesPerSecond()
+  {
+    return maxEntriesPerSecond;
+  }
+
+  /**
+   * Sets the maximum number of entries processed per second by a background
+   * rebuild.
+   *
+   * @param maxEntriesPerSecond
+   *          The maximum number of entries processed per second, or 0 for no
+   *          limit.
+   */
+  public void setMaxEntriesPerSecond(int maxEntriesPerSecond)
+  {
+    this.maxEntriesPerSecond = maxEntriesPerSecond;
+  }
 }
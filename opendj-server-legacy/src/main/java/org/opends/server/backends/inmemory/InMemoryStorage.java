@@ -0,0 +1,879 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.inmemory;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.messages.UtilityMessages.*;
+import static org.opends.server.backends.pluggable.spi.StorageUtils.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.InMemoryBackendCfg;
+import org.forgerock.util.Reject;
+import org.opends.server.api.Backupable;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.ServerContext;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+import org.opends.server.util.BackupManager;
+
+/**
+ * In-memory implementation of the {@link Storage} engine.
+ * <p>
+ * Each tree is a concurrent sorted map, so that reads never block nor wait for disk accesses. Write transactions
+ * are serialized, and record how to undo their changes until they commit: this is enough for a storage whose writes
+ * are not slowed down by disk accesses.
+ * <p>
+ * The contents of the storage survive it being closed, for example during an offline import, and are only lost
+ * when the storage is discarded. They can also be saved to a snapshot file on close, and loaded again on open.
+ */
+public final class InMemoryStorage implements Storage, Backupable, ConfigurationChangeListener<InMemoryBackendCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final String SNAPSHOT_NAME = "snapshot";
+  private static final long SNAPSHOT_MAGIC = 0x4f70656e444a4d53L;
+  /** Marks the end of the records of a tree in the snapshot file. */
+  private static final int END_OF_TREE = -1;
+
+  /** A change of a write transaction, and how to undo it. */
+  private static final class UndoRecord
+  {
+    private final TreeName treeName;
+    /** The changed tree, or {@code null} if the tree has been created. */
+    private final ConcurrentSkipListMap<ByteString, ByteString> tree;
+    /** The changed key, or {@code null} if the tree has been deleted or created. */
+    private final ByteString key;
+    /** The value before the change, or {@code null} if the record did not exist. */
+    private final ByteString oldValue;
+
+    private UndoRecord(TreeName treeName, ConcurrentSkipListMap<ByteString, ByteString> tree, ByteString key,
+        ByteString oldValue)
+    {
+      this.treeName = treeName;
+      this.tree = tree;
+      this.key = key;
+      this.oldValue = oldValue;
+    }
+  }
+
+  /** Common interface for internal WriteableTransaction implementations. */
+  private interface StorageImpl extends WriteableTransaction, Closeable
+  {
+    /** Keeps the changes of this transaction, which would otherwise be undone when it is closed. */
+    void commit();
+  }
+
+  /** In-memory implementation of the {@link WriteableTransaction} interface, writing directly to the trees. */
+  private final class WriteableStorageImpl implements StorageImpl
+  {
+    private final List<UndoRecord> undoLog = new ArrayList<>();
+
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      final NavigableMap<ByteString, ByteString> tree = trees.get(treeName);
+      return tree != null ? tree.get(key) : null;
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      return new TreeCursor(getTreeOrEmpty(treeName), this, treeName);
+    }
+
+    @Override
+    public long getRecordCount(final TreeName treeName)
+    {
+      return getTreeOrEmpty(treeName).size();
+    }
+
+    @Override
+    public void openTree(final TreeName treeName, final boolean createOnDemand)
+    {
+      if (createOnDemand && !trees.containsKey(treeName))
+      {
+        trees.put(treeName, new ConcurrentSkipListMap<ByteString, ByteString>());
+        undoLog.add(new UndoRecord(treeName, null, null, null));
+      }
+    }
+
+    @Override
+    public void deleteTree(final TreeName treeName)
+    {
+      final ConcurrentSkipListMap<ByteString, ByteString> tree = trees.remove(treeName);
+      if (tree != null)
+      {
+        undoLog.add(new UndoRecord(treeName, tree, null, null));
+      }
+    }
+
+    @Override
+    public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
+    {
+      final ConcurrentSkipListMap<ByteString, ByteString> tree = getTree(treeName);
+      final ByteString keyBytes = key.toByteString();
+      final ByteString oldValue = tree.put(keyBytes, value.toByteString());
+      undoLog.add(new UndoRecord(treeName, tree, keyBytes, oldValue));
+    }
+
+    @Override
+    public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
+    {
+      final ConcurrentSkipListMap<ByteString, ByteString> tree = getTree(treeName);
+      final ByteString keyBytes = key.toByteString();
+      final ByteString oldValue = tree.get(keyBytes);
+      final ByteSequence newValue = f.computeNewValue(oldValue);
+      if (Objects.equals(newValue, oldValue))
+      {
+        return false;
+      }
+      if (newValue != null)
+      {
+        tree.put(keyBytes, newValue.toByteString());
+      }
+      else
+      {
+        tree.remove(keyBytes);
+      }
+      undoLog.add(new UndoRecord(treeName, tree, keyBytes, oldValue));
+      return true;
+    }
+
+    @Override
+    public boolean delete(final TreeName treeName, final ByteSequence key)
+    {
+      final ConcurrentSkipListMap<ByteString, ByteString> tree = getTree(treeName);
+      final ByteString keyBytes = key.toByteString();
+      final ByteString oldValue = tree.remove(keyBytes);
+      if (oldValue != null)
+      {
+        undoLog.add(new UndoRecord(treeName, tree, keyBytes, oldValue));
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public void commit()
+    {
+      undoLog.clear();
+    }
+
+    @Override
+    public void close()
+    {
+      // Undo the changes of a transaction which has not committed, most recent first
+      for (int i = undoLog.size() - 1; i >= 0; i--)
+      {
+        final UndoRecord undo = undoLog.get(i);
+        if (undo.key != null)
+        {
+          if (undo.oldValue != null)
+          {
+            undo.tree.put(undo.key, undo.oldValue);
+          }
+          else
+          {
+            undo.tree.remove(undo.key);
+          }
+        }
+        else if (undo.tree != null)
+        {
+          trees.put(undo.treeName, undo.tree);
+        }
+        else
+        {
+          trees.remove(undo.treeName);
+        }
+      }
+      undoLog.clear();
+    }
+  }
+
+  /** In-memory read-only implementation of {@link StorageImpl} interface. */
+  private final class ReadOnlyStorageImpl implements StorageImpl
+  {
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      final NavigableMap<ByteString, ByteString> tree = trees.get(treeName);
+      return tree != null ? tree.get(key) : null;
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      return new TreeCursor(getTreeOrEmpty(treeName), null, treeName);
+    }
+
+    @Override
+    public long getRecordCount(final TreeName treeName)
+    {
+      return getTreeOrEmpty(treeName).size();
+    }
+
+    @Override
+    public void openTree(final TreeName treeName, final boolean createOnDemand)
+    {
+      if (createOnDemand)
+      {
+        throw new ReadOnlyStorageException();
+      }
+    }
+
+    @Override
+    public void deleteTree(final TreeName treeName)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public boolean delete(final TreeName treeName, final ByteSequence key)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public void commit()
+    {
+      // nothing to commit
+    }
+
+    @Override
+    public void close()
+    {
+      // nothing to undo
+    }
+  }
+
+  /** In-memory implementation of the {@link Importer} interface. */
+  private final class ImporterImpl implements Importer
+  {
+    private final ReadOnlyStorageImpl reader = new ReadOnlyStorageImpl();
+
+    @Override
+    public void clearTree(final TreeName treeName)
+    {
+      trees.put(treeName, new ConcurrentSkipListMap<ByteString, ByteString>());
+    }
+
+    @Override
+    public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
+    {
+      ConcurrentSkipListMap<ByteString, ByteString> tree = trees.get(treeName);
+      if (tree == null)
+      {
+        final ConcurrentSkipListMap<ByteString, ByteString> newTree = new ConcurrentSkipListMap<>();
+        tree = trees.putIfAbsent(treeName, newTree);
+        tree = tree != null ? tree : newTree;
+      }
+      tree.put(key.toByteString(), value.toByteString());
+    }
+
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      return reader.read(treeName, key);
+    }
+
+    @Override
+    public SequentialCursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      return reader.openCursor(treeName);
+    }
+
+    @Override
+    public void close()
+    {
+      InMemoryStorage.this.close();
+    }
+  }
+
+  /** Cursor over a tree, which sees the changes made to the tree while it is iterating. */
+  private static final class TreeCursor implements Cursor<ByteString, ByteString>
+  {
+    private final NavigableMap<ByteString, ByteString> tree;
+    /** The transaction deleting the records, or {@code null} if the cursor is read-only. */
+    private final WriteableTransaction txn;
+    private final TreeName treeName;
+    private Map.Entry<ByteString, ByteString> current;
+    private boolean isPositioned;
+
+    private TreeCursor(NavigableMap<ByteString, ByteString> tree, WriteableTransaction txn, TreeName treeName)
+    {
+      this.tree = tree;
+      this.txn = txn;
+      this.treeName = treeName;
+    }
+
+    @Override
+    public boolean positionToKey(final ByteSequence key)
+    {
+      final Map.Entry<ByteString, ByteString> entry = tree.ceilingEntry(key.toByteString());
+      return position(entry != null && entry.getKey().equals(key) ? entry : null);
+    }
+
+    @Override
+    public boolean positionToKeyOrNext(final ByteSequence key)
+    {
+      return position(tree.ceilingEntry(key.toByteString()));
+    }
+
+    @Override
+    public boolean positionToLastKey()
+    {
+      return position(tree.lastEntry());
+    }
+
+    @Override
+    public boolean positionToIndex(final int index)
+    {
+      int i = 0;
+      for (Map.Entry<ByteString, ByteString> entry : tree.entrySet())
+      {
+        if (i++ == index)
+        {
+          return position(entry);
+        }
+      }
+      return position(null);
+    }
+
+    @Override
+    public boolean next()
+    {
+      if (!isPositioned)
+      {
+        return position(tree.firstEntry());
+      }
+      return current != null && position(tree.higherEntry(current.getKey()));
+    }
+
+    private boolean position(final Map.Entry<ByteString, ByteString> entry)
+    {
+      isPositioned = true;
+      current = entry;
+      return entry != null;
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return current != null;
+    }
+
+    @Override
+    public ByteString getKey()
+    {
+      throwIfUndefined();
+      return current.getKey();
+    }
+
+    @Override
+    public ByteString getValue()
+    {
+      throwIfUndefined();
+      return current.getValue();
+    }
+
+    @Override
+    public void delete()
+    {
+      throwIfUndefined();
+      if (txn == null)
+      {
+        throw new UnsupportedOperationException();
+      }
+      txn.delete(treeName, current.getKey());
+    }
+
+    private void throwIfUndefined()
+    {
+      if (current == null)
+      {
+        throw new NoSuchElementException();
+      }
+    }
+
+    @Override
+    public void close()
+    {
+      current = null;
+    }
+  }
+
+  private StorageImpl newStorageImpl()
+  {
+    return accessMode.isWriteable() ? new WriteableStorageImpl() : new ReadOnlyStorageImpl();
+  }
+
+  private final File backendDirectory;
+  private AccessMode accessMode;
+  private InMemoryBackendCfg config;
+  private volatile boolean isOpen;
+
+  private final ConcurrentMap<TreeName, ConcurrentSkipListMap<ByteString, ByteString>> trees =
+      new ConcurrentHashMap<>();
+  /** Serializes the write transactions, so that each of them can undo its changes. */
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  /**
+   * Creates a new in-memory storage with the provided configuration.
+   *
+   * @param cfg
+   *          The configuration.
+   * @param serverContext
+   *          This server instance context
+   */
+  public InMemoryStorage(final InMemoryBackendCfg cfg, ServerContext serverContext)
+  {
+    backendDirectory = getBackendDirectory(cfg);
+    config = cfg;
+    cfg.addInMemoryChangeListener(this);
+  }
+
+  @Override
+  public void open(AccessMode accessMode) throws ConfigException, StorageRuntimeException
+  {
+    Reject.ifNull(accessMode, "accessMode must not be null");
+    open0(accessMode);
+  }
+
+  @Override
+  public Importer startImport() throws ConfigException, StorageRuntimeException
+  {
+    open0(AccessMode.READ_WRITE);
+    return new ImporterImpl();
+  }
+
+  private void open0(final AccessMode accessMode) throws ConfigException
+  {
+    if (isOpen)
+    {
+      throw new IllegalStateException(
+          "Database is already open, either the backend is enabled or an import is currently running.");
+    }
+    if (config.isDBSnapshotEnabled())
+    {
+      setupStorageFiles(backendDirectory, config.getDBDirectoryPermissions(), config.dn());
+      if (trees.isEmpty())
+      {
+        loadSnapshot();
+      }
+    }
+    this.accessMode = accessMode;
+    isOpen = true;
+  }
+
+  @Override
+  public void close()
+  {
+    if (isOpen && accessMode.isWriteable() && config.isDBSnapshotEnabled())
+    {
+      writeLock.lock();
+      try
+      {
+        writeSnapshot();
+      }
+      catch (IOException e)
+      {
+        logger.traceException(e);
+        logger.error(ERR_IN_MEMORY_SNAPSHOT_CANNOT_WRITE, config.getBackendId(), getSnapshotFile(),
+            stackTraceToSingleLineString(e));
+      }
+      finally
+      {
+        writeLock.unlock();
+      }
+    }
+    isOpen = false;
+    config.removeInMemoryChangeListener(this);
+  }
+
+  @Override
+  public <T> T read(final ReadOperation<T> operation) throws Exception
+  {
+    try
+    {
+      return operation.run(new ReadOnlyStorageImpl());
+    }
+    catch (final StorageRuntimeException e)
+    {
+      if (e.getCause() != null)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public void write(final WriteOperation operation) throws Exception
+  {
+    writeLock.lock();
+    try (final StorageImpl storageImpl = newStorageImpl())
+    {
+      operation.run(storageImpl);
+      storageImpl.commit();
+    }
+    catch (final StorageRuntimeException e)
+    {
+      if (e.getCause() != null)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+    finally
+    {
+      writeLock.unlock();
+    }
+  }
+
+  private ConcurrentSkipListMap<ByteString, ByteString> getTree(final TreeName treeName)
+  {
+    final ConcurrentSkipListMap<ByteString, ByteString> tree = trees.get(treeName);
+    if (tree == null)
+    {
+      throw new StorageRuntimeException("Tree " + treeName + " does not exist");
+    }
+    return tree;
+  }
+
+  private NavigableMap<ByteString, ByteString> getTreeOrEmpty(final TreeName treeName)
+  {
+    final NavigableMap<ByteString, ByteString> tree = trees.get(treeName);
+    return tree != null ? tree : new ConcurrentSkipListMap<ByteString, ByteString>();
+  }
+
+  private File getSnapshotFile()
+  {
+    return new File(backendDirectory, SNAPSHOT_NAME);
+  }
+
+  /** Writes all the trees to the snapshot file. Writes must be prevented while the snapshot is written. */
+  private void writeSnapshot() throws IOException
+  {
+    final File tmpFile = new File(backendDirectory, SNAPSHOT_NAME + ".tmp");
+    try (FileOutputStream fileOutput = new FileOutputStream(tmpFile);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput)))
+    {
+      output.writeLong(SNAPSHOT_MAGIC);
+      final List<TreeName> treeNames = new ArrayList<>(trees.keySet());
+      output.writeInt(treeNames.size());
+      for (TreeName treeName : treeNames)
+      {
+        output.writeUTF(treeName.toString());
+        for (Map.Entry<ByteString, ByteString> record : trees.get(treeName).entrySet())
+        {
+          output.writeInt(record.getKey().length());
+          record.getKey().copyTo(output);
+          output.writeInt(record.getValue().length());
+          record.getValue().copyTo(output);
+        }
+        output.writeInt(END_OF_TREE);
+      }
+      output.flush();
+      fileOutput.getFD().sync();
+    }
+    Files.move(tmpFile.toPath(), getSnapshotFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Replaces the contents of the storage with the contents of the snapshot file, if it exists. */
+  private void loadSnapshot()
+  {
+    trees.clear();
+    final File snapshotFile = getSnapshotFile();
+    if (!snapshotFile.exists())
+    {
+      return;
+    }
+    long nbRecords = 0;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile))))
+    {
+      if (input.readLong() != SNAPSHOT_MAGIC)
+      {
+        throw new IOException("Not a snapshot file");
+      }
+      for (int i = input.readInt(); i > 0; i--)
+      {
+        final TreeName treeName = TreeName.valueOf(input.readUTF());
+        final ConcurrentSkipListMap<ByteString, ByteString> tree = new ConcurrentSkipListMap<>();
+        for (int keyLength = input.readInt(); keyLength != END_OF_TREE; keyLength = input.readInt())
+        {
+          final ByteString key = readBytes(input, keyLength);
+          tree.put(key, readBytes(input, input.readInt()));
+          nbRecords++;
+        }
+        trees.put(treeName, tree);
+      }
+    }
+    catch (IOException e)
+    {
+      trees.clear();
+      throw new StorageRuntimeException(ERR_IN_MEMORY_SNAPSHOT_CANNOT_READ.get(
+          config.getBackendId(), snapshotFile, stackTraceToSingleLineString(e)).toString(), e);
+    }
+    logger.info(NOTE_IN_MEMORY_SNAPSHOT_LOADED, config.getBackendId(), nbRecords);
+  }
+
+  private static ByteString readBytes(final DataInputStream input, final int length) throws IOException
+  {
+    final byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return ByteString.wrap(bytes);
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return true;
+  }
+
+  @Override
+  public File getDirectory()
+  {
+    return getBackendDirectory(config);
+  }
+
+  private static File getBackendDirectory(InMemoryBackendCfg cfg)
+  {
+    return getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId());
+  }
+
+  @Override
+  public ListIterator<Path> getFilesToBackup() throws DirectoryException
+  {
+    return BackupManager.getFiles(getDirectory(), BACKUP_FILES_FILTER, config.getBackendId()).listIterator();
+  }
+
+  /** Filter to retrieve the snapshot file to backup. */
+  private static final FileFilter BACKUP_FILES_FILTER = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      return SNAPSHOT_NAME.equals(file.getName());
+    }
+  };
+
+  @Override
+  public Path beforeRestore() throws DirectoryException
+  {
+    return null;
+  }
+
+  @Override
+  public boolean isDirectRestore()
+  {
+    // restore is done in an intermediate directory
+    return false;
+  }
+
+  @Override
+  public void afterRestore(Path restoreDirectory, Path saveDirectory) throws DirectoryException
+  {
+    // intermediate directory content is moved to database directory
+    File targetDirectory = getDirectory();
+    recursiveDelete(targetDirectory);
+    try
+    {
+      Files.move(restoreDirectory, targetDirectory.toPath());
+    }
+    catch(IOException e)
+    {
+      LocalizableMessage msg = ERR_CANNOT_RENAME_RESTORE_DIRECTORY.get(restoreDirectory, targetDirectory.getPath());
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), msg);
+    }
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    // The backup is a snapshot of the trees, consistent since writes are prevented while it is written
+    writeLock.lock();
+    try
+    {
+      setupStorageFiles(backendDirectory, config.getDBDirectoryPermissions(), config.dn());
+      writeSnapshot();
+    }
+    catch (ConfigException | IOException e)
+    {
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), ERR_IN_MEMORY_SNAPSHOT_CANNOT_WRITE.get(
+          config.getBackendId(), getSnapshotFile(), stackTraceToSingleLineString(e)), e);
+    }
+    finally
+    {
+      writeLock.unlock();
+    }
+    new BackupManager(config.getBackendId()).createBackup(this, backupConfig);
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).restoreBackup(this, restoreConfig);
+    if (!restoreConfig.verifyOnly())
+    {
+      writeLock.lock();
+      try
+      {
+        loadSnapshot();
+      }
+      finally
+      {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    return new HashSet<>(trees.keySet());
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(InMemoryBackendCfg newCfg,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    return !newCfg.isDBSnapshotEnabled() || checkConfigurationDirectories(newCfg, unacceptableReasons);
+  }
+
+  /**
+   * Checks newly created backend has a valid configuration.
+   * @param cfg the new configuration
+   * @param unacceptableReasons the list of accumulated errors and their messages
+   * @param context the server context
+   * @return true if newly created backend has a valid configuration
+   */
+  static boolean isConfigurationAcceptable(InMemoryBackendCfg cfg, List<LocalizableMessage> unacceptableReasons,
+      ServerContext context)
+  {
+    return !cfg.isDBSnapshotEnabled() || checkConfigurationDirectories(cfg, unacceptableReasons);
+  }
+
+  private static boolean checkConfigurationDirectories(InMemoryBackendCfg cfg,
+    List<LocalizableMessage> unacceptableReasons)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    File newBackendDirectory = getBackendDirectory(cfg);
+
+    checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, true);
+    checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+    if (!ccr.getMessages().isEmpty())
+    {
+      unacceptableReasons.addAll(ccr.getMessages());
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(InMemoryBackendCfg cfg)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    if (!cfg.getDBDirectory().equals(config.getDBDirectory()))
+    {
+      ccr.setAdminActionRequired(true);
+      ccr.addMessage(NOTE_CONFIG_DB_DIR_REQUIRES_RESTART.get(config.getDBDirectory(), cfg.getDBDirectory()));
+    }
+    config = cfg;
+    return ccr;
+  }
+
+  @Override
+  public void removeStorageFiles() throws StorageRuntimeException
+  {
+    trees.clear();
+    StorageUtils.removeStorageFiles(backendDirectory);
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return StorageStatus.working();
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * A bloom filter over the keys of a segment, letting point reads skip the segments which cannot contain the key
+ * they are looking for without reading any of their blocks.
+ */
+final class BloomFilter
+{
+  /** The number of bits per key, giving a false positive rate of about 1%. */
+  static final int BITS_PER_KEY = 10;
+
+  private final long[] bits;
+  private final int nbHashes;
+
+  /**
+   * Creates an empty bloom filter sized for the provided number of keys.
+   *
+   * @param expectedNbKeys
+   *          The number of keys which will be added to this filter
+   */
+  BloomFilter(long expectedNbKeys)
+  {
+    this(new long[(int) Math.min(Integer.MAX_VALUE, Math.max(1, (expectedNbKeys * BITS_PER_KEY + 63) / 64))],
+        (int) Math.round(BITS_PER_KEY * Math.log(2)));
+  }
+
+  private BloomFilter(long[] bits, int nbHashes)
+  {
+    this.bits = bits;
+    this.nbHashes = nbHashes;
+  }
+
+  /**
+   * Adds the provided key to this filter.
+   *
+   * @param key
+   *          The key to add
+   */
+  void add(ByteSequence key)
+  {
+    final long hash = hash(key);
+    final long nbBits = bits.length * 64L;
+    for (int i = 0; i < nbHashes; i++)
+    {
+      final long bit = bitIndex(hash, i, nbBits);
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  /**
+   * Returns whether the provided key may have been added to this filter.
+   *
+   * @param key
+   *          The key to look for
+   * @return {@code false} if the key has definitely not been added to this filter, {@code true} otherwise
+   */
+  boolean mightContain(ByteSequence key)
+  {
+    final long hash = hash(key);
+    final long nbBits = bits.length * 64L;
+    for (int i = 0; i < nbHashes; i++)
+    {
+      final long bit = bitIndex(hash, i, nbBits);
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Double hashing: derives the i-th hash function from the two halves of a single 64 bits hash. */
+  private static long bitIndex(long hash, int i, long nbBits)
+  {
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 32);
+    return ((h1 + i * h2) & Integer.MAX_VALUE) % nbBits;
+  }
+
+  /** 64 bits FNV-1a hash, followed by a final mix spreading the low entropy of short keys to all the bits. */
+  private static long hash(ByteSequence key)
+  {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++)
+    {
+      hash ^= key.byteAt(i) & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * Appends the encoding of this filter to the provided builder.
+   *
+   * @param builder
+   *          The builder where to append this filter
+   */
+  void encode(ByteStringBuilder builder)
+  {
+    builder.appendInt(nbHashes);
+    builder.appendInt(bits.length);
+    for (long l : bits)
+    {
+      builder.appendLong(l);
+    }
+  }
+
+  /**
+   * Decodes a filter encoded by {@link #encode(ByteStringBuilder)}.
+   *
+   * @param reader
+   *          The reader positioned at the beginning of the encoded filter
+   * @return the decoded filter
+   */
+  static BloomFilter decode(ByteSequenceReader reader)
+  {
+    final int nbHashes = reader.readInt();
+    final long[] bits = new long[reader.readInt()];
+    for (int i = 0; i < bits.length; i++)
+    {
+      bits[i] = reader.readLong();
+    }
+    return new BloomFilter(bits, nbHashes);
+  }
+}
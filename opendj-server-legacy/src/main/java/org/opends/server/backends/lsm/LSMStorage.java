@@ -0,0 +1,1658 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.messages.UtilityMessages.*;
+import static org.opends.server.backends.pluggable.spi.StorageUtils.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.server.config.server.LSMBackendCfg;
+import org.forgerock.util.Reject;
+import org.opends.server.api.Backupable;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.DiskSpaceMonitorHandler;
+import org.opends.server.backends.lsm.Run.RecordIterator;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageInUseException;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+import org.opends.server.util.BackupManager;
+
+/**
+ * Log-structured merge tree implementation of the {@link Storage} engine.
+ * <p>
+ * Committed changes are appended to a write-ahead log and applied to per tree memtables. Once the memtables are
+ * large enough, a background thread flushes each of them to an immutable sorted segment file, then merges the
+ * segments of similar sizes so that reads only have to look at a few of them. All the disk writes are sequential,
+ * and each record is rewritten a logarithmic number of times.
+ * <p>
+ * The trees and their segments are listed in a manifest file, rewritten after each flush or merge. On startup, the
+ * changes of the write-ahead log files which have not been flushed yet are replayed into the memtables.
+ * <p>
+ * Write transactions buffer their changes until they commit, and lock the records they read or write until then:
+ * conflicting transactions fail to acquire a lock in time and are retried. The changes of a transaction are applied
+ * to the memtables, hence visible to the readers, once the log has been synced, unless syncing is disabled.
+ */
+public final class LSMStorage implements Storage, Backupable, ConfigurationChangeListener<LSMBackendCfg>,
+  DiskSpaceMonitorHandler
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final String MANIFEST_NAME = "manifest";
+  private static final String LOCK_NAME = "lock";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String LOG_SUFFIX = ".log";
+  private static final int MANIFEST_VERSION = 1;
+
+  /** Write-ahead log record types. */
+  private static final byte COMMIT = 0;
+  private static final byte CREATE_TREE = 1;
+  private static final byte DELETE_TREE = 2;
+  /** Committed change types. */
+  private static final byte PUT = 0;
+  private static final byte DELETE = 1;
+
+  /** The minimum number of segments of similar sizes merged together. */
+  private static final int MIN_SEGMENTS_TO_MERGE = 4;
+  /** The number of segments of a tree above which segments are merged regardless of their sizes. */
+  private static final int MAX_SEGMENTS = 12;
+  /** The maximum size ratio between a segment and the more recent segments it is merged with. */
+  private static final int MERGE_SIZE_RATIO = 2;
+
+  private static final int NB_LOCKS = 1024;
+  private static final long LOCK_TIMEOUT_MS = 100;
+  private static final double MAX_SLEEP_ON_RETRY_MS = 50.0;
+
+  /** Thrown when a write transaction cannot lock a record, it is then retried. */
+  private static final class LockConflictException extends StorageRuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+
+    private LockConflictException()
+    {
+      super("Could not lock a record in time");
+    }
+  }
+
+  /** Common interface for internal WriteableTransaction implementations. */
+  private interface StorageImpl extends WriteableTransaction, Closeable
+  {
+    /**
+     * Makes the changes of this transaction durable and visible.
+     *
+     * @throws IOException
+     *           If the changes cannot be written to the write-ahead log
+     */
+    void commit() throws IOException;
+  }
+
+  /**
+   * LSM implementation of the {@link WriteableTransaction} interface: changes are buffered in a memtable per tree
+   * until the transaction commits, and the records read or written are locked until the transaction is closed.
+   */
+  private final class WriteableStorageImpl implements StorageImpl
+  {
+    private final Map<Tree, MemTable> pendingWrites = new LinkedHashMap<>();
+    private final BitSet heldLocks = new BitSet(NB_LOCKS);
+
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      final Tree tree = trees.get(treeName);
+      if (tree == null)
+      {
+        return null;
+      }
+      final ByteString keyBytes = key.toByteString();
+      lock(tree, keyBytes);
+      return readLocked(tree, keyBytes);
+    }
+
+    private ByteString readLocked(final Tree tree, final ByteSequence key)
+    {
+      final MemTable writes = pendingWrites.get(tree);
+      ByteString value = writes != null ? writes.get(key) : null;
+      if (value == null)
+      {
+        value = readCommitted(tree, key);
+      }
+      return value != Run.TOMBSTONE ? value : null;
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      final Tree tree = trees.get(treeName);
+      if (tree == null)
+      {
+        return new MergedCursor(null, Collections.<Run> emptyList(), this, treeName);
+      }
+      final Tree.Version version = tree.acquire();
+      final List<Run> runs = version.getRuns();
+      runs.add(0, getPendingWrites(tree));
+      return new MergedCursor(version, runs, this, treeName);
+    }
+
+    @Override
+    public long getRecordCount(final TreeName treeName)
+    {
+      return countRecords(openCursor(treeName));
+    }
+
+    @Override
+    public void openTree(final TreeName treeName, final boolean createOnDemand)
+    {
+      if (createOnDemand)
+      {
+        openOrCreateTree(treeName);
+      }
+    }
+
+    @Override
+    public void deleteTree(final TreeName treeName)
+    {
+      final Tree tree = trees.get(treeName);
+      if (tree != null)
+      {
+        pendingWrites.remove(tree);
+        LSMStorage.this.deleteTree(tree);
+      }
+    }
+
+    @Override
+    public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
+    {
+      final Tree tree = getTree(treeName);
+      final ByteString keyBytes = key.toByteString();
+      lock(tree, keyBytes);
+      getPendingWrites(tree).put(keyBytes, value.toByteString());
+    }
+
+    @Override
+    public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
+    {
+      final Tree tree = getTree(treeName);
+      final ByteString keyBytes = key.toByteString();
+      lock(tree, keyBytes);
+      final ByteString oldValue = readLocked(tree, keyBytes);
+      final ByteSequence newValue = f.computeNewValue(oldValue);
+      if (!Objects.equals(newValue, oldValue))
+      {
+        getPendingWrites(tree).put(keyBytes, newValue != null ? newValue.toByteString() : Run.TOMBSTONE);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public boolean delete(final TreeName treeName, final ByteSequence key)
+    {
+      final Tree tree = getTree(treeName);
+      final ByteString keyBytes = key.toByteString();
+      lock(tree, keyBytes);
+      if (readLocked(tree, keyBytes) != null)
+      {
+        getPendingWrites(tree).put(keyBytes, Run.TOMBSTONE);
+        return true;
+      }
+      return false;
+    }
+
+    private MemTable getPendingWrites(final Tree tree)
+    {
+      MemTable writes = pendingWrites.get(tree);
+      if (writes == null)
+      {
+        writes = new MemTable();
+        pendingWrites.put(tree, writes);
+      }
+      return writes;
+    }
+
+    private void lock(final Tree tree, final ByteSequence key)
+    {
+      final int index = (int) ((tree.getId() * 31 + key.hashCode()) & (NB_LOCKS - 1));
+      if (!heldLocks.get(index))
+      {
+        try
+        {
+          if (!locks[index].tryLock(LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+          {
+            throw new LockConflictException();
+          }
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new StorageRuntimeException(e);
+        }
+        heldLocks.set(index);
+      }
+    }
+
+    @Override
+    public void commit() throws IOException
+    {
+      LSMStorage.this.commit(pendingWrites);
+    }
+
+    @Override
+    public void close()
+    {
+      for (int i = heldLocks.nextSetBit(0); i >= 0; i = heldLocks.nextSetBit(i + 1))
+      {
+        locks[i].unlock();
+      }
+      heldLocks.clear();
+    }
+  }
+
+  /** LSM read-only implementation of {@link StorageImpl} interface, reading the committed records without locking. */
+  private final class ReadOnlyStorageImpl implements StorageImpl
+  {
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      final Tree tree = trees.get(treeName);
+      if (tree == null)
+      {
+        return null;
+      }
+      final ByteString value = readCommitted(tree, key);
+      return value != Run.TOMBSTONE ? value : null;
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      final Tree tree = trees.get(treeName);
+      if (tree == null)
+      {
+        return new MergedCursor(null, Collections.<Run> emptyList(), this, treeName);
+      }
+      final Tree.Version version = tree.acquire();
+      return new MergedCursor(version, version.getRuns(), this, treeName);
+    }
+
+    @Override
+    public long getRecordCount(final TreeName treeName)
+    {
+      return countRecords(openCursor(treeName));
+    }
+
+    @Override
+    public void openTree(final TreeName treeName, final boolean createOnDemand)
+    {
+      if (createOnDemand)
+      {
+        throw new ReadOnlyStorageException();
+      }
+    }
+
+    @Override
+    public void deleteTree(final TreeName treeName)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public boolean delete(final TreeName treeName, final ByteSequence key)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public void commit()
+    {
+      // nothing to commit
+    }
+
+    @Override
+    public void close()
+    {
+      // nothing to release
+    }
+  }
+
+  /** LSM implementation of the {@link Importer} interface: records are written to the memtables without logging. */
+  private final class ImporterImpl implements Importer
+  {
+    private final ReadOnlyStorageImpl reader = new ReadOnlyStorageImpl();
+
+    @Override
+    public void clearTree(final TreeName treeName)
+    {
+      final Tree tree = trees.get(treeName);
+      if (tree != null)
+      {
+        deleteTree(tree);
+      }
+      openOrCreateTree(treeName);
+    }
+
+    @Override
+    public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
+    {
+      final Tree tree = openOrCreateTree(treeName);
+      memTablesLock.readLock().lock();
+      try
+      {
+        memTablesSize.addAndGet(tree.getMemTable().put(key.toByteString(), value.toByteString()));
+      }
+      finally
+      {
+        memTablesLock.readLock().unlock();
+      }
+      throttleWrites();
+    }
+
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      return reader.read(treeName, key);
+    }
+
+    @Override
+    public SequentialCursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      return reader.openCursor(treeName);
+    }
+
+    @Override
+    public void close()
+    {
+      LSMStorage.this.close();
+    }
+  }
+
+  private StorageImpl newStorageImpl()
+  {
+    return accessMode.isWriteable() ? new WriteableStorageImpl() : new ReadOnlyStorageImpl();
+  }
+
+  private final ServerContext serverContext;
+  private final File backendDirectory;
+  private AccessMode accessMode;
+  private LSMBackendCfg config;
+  private DiskSpaceMonitor diskMonitor;
+  private MemoryQuota memQuota;
+  private StorageStatus storageStatus = StorageStatus.working();
+  private volatile boolean isOpen;
+  private FileChannel lockFile;
+  private FileLock lock;
+
+  private final ConcurrentMap<TreeName, Tree> trees = new ConcurrentHashMap<>();
+  /** The next ID to use for naming a segment or log file. */
+  private final AtomicLong nextFileId = new AtomicLong();
+  private final AtomicLong nextTreeId = new AtomicLong();
+  /** The ID of the first log file holding changes which have not been flushed yet. */
+  private volatile long logStart;
+  /** The ID of the log file created when the memtables have last been frozen. */
+  private long frozenLogId;
+  /** The log receiving the commits, {@code null} when importing or when the storage is read-only. */
+  private WriteAheadLog log;
+
+  /** Serializes the commits, and the changes to the list of trees. */
+  private final ReentrantLock commitLock = new ReentrantLock();
+  /** Prevents the memtables from being frozen while the importer or a commit writes to them. */
+  private final ReentrantReadWriteLock memTablesLock = new ReentrantReadWriteLock();
+  private final AtomicLong memTablesSize = new AtomicLong();
+  private volatile long maxMemTablesSize;
+  private volatile boolean syncCommits;
+  private final ReentrantLock[] locks = new ReentrantLock[NB_LOCKS];
+
+  private volatile ExecutorService maintenance;
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  /** Notified when the memtables have been frozen, letting throttled writes resume. */
+  private final Object flushMonitor = new Object();
+
+  /** Guards the manifest file, and the deletion of files while backups are in progress. */
+  private final Object manifestLock = new Object();
+  private final Queue<File> obsoleteFiles = new ConcurrentLinkedQueue<>();
+  /** Guarded by manifestLock. */
+  private int backupsInProgress;
+  /** Guarded by manifestLock. */
+  private boolean manifestOutdated;
+
+  /**
+   * Creates a new LSM storage with the provided configuration.
+   *
+   * @param cfg
+   *          The configuration.
+   * @param serverContext
+   *          This server instance context
+   * @throws ConfigException if memory cannot be reserved
+   */
+  public LSMStorage(final LSMBackendCfg cfg, ServerContext serverContext) throws ConfigException
+  {
+    this.serverContext = serverContext;
+    backendDirectory = getBackendDirectory(cfg);
+    config = cfg;
+    for (int i = 0; i < locks.length; i++)
+    {
+      locks[i] = new ReentrantLock();
+    }
+    cfg.addLSMChangeListener(this);
+  }
+
+  @Override
+  public void open(AccessMode accessMode) throws ConfigException, StorageRuntimeException
+  {
+    Reject.ifNull(accessMode, "accessMode must not be null");
+    open0(accessMode, accessMode.isWriteable());
+  }
+
+  @Override
+  public Importer startImport() throws ConfigException, StorageRuntimeException
+  {
+    open0(AccessMode.READ_WRITE, false);
+    return new ImporterImpl();
+  }
+
+  private void open0(final AccessMode accessMode, final boolean useLog) throws ConfigException
+  {
+    setupStorageFiles(backendDirectory, config.getDBDirectoryPermissions(), config.dn());
+    if (isOpen)
+    {
+      throw new IllegalStateException(
+          "Database is already open, either the backend is enabled or an import is currently running.");
+    }
+    this.accessMode = accessMode;
+    diskMonitor = serverContext.getDiskSpaceMonitor();
+    memQuota = serverContext.getMemoryQuota();
+    memQuota.acquireMemory(computeSize(config));
+    maxMemTablesSize = config.getDBMemtableSize();
+    syncCommits = !config.isDBTxnNoSync();
+    try
+    {
+      lockStorageFiles();
+      recover();
+      if (accessMode.isWriteable())
+      {
+        // The replayed changes are in the memtables, the logs holding them can be deleted once they are flushed
+        frozenLogId = nextFileId.get();
+        if (useLog)
+        {
+          log = newLog();
+        }
+        maintenance = Executors.newSingleThreadExecutor(
+            new DirectoryThread.Factory(config.getBackendId() + " LSM Storage Maintenance"));
+        scheduleFlush();
+      }
+      isOpen = true;
+    }
+    catch (final IOException | RuntimeException e)
+    {
+      closeTrees();
+      unlockStorageFiles();
+      memQuota.releaseMemory(computeSize(config));
+      throw e instanceof StorageRuntimeException ? (StorageRuntimeException) e : new StorageRuntimeException(e);
+    }
+    registerMonitoredDirectory(config);
+  }
+
+  private void lockStorageFiles() throws IOException
+  {
+    lockFile = FileChannel.open(new File(backendDirectory, LOCK_NAME).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try
+    {
+      // Read-only accesses may share the storage, but not with a writer
+      lock = lockFile.tryLock(0, Long.MAX_VALUE, !accessMode.isWriteable());
+    }
+    catch (OverlappingFileLockException e)
+    {
+      lock = null;
+    }
+    if (lock == null)
+    {
+      unlockStorageFiles();
+      throw new StorageInUseException(backendDirectory.getPath());
+    }
+  }
+
+  private void unlockStorageFiles()
+  {
+    closeSilently(lockFile);
+    lockFile = null;
+    lock = null;
+  }
+
+  /** Opens the segments listed in the manifest, then replays the changes of the write-ahead log files. */
+  private void recover() throws IOException
+  {
+    trees.clear();
+    nextFileId.set(1);
+    nextTreeId.set(1);
+    logStart = 1;
+    final Map<Long, Tree> treesById = new HashMap<>();
+    final Set<Long> segmentIds = new HashSet<>();
+    final File manifestFile = new File(backendDirectory, MANIFEST_NAME);
+    if (manifestFile.exists())
+    {
+      final ByteSequenceReader manifest = readManifest(manifestFile);
+      nextFileId.set(manifest.readLong());
+      nextTreeId.set(manifest.readLong());
+      logStart = manifest.readLong();
+      for (int i = manifest.readCompactUnsignedInt(); i > 0; i--)
+      {
+        final long treeId = manifest.readCompactUnsignedLong();
+        final TreeName treeName = TreeName.valueOf(manifest.readStringUtf8(manifest.readCompactUnsignedInt()));
+        final List<Segment> segments = new ArrayList<>();
+        for (int j = manifest.readCompactUnsignedInt(); j > 0; j--)
+        {
+          final long segmentId = manifest.readCompactUnsignedLong();
+          segments.add(openSegment(segmentId));
+          segmentIds.add(segmentId);
+        }
+        final Tree tree = new Tree(treeName, treeId, segments);
+        trees.put(treeName, tree);
+        treesById.put(treeId, tree);
+      }
+    }
+
+    // Files written after the manifest are either logs to replay or segments to discard
+    final List<Long> logIds = new ArrayList<>();
+    long maxFileId = nextFileId.get() - 1;
+    for (File file : listStorageFiles())
+    {
+      final long fileId = getFileId(file);
+      maxFileId = Math.max(maxFileId, fileId);
+      if (file.getName().endsWith(LOG_SUFFIX) && fileId >= logStart)
+      {
+        logIds.add(fileId);
+      }
+      else if (accessMode.isWriteable() && !segmentIds.contains(fileId))
+      {
+        file.delete();
+      }
+    }
+    nextFileId.set(maxFileId + 1);
+
+    Collections.sort(logIds);
+    long nbRecovered = 0;
+    for (long logId : logIds)
+    {
+      for (ByteString record : WriteAheadLog.read(logFile(logId)))
+      {
+        nbRecovered += replay(record, treesById);
+      }
+    }
+    if (nbRecovered > 0)
+    {
+      logger.info(NOTE_LSM_LOG_RECOVERED, config.getBackendId(), nbRecovered);
+    }
+  }
+
+  private int replay(final ByteString record, final Map<Long, Tree> treesById)
+  {
+    final ByteSequenceReader reader = record.asReader();
+    final byte type = reader.readByte();
+    final long treeId = reader.readCompactUnsignedLong();
+    switch (type)
+    {
+    case COMMIT:
+      Tree tree = treesById.get(treeId);
+      while (reader.remaining() > 0)
+      {
+        final byte change = reader.readByte();
+        final ByteString key = readBytes(reader);
+        final ByteString value = change == PUT ? readBytes(reader) : Run.TOMBSTONE;
+        if (tree != null)
+        {
+          memTablesSize.addAndGet(tree.getMemTable().put(key, value));
+        }
+        if (reader.remaining() > 0)
+        {
+          tree = treesById.get(reader.readCompactUnsignedLong());
+        }
+      }
+      return 1;
+
+    case CREATE_TREE:
+      final TreeName treeName = TreeName.valueOf(reader.readStringUtf8(reader.remaining()));
+      if (!treesById.containsKey(treeId))
+      {
+        final Tree newTree = new Tree(treeName, treeId, Collections.<Segment> emptyList());
+        trees.put(treeName, newTree);
+        treesById.put(treeId, newTree);
+        nextTreeId.set(Math.max(nextTreeId.get(), treeId + 1));
+      }
+      return 0;
+
+    case DELETE_TREE:
+      final Tree deletedTree = treesById.remove(treeId);
+      if (deletedTree != null)
+      {
+        trees.remove(deletedTree.getName());
+        deletedTree.delete();
+      }
+      return 0;
+
+    default:
+      throw new StorageRuntimeException(ERR_LSM_CORRUPTED_FILE.get(
+          MANIFEST_NAME, config.getBackendId(), "unknown log record type " + type).toString());
+    }
+  }
+
+  /** Copies the bytes, so that the memtables do not retain the whole log file. */
+  private static ByteString readBytes(final ByteSequenceReader reader)
+  {
+    return ByteString.wrap(reader.readByteSequence(reader.readCompactUnsignedInt()).toByteArray());
+  }
+
+  private Segment openSegment(final long segmentId) throws IOException
+  {
+    final File file = segmentFile(segmentId);
+    try
+    {
+      return Segment.open(segmentId, file, obsoleteFiles);
+    }
+    catch (final IOException e)
+    {
+      throw new StorageRuntimeException(
+          ERR_LSM_CORRUPTED_FILE.get(file, config.getBackendId(), stackTraceToSingleLineString(e)).toString(), e);
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    if (isOpen)
+    {
+      final ExecutorService executor = maintenance;
+      maintenance = null;
+      try
+      {
+        if (executor != null)
+        {
+          executor.shutdown();
+          executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+          flushMemTables();
+        }
+        if (log != null)
+        {
+          log.close();
+          log = null;
+        }
+      }
+      catch (final IOException e)
+      {
+        logger.traceException(e);
+        logger.error(ERR_LSM_MAINTENANCE_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+      }
+      catch (final InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      finally
+      {
+        synchronized (flushMonitor)
+        {
+          flushMonitor.notifyAll();
+        }
+        closeTrees();
+        unlockStorageFiles();
+        isOpen = false;
+      }
+      memQuota.releaseMemory(computeSize(config));
+    }
+    config.removeLSMChangeListener(this);
+    if (diskMonitor != null)
+    {
+      diskMonitor.deregisterMonitoredDirectory(getDirectory(), this);
+    }
+  }
+
+  private void closeTrees()
+  {
+    for (Tree tree : trees.values())
+    {
+      tree.close();
+    }
+    trees.clear();
+    obsoleteFiles.clear();
+  }
+
+  @Override
+  public <T> T read(final ReadOperation<T> operation) throws Exception
+  {
+    try (final StorageImpl storageImpl = new ReadOnlyStorageImpl())
+    {
+      return operation.run(storageImpl);
+    }
+    catch (final StorageRuntimeException e)
+    {
+      if (e.getCause() != null)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public void write(final WriteOperation operation) throws Exception
+  {
+    for (;;)
+    {
+      try (final StorageImpl storageImpl = newStorageImpl())
+      {
+        operation.run(storageImpl);
+        storageImpl.commit();
+      }
+      catch (final Exception e)
+      {
+        if (isLockConflict(e))
+        {
+          // retry after random sleep (reduces transactions collision. Drawback: increased latency)
+          Thread.sleep((long) (Math.random() * MAX_SLEEP_ON_RETRY_MS));
+          continue;
+        }
+        if (e instanceof StorageRuntimeException && e.getCause() != null)
+        {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+      throttleWrites();
+      return;
+    }
+  }
+
+  private static boolean isLockConflict(final Throwable t)
+  {
+    for (Throwable cause = t; cause != null; cause = cause.getCause())
+    {
+      if (cause instanceof LockConflictException)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private ByteString readCommitted(final Tree tree, final ByteSequence key)
+  {
+    final Tree.Version version = tree.acquire();
+    try
+    {
+      return version.get(key);
+    }
+    finally
+    {
+      version.release();
+    }
+  }
+
+  private static long countRecords(final Cursor<?, ?> cursor)
+  {
+    try
+    {
+      long count = 0;
+      while (cursor.next())
+      {
+        count++;
+      }
+      return count;
+    }
+    finally
+    {
+      cursor.close();
+    }
+  }
+
+  private Tree getTree(final TreeName treeName)
+  {
+    final Tree tree = trees.get(treeName);
+    if (tree == null)
+    {
+      throw new StorageRuntimeException("Tree " + treeName + " does not exist");
+    }
+    return tree;
+  }
+
+  private Tree openOrCreateTree(final TreeName treeName)
+  {
+    Tree tree = trees.get(treeName);
+    if (tree != null)
+    {
+      return tree;
+    }
+    commitLock.lock();
+    try
+    {
+      tree = trees.get(treeName);
+      if (tree == null)
+      {
+        tree = new Tree(treeName, nextTreeId.getAndIncrement(), Collections.<Segment> emptyList());
+        if (log != null)
+        {
+          final ByteStringBuilder record = new ByteStringBuilder();
+          record.appendByte(CREATE_TREE).appendCompactUnsigned(tree.getId()).appendUtf8(treeName.toString());
+          log.sync(log.append(record));
+        }
+        trees.put(treeName, tree);
+      }
+      return tree;
+    }
+    catch (final IOException e)
+    {
+      throw new StorageRuntimeException(e);
+    }
+    finally
+    {
+      commitLock.unlock();
+    }
+  }
+
+  private void deleteTree(final Tree tree)
+  {
+    commitLock.lock();
+    try
+    {
+      if (trees.remove(tree.getName(), tree))
+      {
+        if (log != null)
+        {
+          final ByteStringBuilder record = new ByteStringBuilder();
+          record.appendByte(DELETE_TREE).appendCompactUnsigned(tree.getId());
+          log.sync(log.append(record));
+        }
+        tree.delete();
+      }
+    }
+    catch (final IOException e)
+    {
+      throw new StorageRuntimeException(e);
+    }
+    finally
+    {
+      commitLock.unlock();
+    }
+  }
+
+  /**
+   * Logs then applies the changes of a transaction to the memtables. The changes are only visible to readers once
+   * they are durable.
+   */
+  private void commit(final Map<Tree, MemTable> pendingWrites) throws IOException
+  {
+    if (pendingWrites.isEmpty())
+    {
+      return;
+    }
+    final WriteAheadLog commitLog;
+    final long logPosition;
+    commitLock.lock();
+    try
+    {
+      final ByteStringBuilder record = new ByteStringBuilder();
+      record.appendByte(COMMIT);
+      for (Map.Entry<Tree, MemTable> writes : pendingWrites.entrySet())
+      {
+        final Tree tree = writes.getKey();
+        if (tree.isDeleted())
+        {
+          continue;
+        }
+        final RecordIterator changes = writes.getValue().iterator();
+        for (boolean hasChange = changes.seek(null); hasChange; hasChange = changes.next())
+        {
+          final ByteString value = changes.getValue();
+          record.appendCompactUnsigned(tree.getId());
+          record.appendByte(value != Run.TOMBSTONE ? PUT : DELETE);
+          record.appendCompactUnsigned(changes.getKey().length()).appendBytes(changes.getKey());
+          if (value != Run.TOMBSTONE)
+          {
+            record.appendCompactUnsigned(value.length()).appendBytes(value);
+          }
+        }
+      }
+
+      if (record.length() == 1)
+      {
+        // all the changed trees have been deleted
+        return;
+      }
+      commitLog = log;
+      logPosition = commitLog != null ? commitLog.append(record) : 0;
+      // The changes must reach the memtables frozen with the log they have been appended to
+      memTablesLock.readLock().lock();
+    }
+    finally
+    {
+      commitLock.unlock();
+    }
+
+    try
+    {
+      if (commitLog != null && syncCommits)
+      {
+        // Outside of the commit lock: concurrent commits are synced together
+        commitLog.sync(logPosition);
+      }
+      // The records written by this transaction are still locked, so concurrent commits cannot reorder their changes
+      for (Map.Entry<Tree, MemTable> writes : pendingWrites.entrySet())
+      {
+        final Tree tree = writes.getKey();
+        if (tree.isDeleted())
+        {
+          continue;
+        }
+        final MemTable memTable = tree.getMemTable();
+        final RecordIterator changes = writes.getValue().iterator();
+        for (boolean hasChange = changes.seek(null); hasChange; hasChange = changes.next())
+        {
+          memTablesSize.addAndGet(memTable.put(changes.getKey(), changes.getValue()));
+        }
+      }
+    }
+    finally
+    {
+      memTablesLock.readLock().unlock();
+    }
+  }
+
+  /** Schedules a flush once the memtables are full, and blocks writers when flushes cannot keep up. */
+  private void throttleWrites()
+  {
+    if (memTablesSize.get() < maxMemTablesSize)
+    {
+      return;
+    }
+    scheduleFlush();
+    synchronized (flushMonitor)
+    {
+      while (memTablesSize.get() >= 2 * maxMemTablesSize && maintenance != null)
+      {
+        try
+        {
+          flushMonitor.wait(100);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void scheduleFlush()
+  {
+    final ExecutorService executor = maintenance;
+    if (executor != null && flushScheduled.compareAndSet(false, true))
+    {
+      try
+      {
+        executor.execute(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            flushScheduled.set(false);
+            try
+            {
+              flushMemTables();
+              mergeSegments();
+            }
+            catch (Exception e)
+            {
+              logger.traceException(e);
+              logger.error(ERR_LSM_MAINTENANCE_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+            }
+          }
+        });
+      }
+      catch (RejectedExecutionException e)
+      {
+        // the storage is being closed, it will flush the memtables
+        flushScheduled.set(false);
+      }
+    }
+  }
+
+  /**
+   * Writes the content of the memtables to new segments. Only called by the maintenance thread, or once it has been
+   * stopped.
+   */
+  private void flushMemTables() throws IOException
+  {
+    if (!hasFrozenMemTables())
+    {
+      freezeMemTables();
+    }
+    // else retry flushing the memtables which could not be flushed last time
+    for (Tree tree : trees.values())
+    {
+      final Tree.Version version = tree.acquire();
+      try
+      {
+        final MemTable memTable = version.getFlushedMemTable();
+        if (memTable != null)
+        {
+          final boolean isOldestRun = version.getSegments().isEmpty();
+          tree.memTableFlushed(writeSegment(memTable.iterator(), memTable.getNbRecords(), isOldestRun));
+        }
+      }
+      finally
+      {
+        version.release();
+      }
+    }
+    logStart = frozenLogId;
+    writeManifest();
+  }
+
+  private boolean hasFrozenMemTables()
+  {
+    for (Tree tree : trees.values())
+    {
+      final Tree.Version version = tree.acquire();
+      try
+      {
+        if (version.getFlushedMemTable() != null)
+        {
+          return true;
+        }
+      }
+      finally
+      {
+        version.release();
+      }
+    }
+    return false;
+  }
+
+  /** Replaces the memtables with empty ones, and starts a new log file for the changes written to them. */
+  private void freezeMemTables() throws IOException
+  {
+    commitLock.lock();
+    try
+    {
+      memTablesLock.writeLock().lock();
+      try
+      {
+        for (Tree tree : trees.values())
+        {
+          tree.freezeMemTable();
+        }
+        memTablesSize.set(0);
+      }
+      finally
+      {
+        memTablesLock.writeLock().unlock();
+      }
+      if (log != null)
+      {
+        log.close();
+        log = newLog();
+        frozenLogId = getFileId(log.getFile());
+      }
+    }
+    finally
+    {
+      commitLock.unlock();
+    }
+    synchronized (flushMonitor)
+    {
+      flushMonitor.notifyAll();
+    }
+  }
+
+  /** Merges the segments of each tree until none needs to be merged. Only called by the maintenance thread. */
+  private void mergeSegments() throws IOException
+  {
+    for (Tree tree : trees.values())
+    {
+      while (maintenance != null && mergeSegments(tree))
+      {
+        writeManifest();
+      }
+    }
+  }
+
+  private boolean mergeSegments(final Tree tree) throws IOException
+  {
+    final Tree.Version version = tree.acquire();
+    try
+    {
+      final List<Segment> segments = version.getSegments();
+      final int nbSegments = getNbSegmentsToMerge(segments);
+      if (nbSegments < 2)
+      {
+        return false;
+      }
+      final List<Segment> merged = new ArrayList<>(segments.subList(0, nbSegments));
+      final List<RecordIterator> iterators = new ArrayList<>(nbSegments);
+      long nbRecords = 0;
+      for (Segment segment : merged)
+      {
+        iterators.add(segment.iterator());
+        nbRecords += segment.getNbRecords();
+      }
+      // Deleted records can only be dropped when no older segment may contain them
+      final boolean isOldestRun = nbSegments == segments.size();
+      final RecordIterator records = new MergingIterator(iterators, !isOldestRun);
+      tree.segmentsCompacted(merged, writeSegment(records, nbRecords, isOldestRun));
+      return true;
+    }
+    finally
+    {
+      version.release();
+    }
+  }
+
+  /**
+   * Returns how many of the most recent segments should be merged together: segments are merged once there are
+   * enough of them with similar sizes, so that each record is merged a logarithmic number of times.
+   */
+  private static int getNbSegmentsToMerge(final List<Segment> segments)
+  {
+    int nbSegments = 1;
+    long mergedSize = segments.isEmpty() ? 0 : segments.get(0).size();
+    while (nbSegments < segments.size() && segments.get(nbSegments).size() <= MERGE_SIZE_RATIO * mergedSize)
+    {
+      mergedSize += segments.get(nbSegments).size();
+      nbSegments++;
+    }
+    if (nbSegments >= MIN_SEGMENTS_TO_MERGE)
+    {
+      return nbSegments;
+    }
+    return segments.size() > MAX_SEGMENTS ? Math.max(nbSegments, 2) : 0;
+  }
+
+  private Segment writeSegment(final RecordIterator records, final long expectedNbRecords,
+      final boolean dropDeletedRecords) throws IOException
+  {
+    final long segmentId = nextFileId.getAndIncrement();
+    return Segment.write(segmentId, segmentFile(segmentId), records, expectedNbRecords, dropDeletedRecords,
+        obsoleteFiles);
+  }
+
+  private WriteAheadLog newLog() throws IOException
+  {
+    return new WriteAheadLog(logFile(nextFileId.getAndIncrement()));
+  }
+
+  private File segmentFile(final long segmentId)
+  {
+    return new File(backendDirectory, segmentId + SEGMENT_SUFFIX);
+  }
+
+  private File logFile(final long logId)
+  {
+    return new File(backendDirectory, logId + LOG_SUFFIX);
+  }
+
+  private static long getFileId(final File file)
+  {
+    final String name = file.getName();
+    return Long.parseLong(name.substring(0, name.lastIndexOf('.')));
+  }
+
+  private List<File> listStorageFiles()
+  {
+    final File[] files = backendDirectory.listFiles(STORAGE_FILES_FILTER);
+    return files != null ? Arrays.asList(files) : Collections.<File> emptyList();
+  }
+
+  /** Filter to retrieve the segment and log files. */
+  private static final FileFilter STORAGE_FILES_FILTER = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      return file.getName().matches("\\d+(" + SEGMENT_SUFFIX + "|" + LOG_SUFFIX + ")$");
+    }
+  };
+
+  /**
+   * Writes the list of trees and of their segments, then deletes the files not needed anymore. While a backup is in
+   * progress, this is deferred until it ends.
+   */
+  private void writeManifest() throws IOException
+  {
+    synchronized (manifestLock)
+    {
+      if (backupsInProgress > 0)
+      {
+        manifestOutdated = true;
+        return;
+      }
+      // Obsolete segments have been removed from their tree before being queued
+      final List<File> filesToDelete = new ArrayList<>();
+      for (File file = obsoleteFiles.poll(); file != null; file = obsoleteFiles.poll())
+      {
+        filesToDelete.add(file);
+      }
+      final long firstLogId = logStart;
+
+      final ByteStringBuilder manifest = new ByteStringBuilder();
+      manifest.appendLong(nextFileId.get()).appendLong(nextTreeId.get()).appendLong(firstLogId);
+      final List<Tree> allTrees = new ArrayList<>(trees.values());
+      manifest.appendCompactUnsigned(allTrees.size());
+      for (Tree tree : allTrees)
+      {
+        final ByteString treeName = ByteString.valueOfUtf8(tree.getName().toString());
+        manifest.appendCompactUnsigned(tree.getId());
+        manifest.appendCompactUnsigned(treeName.length()).appendBytes(treeName);
+        final List<Segment> segments = tree.getSegments();
+        manifest.appendCompactUnsigned(segments.size());
+        for (Segment segment : segments)
+        {
+          manifest.appendCompactUnsigned(segment.getId());
+        }
+      }
+
+      final CRC32 crc = new CRC32();
+      crc.update(manifest.getBackingArray(), 0, manifest.length());
+      final ByteBuffer header = ByteBuffer.allocate(12);
+      header.putInt(MANIFEST_VERSION).putInt(manifest.length()).putInt((int) crc.getValue()).flip();
+      final Path manifestFile = new File(backendDirectory, MANIFEST_NAME).toPath();
+      final Path tmpFile = new File(backendDirectory, MANIFEST_NAME + ".tmp").toPath();
+      try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+      {
+        channel.write(new ByteBuffer[] { header, ByteBuffer.wrap(manifest.getBackingArray(), 0, manifest.length()) });
+        channel.force(true);
+      }
+      Files.move(tmpFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      for (File file : filesToDelete)
+      {
+        file.delete();
+      }
+      for (File file : listStorageFiles())
+      {
+        if (file.getName().endsWith(LOG_SUFFIX) && getFileId(file) < firstLogId)
+        {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  private ByteSequenceReader readManifest(final File manifestFile)
+  {
+    try
+    {
+      final ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(manifestFile.toPath()));
+      final int version = content.getInt();
+      final int length = content.getInt();
+      final int checksum = content.getInt();
+      final CRC32 crc = new CRC32();
+      crc.update(content.array(), content.position(), length);
+      if (version != MANIFEST_VERSION || (int) crc.getValue() != checksum)
+      {
+        throw new IOException("Unexpected manifest version or checksum");
+      }
+      return ByteString.wrap(content.array(), content.position(), length).asReader();
+    }
+    catch (final IOException | RuntimeException e)
+    {
+      throw new StorageRuntimeException(ERR_LSM_CORRUPTED_FILE.get(
+          manifestFile, config.getBackendId(), stackTraceToSingleLineString(e)).toString(), e);
+    }
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return true;
+  }
+
+  @Override
+  public File getDirectory()
+  {
+    return getBackendDirectory(config);
+  }
+
+  private static File getBackendDirectory(LSMBackendCfg cfg)
+  {
+    return getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId());
+  }
+
+  @Override
+  public ListIterator<Path> getFilesToBackup() throws DirectoryException
+  {
+    return BackupManager.getFiles(getDirectory(), BACKUP_FILES_FILTER, config.getBackendId()).listIterator();
+  }
+
+  /** Filter to retrieve the database files to backup. */
+  private static final FileFilter BACKUP_FILES_FILTER = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      return MANIFEST_NAME.equals(file.getName()) || STORAGE_FILES_FILTER.accept(file);
+    }
+  };
+
+  @Override
+  public Path beforeRestore() throws DirectoryException
+  {
+    return null;
+  }
+
+  @Override
+  public boolean isDirectRestore()
+  {
+    // restore is done in an intermediate directory
+    return false;
+  }
+
+  @Override
+  public void afterRestore(Path restoreDirectory, Path saveDirectory) throws DirectoryException
+  {
+    // intermediate directory content is moved to database directory
+    File targetDirectory = getDirectory();
+    recursiveDelete(targetDirectory);
+    try
+    {
+      Files.move(restoreDirectory, targetDirectory.toPath());
+    }
+    catch(IOException e)
+    {
+      LocalizableMessage msg = ERR_CANNOT_RENAME_RESTORE_DIRECTORY.get(restoreDirectory, targetDirectory.getPath());
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), msg);
+    }
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    // The files listed for the backup must not be deleted or rewritten until it ends
+    synchronized (manifestLock)
+    {
+      backupsInProgress++;
+    }
+    try
+    {
+      new BackupManager(config.getBackendId()).createBackup(this, backupConfig);
+    }
+    finally
+    {
+      endBackup();
+    }
+  }
+
+  private void endBackup()
+  {
+    synchronized (manifestLock)
+    {
+      backupsInProgress--;
+      if (backupsInProgress == 0 && manifestOutdated)
+      {
+        manifestOutdated = false;
+        try
+        {
+          writeManifest();
+        }
+        catch (IOException e)
+        {
+          logger.traceException(e);
+          logger.error(ERR_LSM_MAINTENANCE_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).restoreBackup(this, restoreConfig);
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    return new HashSet<>(trees.keySet());
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(LSMBackendCfg newCfg,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    long newSize = computeSize(newCfg);
+    long oldSize = computeSize(config);
+    return (newSize <= oldSize || memQuota.isMemoryAvailable(newSize - oldSize))
+        && checkConfigurationDirectories(newCfg, unacceptableReasons);
+  }
+
+  /** The memtables receiving the writes may grow up to twice their size while another one is flushed. */
+  private static long computeSize(LSMBackendCfg cfg)
+  {
+    return 3 * cfg.getDBMemtableSize();
+  }
+
+  /**
+   * Checks newly created backend has a valid configuration.
+   * @param cfg the new configuration
+   * @param unacceptableReasons the list of accumulated errors and their messages
+   * @param context the server context
+   * @return true if newly created backend has a valid configuration
+   */
+  static boolean isConfigurationAcceptable(LSMBackendCfg cfg, List<LocalizableMessage> unacceptableReasons,
+      ServerContext context)
+  {
+    if (context != null)
+    {
+      MemoryQuota memQuota = context.getMemoryQuota();
+      if (!memQuota.isMemoryAvailable(computeSize(cfg)))
+      {
+        unacceptableReasons.add(ERR_BACKEND_CONFIG_CACHE_SIZE_GREATER_THAN_JVM_HEAP.get(
+            computeSize(cfg), memQuota.getAvailableMemory()));
+        return false;
+      }
+    }
+    return checkConfigurationDirectories(cfg, unacceptableReasons);
+  }
+
+  private static boolean checkConfigurationDirectories(LSMBackendCfg cfg,
+    List<LocalizableMessage> unacceptableReasons)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    File newBackendDirectory = getBackendDirectory(cfg);
+
+    checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, true);
+    checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+    if (!ccr.getMessages().isEmpty())
+    {
+      unacceptableReasons.addAll(ccr.getMessages());
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(LSMBackendCfg cfg)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+
+    try
+    {
+      File newBackendDirectory = getBackendDirectory(cfg);
+
+      // Create the directory if it doesn't exist.
+      if(!cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, false);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        ccr.setAdminActionRequired(true);
+        ccr.addMessage(NOTE_CONFIG_DB_DIR_REQUIRES_RESTART.get(config.getDBDirectory(), cfg.getDBDirectory()));
+      }
+
+      if (!cfg.getDBDirectoryPermissions().equalsIgnoreCase(config.getDBDirectoryPermissions())
+          || !cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        setDBDirPermissions(newBackendDirectory, cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+      }
+      registerMonitoredDirectory(cfg);
+      if (isOpen)
+      {
+        memQuota.releaseMemory(computeSize(config));
+        memQuota.acquireMemory(computeSize(cfg));
+      }
+      config = cfg;
+      maxMemTablesSize = cfg.getDBMemtableSize();
+      syncCommits = !cfg.isDBTxnNoSync();
+    }
+    catch (Exception e)
+    {
+      addErrorMessage(ccr, LocalizableMessage.raw(stackTraceToSingleLineString(e)));
+    }
+    return ccr;
+  }
+
+  private void registerMonitoredDirectory(LSMBackendCfg cfg)
+  {
+    diskMonitor.registerMonitoredDirectory(
+      cfg.getBackendId() + " backend",
+      getDirectory(),
+      cfg.getDiskLowThreshold(),
+      cfg.getDiskFullThreshold(),
+      this);
+  }
+
+  @Override
+  public void removeStorageFiles() throws StorageRuntimeException
+  {
+    StorageUtils.removeStorageFiles(backendDirectory);
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return storageStatus;
+  }
+
+  @Override
+  public void diskFullThresholdReached(File directory, long thresholdInBytes) {
+    storageStatus = statusWhenDiskSpaceFull(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskLowThresholdReached(File directory, long thresholdInBytes) {
+    storageStatus = statusWhenDiskSpaceLow(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskSpaceRestored(File directory, long lowThresholdInBytes, long fullThresholdInBytes) {
+    storageStatus = StorageStatus.working();
+  }
+}
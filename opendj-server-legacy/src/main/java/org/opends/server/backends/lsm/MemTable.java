@@ -0,0 +1,155 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * An in-memory sorted run receiving the writes of a tree until it is flushed to a segment. Memtables are also used
+ * to hold the pending writes of a transaction.
+ * <p>
+ * Iterators are weakly consistent: they never fail when records are written concurrently.
+ */
+final class MemTable implements Run
+{
+  /** The estimated memory used by a record in addition to its key and value. */
+  private static final int RECORD_OVERHEAD = 64;
+
+  private final ConcurrentSkipListMap<ByteString, ByteString> records = new ConcurrentSkipListMap<>();
+  private final AtomicLong size = new AtomicLong();
+  private final AtomicLong nbRecords = new AtomicLong();
+
+  /**
+   * Writes a record.
+   *
+   * @param key
+   *          The key of the record
+   * @param value
+   *          The value of the record, or {@link #TOMBSTONE} for deleting it
+   * @return the number of bytes by which the size of this memtable has grown
+   */
+  long put(ByteString key, ByteString value)
+  {
+    final ByteString previous = records.put(key, value);
+    final long delta;
+    if (previous != null)
+    {
+      delta = value.length() - previous.length();
+    }
+    else
+    {
+      nbRecords.incrementAndGet();
+      delta = RECORD_OVERHEAD + key.length() + value.length();
+    }
+    size.addAndGet(delta);
+    return delta;
+  }
+
+  /**
+   * Returns the estimated memory used by this memtable.
+   *
+   * @return the estimated memory used by this memtable
+   */
+  long size()
+  {
+    return size.get();
+  }
+
+  /**
+   * Returns the number of records in this memtable, including the deleted ones.
+   *
+   * @return the number of records in this memtable
+   */
+  long getNbRecords()
+  {
+    return nbRecords.get();
+  }
+
+  boolean isEmpty()
+  {
+    return records.isEmpty();
+  }
+
+  @Override
+  public ByteString get(ByteSequence key)
+  {
+    return records.get(key.toByteString());
+  }
+
+  @Override
+  public ByteString lowerKey(ByteSequence key)
+  {
+    if (key == null)
+    {
+      final Map.Entry<ByteString, ByteString> last = records.lastEntry();
+      return last != null ? last.getKey() : null;
+    }
+    return records.lowerKey(key.toByteString());
+  }
+
+  @Override
+  public RecordIterator iterator()
+  {
+    return new RecordIterator()
+    {
+      private Iterator<Map.Entry<ByteString, ByteString>> iterator;
+      private ByteString key;
+      private ByteString value;
+
+      @Override
+      public boolean seek(ByteSequence fromKey)
+      {
+        final Map<ByteString, ByteString> tail =
+            fromKey != null ? records.tailMap(fromKey.toByteString(), true) : records;
+        iterator = tail.entrySet().iterator();
+        return next();
+      }
+
+      @Override
+      public boolean next()
+      {
+        if (iterator != null && iterator.hasNext())
+        {
+          final Map.Entry<ByteString, ByteString> record = iterator.next();
+          key = record.getKey();
+          value = record.getValue();
+          return true;
+        }
+        key = null;
+        value = null;
+        return false;
+      }
+
+      @Override
+      public ByteString getKey()
+      {
+        return key;
+      }
+
+      @Override
+      public ByteString getValue()
+      {
+        return value;
+      }
+    };
+  }
+}
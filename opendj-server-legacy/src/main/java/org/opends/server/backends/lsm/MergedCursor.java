@@ -0,0 +1,204 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+
+/** A {@link Cursor} over the merged runs of a tree, which skips the deleted records. */
+final class MergedCursor implements Cursor<ByteString, ByteString>
+{
+  private final Tree.Version version;
+  private final List<Run> runs;
+  private final MergingIterator records;
+  private final WriteableTransaction txn;
+  private final TreeName treeName;
+  /** Whether the merging iterator is positioned on a record not returned yet, after positionToKey() failed. */
+  private boolean pending;
+  private boolean defined;
+  private boolean closed;
+
+  /**
+   * Creates a new cursor.
+   *
+   * @param version
+   *          The version of the tree read by this cursor, released when this cursor is closed. May be {@code null}.
+   * @param runs
+   *          The runs to merge, most recent first
+   * @param txn
+   *          The transaction deleting the records on behalf of this cursor
+   * @param treeName
+   *          The name of the tree read by this cursor
+   */
+  MergedCursor(Tree.Version version, List<Run> runs, WriteableTransaction txn, TreeName treeName)
+  {
+    this.version = version;
+    this.runs = runs;
+    this.txn = txn;
+    this.treeName = treeName;
+    final List<Run.RecordIterator> iterators = new ArrayList<>(runs.size());
+    for (Run run : runs)
+    {
+      iterators.add(run.iterator());
+    }
+    this.records = new MergingIterator(iterators, false);
+  }
+
+  @Override
+  public boolean next()
+  {
+    if (pending)
+    {
+      pending = false;
+      defined = records.getKey() != null;
+    }
+    else
+    {
+      defined = records.next();
+    }
+    return defined;
+  }
+
+  @Override
+  public boolean isDefined()
+  {
+    return defined;
+  }
+
+  @Override
+  public ByteString getKey()
+  {
+    throwIfUndefined();
+    return records.getKey();
+  }
+
+  @Override
+  public ByteString getValue()
+  {
+    throwIfUndefined();
+    return records.getValue();
+  }
+
+  @Override
+  public void delete()
+  {
+    throwIfUndefined();
+    txn.delete(treeName, records.getKey());
+  }
+
+  @Override
+  public boolean positionToKey(ByteSequence key)
+  {
+    final boolean positioned = records.seek(key);
+    defined = positioned && records.getKey().compareTo(key) == 0;
+    pending = positioned && !defined;
+    return defined;
+  }
+
+  @Override
+  public boolean positionToKeyOrNext(ByteSequence key)
+  {
+    pending = false;
+    defined = records.seek(key);
+    return defined;
+  }
+
+  @Override
+  public boolean positionToLastKey()
+  {
+    pending = false;
+    // The greatest key of the runs may be a deleted record: try lower keys until finding a record which is not
+    ByteString candidate = null;
+    for (;;)
+    {
+      final ByteString upperBound = candidate;
+      candidate = null;
+      for (Run run : runs)
+      {
+        final ByteString lowerKey = run.lowerKey(upperBound);
+        if (lowerKey != null && (candidate == null || lowerKey.compareTo(candidate) > 0))
+        {
+          candidate = lowerKey;
+        }
+      }
+      if (candidate == null)
+      {
+        // There is no record: position after the deleted ones
+        records.seek(upperBound);
+        defined = false;
+        return false;
+      }
+      if (isLive(candidate))
+      {
+        defined = records.seek(candidate);
+        return defined;
+      }
+    }
+  }
+
+  private boolean isLive(ByteString key)
+  {
+    for (Run run : runs)
+    {
+      final ByteString value = run.get(key);
+      if (value != null)
+      {
+        return value != Run.TOMBSTONE;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean positionToIndex(int index)
+  {
+    pending = false;
+    defined = records.seek(null);
+    for (int i = 0; i < index && defined; i++)
+    {
+      defined = records.next();
+    }
+    return defined;
+  }
+
+  @Override
+  public void close()
+  {
+    if (!closed)
+    {
+      closed = true;
+      if (version != null)
+      {
+        version.release();
+      }
+    }
+  }
+
+  private void throwIfUndefined()
+  {
+    if (!defined)
+    {
+      throw new NoSuchElementException();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.lsm.Run.RecordIterator;
+
+/**
+ * Merges the records of several runs of a tree. When several runs contain the same key, the record of the most
+ * recent run hides the others.
+ */
+final class MergingIterator implements RecordIterator
+{
+  /** The iterators over the runs, most recent first. */
+  private final List<RecordIterator> iterators;
+  private final boolean returnDeletedRecords;
+  private boolean positioned;
+  private ByteString key;
+  private ByteString value;
+
+  /**
+   * Creates a new merging iterator.
+   *
+   * @param iterators
+   *          The iterators over the runs to merge, most recent first
+   * @param returnDeletedRecords
+   *          Whether the deleted records must be returned as {@link Run#TOMBSTONE}s, or skipped
+   */
+  MergingIterator(List<RecordIterator> iterators, boolean returnDeletedRecords)
+  {
+    this.iterators = iterators;
+    this.returnDeletedRecords = returnDeletedRecords;
+  }
+
+  @Override
+  public boolean seek(ByteSequence fromKey)
+  {
+    positioned = true;
+    for (RecordIterator iterator : iterators)
+    {
+      iterator.seek(fromKey);
+    }
+    return moveAfter(null);
+  }
+
+  @Override
+  public boolean next()
+  {
+    if (!positioned)
+    {
+      return seek(null);
+    }
+    return key != null && moveAfter(key);
+  }
+
+  /** Moves to the smallest key greater than the provided key. */
+  private boolean moveAfter(ByteString previousKey)
+  {
+    ByteString afterKey = previousKey;
+    for (;;)
+    {
+      ByteString minKey = null;
+      ByteString minValue = null;
+      for (RecordIterator iterator : iterators)
+      {
+        ByteString iteratorKey = iterator.getKey();
+        // Also skips the records written to a memtable behind an iterator
+        while (iteratorKey != null && afterKey != null && iteratorKey.compareTo(afterKey) <= 0)
+        {
+          iterator.next();
+          iteratorKey = iterator.getKey();
+        }
+        if (iteratorKey != null && (minKey == null || iteratorKey.compareTo(minKey) < 0))
+        {
+          minKey = iteratorKey;
+          minValue = iterator.getValue();
+        }
+      }
+
+      if (minKey == null)
+      {
+        key = null;
+        value = null;
+        return false;
+      }
+      if (minValue != Run.TOMBSTONE || returnDeletedRecords)
+      {
+        key = minKey;
+        value = minValue;
+        return true;
+      }
+      afterKey = minKey;
+    }
+  }
+
+  @Override
+  public ByteString getKey()
+  {
+    return key;
+  }
+
+  @Override
+  public ByteString getValue()
+  {
+    return value;
+  }
+}
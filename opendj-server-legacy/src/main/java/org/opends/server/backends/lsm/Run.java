@@ -0,0 +1,90 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * A sorted run of records of a tree: either a memtable or a segment. The records deleted since the run has been
+ * written are kept as {@link #TOMBSTONE}s hiding the records of the older runs.
+ */
+interface Run
+{
+  /** The value of deleted records, compared by identity. */
+  ByteString TOMBSTONE = ByteString.wrap(new byte[0]);
+
+  /**
+   * Returns the value of the record with the provided key.
+   *
+   * @param key
+   *          The key of the record
+   * @return the value of the record, {@link #TOMBSTONE} if the record has been deleted, or {@code null} if this run
+   *         does not contain the key
+   */
+  ByteString get(ByteSequence key);
+
+  /**
+   * Returns the greatest key of this run strictly lower than the provided key.
+   *
+   * @param key
+   *          The upper bound, or {@code null} for returning the greatest key of this run
+   * @return the greatest key strictly lower than the provided key, or {@code null} if there is none
+   */
+  ByteString lowerKey(ByteSequence key);
+
+  /**
+   * Returns a new iterator over the records of this run, including the deleted ones.
+   *
+   * @return a new unpositioned iterator
+   */
+  RecordIterator iterator();
+
+  /** An iterator over sorted records. */
+  interface RecordIterator
+  {
+    /**
+     * Positions this iterator to the first record whose key is greater than or equal to the provided key.
+     *
+     * @param key
+     *          The key to look for, or {@code null} for positioning to the first record
+     * @return {@code true} if the iterator is positioned on a record
+     */
+    boolean seek(ByteSequence key);
+
+    /**
+     * Moves this iterator to the next record.
+     *
+     * @return {@code true} if the iterator is positioned on a record, {@code false} once all records have been read
+     */
+    boolean next();
+
+    /**
+     * Returns the key of the current record.
+     *
+     * @return the key of the current record, or {@code null} if the iterator is not positioned on a record
+     */
+    ByteString getKey();
+
+    /**
+     * Returns the value of the current record.
+     *
+     * @return the value of the current record, which may be {@link #TOMBSTONE}, or {@code null} if the iterator is
+     *         not positioned on a record
+     */
+    ByteString getValue();
+  }
+}
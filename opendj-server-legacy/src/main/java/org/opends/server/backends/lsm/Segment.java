@@ -0,0 +1,483 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+
+/**
+ * An immutable sorted run of records stored in a file. Segments are written once, sequentially, when a memtable is
+ * flushed or when segments are compacted, and are never modified afterwards.
+ * <p>
+ * The file is made of blocks of sorted records, followed by a sparse index holding the first key of each block, the
+ * last key of the segment, and a bloom filter over all the keys. The index and the bloom filter are kept in memory,
+ * so a point read reads at most one block, and none when the bloom filter tells the key is not in the segment.
+ * <p>
+ * Segments are reference counted: the file is closed once no tree version uses the segment anymore, and it is
+ * deleted if the segment has been compacted into another one.
+ */
+final class Segment implements Run
+{
+  /** The size above which a block is written to the file. */
+  private static final int BLOCK_SIZE = 4096;
+  private static final int FOOTER_SIZE = 32;
+  private static final long MAGIC = 0x4f70656e444a4c53L;
+  private static final byte VALUE = 0;
+  private static final byte DELETED = 1;
+
+  private final long id;
+  private final File file;
+  private final FileChannel channel;
+  private final ByteString[] blockFirstKeys;
+  private final long[] blockOffsets;
+  private final int[] blockLengths;
+  private final ByteString lastKey;
+  private final BloomFilter bloomFilter;
+  private final long nbRecords;
+  private final long size;
+  /** Where to queue the file for deletion once obsolete and unused. */
+  private final Queue<File> obsoleteFiles;
+  private final AtomicInteger refCount = new AtomicInteger();
+  private volatile boolean obsolete;
+
+  private Segment(long id, File file, Queue<File> obsoleteFiles) throws IOException
+  {
+    this.id = id;
+    this.file = file;
+    this.obsoleteFiles = obsoleteFiles;
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try
+    {
+      size = channel.size();
+      if (size < FOOTER_SIZE)
+      {
+        throw new EOFException(file.getPath());
+      }
+      final ByteSequenceReader footer = read(size - FOOTER_SIZE, FOOTER_SIZE).asReader();
+      final long indexOffset = footer.readLong();
+      footer.readLong();
+      nbRecords = footer.readLong();
+      if (footer.readLong() != MAGIC || indexOffset < 0 || indexOffset > size - FOOTER_SIZE)
+      {
+        throw new IOException(file.getPath());
+      }
+
+      final ByteSequenceReader trailer = read(indexOffset, (int) (size - FOOTER_SIZE - indexOffset)).asReader();
+      final int nbBlocks = trailer.readCompactUnsignedInt();
+      blockFirstKeys = new ByteString[nbBlocks];
+      blockOffsets = new long[nbBlocks];
+      blockLengths = new int[nbBlocks];
+      for (int i = 0; i < nbBlocks; i++)
+      {
+        blockFirstKeys[i] = trailer.readByteString(trailer.readCompactUnsignedInt());
+        blockOffsets[i] = trailer.readLong();
+        blockLengths[i] = trailer.readInt();
+      }
+      lastKey = trailer.readByteString(trailer.readCompactUnsignedInt());
+      bloomFilter = BloomFilter.decode(trailer);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      channel.close();
+      throw e instanceof IOException ? (IOException) e : new IOException(file.getPath(), e);
+    }
+  }
+
+  /**
+   * Opens an existing segment.
+   *
+   * @param id
+   *          The ID of the segment
+   * @param file
+   *          The segment file
+   * @param obsoleteFiles
+   *          Where to queue the segment file for deletion once it is obsolete and unused
+   * @return the opened segment
+   * @throws IOException
+   *           If the file cannot be read or is corrupted
+   */
+  static Segment open(long id, File file, Queue<File> obsoleteFiles) throws IOException
+  {
+    return new Segment(id, file, obsoleteFiles);
+  }
+
+  /**
+   * Writes the provided records to a new segment file, then opens it.
+   *
+   * @param id
+   *          The ID of the new segment
+   * @param file
+   *          The file to write
+   * @param records
+   *          The records to write, in key order
+   * @param expectedNbRecords
+   *          An upper bound of the number of records, used for sizing the bloom filter
+   * @param dropDeletedRecords
+   *          Whether the deleted records can be dropped, which is the case when there is no older run
+   * @param obsoleteFiles
+   *          Where to queue the segment file for deletion once it is obsolete and unused
+   * @return the new segment, or {@code null} if there was nothing to write
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  static Segment write(long id, File file, RecordIterator records, long expectedNbRecords,
+      boolean dropDeletedRecords, Queue<File> obsoleteFiles) throws IOException
+  {
+    final BloomFilter bloomFilter = new BloomFilter(expectedNbRecords);
+    final ByteStringBuilder block = new ByteStringBuilder(2 * BLOCK_SIZE);
+    final ByteStringBuilder index = new ByteStringBuilder();
+    int nbBlocks = 0;
+    long nbRecords = 0;
+    long offset = 0;
+    ByteString blockFirstKey = null;
+    ByteString lastKey = null;
+    try (FileOutputStream fos = new FileOutputStream(file);
+        OutputStream out = new BufferedOutputStream(fos, 16 * BLOCK_SIZE))
+    {
+      for (boolean hasRecord = records.seek(null); hasRecord; hasRecord = records.next())
+      {
+        final ByteString value = records.getValue();
+        if (value == TOMBSTONE && dropDeletedRecords)
+        {
+          continue;
+        }
+        final ByteString key = records.getKey();
+        if (block.length() == 0)
+        {
+          blockFirstKey = key;
+        }
+        block.appendCompactUnsigned(key.length()).appendBytes(key);
+        if (value == TOMBSTONE)
+        {
+          block.appendByte(DELETED);
+        }
+        else
+        {
+          block.appendByte(VALUE).appendCompactUnsigned(value.length()).appendBytes(value);
+        }
+        bloomFilter.add(key);
+        lastKey = key;
+        nbRecords++;
+
+        if (block.length() >= BLOCK_SIZE)
+        {
+          offset += writeBlock(out, block, blockFirstKey, offset, index);
+          nbBlocks++;
+        }
+      }
+      if (block.length() > 0)
+      {
+        offset += writeBlock(out, block, blockFirstKey, offset, index);
+        nbBlocks++;
+      }
+
+      if (nbRecords > 0)
+      {
+        final ByteStringBuilder trailer = new ByteStringBuilder();
+        trailer.appendCompactUnsigned(nbBlocks).appendBytes(index);
+        trailer.appendCompactUnsigned(lastKey.length()).appendBytes(lastKey);
+        final long bloomFilterOffset = offset + trailer.length();
+        bloomFilter.encode(trailer);
+        trailer.appendLong(offset).appendLong(bloomFilterOffset).appendLong(nbRecords).appendLong(MAGIC);
+        trailer.copyTo(out);
+        out.flush();
+        fos.getChannel().force(true);
+      }
+    }
+
+    if (nbRecords == 0)
+    {
+      file.delete();
+      return null;
+    }
+    return open(id, file, obsoleteFiles);
+  }
+
+  private static int writeBlock(OutputStream out, ByteStringBuilder block, ByteString firstKey, long offset,
+      ByteStringBuilder index) throws IOException
+  {
+    final int length = block.length();
+    index.appendCompactUnsigned(firstKey.length()).appendBytes(firstKey).appendLong(offset).appendInt(length);
+    block.copyTo(out);
+    block.clear();
+    return length;
+  }
+
+  long getId()
+  {
+    return id;
+  }
+
+  File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Returns the size of the segment file.
+   *
+   * @return the size of the segment file, in bytes
+   */
+  long size()
+  {
+    return size;
+  }
+
+  /**
+   * Returns the number of records in this segment, including the deleted ones.
+   *
+   * @return the number of records in this segment
+   */
+  long getNbRecords()
+  {
+    return nbRecords;
+  }
+
+  /** Acquires a reference to this segment, preventing it from being closed. */
+  void retain()
+  {
+    refCount.incrementAndGet();
+  }
+
+  /** Releases a reference to this segment, closing it, and deleting it if obsolete, once it is not used anymore. */
+  void release()
+  {
+    if (refCount.decrementAndGet() == 0)
+    {
+      try
+      {
+        channel.close();
+      }
+      catch (IOException ignored)
+      {
+        // the segment is read only
+      }
+      if (obsolete)
+      {
+        obsoleteFiles.add(file);
+      }
+    }
+  }
+
+  /** Marks this segment as replaced by another one: its file will be deleted once it is not used anymore. */
+  void markObsolete()
+  {
+    obsolete = true;
+  }
+
+  @Override
+  public ByteString get(ByteSequence key)
+  {
+    if (!bloomFilter.mightContain(key))
+    {
+      return null;
+    }
+    final int blockIndex = blockIndex(key, true);
+    if (blockIndex < 0)
+    {
+      return null;
+    }
+    final ByteSequenceReader block = readBlock(blockIndex);
+    while (block.remaining() > 0)
+    {
+      final int cmp = readKey(block).compareTo(key);
+      final ByteString value = readValue(block);
+      if (cmp == 0)
+      {
+        return value;
+      }
+      else if (cmp > 0)
+      {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public ByteString lowerKey(ByteSequence key)
+  {
+    if (key == null)
+    {
+      return lastKey;
+    }
+    final int blockIndex = blockIndex(key, false);
+    if (blockIndex < 0)
+    {
+      return null;
+    }
+    final ByteSequenceReader block = readBlock(blockIndex);
+    ByteString lowerKey = null;
+    while (block.remaining() > 0)
+    {
+      final ByteString recordKey = readKey(block);
+      if (recordKey.compareTo(key) >= 0)
+      {
+        break;
+      }
+      readValue(block);
+      lowerKey = recordKey;
+    }
+    return lowerKey;
+  }
+
+  /**
+   * Returns the index of the last block whose first key is lower than (or equal to) the provided key.
+   *
+   * @return the index of the block, or -1 if the key is lower than all the keys of this segment
+   */
+  private int blockIndex(ByteSequence key, boolean inclusive)
+  {
+    int low = 0;
+    int high = blockFirstKeys.length - 1;
+    while (low <= high)
+    {
+      final int mid = (low + high) >>> 1;
+      final int cmp = blockFirstKeys[mid].compareTo(key);
+      if (cmp < 0 || (cmp == 0 && inclusive))
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    return high;
+  }
+
+  @Override
+  public RecordIterator iterator()
+  {
+    return new RecordIterator()
+    {
+      private int blockIndex;
+      private ByteSequenceReader block;
+      private ByteString key;
+      private ByteString value;
+
+      @Override
+      public boolean seek(ByteSequence fromKey)
+      {
+        loadBlock(fromKey != null ? Math.max(0, blockIndex(fromKey, true)) : 0);
+        while (next())
+        {
+          if (fromKey == null || key.compareTo(fromKey) >= 0)
+          {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      @Override
+      public boolean next()
+      {
+        while (block != null && block.remaining() == 0)
+        {
+          loadBlock(blockIndex + 1);
+        }
+        if (block == null)
+        {
+          key = null;
+          value = null;
+          return false;
+        }
+        key = readKey(block);
+        value = readValue(block);
+        return true;
+      }
+
+      private void loadBlock(int index)
+      {
+        blockIndex = index;
+        block = index < blockOffsets.length ? readBlock(index) : null;
+      }
+
+      @Override
+      public ByteString getKey()
+      {
+        return key;
+      }
+
+      @Override
+      public ByteString getValue()
+      {
+        return value;
+      }
+    };
+  }
+
+  private static ByteString readKey(ByteSequenceReader block)
+  {
+    return block.readByteString(block.readCompactUnsignedInt());
+  }
+
+  private static ByteString readValue(ByteSequenceReader block)
+  {
+    if (block.readByte() == DELETED)
+    {
+      return TOMBSTONE;
+    }
+    return block.readByteString(block.readCompactUnsignedInt());
+  }
+
+  private ByteSequenceReader readBlock(int index)
+  {
+    try
+    {
+      return read(blockOffsets[index], blockLengths[index]).asReader();
+    }
+    catch (IOException e)
+    {
+      throw new StorageRuntimeException(e);
+    }
+  }
+
+  private ByteString read(long position, int length) throws IOException
+  {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining())
+    {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+      {
+        throw new EOFException(file.getPath());
+      }
+    }
+    return ByteString.wrap(buffer.array());
+  }
+
+  @Override
+  public String toString()
+  {
+    return file.getName();
+  }
+}
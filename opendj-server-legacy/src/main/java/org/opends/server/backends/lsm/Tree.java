@@ -0,0 +1,321 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.TreeName;
+
+/**
+ * A tree of the LSM storage: a memtable receiving the writes, possibly a memtable being flushed, and the segments
+ * previously written, most recent first.
+ * <p>
+ * These runs are held in an immutable {@link Version}, replaced each time a memtable is flushed or segments are
+ * compacted. Readers acquire the current version, which keeps its segments open until they release it.
+ */
+final class Tree
+{
+  /** An immutable list of the runs of a tree. */
+  static final class Version
+  {
+    private final MemTable memTable;
+    private final MemTable flushedMemTable;
+    private final List<Segment> segments;
+    /** The reference held by the tree while this version is current, plus one per reader. */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private Version(MemTable memTable, MemTable flushedMemTable, List<Segment> segments)
+    {
+      this.memTable = memTable;
+      this.flushedMemTable = flushedMemTable;
+      this.segments = Collections.unmodifiableList(segments);
+      for (Segment segment : segments)
+      {
+        segment.retain();
+      }
+    }
+
+    private boolean retain()
+    {
+      for (;;)
+      {
+        final int count = refCount.get();
+        if (count == 0)
+        {
+          // this version has been replaced and released meanwhile
+          return false;
+        }
+        if (refCount.compareAndSet(count, count + 1))
+        {
+          return true;
+        }
+      }
+    }
+
+    /** Releases this version, which must have been acquired with {@link Tree#acquire()}. */
+    void release()
+    {
+      if (refCount.decrementAndGet() == 0)
+      {
+        for (Segment segment : segments)
+        {
+          segment.release();
+        }
+      }
+    }
+
+    MemTable getMemTable()
+    {
+      return memTable;
+    }
+
+    MemTable getFlushedMemTable()
+    {
+      return flushedMemTable;
+    }
+
+    List<Segment> getSegments()
+    {
+      return segments;
+    }
+
+    /**
+     * Returns the runs of this version.
+     *
+     * @return the runs of this version, most recent first
+     */
+    List<Run> getRuns()
+    {
+      final List<Run> runs = new ArrayList<>(segments.size() + 2);
+      runs.add(memTable);
+      if (flushedMemTable != null)
+      {
+        runs.add(flushedMemTable);
+      }
+      runs.addAll(segments);
+      return runs;
+    }
+
+    /**
+     * Reads a record from the most recent run containing it.
+     *
+     * @param key
+     *          The key of the record
+     * @return the value of the record, {@link Run#TOMBSTONE} if it has been deleted, or {@code null} if it does not
+     *         exist
+     */
+    ByteString get(ByteSequence key)
+    {
+      ByteString value = memTable.get(key);
+      if (value == null && flushedMemTable != null)
+      {
+        value = flushedMemTable.get(key);
+      }
+      for (int i = 0; value == null && i < segments.size(); i++)
+      {
+        value = segments.get(i).get(key);
+      }
+      return value;
+    }
+  }
+
+  private final TreeName name;
+  private final long id;
+  private volatile Version current;
+  /** Guarded by this. */
+  private boolean deleted;
+
+  /**
+   * Creates a tree.
+   *
+   * @param name
+   *          The name of the tree
+   * @param id
+   *          The ID identifying the tree in the storage files
+   * @param segments
+   *          The segments of the tree, most recent first
+   */
+  Tree(TreeName name, long id, List<Segment> segments)
+  {
+    this.name = name;
+    this.id = id;
+    this.current = new Version(new MemTable(), null, segments);
+  }
+
+  TreeName getName()
+  {
+    return name;
+  }
+
+  long getId()
+  {
+    return id;
+  }
+
+  /**
+   * Returns the current version of this tree, which must be released after use.
+   *
+   * @return the current version of this tree
+   */
+  Version acquire()
+  {
+    for (;;)
+    {
+      final Version version = current;
+      if (version.retain())
+      {
+        return version;
+      }
+    }
+  }
+
+  /**
+   * Returns the memtable currently receiving the writes. The caller must prevent the memtable from being flushed
+   * concurrently.
+   *
+   * @return the memtable currently receiving the writes
+   */
+  MemTable getMemTable()
+  {
+    return current.memTable;
+  }
+
+  /**
+   * Returns the segments of the current version of this tree.
+   *
+   * @return the segments of the current version of this tree, most recent first
+   */
+  List<Segment> getSegments()
+  {
+    return current.segments;
+  }
+
+  private void install(Version version)
+  {
+    final Version previous = current;
+    current = version;
+    previous.release();
+  }
+
+  /**
+   * Replaces the memtable receiving the writes with an empty one, so that it can be flushed. The caller must prevent
+   * writes to the memtable meanwhile.
+   */
+  synchronized void freezeMemTable()
+  {
+    final Version version = current;
+    if (!deleted && !version.memTable.isEmpty() && version.flushedMemTable == null)
+    {
+      install(new Version(new MemTable(), version.memTable, version.segments));
+    }
+  }
+
+  /**
+   * Replaces the flushed memtable with the segment it has been written to.
+   *
+   * @param segment
+   *          The segment holding the records of the flushed memtable, or {@code null} if it had no records to keep
+   */
+  synchronized void memTableFlushed(Segment segment)
+  {
+    if (deleted)
+    {
+      discard(segment);
+      return;
+    }
+    final Version version = current;
+    final List<Segment> segments = new ArrayList<>(version.segments.size() + 1);
+    if (segment != null)
+    {
+      segments.add(segment);
+    }
+    segments.addAll(version.segments);
+    install(new Version(version.memTable, null, segments));
+  }
+
+  /**
+   * Replaces compacted segments with the segment they have been merged into.
+   *
+   * @param compacted
+   *          The compacted segments, most recent first
+   * @param segment
+   *          The segment holding their merged records, or {@code null} if no records remained
+   */
+  synchronized void segmentsCompacted(List<Segment> compacted, Segment segment)
+  {
+    if (deleted)
+    {
+      discard(segment);
+      return;
+    }
+    final Version version = current;
+    final List<Segment> segments = new ArrayList<>(version.segments);
+    final int index = segments.indexOf(compacted.get(0));
+    segments.removeAll(compacted);
+    if (segment != null)
+    {
+      segments.add(index, segment);
+    }
+    install(new Version(version.memTable, version.flushedMemTable, segments));
+    for (Segment compactedSegment : compacted)
+    {
+      compactedSegment.markObsolete();
+    }
+  }
+
+  private static void discard(Segment segment)
+  {
+    if (segment != null)
+    {
+      segment.markObsolete();
+      segment.retain();
+      segment.release();
+    }
+  }
+
+  /** Deletes all the records of this tree, marking its segments obsolete. */
+  synchronized void delete()
+  {
+    deleted = true;
+    for (Segment segment : current.segments)
+    {
+      segment.markObsolete();
+    }
+    close();
+  }
+
+  synchronized boolean isDeleted()
+  {
+    return deleted;
+  }
+
+  /** Releases the segments of this tree, which must not be used anymore. */
+  synchronized void close()
+  {
+    install(new Version(new MemTable(), null, Collections.<Segment> emptyList()));
+  }
+
+  @Override
+  public String toString()
+  {
+    return name.toString();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * The write-ahead log of the LSM storage, holding the changes which have not been flushed to segments yet.
+ * <p>
+ * Records are appended sequentially, each with its length and a checksum, so that a record partially written when
+ * the server stopped is detected and ignored on recovery. Appending and syncing are decoupled: the committing
+ * threads waiting for the log to be synced are all satisfied by a single sync (group commit).
+ */
+final class WriteAheadLog implements Closeable
+{
+  private static final int HEADER_SIZE = 8;
+
+  private final File file;
+  private final FileChannel channel;
+  /** The number of bytes appended. Appends are serialized by the caller. */
+  private volatile long appended;
+  /** Guarded by this. */
+  private long synced;
+  /** Guarded by this. */
+  private boolean closed;
+
+  /**
+   * Creates a new empty log file.
+   *
+   * @param file
+   *          The log file to create
+   * @throws IOException
+   *           If the file cannot be created
+   */
+  WriteAheadLog(File file) throws IOException
+  {
+    this.file = file;
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+  }
+
+  File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Appends a record to this log. Calls to this method must be serialized.
+   *
+   * @param record
+   *          The record to append
+   * @return the position to sync for the record to be durable
+   * @throws IOException
+   *           If the record cannot be written
+   */
+  long append(ByteSequence record) throws IOException
+  {
+    final CRC32 crc = new CRC32();
+    final byte[] bytes = record.toByteArray();
+    crc.update(bytes);
+    final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+    buffer.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+    while (buffer.hasRemaining())
+    {
+      channel.write(buffer);
+    }
+    appended += HEADER_SIZE + bytes.length;
+    return appended;
+  }
+
+  /**
+   * Ensures the records appended up to the provided position are durable.
+   *
+   * @param position
+   *          The position returned when appending the last record to sync
+   * @throws IOException
+   *           If the log cannot be synced
+   */
+  synchronized void sync(long position) throws IOException
+  {
+    if (!closed && synced < position)
+    {
+      final long syncing = appended;
+      channel.force(false);
+      synced = syncing;
+    }
+  }
+
+  /**
+   * Syncs and closes this log.
+   *
+   * @throws IOException
+   *           If the log cannot be synced
+   */
+  @Override
+  public synchronized void close() throws IOException
+  {
+    if (!closed)
+    {
+      try
+      {
+        sync(appended);
+      }
+      finally
+      {
+        closed = true;
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Reads all the complete records of a log file.
+   *
+   * @param file
+   *          The log file to read
+   * @return the records of the log file, stopping at the first incomplete or corrupted record
+   * @throws IOException
+   *           If the file cannot be read
+   */
+  static List<ByteString> read(File file) throws IOException
+  {
+    final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    final List<ByteString> records = new ArrayList<>();
+    while (buffer.remaining() >= HEADER_SIZE)
+    {
+      final int length = buffer.getInt();
+      final int checksum = buffer.getInt();
+      if (length < 0 || length > buffer.remaining())
+      {
+        break;
+      }
+      final CRC32 crc = new CRC32();
+      crc.update(buffer.array(), buffer.position(), length);
+      if ((int) crc.getValue() != checksum)
+      {
+        break;
+      }
+      records.add(ByteString.wrap(buffer.array(), buffer.position(), length));
+      buffer.position(buffer.position() + length);
+    }
+    return records;
+  }
+}
@@ -755,7 +755,30 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
     }
   }
 
-  private static IndexQuery getIndexQuery(IndexQueryFactory<IndexQuery> indexQueryFactory,
+  /**
+   * Estimates the number of entry IDs that evaluating a filter against this attribute index would read.
+   *
+   * @param indexFilterType the index type filter
+   * @param filter The filter.
+   * @return the estimated number of entry IDs, or {@link IndexCostEstimator#NOT_INDEXED} if the filter cannot be
+   *         evaluated with this attribute index
+   */
+  long estimateFilter(IndexFilterType indexFilterType, SearchFilter filter)
+  {
+    try
+    {
+      final IndexCostEstimator costEstimator =
+          new IndexCostEstimator(this, entryContainer.getRootContainer().getBackgroundExecutor());
+      return getIndexQuery(costEstimator, indexFilterType, filter);
+    }
+    catch (DecodeException e)
+    {
+      logger.traceException(e);
+      return IndexCostEstimator.NOT_INDEXED;
+    }
+  }
+
+  private static <T> T getIndexQuery(IndexQueryFactory<T> indexQueryFactory,
       IndexFilterType indexFilterType, SearchFilter filter) throws DecodeException
   {
     MatchingRule rule;
@@ -1057,6 +1080,33 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
     return indexIdToIndexes;
   }
 
+  /**
+   * Returns the index whose keys are the values normalized by the provided ordering matching rule, and thus sorted in
+   * the order defined by this matching rule.
+   *
+   * @param orderingRule
+   *          the ordering matching rule
+   * @return the trusted ordering index for the provided matching rule, or {@code null} if there is none
+   */
+  MatchingRuleIndex getOrderingIndex(MatchingRule orderingRule)
+  {
+    if (!config.getIndexType().contains(IndexType.ORDERING)
+        || config.isConfidentialityEnabled()
+        || !orderingRule.equals(config.getAttribute().getOrderingMatchingRule()))
+    {
+      return null;
+    }
+    for (Indexer indexer : orderingRule.createIndexers(indexingOptions))
+    {
+      final MatchingRuleIndex index = indexIdToIndexes.get(indexer.getIndexID());
+      if (index != null && index.isTrusted())
+      {
+        return index;
+      }
+    }
+    return null;
+  }
+
   /**
    * Retrieve the entry IDs that might match an extensible filter.
    *
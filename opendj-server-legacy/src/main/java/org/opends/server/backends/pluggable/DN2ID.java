@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
 
 import org.forgerock.opendj.ldap.ByteSequence;
 import org.forgerock.opendj.ldap.ByteString;
@@ -64,6 +65,8 @@ class DN2ID extends AbstractTree
           };
 
   private final DN baseDN;
+  /** Answers the lookups of missing DNs without reading the tree. */
+  private final DN2IDFilter filter = new DN2IDFilter();
 
   /**
    * Create a DN2ID instance for in a given entryContainer.
@@ -88,7 +91,9 @@ class DN2ID extends AbstractTree
    */
   void put(final WriteableTransaction txn, DN dn, final EntryID entryID) throws StorageRuntimeException
   {
-    txn.put(getName(), toKey(dn), toValue(entryID));
+    final ByteString key = toKey(dn);
+    filter.add(key);
+    txn.put(getName(), key, toValue(entryID));
   }
 
   private ByteString toKey(DN dn)
@@ -124,10 +129,97 @@ class DN2ID extends AbstractTree
    */
   EntryID get(ReadableTransaction txn, DN dn) throws StorageRuntimeException
   {
-    final ByteString value = txn.read(getName(), toKey(dn));
+    final ByteString key = toKey(dn);
+    if (filter.isAbsent(key))
+    {
+      return null;
+    }
+    final ByteString value = txn.read(getName(), key);
     return value != null ? new EntryID(value) : null;
   }
 
+  /**
+   * Empties the in-memory filter answering the lookups of missing DNs. It must be called before the tree is written,
+   * and it only answers lookups once {@link #completeFilter(ReadableTransaction, ExecutorService)} has added the DNs
+   * of the tree to it.
+   *
+   * @param expectedNbKeys the expected number of records in the tree
+   * @param bitsPerKey the number of bits of the filter per record, or 0 to disable the filter
+   */
+  void clearFilter(long expectedNbKeys, int bitsPerKey)
+  {
+    filter.clear(expectedNbKeys, bitsPerKey);
+  }
+
+  /**
+   * Adds all the DNs of the tree to the in-memory filter, which then answers the lookups of missing DNs. The tree may
+   * be written meanwhile, since the written DNs are added to the filter too.
+   *
+   * @param txn a non null transaction
+   * @param executor the executor running this method, which stops it without completing the filter when shut down
+   * @return {@code true} if the filter has been completed
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   */
+  boolean completeFilter(ReadableTransaction txn, ExecutorService executor) throws StorageRuntimeException
+  {
+    if (!filter.isEnabled())
+    {
+      return false;
+    }
+    try (Cursor<ByteString, ByteString> cursor = txn.openCursor(getName()))
+    {
+      while (cursor.next())
+      {
+        if (executor.isShutdown())
+        {
+          return false;
+        }
+        filter.add(cursor.getKey());
+      }
+    }
+    filter.setComplete();
+    return true;
+  }
+
+  /**
+   * Returns the stamp to provide to {@link #setAbsent(DN, long)}.
+   * It must be read before starting the transaction looking for the DN.
+   *
+   * @return the stamp of the cache of missing DNs
+   */
+  long getAbsentStamp()
+  {
+    return filter.getStamp();
+  }
+
+  /**
+   * Remembers that a DN is not in the tree, so that later lookups do not read the tree.
+   * This is ignored if DNs have been written since the stamp has been read.
+   *
+   * @param dn the DN which has not been found
+   * @param stamp the stamp read with {@link #getAbsentStamp()} before starting the transaction looking for the DN
+   */
+  void setAbsent(DN dn, long stamp)
+  {
+    filter.setAbsent(toKey(dn), stamp);
+  }
+
+  /**
+   * Forgets that a DN was missing. Must be called once the transaction adding the DN has ended.
+   *
+   * @param dn the added DN
+   */
+  void invalidateAbsent(DN dn)
+  {
+    filter.invalidate(toKey(dn));
+  }
+
+  /** Forgets all the missing DNs. Must be called once the transaction adding or renaming DNs has ended. */
+  void invalidateAllAbsent()
+  {
+    filter.invalidateAll();
+  }
+
   <V> SequentialCursor<ByteString, ByteString> openCursor(SequentialCursor<ByteString, ByteString> dn2IdCursor,
       TreeVisitor<V> treeVisitor)
   {
@@ -177,6 +269,7 @@ class DN2ID extends AbstractTree
         ByteString newDnKeySuffix = currentDnKey.subSequence(oldTargetDnKeyLength, currentDnKey.length());
         ByteSequence newDnKey = new ByteStringBuilder(newTargetDnKey).appendBytes(newDnKeySuffix);
         EntryID newID = renumberEntryIDs ? rootContainer.getNextEntryID() : oldID;
+        filter.add(newDnKey);
         txn.put(getName(), newDnKey, newID.toByteString());
 
         renamedEntryIDs.add(Pair.of(oldID.longValue(), newID.longValue()));
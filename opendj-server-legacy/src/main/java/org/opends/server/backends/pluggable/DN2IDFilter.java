@@ -0,0 +1,304 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Tells whether a key may be in the dn2id tree without reading it, so that the lookups of missing entries, like the
+ * checks made before adding an entry or the binds with unknown DNs, seldom reach the storage.
+ * <p>
+ * All the keys of the tree are hashed in a bloom filter, which never answers that an existing key is absent. Keys
+ * are added to the filter before they are written to the tree, so that it remains correct while the tree changes.
+ * Deleted keys cannot be removed from the filter: they only make it less accurate until it is built again. When
+ * more keys are added than the filter was sized for, a larger filter is stacked on top of it, and a key may be in
+ * the tree if any of the stacked filters contains it. The filter only answers lookups once all the keys of the tree
+ * have been added to it, which is done in the background: until then, any key may be in the tree.
+ * <p>
+ * The keys which passed the filter but were not found in the tree are remembered in a bounded negative cache. A
+ * lookup may only cache its result if no key was written since it started, which is checked with a stamp
+ * incremented each time the cache is invalidated.
+ */
+final class DN2IDFilter
+{
+  private static final long MIN_NB_KEYS = 64 * 1024;
+  private static final int MAX_NEGATIVE_CACHE_SIZE = 10000;
+
+  /** A bloom filter sized for a number of keys. */
+  private static final class Layer
+  {
+    private final AtomicLongArray bits;
+    private final long nbBits;
+    private final int nbHashes;
+    private final long maxNbKeys;
+    private final AtomicLong nbKeys = new AtomicLong();
+
+    private Layer(long maxNbKeys, int bitsPerKey)
+    {
+      this.maxNbKeys = maxNbKeys;
+      this.bits = new AtomicLongArray((int) Math.min((maxNbKeys * bitsPerKey + 63) / 64, Integer.MAX_VALUE));
+      this.nbBits = bits.length() * 64L;
+      // Minimizes the false positive rate, which is about 1% with 10 bits per key
+      this.nbHashes = Math.max((int) Math.round(bitsPerKey * Math.log(2)), 1);
+    }
+
+    /** Returns whether this filter became full. */
+    private boolean add(long hash1, long hash2)
+    {
+      for (int i = 0; i < nbHashes; i++)
+      {
+        final long bit = Math.abs((hash1 + i * hash2) % nbBits);
+        final int index = (int) (bit >>> 6);
+        final long mask = 1L << bit;
+        long value;
+        do
+        {
+          value = bits.get(index);
+        }
+        while ((value & mask) == 0 && !bits.compareAndSet(index, value, value | mask));
+      }
+      return nbKeys.incrementAndGet() == maxNbKeys;
+    }
+
+    private boolean mightContain(long hash1, long hash2)
+    {
+      for (int i = 0; i < nbHashes; i++)
+      {
+        final long bit = Math.abs((hash1 + i * hash2) % nbBits);
+        if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** The stacked filters, most recent last. Replaced when a filter is stacked, empty when disabled. */
+  private volatile List<Layer> layers = Collections.emptyList();
+  private volatile int bitsPerKey;
+  /** Whether the filters contain all the keys of the tree. */
+  private volatile boolean isComplete;
+
+  /** The keys known to be absent from the tree, least recently used first. */
+  private final Map<ByteString, Boolean> negativeCache = new LinkedHashMap<ByteString, Boolean>(16, 0.75f, true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<ByteString, Boolean> eldest)
+    {
+      return size() > MAX_NEGATIVE_CACHE_SIZE;
+    }
+  };
+  /** Guarded by negativeCache. */
+  private long stamp;
+
+  /**
+   * Empties this filter, before adding all the keys of the tree to it. The keys written to the tree from now on are
+   * added to the filter, so the existing keys can be added while the tree is written.
+   *
+   * @param expectedNbKeys
+   *          The expected number of keys in the tree
+   * @param bitsPerKey
+   *          The number of bits of the filter per key, or 0 to disable the filter
+   */
+  void clear(long expectedNbKeys, int bitsPerKey)
+  {
+    isComplete = false;
+    this.bitsPerKey = bitsPerKey;
+    layers = bitsPerKey > 0
+        ? Collections.singletonList(new Layer(Math.max(2 * expectedNbKeys, MIN_NB_KEYS), bitsPerKey))
+        : Collections.<Layer> emptyList();
+    invalidateAll();
+  }
+
+  /**
+   * Returns whether this filter is enabled, in which case it can be completed.
+   *
+   * @return {@code true} if this filter is enabled
+   */
+  boolean isEnabled()
+  {
+    return !layers.isEmpty();
+  }
+
+  /** Indicates that all the keys of the tree have been added, so that the filter can answer lookups. */
+  void setComplete()
+  {
+    isComplete = isEnabled();
+  }
+
+  /**
+   * Adds a key to this filter. Must be called before the key is written to the tree.
+   *
+   * @param key
+   *          The key of the tree
+   */
+  void add(ByteSequence key)
+  {
+    final List<Layer> currentLayers = layers;
+    if (currentLayers.isEmpty())
+    {
+      return;
+    }
+    final long hash1 = hash(key);
+    final long hash2 = mix(hash1);
+    final Layer layer = currentLayers.get(currentLayers.size() - 1);
+    if (layer.add(hash1, hash2))
+    {
+      stackLayer(currentLayers, 2 * layer.maxNbKeys);
+    }
+  }
+
+  private synchronized void stackLayer(List<Layer> currentLayers, long maxNbKeys)
+  {
+    if (layers == currentLayers)
+    {
+      final List<Layer> newLayers = new ArrayList<>(currentLayers);
+      newLayers.add(new Layer(maxNbKeys, bitsPerKey));
+      layers = Collections.unmodifiableList(newLayers);
+    }
+  }
+
+  /**
+   * Returns whether the provided key is known to be absent from the tree, without reading it.
+   *
+   * @param key
+   *          The key of the tree
+   * @return {@code true} if the key is not in the tree, {@code false} if it may be in the tree
+   */
+  boolean isAbsent(ByteString key)
+  {
+    if (!isComplete)
+    {
+      return false;
+    }
+    if (!mightContain(key))
+    {
+      return true;
+    }
+    synchronized (negativeCache)
+    {
+      return negativeCache.containsKey(key);
+    }
+  }
+
+  private boolean mightContain(ByteSequence key)
+  {
+    final long hash1 = hash(key);
+    final long hash2 = mix(hash1);
+    for (Layer layer : layers)
+    {
+      if (layer.mightContain(hash1, hash2))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the stamp to provide for caching that a key is absent. It must be read before starting the transaction
+   * reading the key.
+   *
+   * @return the current stamp of the negative cache
+   */
+  long getStamp()
+  {
+    synchronized (negativeCache)
+    {
+      return stamp;
+    }
+  }
+
+  /**
+   * Remembers that a key has not been found in the tree, unless keys have been written since the lookup started.
+   *
+   * @param key
+   *          The key which has not been found
+   * @param lookupStamp
+   *          The stamp read before starting the transaction which looked for the key
+   */
+  void setAbsent(ByteString key, long lookupStamp)
+  {
+    synchronized (negativeCache)
+    {
+      if (isComplete && lookupStamp == stamp)
+      {
+        negativeCache.put(key, Boolean.TRUE);
+      }
+    }
+  }
+
+  /**
+   * Forgets that a key is absent. Must be called once the transaction writing the key has ended.
+   *
+   * @param key
+   *          The written key
+   */
+  void invalidate(ByteString key)
+  {
+    synchronized (negativeCache)
+    {
+      stamp++;
+      negativeCache.remove(key);
+    }
+  }
+
+  /** Forgets all the keys known to be absent. Must be called once the transaction writing keys has ended. */
+  void invalidateAll()
+  {
+    synchronized (negativeCache)
+    {
+      stamp++;
+      negativeCache.clear();
+    }
+  }
+
+  /** FNV-1a 64-bits hash. */
+  private static long hash(ByteSequence key)
+  {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++)
+    {
+      hash ^= key.byteAt(i) & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /** Derives a second hash from the first one, for double hashing. */
+  private static long mix(long hash)
+  {
+    long h = hash;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h | 1;
+  }
+}
@@ -37,6 +37,7 @@ final class DataConfig
     private boolean compactEncoding;
     private CompressedSchema compressedSchema;
     private CryptoSuite cryptoSuite;
+    private PersistentCompressionDictionaries dictionaries;
 
     Builder()
     {
@@ -73,6 +74,12 @@ final class DataConfig
       return this;
     }
 
+    public Builder dictionaries(PersistentCompressionDictionaries dictionaries)
+    {
+      this.dictionaries = dictionaries;
+      return this;
+    }
+
     public DataConfig build()
     {
       return new DataConfig(this);
@@ -87,6 +94,9 @@ final class DataConfig
   private final boolean encrypted;
 
   private final CryptoSuite cryptoSuite;
+
+  /** The dictionaries used for compressing entries, may be null. */
+  private final PersistentCompressionDictionaries dictionaries;
   /**
    * Construct a new DataConfig object with the specified settings.
    *
@@ -97,6 +107,7 @@ final class DataConfig
     this.compressed = builder.compressed;
     this.encrypted = builder.encrypted;
     this.cryptoSuite = builder.cryptoSuite;
+    this.dictionaries = builder.dictionaries;
 
     if (builder.compressedSchema == null)
     {
@@ -130,6 +141,11 @@ final class DataConfig
     return cryptoSuite;
   }
 
+  PersistentCompressionDictionaries getDictionaries()
+  {
+    return dictionaries;
+  }
+
   @Override
   public String toString()
   {
@@ -21,7 +21,15 @@ import static org.opends.messages.BackendMessages.*;
 import static org.opends.server.backends.pluggable.EntryIDSet.*;
 import static org.opends.server.backends.pluggable.State.IndexFlag.*;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.EnumSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteSequence;
@@ -31,6 +39,7 @@ import org.opends.server.backends.pluggable.CursorTransformer.ValueTransformer;
 import org.opends.server.backends.pluggable.EntryIDSet.EntryIDSetCodec;
 import org.opends.server.backends.pluggable.State.IndexFlag;
 import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
 import org.opends.server.backends.pluggable.spi.TreeName;
@@ -67,6 +76,24 @@ class DefaultIndex extends AbstractTree implements Index
    */
   private volatile boolean trusted;
 
+  /**
+   * A flag to indicate if this index is being built online from the entries. While building, reads return an
+   * undefined entryIDSet since keys may not reference all the matching entries yet, but updates are applied as if the
+   * index was trusted. It is only set while an {@link OnlineIndexBuilder} is running, which consumes the removed keys.
+   */
+  private volatile boolean building;
+  /**
+   * The keys from which entry IDs have been removed while this index is being built. Entries scanned before such a
+   * removal may have been added back to these keys, which must be checked again when the scan completes.
+   */
+  private final Queue<Map.Entry<ByteString, EntryIDSet>> removedKeys = new ConcurrentLinkedQueue<>();
+
+  /** Statistics about the keys of this index, null until they have been gathered. */
+  private volatile IndexStatistics statistics;
+  private final AtomicBoolean gatheringStatistics = new AtomicBoolean();
+  /** The number of updates received since the statistics started being gathered, telling when they become stale. */
+  private final AtomicLong nbUpdatesSinceStatistics = new AtomicLong();
+
   /**
    * Create a new index object.
    *
@@ -95,13 +122,23 @@ class DefaultIndex extends AbstractTree implements Index
   @Override
   final void afterOpen(WriteableTransaction txn, boolean createOnDemand)
   {
+    if (createOnDemand)
+    {
+      // Record the flags of a new index, so that its encoding does not change with the backend configuration
+      state.addFlagsToIndex(txn, getName());
+    }
     final EnumSet<IndexFlag> flags = state.getIndexFlags(txn, getName());
-    codec = flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
+    codec = getCodec(flags);
     if (cryptoSuite.isEncrypted())
     {
       codec = new EntryIDSet.EntryIDSetCodecV3(codec, cryptoSuite);
     }
     trusted = flags.contains(TRUSTED);
+    if (flags.contains(BUILDING) && createOnDemand)
+    {
+      // The server stopped while this index was being built online, it must be rebuilt
+      abortBuilding(txn);
+    }
     if (!trusted && entryContainer.getHighestEntryID(txn).longValue() == 0)
     {
       // If there are no entries in the entry container then there
@@ -110,6 +147,15 @@ class DefaultIndex extends AbstractTree implements Index
     }
   }
 
+  private static EntryIDSetCodec getCodec(EnumSet<IndexFlag> flags)
+  {
+    if (flags.contains(BITMAP))
+    {
+      return CODEC_V4;
+    }
+    return flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
+  }
+
   @Override
   public String valueToString(ByteString value)
   {
@@ -168,6 +214,30 @@ class DefaultIndex extends AbstractTree implements Index
   @Override
   public final void update(final WriteableTransaction txn, final ByteString key, final EntryIDSet deletedIDs,
       final EntryIDSet addedIDs) throws StorageRuntimeException
+  {
+    if (building && !isNullOrEmpty(deletedIDs))
+    {
+      removedKeys.add(new SimpleImmutableEntry<>(key, deletedIDs));
+    }
+    updateWithoutLogging(txn, key, deletedIDs, addedIDs);
+  }
+
+  /**
+   * Updates the entry IDs referenced by a key without recording removed entry IDs while this index is being built.
+   *
+   * @param txn
+   *          a non null transaction
+   * @param key
+   *          the key to update
+   * @param deletedIDs
+   *          the entry IDs to remove from the key, may be null
+   * @param addedIDs
+   *          the entry IDs to add to the key, may be null
+   * @throws StorageRuntimeException
+   *           If an error occurs in the storage.
+   */
+  final void updateWithoutLogging(final WriteableTransaction txn, final ByteString key, final EntryIDSet deletedIDs,
+      final EntryIDSet addedIDs) throws StorageRuntimeException
   {
     // Handle cases where nothing is changed early to avoid DB access.
     if (isNullOrEmpty(deletedIDs) && isNullOrEmpty(addedIDs))
@@ -179,12 +249,13 @@ class DefaultIndex extends AbstractTree implements Index
      * Avoid taking a write lock on a record which has hit all IDs because it is likely to be a
      * point of contention.
      */
-    if (!get(txn, key).isDefined())
+    if (!read(txn, key).isDefined())
     {
       return;
     }
 
     // The record is going to be changed in some way.
+    nbUpdatesSinceStatistics.incrementAndGet();
     txn.update(getName(), key, new UpdateFunction()
     {
       @Override
@@ -200,9 +271,9 @@ class DefaultIndex extends AbstractTree implements Index
            */
           return entryIDSet.size() == 0 ? null : toValue(entryIDSet);
         }
-        else if (trusted)
+        else if (trusted || building)
         {
-          if (deletedIDs != null)
+          if (deletedIDs != null && !building)
           {
             logIndexCorruptError(txn, key);
           }
@@ -268,6 +339,11 @@ class DefaultIndex extends AbstractTree implements Index
 
   @Override
   public final EntryIDSet get(ReadableTransaction txn, ByteSequence key)
+  {
+    return building ? newUndefinedSet() : read(txn, key);
+  }
+
+  private EntryIDSet read(ReadableTransaction txn, ByteSequence key)
   {
     try
     {
@@ -276,7 +352,7 @@ class DefaultIndex extends AbstractTree implements Index
       {
         return decodeValue(key, value);
       }
-      return trusted ? newDefinedSet() : newUndefinedSet();
+      return trusted || building ? newDefinedSet() : newUndefinedSet();
     }
     catch (StorageRuntimeException e)
     {
@@ -285,6 +361,97 @@ class DefaultIndex extends AbstractTree implements Index
     }
   }
 
+  /**
+   * Returns statistics about the keys of this index. Statistics are gathered with the provided executor when they are
+   * missing or when this index received too many updates since they were gathered, so they may not be available yet.
+   * Gathering stops without completing as soon as the executor is shut down.
+   *
+   * @param executor
+   *          the executor gathering the statistics in the background
+   * @return the last gathered statistics, or {@code null} if none are available yet
+   */
+  final IndexStatistics getStatistics(final ExecutorService executor)
+  {
+    final IndexStatistics stats = statistics;
+    if ((stats == null || stats.isStale(nbUpdatesSinceStatistics.get()))
+        && gatheringStatistics.compareAndSet(false, true))
+    {
+      try
+      {
+        executor.execute(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            // Updates made while gathering may not be seen by the scan, so they count for the new statistics
+            final long nbUpdates = nbUpdatesSinceStatistics.getAndSet(0);
+            IndexStatistics newStats = null;
+            try
+            {
+              newStats = gatherStatistics(executor);
+            }
+            catch (Exception e)
+            {
+              logger.traceException(e);
+            }
+            finally
+            {
+              if (newStats != null)
+              {
+                statistics = newStats;
+              }
+              else
+              {
+                nbUpdatesSinceStatistics.addAndGet(nbUpdates);
+              }
+              gatheringStatistics.set(false);
+            }
+          }
+        });
+      }
+      catch (RejectedExecutionException e)
+      {
+        // The backend is closing
+        gatheringStatistics.set(false);
+      }
+    }
+    return stats;
+  }
+
+  private IndexStatistics gatherStatistics(final ExecutorService executor) throws Exception
+  {
+    return entryContainer.getRootContainer().getStorage().read(new ReadOperation<IndexStatistics>()
+    {
+      @Override
+      public IndexStatistics run(ReadableTransaction txn) throws Exception
+      {
+        final IndexStatistics.Builder builder = new IndexStatistics.Builder();
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(getName()))
+        {
+          while (cursor.next())
+          {
+            if (executor.isShutdown())
+            {
+              // The backend is closing: do not hold the storage any longer
+              return null;
+            }
+            if (builder.isNextKeySampled())
+            {
+              final EntryIDSet entryIDs = decodeValue(cursor.getKey(), cursor.getValue());
+              // Keys which exceeded the entry limit reference at least as many entries
+              builder.addKey(cursor.getKey(), entryIDs.isDefined() ? entryIDs.size() : indexEntryLimit);
+            }
+            else
+            {
+              builder.addKey(cursor.getKey());
+            }
+          }
+        }
+        return builder.build();
+      }
+    });
+  }
+
   @Override
   public final boolean setIndexEntryLimit(int indexEntryLimit)
   {
@@ -312,6 +479,9 @@ class DefaultIndex extends AbstractTree implements Index
     if (trusted)
     {
       state.addFlagsToIndex(txn, getName(), TRUSTED);
+      state.removeFlagsFromIndex(txn, getName(), BUILDING);
+      building = false;
+      removedKeys.clear();
     }
     else
     {
@@ -325,6 +495,65 @@ class DefaultIndex extends AbstractTree implements Index
     return trusted;
   }
 
+  /**
+   * Empties this index and starts building it online. Until the index is set trusted again, it must not be used for
+   * searches, while updates are applied to it as if it was trusted.
+   *
+   * @param txn
+   *          a non null transaction
+   * @throws StorageRuntimeException
+   *           If an error occurs in the storage.
+   */
+  final synchronized void startBuilding(WriteableTransaction txn) throws StorageRuntimeException
+  {
+    setTrusted(txn, false);
+    state.addFlagsToIndex(txn, getName(), BUILDING);
+    txn.deleteTree(getName());
+    txn.openTree(getName(), true);
+    removedKeys.clear();
+    building = true;
+  }
+
+  /**
+   * Stops building this index online without completing it. The partially built index is emptied and left untrusted,
+   * like a newly added index, until it is rebuilt.
+   *
+   * @param txn
+   *          a non null transaction
+   * @throws StorageRuntimeException
+   *           If an error occurs in the storage.
+   */
+  final synchronized void abortBuilding(WriteableTransaction txn) throws StorageRuntimeException
+  {
+    // Stop logging removed keys first, even if the storage fails
+    building = false;
+    removedKeys.clear();
+    setTrusted(txn, false);
+    state.removeFlagsFromIndex(txn, getName(), BUILDING);
+    txn.deleteTree(getName());
+    txn.openTree(getName(), true);
+  }
+
+  /**
+   * Returns whether this index is being built online.
+   *
+   * @return {@code true} if this index is being built online
+   */
+  final boolean isBuilding()
+  {
+    return building;
+  }
+
+  /**
+   * Retrieves and removes the oldest key from which entry IDs have been removed while this index is being built.
+   *
+   * @return the key and the entry IDs removed from it, or {@code null} if there is none
+   */
+  final Map.Entry<ByteString, EntryIDSet> pollRemovedKey()
+  {
+    return removedKeys.poll();
+  }
+
   final boolean isEncrypted()
   {
     return cryptoSuite.isEncrypted();
@@ -27,8 +27,11 @@ import static org.opends.server.protocols.ldap.LDAPResultCode.*;
 import static org.opends.server.types.AdditionalLogItem.*;
 import static org.opends.server.util.StaticUtils.*;
 
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -36,7 +39,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -52,7 +56,9 @@ import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.SortKey;
+import org.forgerock.opendj.ldap.AttributeDescription;
 import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.MatchingRule;
 import org.forgerock.util.Pair;
 import org.opends.messages.CoreMessages;
 import org.forgerock.opendj.config.server.ConfigurationAddListener;
@@ -66,6 +72,7 @@ import org.opends.server.api.EntryCache;
 import org.opends.server.api.VirtualAttributeProvider;
 import org.opends.server.api.plugin.PluginResult.SubordinateDelete;
 import org.opends.server.api.plugin.PluginResult.SubordinateModifyDN;
+import org.opends.server.backends.pluggable.AttributeIndex.MatchingRuleIndex;
 import org.opends.server.backends.pluggable.spi.AccessMode;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
@@ -124,6 +131,8 @@ public class EntryContainer
   private static final String REFERRAL_TREE_NAME = REFERRAL_INDEX_NAME;
   /** The name of the state tree. */
   private static final String STATE_TREE_NAME = STATE_INDEX_NAME;
+  /** The directory where sort keys are spilled by default, which is the default import temporary directory. */
+  private static final String DEFAULT_SORT_TMP_DIRECTORY = "import-tmp";
 
   /** The attribute index configuration manager. */
   private final AttributeIndexCfgManager attributeIndexCfgManager;
@@ -360,7 +369,7 @@ public class EntryContainer
     this.id2childrenCount = new ID2ChildrenCount(getIndexName(ID2CHILDREN_COUNT_TREE_NAME));
     this.dn2id = new DN2ID(getIndexName(DN2ID_TREE_NAME), baseDN);
     this.dn2uri = new DN2URI(getIndexName(REFERRAL_TREE_NAME), this);
-    this.state = new State(getIndexName(STATE_TREE_NAME));
+    this.state = new State(getIndexName(STATE_TREE_NAME), config.isBitmapIndexEncoding());
 
     config.addPluggableChangeListener(this);
 
@@ -393,6 +402,7 @@ public class EntryContainer
         .cryptoSuite(serverContext.getCryptoManager().newCryptoSuite(config.getCipherTransformation(),
             config.getCipherKeyLength(),config.isConfidentialityEnabled()))
         .schema(rootContainer.getCompressedSchema())
+        .dictionaries(rootContainer.getCompressionDictionaries())
         .build();
   }
 
@@ -449,6 +459,11 @@ public class EntryContainer
 
         vlvIndexMap.put(vlvIndexCfg.getName().toLowerCase(), vlvIndex);
       }
+
+      if (accessMode.isWriteable())
+      {
+        openDN2IDFilter(txn);
+      }
     }
     catch (StorageRuntimeException de)
     {
@@ -458,6 +473,54 @@ public class EntryContainer
     }
   }
 
+  /**
+   * Builds the filter answering the lookups of missing DNs. Adding all the DNs of a large tree takes a while, so this
+   * is done in the background and the filter answers no lookups meanwhile. An empty tree, which may have just been
+   * created by the provided transaction, is added right away.
+   */
+  private void openDN2IDFilter(ReadableTransaction txn)
+  {
+    final long nbEntries = id2childrenCount.getTotalCount(txn);
+    final ExecutorService executor = rootContainer.getBackgroundExecutor();
+    dn2id.clearFilter(nbEntries, config.getDNFilterBitsPerEntry());
+    if (nbEntries == 0)
+    {
+      dn2id.completeFilter(txn, executor);
+      return;
+    }
+    try
+    {
+      executor.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            storage.read(new ReadOperation<Boolean>()
+            {
+              @Override
+              public Boolean run(ReadableTransaction txn) throws Exception
+              {
+                return dn2id.completeFilter(txn, executor);
+              }
+            });
+          }
+          catch (Exception e)
+          {
+            // The filter stays incomplete, so lookups read the tree
+            logger.traceException(e);
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException e)
+    {
+      // The backend is closing
+      logger.traceException(e);
+    }
+  }
+
   /**
    * Closes the entry container.
    *
@@ -786,41 +849,8 @@ public class EntryContainer
 
             if (sortRequest != null)
             {
-              // If the sort key is not present, the sorting will generate the
-              // default ordering. VLV search request goes through as if
-              // this sort key was not found in the user entry.
-              try
-              {
-                List<SortKey> sortKeys = sortRequest.getSortKeys();
-                reorderedCandidateEntryIDs = sort(txn, candidateEntryIDs, searchOperation, sortKeys, vlvRequest);
-              }
-              catch (DirectoryException de)
-              {
-                reorderedCandidateEntryIDs = candidateEntryIDs.toLongArray();
-                serverSideSortControlError(searchOperation, sortRequest, de);
-              }
-              try
-              {
-                if (sortRequest.containsSortKeys())
-                {
-                  addServerSideSortControl(searchOperation, SUCCESS);
-                }
-                else
-                {
-                  /*
-                   * There is no sort key associated with the sort control.
-                   * Since it came here it means that the criticality is false
-                   * so let the server return all search results unsorted and
-                   * include the sortKeyResponseControl in the searchResultDone
-                   * message.
-                   */
-                  addServerSideSortControl(searchOperation, NO_SUCH_ATTRIBUTE);
-                }
-              }
-              catch (DirectoryException de)
-              {
-                serverSideSortControlError(searchOperation, sortRequest, de);
-              }
+              reorderedCandidateEntryIDs =
+                  sortCandidates(txn, candidateEntryIDs, searchOperation, sortRequest, vlvRequest);
             }
             else
             {
@@ -869,7 +899,12 @@ public class EntryContainer
 
             if (sortRequest != null)
             {
-              // FIXME OPENDJ-2628: Add support for sorting unindexed searches using indexes like DSEE currently does
+              final long[] sortedEntryIDs = sortUnindexed(txn, searchOperation, sortRequest, vlvRequest);
+              if (sortedEntryIDs != null)
+              {
+                searchIndexed(txn, sortedEntryIDs, true, searchOperation, pageRequest);
+                return null;
+              }
               addServerSideSortControl(searchOperation, UNWILLING_TO_PERFORM);
               if (sortRequest.isCritical())
               {
@@ -883,6 +918,67 @@ public class EntryContainer
           return null;
         }
 
+        private long[] sortCandidates(ReadableTransaction txn, EntryIDSet candidateEntryIDs,
+            SearchOperation searchOperation, ServerSideSortRequestControl sortRequest, VLVRequestControl vlvRequest)
+            throws DirectoryException
+        {
+          // If the sort key is not present, the sorting will generate the
+          // default ordering. VLV search request goes through as if
+          // this sort key was not found in the user entry.
+          long[] sortedEntryIDs;
+          try
+          {
+            List<SortKey> sortKeys = sortRequest.getSortKeys();
+            sortedEntryIDs = sort(txn, candidateEntryIDs, searchOperation, sortKeys, vlvRequest);
+          }
+          catch (DirectoryException de)
+          {
+            sortedEntryIDs = candidateEntryIDs.toLongArray();
+            serverSideSortControlError(searchOperation, sortRequest, de);
+          }
+          try
+          {
+            if (sortRequest.containsSortKeys())
+            {
+              addServerSideSortControl(searchOperation, SUCCESS);
+            }
+            else
+            {
+              /*
+               * There is no sort key associated with the sort control.
+               * Since it came here it means that the criticality is false
+               * so let the server return all search results unsorted and
+               * include the sortKeyResponseControl in the searchResultDone
+               * message.
+               */
+              addServerSideSortControl(searchOperation, NO_SUCH_ATTRIBUTE);
+            }
+          }
+          catch (DirectoryException de)
+          {
+            serverSideSortControlError(searchOperation, sortRequest, de);
+          }
+          return sortedEntryIDs;
+        }
+
+        /**
+         * Sorts all the entries in the scope of an unindexed search. Returns {@code null} if there are more entries in
+         * scope than the lookthrough limit allows to examine.
+         */
+        private long[] sortUnindexed(ReadableTransaction txn, SearchOperation searchOperation,
+            ServerSideSortRequestControl sortRequest, VLVRequestControl vlvRequest) throws DirectoryException
+        {
+          final int lookThroughLimit = searchOperation.getClientConnection().getLookthroughLimit();
+          final int idSetLimit = lookThroughLimit > 0 ? lookThroughLimit : Integer.MAX_VALUE - 1;
+          final EntryIDSet scopeSet =
+              getIDSetFromScope(txn, searchOperation.getBaseDN(), searchOperation.getScope(), idSetLimit);
+          if (!scopeSet.isDefined())
+          {
+            return null;
+          }
+          return sortCandidates(txn, scopeSet, searchOperation, sortRequest, vlvRequest);
+        }
+
         private int getEntryIDSetLimit(final SearchOperation searchOperation)
         {
           final int lookThroughLimit = searchOperation.getClientConnection().getLookthroughLimit();
@@ -973,7 +1069,7 @@ public class EntryContainer
   private static EntryIDSet newIDSetFromCursor(SequentialCursor<?, EntryID> cursor, boolean includeCurrent,
       int idSetLimit)
   {
-    long entryIDs[] = new long[idSetLimit];
+    long entryIDs[] = new long[Math.min(idSetLimit, 1024)];
     int offset = 0;
     if (includeCurrent)
     {
@@ -982,6 +1078,10 @@ public class EntryContainer
 
     while(offset < idSetLimit && cursor.next())
     {
+      if (offset == entryIDs.length)
+      {
+        entryIDs = Arrays.copyOf(entryIDs, (int) Math.min((long) offset * 2, idSetLimit));
+      }
       entryIDs[offset++] = cursor.getValue().longValue();
     }
 
@@ -1447,7 +1547,7 @@ public class EntryContainer
 
     try
     {
-      storage.write(new WriteOperation()
+      rootContainer.getWriteBatcher().write(new WriteOperation()
       {
         @Override
         public void run(WriteableTransaction txn) throws Exception
@@ -1510,6 +1610,10 @@ public class EntryContainer
       writeTrustState(indexBuffer);
       throwAllowedExceptionTypes(e, DirectoryException.class, CanceledOperationException.class);
     }
+    finally
+    {
+      dn2id.invalidateAbsent(entry.getName());
+    }
 
     final EntryCache<?> entryCache = DirectoryServer.getEntryCache();
     if (entryCache != null)
@@ -1571,9 +1675,12 @@ public class EntryContainer
           throws DirectoryException, StorageRuntimeException, CanceledOperationException
   {
     final IndexBuffer indexBuffer = new IndexBuffer();
+    // A subtree delete may update many entries: do not make a group of small updates wait for it.
+    final WriteBatcher writer = deleteOperation.getRequestControl(SubtreeDeleteControl.DECODER) == null
+        ? rootContainer.getWriteBatcher() : null;
     try
     {
-      storage.write(new WriteOperation()
+      final WriteOperation deleteEntryOperation = new WriteOperation()
       {
         @Override
         public void run(WriteableTransaction txn) throws Exception
@@ -1716,10 +1823,20 @@ public class EntryContainer
             }
           }
         }
-      });
+      };
+      if (writer != null)
+      {
+        writer.write(deleteEntryOperation);
+      }
+      else
+      {
+        storage.write(deleteEntryOperation);
+      }
     }
     catch (Exception e)
     {
+      // The deleted DNs may have been seen missing before the transaction was rolled back
+      dn2id.invalidateAllAbsent();
       writeTrustState(indexBuffer);
       throwAllowedExceptionTypes(e, DirectoryException.class, CanceledOperationException.class);
     }
@@ -1752,7 +1869,8 @@ public class EntryContainer
 
     try
     {
-      return storage.read(new ReadOperation<Boolean>()
+      final long absentStamp = dn2id.getAbsentStamp();
+      final boolean exists = storage.read(new ReadOperation<Boolean>()
       {
         @Override
         public Boolean run(ReadableTransaction txn) throws Exception
@@ -1760,6 +1878,11 @@ public class EntryContainer
           return dn2id.get(txn, entryDN) != null;
         }
       });
+      if (!exists)
+      {
+        dn2id.setAbsent(entryDN, absentStamp);
+      }
+      return exists;
     }
     catch (Exception e)
     {
@@ -1783,7 +1906,8 @@ public class EntryContainer
   {
     try
     {
-      return storage.read(new ReadOperation<Entry>()
+      final long absentStamp = dn2id.getAbsentStamp();
+      final Entry entry = storage.read(new ReadOperation<Entry>()
       {
         @Override
         public Entry run(ReadableTransaction txn) throws Exception
@@ -1797,6 +1921,12 @@ public class EntryContainer
           return entry;
         }
       });
+      if (entry == null)
+      {
+        // Repeated lookups of this DN, like binds with an unknown DN, will not read the storage
+        dn2id.setAbsent(entryDN, absentStamp);
+      }
+      return entry;
     }
     catch (Exception e)
     {
@@ -1856,7 +1986,7 @@ public class EntryContainer
     final ByteString encodedNewEntry = id2entry.encode(newEntry);
     try
     {
-      storage.write(new WriteOperation()
+      rootContainer.getWriteBatcher().write(new WriteOperation()
       {
         @Override
         public void run(WriteableTransaction txn) throws Exception
@@ -2162,6 +2292,10 @@ public class EntryContainer
       writeTrustState(indexBuffer);
       throwAllowedExceptionTypes(e, DirectoryException.class, CanceledOperationException.class);
     }
+    finally
+    {
+      dn2id.invalidateAllAbsent();
+    }
   }
 
   /**
@@ -2397,6 +2531,7 @@ public class EntryContainer
         public void run(WriteableTransaction txn) throws Exception
         {
           id2entry.setDataConfig(newDataConfig(cfg));
+          state.setBitmapEncoding(cfg.isBitmapIndexEncoding());
           EntryContainer.this.config = cfg;
         }
       });
@@ -2546,98 +2681,286 @@ public class EntryContainer
       return null;
     }
 
+    if (vlvRequest == null && entryIDSet.size() > EntryIDSorter.IN_MEMORY_LIMIT)
+    {
+      // Too many candidates to sort them in memory: try to read them in order from an ordering index
+      final long[] sortedIDs = sortWithOrderingIndex(txn, entryIDSet, sortKeys);
+      if (sortedIDs != null)
+      {
+        return sortedIDs;
+      }
+    }
+
     final DN baseDN = searchOperation.getBaseDN();
     final SearchScope scope = searchOperation.getScope();
     final SearchFilter filter = searchOperation.getFilter();
 
-    final TreeMap<ByteString, EntryID> sortMap = new TreeMap<>();
-    for (EntryID id : entryIDSet)
+    try (final EntryIDSorter sorter = new EntryIDSorter(getNumberOfSortedKeysNeeded(vlvRequest), getSortTmpDirectory()))
     {
-      try
+      for (EntryID id : entryIDSet)
       {
-        Entry e = getEntry(txn, id);
-        if (e.matchesBaseAndScope(baseDN, scope) && filter.matchesEntry(e))
+        try
         {
-          sortMap.put(encodeVLVKey(sortKeys, e, id.longValue()), id);
+          Entry e = getEntry(txn, id);
+          if (e.matchesBaseAndScope(baseDN, scope) && filter.matchesEntry(e))
+          {
+            sorter.add(encodeVLVKey(sortKeys, e, id.longValue()));
+          }
+        }
+        catch (Exception e)
+        {
+          LocalizableMessage message = ERR_ENTRYIDSORTER_CANNOT_EXAMINE_ENTRY.get(id, getExceptionMessage(e));
+          throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), message, e);
         }
       }
-      catch (Exception e)
+
+      // See if there is a VLV request to further pare down the set of results, and if there is where it should be
+      // processed by offset or assertion value.
+      if (vlvRequest == null)
+      {
+        return toArray(sorter);
+      }
+
+      if (vlvRequest.getTargetType() == VLVRequestControl.TYPE_TARGET_BYOFFSET)
       {
-        LocalizableMessage message = ERR_ENTRYIDSORTER_CANNOT_EXAMINE_ENTRY.get(id, getExceptionMessage(e));
-        throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), message, e);
+        return sortByOffset(searchOperation, vlvRequest, sorter);
       }
+      return sortByGreaterThanOrEqualAssertion(searchOperation, vlvRequest, sortKeys, sorter);
+    }
+    catch (StorageRuntimeException e)
+    {
+      LocalizableMessage message = ERR_ENTRYIDSORTER_CANNOT_SORT.get(getExceptionMessage(e));
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), message, e);
+    }
+  }
+
+  /** Returns the directory where the sort keys are spilled, shared by the entry containers of the backend. */
+  private File getSortTmpDirectory()
+  {
+    final String tmpDirectory = System.getProperty(ServerConstants.SORT_TMP_DIRECTORY, DEFAULT_SORT_TMP_DIRECTORY);
+    return new File(getFileForPath(tmpDirectory), backendID + "-sort");
+  }
+
+  /**
+   * Returns how many keys from the start of the sorted list are needed to answer the VLV request, so that the sorter
+   * only has to keep these keys.
+   */
+  private static int getNumberOfSortedKeysNeeded(VLVRequestControl vlvRequest)
+  {
+    if (vlvRequest != null && vlvRequest.getTargetType() == VLVRequestControl.TYPE_TARGET_BYOFFSET)
+    {
+      // VLV offsets start at 1, and an offset of 0 is handled as 1.
+      final long listOffset = Math.max(vlvRequest.getOffset(), 1) - 1L;
+      return (int) Math.min(listOffset + Math.max(vlvRequest.getAfterCount(), 0) + 1, Integer.MAX_VALUE);
+    }
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Sorts the candidates by reading the ordering index of the primary sort key in key order, so that entries only
+   * need to be decoded for ordering candidates sharing the same primary sort value. Candidates without any value for
+   * the primary sort key come last in ascending order, and first in descending order. Since the RFC states that the
+   * lowest value of a multi-valued attribute is used regardless of the sort order, candidates are always grouped by
+   * their lowest value, then the groups are read backwards for a descending order.
+   *
+   * @return the sorted candidates, or {@code null} if there is no usable ordering index for the primary sort key
+   */
+  private long[] sortWithOrderingIndex(ReadableTransaction txn, EntryIDSet candidates, List<SortKey> sortKeys)
+      throws DirectoryException
+  {
+    final SortKey primarySortKey = sortKeys.get(0);
+    final AttributeType attributeType;
+    try
+    {
+      attributeType = AttributeDescription.valueOf(primarySortKey.getAttributeDescription()).getAttributeType();
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return null;
+    }
+    final AttributeIndex attributeIndex = getAttributeIndex(attributeType);
+    final MatchingRule orderingRule = getEffectiveOrderingRule(primarySortKey);
+    final MatchingRuleIndex orderingIndex =
+        attributeIndex != null && orderingRule != null ? attributeIndex.getOrderingIndex(orderingRule) : null;
+    if (orderingIndex == null)
+    {
+      return null;
     }
 
-    // See if there is a VLV request to further pare down the set of results, and if there is where it should be
-    // processed by offset or assertion value.
-    if (vlvRequest == null)
+    final long[] candidateIDs = candidates.toLongArray();
+    if (candidateIDs.length == 0 || candidateIDs[candidateIDs.length - 1] > Integer.MAX_VALUE)
     {
-      return toArray(sortMap.values());
+      return null;
+    }
+    final BitSet remaining = new BitSet();
+    for (long candidateID : candidateIDs)
+    {
+      remaining.set((int) candidateID);
+    }
+
+    // Candidates grouped by their lowest value for the primary sort key, in ascending order of this value
+    final List<long[]> groups = new ArrayList<>();
+    try (final Cursor<ByteString, EntryIDSet> cursor = orderingIndex.openCursor(txn))
+    {
+      while (!remaining.isEmpty() && cursor.next())
+      {
+        final EntryIDSet idSet = cursor.getValue();
+        if (!idSet.isDefined())
+        {
+          // This value is too common to know which candidates have it
+          return null;
+        }
+        final long[] group = new long[(int) Math.min(idSet.size(), candidateIDs.length)];
+        int groupSize = 0;
+        for (EntryID id : idSet)
+        {
+          final long entryID = id.longValue();
+          if (entryID <= Integer.MAX_VALUE && remaining.get((int) entryID))
+          {
+            remaining.clear((int) entryID);
+            group[groupSize++] = entryID;
+          }
+        }
+        if (groupSize > 0)
+        {
+          groups.add(Arrays.copyOf(group, groupSize));
+        }
+      }
     }
 
-    if (vlvRequest.getTargetType() == VLVRequestControl.TYPE_TARGET_BYOFFSET)
+    final long[] withoutValue = new long[remaining.cardinality()];
+    int i = 0;
+    for (int id = remaining.nextSetBit(0); id >= 0; id = remaining.nextSetBit(id + 1))
     {
-      return sortByOffset(searchOperation, vlvRequest, sortMap);
+      withoutValue[i++] = id;
     }
-    return sortByGreaterThanOrEqualAssertion(searchOperation, vlvRequest, sortKeys, sortMap);
+
+    final long[] sortedIDs = new long[candidateIDs.length];
+    int pos = 0;
+    if (primarySortKey.isReverseOrder())
+    {
+      pos = appendGroup(txn, sortKeys, withoutValue, sortedIDs, pos);
+      for (int g = groups.size() - 1; g >= 0; g--)
+      {
+        pos = appendGroup(txn, sortKeys, groups.get(g), sortedIDs, pos);
+      }
+    }
+    else
+    {
+      for (long[] group : groups)
+      {
+        pos = appendGroup(txn, sortKeys, group, sortedIDs, pos);
+      }
+      pos = appendGroup(txn, sortKeys, withoutValue, sortedIDs, pos);
+    }
+    return sortedIDs;
   }
 
-  private static final long[] toArray(Collection<EntryID> entryIDs)
+  /**
+   * Appends candidates sharing the same primary sort value, ordering them by the secondary sort keys if any.
+   * Otherwise they are ordered by entry ID, which is the order of the groups.
+   */
+  private int appendGroup(ReadableTransaction txn, List<SortKey> sortKeys, long[] group, long[] sortedIDs, int pos)
+      throws DirectoryException
   {
-    final long[] array = new long[entryIDs.size()];
+    if (sortKeys.size() == 1 || group.length <= 1)
+    {
+      System.arraycopy(group, 0, sortedIDs, pos, group.length);
+      return pos + group.length;
+    }
+
+    try (final EntryIDSorter sorter = new EntryIDSorter(Integer.MAX_VALUE, getSortTmpDirectory()))
+    {
+      for (long entryID : group)
+      {
+        final EntryID id = new EntryID(entryID);
+        try
+        {
+          final Entry e = getEntry(txn, id);
+          sorter.add(encodeVLVKey(sortKeys, e, entryID));
+        }
+        catch (Exception e)
+        {
+          LocalizableMessage message = ERR_ENTRYIDSORTER_CANNOT_EXAMINE_ENTRY.get(id, getExceptionMessage(e));
+          throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), message, e);
+        }
+      }
+      try (final SequentialCursor<ByteString, EntryID> cursor = sorter.openCursor())
+      {
+        while (cursor.next())
+        {
+          sortedIDs[pos++] = cursor.getValue().longValue();
+        }
+      }
+    }
+    return pos;
+  }
+
+  private static final long[] toArray(EntryIDSorter sorter)
+  {
+    final long[] array = new long[sorter.size()];
     int i = 0;
-    for (EntryID entryID : entryIDs)
+    try (final SequentialCursor<ByteString, EntryID> cursor = sorter.openCursor())
     {
-      array[i++] = entryID.longValue();
+      while (cursor.next())
+      {
+        array[i++] = cursor.getValue().longValue();
+      }
     }
     return array;
   }
 
   private static final long[] sortByGreaterThanOrEqualAssertion(SearchOperation searchOperation,
-      VLVRequestControl vlvRequest, List<SortKey> sortKeys, final TreeMap<ByteString, EntryID> sortMap)
+      VLVRequestControl vlvRequest, List<SortKey> sortKeys, EntryIDSorter sorter)
       throws DirectoryException
   {
     ByteString assertionValue = vlvRequest.getGreaterThanOrEqualAssertion();
     ByteSequence encodedTargetAssertion =
-        encodeTargetAssertion(sortKeys, assertionValue, searchOperation, sortMap.size());
+        encodeTargetAssertion(sortKeys, assertionValue, searchOperation, sorter.size());
 
+    final int beforeCount = Math.max(vlvRequest.getBeforeCount(), 0);
+    // The entries before the target, at most beforeCount of them, then the target and the entries after it
+    final ArrayDeque<Long> window = new ArrayDeque<>();
     boolean targetFound = false;
-    int index = 0;
     int targetIndex = 0;
-    int startIndex = 0;
     int includedAfterCount = 0;
-    long[] idSet = new long[sortMap.size()];
-    for (Map.Entry<ByteString, EntryID> entry : sortMap.entrySet())
+    try (final SequentialCursor<ByteString, EntryID> cursor = sorter.openCursor())
     {
-      ByteString vlvKey = entry.getKey();
-      EntryID id = entry.getValue();
-      idSet[index++] = id.longValue();
-
-      if (targetFound)
+      while (cursor.next())
       {
-        includedAfterCount++;
-        if (includedAfterCount >= vlvRequest.getAfterCount())
+        ByteString vlvKey = cursor.getKey();
+        window.add(cursor.getValue().longValue());
+
+        if (targetFound)
         {
-          break;
+          includedAfterCount++;
+          if (includedAfterCount >= vlvRequest.getAfterCount())
+          {
+            break;
+          }
         }
-      }
-      else
-      {
-        targetFound = vlvKey.compareTo(encodedTargetAssertion) >= 0;
-        if (targetFound)
+        else
         {
-          startIndex = Math.max(0, targetIndex - vlvRequest.getBeforeCount());
+          targetFound = vlvKey.compareTo(encodedTargetAssertion) >= 0;
+          if (!targetFound && window.size() > beforeCount)
+          {
+            window.removeFirst();
+          }
+          targetIndex++;
         }
-        targetIndex++;
       }
     }
 
     final long[] result;
     if (targetFound)
     {
-      final long[] array = new long[index - startIndex];
-      System.arraycopy(idSet, startIndex, array, 0, array.length);
-      result = array;
+      result = new long[window.size()];
+      int i = 0;
+      for (Long entryID : window)
+      {
+        result[i++] = entryID;
+      }
     }
     else
     {
@@ -2645,21 +2968,21 @@ public class EntryContainer
        * No entry was found to be greater than or equal to the sort key, so the target offset will
        * be one greater than the content count.
        */
-      targetIndex = sortMap.size() + 1;
+      targetIndex = sorter.size() + 1;
       result = new long[0];
     }
-    addVLVResponseControl(searchOperation, targetIndex, sortMap.size(), SUCCESS);
+    addVLVResponseControl(searchOperation, targetIndex, sorter.size(), SUCCESS);
     return result;
   }
 
   private static final long[] sortByOffset(SearchOperation searchOperation, VLVRequestControl vlvRequest,
-      TreeMap<ByteString, EntryID> sortMap) throws DirectoryException
+      EntryIDSorter sorter) throws DirectoryException
   {
     int targetOffset = vlvRequest.getOffset();
     if (targetOffset < 0)
     {
       // The client specified a negative target offset. This should never be allowed.
-      addVLVResponseControl(searchOperation, targetOffset, sortMap.size(), OFFSET_RANGE_ERROR);
+      addVLVResponseControl(searchOperation, targetOffset, sorter.size(), OFFSET_RANGE_ERROR);
 
       LocalizableMessage message = ERR_ENTRYIDSORTER_NEGATIVE_START_POS.get();
       throw new DirectoryException(ResultCode.VIRTUAL_LIST_VIEW_ERROR, message);
@@ -2680,12 +3003,12 @@ public class EntryContainer
       startPos = 0;
       beforeCount = listOffset;
     }
-    else if (startPos >= sortMap.size())
+    else if (startPos >= sorter.size())
     {
       // The start position is beyond the end of the list. In this case, we'll assume that the start position was
       // one greater than the size of the list and will only return the beforeCount entries.
-      targetOffset = sortMap.size() + 1;
-      listOffset = sortMap.size();
+      targetOffset = sorter.size() + 1;
+      listOffset = sorter.size();
       startPos = listOffset - beforeCount;
       afterCount = 0;
     }
@@ -2694,17 +3017,20 @@ public class EntryContainer
     long[] sortedIDs = new long[count];
     int treePos = 0;
     int arrayPos = 0;
-    for (EntryID id : sortMap.values())
+    try (final SequentialCursor<ByteString, EntryID> cursor = sorter.openCursor())
     {
-      if (treePos++ < startPos)
+      while (cursor.next())
       {
-        continue;
-      }
+        if (treePos++ < startPos)
+        {
+          continue;
+        }
 
-      sortedIDs[arrayPos++] = id.longValue();
-      if (arrayPos >= count)
-      {
-        break;
+        sortedIDs[arrayPos++] = cursor.getValue().longValue();
+        if (arrayPos >= count)
+        {
+          break;
+        }
       }
     }
 
@@ -2714,7 +3040,7 @@ public class EntryContainer
       sortedIDs = Arrays.copyOf(sortedIDs, arrayPos);
     }
 
-    addVLVResponseControl(searchOperation, targetOffset, sortMap.size(), SUCCESS);
+    addVLVResponseControl(searchOperation, targetOffset, sorter.size(), SUCCESS);
     return sortedIDs;
   }
 
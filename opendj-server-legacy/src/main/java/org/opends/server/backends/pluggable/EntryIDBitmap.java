@@ -0,0 +1,1228 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.forgerock.util.Reject.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.util.Reject;
+
+/**
+ * Compressed bitmap of entry IDs inspired by Roaring bitmaps.
+ * <p>
+ * The entry ID space is split into chunks of 65536 IDs sharing the same 48 high order bits. Each non-empty chunk is
+ * stored in a container whose representation depends on its density: a sorted array of the 16 low order bits for
+ * sparse chunks, or a 65536 bits bitmap for dense chunks. Memory consumption is therefore proportional to the density
+ * of the set, and union, intersection and difference are performed container by container, word by word for dense
+ * chunks.
+ * <p>
+ * This class is not thread safe.
+ */
+final class EntryIDBitmap
+{
+  /** Containers holding more than this number of values are stored as bitmaps. */
+  static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+
+  private static final int BITMAP_WORDS = 1024;
+  private static final int CHUNK_SIZE = 65536;
+  private static final int LOW_MASK = 0xFFFF;
+
+  private static final byte ARRAY_CONTAINER = 0x01;
+  private static final byte BITMAP_CONTAINER = 0x02;
+  private static final byte RUN_CONTAINER = 0x03;
+
+  private static final long[] NO_KEYS = new long[0];
+  private static final Container[] NO_CONTAINERS = new Container[0];
+
+  /** High order bits of the IDs held by each container, in ascending order. */
+  private long[] keys;
+  private Container[] containers;
+  private int nbContainers;
+  private long cardinality;
+
+  /** Creates a new empty bitmap. */
+  EntryIDBitmap()
+  {
+    this(NO_KEYS, NO_CONTAINERS, 0, 0);
+  }
+
+  private EntryIDBitmap(long[] keys, Container[] containers, int nbContainers, long cardinality)
+  {
+    this.keys = keys;
+    this.containers = containers;
+    this.nbContainers = nbContainers;
+    this.cardinality = cardinality;
+  }
+
+  /**
+   * Creates a new bitmap containing the provided IDs.
+   *
+   * @param ids
+   *          the IDs to add to the bitmap, usually sorted in ascending order without duplicates. Other IDs are
+   *          sorted and deduplicated first.
+   * @return a new bitmap containing the provided IDs
+   */
+  static EntryIDBitmap valueOf(long... ids)
+  {
+    checkNotNull(ids, "ids must not be null");
+    final long[] sortedIDs = isStrictlyAscending(ids) ? ids : sortDistinct(ids);
+    final EntryIDBitmap bitmap = new EntryIDBitmap();
+    int start = 0;
+    while (start < sortedIDs.length)
+    {
+      final long key = highBits(sortedIDs[start]);
+      int end = start + 1;
+      while (end < sortedIDs.length && highBits(sortedIDs[end]) == key)
+      {
+        end++;
+      }
+      final Container container = end - start > ARRAY_CONTAINER_MAX_SIZE
+          ? BitmapContainer.valueOf(sortedIDs, start, end)
+          : ArrayContainer.valueOf(sortedIDs, start, end);
+      bitmap.appendContainer(key, container);
+      start = end;
+    }
+    return bitmap;
+  }
+
+  private static boolean isStrictlyAscending(long[] ids)
+  {
+    for (int i = 1; i < ids.length; i++)
+    {
+      if (ids[i - 1] >= ids[i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long[] sortDistinct(long[] ids)
+  {
+    final long[] sorted = Arrays.copyOf(ids, ids.length);
+    Arrays.sort(sorted);
+    int length = 0;
+    for (int i = 0; i < sorted.length; i++)
+    {
+      if (length == 0 || sorted[length - 1] != sorted[i])
+      {
+        sorted[length++] = sorted[i];
+      }
+    }
+    return length == sorted.length ? sorted : Arrays.copyOf(sorted, length);
+  }
+
+  /**
+   * Decodes a bitmap previously written with {@link #encode(ByteStringBuilder)}.
+   *
+   * @param reader
+   *          the reader positioned on the encoded bitmap
+   * @return the decoded bitmap
+   * @throws IllegalArgumentException
+   *           if the encoded bitmap is malformed
+   */
+  static EntryIDBitmap decode(ByteSequenceReader reader)
+  {
+    final int nbContainers = reader.readCompactUnsignedInt();
+    final EntryIDBitmap bitmap = new EntryIDBitmap(new long[nbContainers], new Container[nbContainers], 0, 0);
+    long key = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      final long delta = reader.readCompactUnsignedLong();
+      Reject.ifFalse(i == 0 || delta > 0, "container keys must be in ascending order");
+      key += delta;
+      final Container container;
+      final byte type = reader.readByte();
+      switch (type)
+      {
+      case ARRAY_CONTAINER:
+        container = ArrayContainer.decode(reader);
+        break;
+      case BITMAP_CONTAINER:
+        container = BitmapContainer.decode(reader);
+        break;
+      case RUN_CONTAINER:
+        container = decodeRuns(reader);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown container type " + type);
+      }
+      bitmap.appendContainer(key, container);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Appends the serialized form of this bitmap to the provided builder.
+   *
+   * @param builder
+   *          the builder where to write this bitmap
+   * @return the provided builder
+   */
+  ByteStringBuilder encode(ByteStringBuilder builder)
+  {
+    builder.appendCompactUnsigned(nbContainers);
+    long previousKey = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      builder.appendCompactUnsigned(keys[i] - previousKey);
+      previousKey = keys[i];
+      containers[i].encode(builder);
+    }
+    return builder;
+  }
+
+  /**
+   * Returns an estimation of the number of bytes needed to encode this bitmap.
+   *
+   * @return an estimation of the number of bytes needed to encode this bitmap
+   */
+  int getEstimatedEncodedSize()
+  {
+    int size = ByteStringBuilder.MAX_COMPACT_SIZE;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      size += ByteStringBuilder.MAX_COMPACT_SIZE + 1 + containers[i].getEstimatedEncodedSize();
+    }
+    return size;
+  }
+
+  long cardinality()
+  {
+    return cardinality;
+  }
+
+  boolean isEmpty()
+  {
+    return cardinality == 0;
+  }
+
+  /**
+   * Returns the smallest ID of this bitmap.
+   *
+   * @return the smallest ID of this bitmap
+   * @throws NoSuchElementException
+   *           if this bitmap is empty
+   */
+  long first()
+  {
+    if (nbContainers == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return toID(keys[0], containers[0].first());
+  }
+
+  /**
+   * Returns the largest ID of this bitmap.
+   *
+   * @return the largest ID of this bitmap
+   * @throws NoSuchElementException
+   *           if this bitmap is empty
+   */
+  long last()
+  {
+    if (nbContainers == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return toID(keys[nbContainers - 1], containers[nbContainers - 1].last());
+  }
+
+  boolean contains(long id)
+  {
+    final int index = indexOf(highBits(id));
+    return index >= 0 && containers[index].contains(lowBits(id));
+  }
+
+  boolean add(long id)
+  {
+    final long key = highBits(id);
+    final int index = indexOf(key);
+    if (index >= 0)
+    {
+      final Container container = containers[index];
+      final int oldCardinality = container.cardinality();
+      containers[index] = container.add(lowBits(id));
+      return updateCardinality(containers[index].cardinality() - oldCardinality);
+    }
+    insertContainer(-(index + 1), key, new ArrayContainer(lowBits(id)));
+    cardinality++;
+    return true;
+  }
+
+  boolean remove(long id)
+  {
+    final int index = indexOf(highBits(id));
+    if (index < 0)
+    {
+      return false;
+    }
+    final Container container = containers[index];
+    final int oldCardinality = container.cardinality();
+    containers[index] = container.remove(lowBits(id));
+    final boolean changed = updateCardinality(containers[index].cardinality() - oldCardinality);
+    if (containers[index].cardinality() == 0)
+    {
+      removeContainer(index);
+    }
+    return changed;
+  }
+
+  /**
+   * Adds all the IDs of the provided bitmap to this bitmap.
+   *
+   * @param that
+   *          the bitmap whose IDs must be added. It is not modified.
+   */
+  void or(EntryIDBitmap that)
+  {
+    if (that.nbContainers == 0)
+    {
+      return;
+    }
+    final long[] newKeys = new long[nbContainers + that.nbContainers];
+    final Container[] newContainers = new Container[newKeys.length];
+    int i = 0, j = 0, k = 0;
+    while (i < nbContainers || j < that.nbContainers)
+    {
+      if (j == that.nbContainers || (i < nbContainers && keys[i] < that.keys[j]))
+      {
+        newKeys[k] = keys[i];
+        newContainers[k++] = containers[i++];
+      }
+      else if (i == nbContainers || that.keys[j] < keys[i])
+      {
+        newKeys[k] = that.keys[j];
+        newContainers[k++] = that.containers[j++].copy();
+      }
+      else
+      {
+        newKeys[k] = keys[i];
+        newContainers[k++] = containers[i++].or(that.containers[j++]);
+      }
+    }
+    replaceContainers(newKeys, newContainers, k);
+  }
+
+  /**
+   * Retains only the IDs of this bitmap which are also present in the provided bitmap.
+   *
+   * @param that
+   *          the bitmap whose IDs must be retained. It is not modified.
+   */
+  void and(EntryIDBitmap that)
+  {
+    final long[] newKeys = new long[Math.min(nbContainers, that.nbContainers)];
+    final Container[] newContainers = new Container[newKeys.length];
+    int i = 0, j = 0, k = 0;
+    while (i < nbContainers && j < that.nbContainers)
+    {
+      if (keys[i] < that.keys[j])
+      {
+        i++;
+      }
+      else if (that.keys[j] < keys[i])
+      {
+        j++;
+      }
+      else
+      {
+        final Container container = containers[i].and(that.containers[j]);
+        if (container.cardinality() > 0)
+        {
+          newKeys[k] = keys[i];
+          newContainers[k++] = container;
+        }
+        i++;
+        j++;
+      }
+    }
+    replaceContainers(newKeys, newContainers, k);
+  }
+
+  /**
+   * Removes from this bitmap all the IDs present in the provided bitmap.
+   *
+   * @param that
+   *          the bitmap whose IDs must be removed. It is not modified.
+   */
+  void andNot(EntryIDBitmap that)
+  {
+    final long[] newKeys = new long[nbContainers];
+    final Container[] newContainers = new Container[nbContainers];
+    int i = 0, j = 0, k = 0;
+    while (i < nbContainers)
+    {
+      if (j == that.nbContainers || keys[i] < that.keys[j])
+      {
+        newKeys[k] = keys[i];
+        newContainers[k++] = containers[i++];
+      }
+      else if (that.keys[j] < keys[i])
+      {
+        j++;
+      }
+      else
+      {
+        final Container container = containers[i].andNot(that.containers[j]);
+        if (container.cardinality() > 0)
+        {
+          newKeys[k] = keys[i];
+          newContainers[k++] = container;
+        }
+        i++;
+        j++;
+      }
+    }
+    replaceContainers(newKeys, newContainers, k);
+  }
+
+  /**
+   * Returns a deep copy of this bitmap.
+   *
+   * @return a deep copy of this bitmap
+   */
+  EntryIDBitmap copy()
+  {
+    final Container[] copies = new Container[nbContainers];
+    for (int i = 0; i < nbContainers; i++)
+    {
+      copies[i] = containers[i].copy();
+    }
+    return new EntryIDBitmap(Arrays.copyOf(keys, nbContainers), copies, nbContainers, cardinality);
+  }
+
+  /**
+   * Returns the IDs of this bitmap as a sorted array.
+   *
+   * @return a new array containing the IDs of this bitmap in ascending order
+   */
+  long[] toArray()
+  {
+    final long[] ids = new long[(int) cardinality];
+    int offset = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      offset = containers[i].copyTo(keys[i] << 16, ids, offset);
+    }
+    return ids;
+  }
+
+  /**
+   * Returns an iterator over the IDs of this bitmap, in ascending order.
+   *
+   * @return an iterator over the IDs of this bitmap
+   */
+  Iterator<EntryID> iterator()
+  {
+    return new Iterator<EntryID>()
+    {
+      private int containerIndex;
+      private ContainerIterator current = nbContainers > 0 ? containers[0].iterator() : null;
+
+      @Override
+      public boolean hasNext()
+      {
+        while (current != null && !current.hasNext())
+        {
+          containerIndex++;
+          current = containerIndex < nbContainers ? containers[containerIndex].iterator() : null;
+        }
+        return current != null;
+      }
+
+      @Override
+      public EntryID next()
+      {
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        return new EntryID(toID(keys[containerIndex], current.next()));
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[COUNT:" + cardinality + ", CONTAINERS:" + nbContainers + "]";
+  }
+
+  private boolean updateCardinality(int delta)
+  {
+    cardinality += delta;
+    return delta != 0;
+  }
+
+  private int indexOf(long key)
+  {
+    // Fast path for the common case of appending to or reading from the last container.
+    if (nbContainers > 0 && keys[nbContainers - 1] == key)
+    {
+      return nbContainers - 1;
+    }
+    return Arrays.binarySearch(keys, 0, nbContainers, key);
+  }
+
+  private void appendContainer(long key, Container container)
+  {
+    ensureCapacity(nbContainers + 1);
+    keys[nbContainers] = key;
+    containers[nbContainers++] = container;
+    cardinality += container.cardinality();
+  }
+
+  private void insertContainer(int index, long key, Container container)
+  {
+    ensureCapacity(nbContainers + 1);
+    System.arraycopy(keys, index, keys, index + 1, nbContainers - index);
+    System.arraycopy(containers, index, containers, index + 1, nbContainers - index);
+    keys[index] = key;
+    containers[index] = container;
+    nbContainers++;
+  }
+
+  private void removeContainer(int index)
+  {
+    System.arraycopy(keys, index + 1, keys, index, nbContainers - index - 1);
+    System.arraycopy(containers, index + 1, containers, index, nbContainers - index - 1);
+    containers[--nbContainers] = null;
+  }
+
+  private void replaceContainers(long[] newKeys, Container[] newContainers, int newNbContainers)
+  {
+    keys = newKeys;
+    containers = newContainers;
+    nbContainers = newNbContainers;
+    cardinality = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      cardinality += containers[i].cardinality();
+    }
+  }
+
+  private void ensureCapacity(int capacity)
+  {
+    if (capacity > keys.length)
+    {
+      final int newCapacity = Math.max(capacity, Math.max(4, keys.length * 2));
+      keys = Arrays.copyOf(keys, newCapacity);
+      containers = Arrays.copyOf(containers, newCapacity);
+    }
+  }
+
+  private static long highBits(long id)
+  {
+    return id >>> 16;
+  }
+
+  private static int lowBits(long id)
+  {
+    return (int) id & LOW_MASK;
+  }
+
+  private static long toID(long key, int low)
+  {
+    return (key << 16) | low;
+  }
+
+  private static Container decodeRuns(ByteSequenceReader reader)
+  {
+    final int nbRuns = reader.readCompactUnsignedInt();
+    Reject.ifFalse(nbRuns > 0, "run container must not be empty");
+    final BitmapContainer bitmap = new BitmapContainer();
+    int previousEnd = -1;
+    for (int i = 0; i < nbRuns; i++)
+    {
+      final int start = previousEnd + 1 + reader.readCompactUnsignedInt();
+      final int end = start + reader.readCompactUnsignedInt();
+      Reject.ifFalse(end < CHUNK_SIZE, "run exceeds container boundary");
+      bitmap.setRange(start, end);
+      previousEnd = end;
+    }
+    return bitmap.cardinality() > ARRAY_CONTAINER_MAX_SIZE ? bitmap : bitmap.toArrayContainer();
+  }
+
+  /** Iterator over the 16 low order bits held by a container. */
+  private interface ContainerIterator
+  {
+    boolean hasNext();
+
+    int next();
+  }
+
+  /**
+   * Set of 16 bits values sharing the same high order bits. Mutators return the container holding the result, which
+   * is either the current container or a new one if the representation had to change.
+   */
+  private abstract static class Container
+  {
+    abstract int cardinality();
+
+    abstract int first();
+
+    abstract int last();
+
+    abstract boolean contains(int value);
+
+    abstract Container add(int value);
+
+    abstract Container remove(int value);
+
+    abstract Container or(Container that);
+
+    abstract Container and(Container that);
+
+    abstract Container andNot(Container that);
+
+    abstract Container copy();
+
+    abstract int copyTo(long high, long[] ids, int offset);
+
+    abstract ContainerIterator iterator();
+
+    abstract void encode(ByteStringBuilder builder);
+
+    abstract int getEstimatedEncodedSize();
+  }
+
+  /** Container storing sparse values in a sorted array. */
+  private static final class ArrayContainer extends Container
+  {
+    private char[] values;
+    private int cardinality;
+
+    ArrayContainer(int value)
+    {
+      values = new char[] { (char) value };
+      cardinality = 1;
+    }
+
+    private ArrayContainer(char[] values, int cardinality)
+    {
+      this.values = values;
+      this.cardinality = cardinality;
+    }
+
+    static ArrayContainer valueOf(long[] ids, int start, int end)
+    {
+      final char[] values = new char[end - start];
+      for (int i = start; i < end; i++)
+      {
+        values[i - start] = (char) lowBits(ids[i]);
+      }
+      return new ArrayContainer(values, values.length);
+    }
+
+    static ArrayContainer decode(ByteSequenceReader reader)
+    {
+      final int cardinality = reader.readCompactUnsignedInt() + 1;
+      Reject.ifFalse(cardinality <= ARRAY_CONTAINER_MAX_SIZE, "array container is too large");
+      final char[] values = new char[cardinality];
+      int value = reader.readCompactUnsignedInt();
+      Reject.ifFalse(value < CHUNK_SIZE, "value exceeds container boundary");
+      values[0] = (char) value;
+      for (int i = 1; i < cardinality; i++)
+      {
+        value += reader.readCompactUnsignedInt() + 1;
+        Reject.ifFalse(value < CHUNK_SIZE, "value exceeds container boundary");
+        values[i] = (char) value;
+      }
+      return new ArrayContainer(values, cardinality);
+    }
+
+    @Override
+    int cardinality()
+    {
+      return cardinality;
+    }
+
+    @Override
+    int first()
+    {
+      return values[0];
+    }
+
+    @Override
+    int last()
+    {
+      return values[cardinality - 1];
+    }
+
+    @Override
+    boolean contains(int value)
+    {
+      return Arrays.binarySearch(values, 0, cardinality, (char) value) >= 0;
+    }
+
+    @Override
+    Container add(int value)
+    {
+      int pos = cardinality > 0 && values[cardinality - 1] < value
+          ? -(cardinality + 1)
+          : Arrays.binarySearch(values, 0, cardinality, (char) value);
+      if (pos >= 0)
+      {
+        return this;
+      }
+      if (cardinality == ARRAY_CONTAINER_MAX_SIZE)
+      {
+        return toBitmapContainer().add(value);
+      }
+      pos = -(pos + 1);
+      if (cardinality == values.length)
+      {
+        values = Arrays.copyOf(values, Math.min(ARRAY_CONTAINER_MAX_SIZE, Math.max(4, cardinality * 2)));
+      }
+      System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+      values[pos] = (char) value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(int value)
+    {
+      final int pos = Arrays.binarySearch(values, 0, cardinality, (char) value);
+      if (pos >= 0)
+      {
+        System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    @Override
+    Container or(Container that)
+    {
+      if (that instanceof BitmapContainer)
+      {
+        return that.copy().or(this);
+      }
+      final ArrayContainer other = (ArrayContainer) that;
+      if (cardinality + other.cardinality > ARRAY_CONTAINER_MAX_SIZE)
+      {
+        return toBitmapContainer().or(other);
+      }
+      final char[] merged = new char[cardinality + other.cardinality];
+      int i = 0, j = 0, k = 0;
+      while (i < cardinality && j < other.cardinality)
+      {
+        if (values[i] < other.values[j])
+        {
+          merged[k++] = values[i++];
+        }
+        else if (other.values[j] < values[i])
+        {
+          merged[k++] = other.values[j++];
+        }
+        else
+        {
+          merged[k++] = values[i++];
+          j++;
+        }
+      }
+      System.arraycopy(values, i, merged, k, cardinality - i);
+      k += cardinality - i;
+      System.arraycopy(other.values, j, merged, k, other.cardinality - j);
+      k += other.cardinality - j;
+      return new ArrayContainer(merged, k);
+    }
+
+    @Override
+    Container and(Container that)
+    {
+      final char[] retained = new char[Math.min(cardinality, that.cardinality())];
+      int k = 0;
+      if (that instanceof ArrayContainer)
+      {
+        final ArrayContainer other = (ArrayContainer) that;
+        int i = 0, j = 0;
+        while (i < cardinality && j < other.cardinality)
+        {
+          if (values[i] < other.values[j])
+          {
+            i++;
+          }
+          else if (other.values[j] < values[i])
+          {
+            j++;
+          }
+          else
+          {
+            retained[k++] = values[i++];
+            j++;
+          }
+        }
+      }
+      else
+      {
+        for (int i = 0; i < cardinality; i++)
+        {
+          if (that.contains(values[i]))
+          {
+            retained[k++] = values[i];
+          }
+        }
+      }
+      return new ArrayContainer(retained, k);
+    }
+
+    @Override
+    Container andNot(Container that)
+    {
+      final char[] retained = new char[cardinality];
+      int k = 0;
+      for (int i = 0; i < cardinality; i++)
+      {
+        if (!that.contains(values[i]))
+        {
+          retained[k++] = values[i];
+        }
+      }
+      return new ArrayContainer(retained, k);
+    }
+
+    @Override
+    Container copy()
+    {
+      return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+    }
+
+    @Override
+    int copyTo(long high, long[] ids, int offset)
+    {
+      for (int i = 0; i < cardinality; i++)
+      {
+        ids[offset++] = high | values[i];
+      }
+      return offset;
+    }
+
+    @Override
+    ContainerIterator iterator()
+    {
+      return new ContainerIterator()
+      {
+        private int index;
+
+        @Override
+        public boolean hasNext()
+        {
+          return index < cardinality;
+        }
+
+        @Override
+        public int next()
+        {
+          return values[index++];
+        }
+      };
+    }
+
+    @Override
+    void encode(ByteStringBuilder builder)
+    {
+      // Gaps between consecutive values are stored minus one so that contiguous IDs are encoded as zeros.
+      builder.appendByte(ARRAY_CONTAINER);
+      builder.appendCompactUnsigned(cardinality - 1);
+      builder.appendCompactUnsigned(values[0]);
+      for (int i = 1; i < cardinality; i++)
+      {
+        builder.appendCompactUnsigned(values[i] - values[i - 1] - 1);
+      }
+    }
+
+    @Override
+    int getEstimatedEncodedSize()
+    {
+      return ByteStringBuilder.MAX_COMPACT_SIZE + cardinality * 3;
+    }
+
+    BitmapContainer toBitmapContainer()
+    {
+      final BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < cardinality; i++)
+      {
+        bitmap.set(values[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  /** Container storing dense values in a fixed size bitmap. */
+  private static final class BitmapContainer extends Container
+  {
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer()
+    {
+      this(new long[BITMAP_WORDS], 0);
+    }
+
+    private BitmapContainer(long[] words, int cardinality)
+    {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    static BitmapContainer valueOf(long[] ids, int start, int end)
+    {
+      final BitmapContainer bitmap = new BitmapContainer();
+      for (int i = start; i < end; i++)
+      {
+        bitmap.set(lowBits(ids[i]));
+      }
+      return bitmap;
+    }
+
+    static Container decode(ByteSequenceReader reader)
+    {
+      final long[] words = new long[BITMAP_WORDS];
+      int cardinality = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        words[i] = reader.readLong();
+        cardinality += Long.bitCount(words[i]);
+      }
+      final BitmapContainer bitmap = new BitmapContainer(words, cardinality);
+      Reject.ifFalse(cardinality > 0, "bitmap container must not be empty");
+      return cardinality > ARRAY_CONTAINER_MAX_SIZE ? bitmap : bitmap.toArrayContainer();
+    }
+
+    @Override
+    int cardinality()
+    {
+      return cardinality;
+    }
+
+    @Override
+    int first()
+    {
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        if (words[i] != 0)
+        {
+          return (i << 6) + Long.numberOfTrailingZeros(words[i]);
+        }
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    int last()
+    {
+      for (int i = BITMAP_WORDS - 1; i >= 0; i--)
+      {
+        if (words[i] != 0)
+        {
+          return (i << 6) + 63 - Long.numberOfLeadingZeros(words[i]);
+        }
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    boolean contains(int value)
+    {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(int value)
+    {
+      set(value);
+      return this;
+    }
+
+    @Override
+    Container remove(int value)
+    {
+      final long word = words[value >>> 6];
+      final long newWord = word & ~(1L << value);
+      if (word != newWord)
+      {
+        words[value >>> 6] = newWord;
+        cardinality--;
+        if (cardinality <= ARRAY_CONTAINER_MAX_SIZE)
+        {
+          return toArrayContainer();
+        }
+      }
+      return this;
+    }
+
+    @Override
+    Container or(Container that)
+    {
+      if (that instanceof ArrayContainer)
+      {
+        final ArrayContainer other = (ArrayContainer) that;
+        for (int i = 0; i < other.cardinality; i++)
+        {
+          set(other.values[i]);
+        }
+        return this;
+      }
+      final long[] otherWords = ((BitmapContainer) that).words;
+      int newCardinality = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        words[i] |= otherWords[i];
+        newCardinality += Long.bitCount(words[i]);
+      }
+      cardinality = newCardinality;
+      return this;
+    }
+
+    @Override
+    Container and(Container that)
+    {
+      if (that instanceof ArrayContainer)
+      {
+        return that.and(this);
+      }
+      final long[] otherWords = ((BitmapContainer) that).words;
+      int newCardinality = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        words[i] &= otherWords[i];
+        newCardinality += Long.bitCount(words[i]);
+      }
+      cardinality = newCardinality;
+      return cardinality > ARRAY_CONTAINER_MAX_SIZE ? this : toArrayContainer();
+    }
+
+    @Override
+    Container andNot(Container that)
+    {
+      if (that instanceof ArrayContainer)
+      {
+        final ArrayContainer other = (ArrayContainer) that;
+        for (int i = 0; i < other.cardinality; i++)
+        {
+          clear(other.values[i]);
+        }
+      }
+      else
+      {
+        final long[] otherWords = ((BitmapContainer) that).words;
+        int newCardinality = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++)
+        {
+          words[i] &= ~otherWords[i];
+          newCardinality += Long.bitCount(words[i]);
+        }
+        cardinality = newCardinality;
+      }
+      return cardinality > ARRAY_CONTAINER_MAX_SIZE ? this : toArrayContainer();
+    }
+
+    @Override
+    Container copy()
+    {
+      return new BitmapContainer(words.clone(), cardinality);
+    }
+
+    @Override
+    int copyTo(long high, long[] ids, int offset)
+    {
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          ids[offset++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return offset;
+    }
+
+    @Override
+    ContainerIterator iterator()
+    {
+      return new ContainerIterator()
+      {
+        private int wordIndex = -1;
+        private long word;
+
+        @Override
+        public boolean hasNext()
+        {
+          while (word == 0 && wordIndex < BITMAP_WORDS - 1)
+          {
+            word = words[++wordIndex];
+          }
+          return word != 0;
+        }
+
+        @Override
+        public int next()
+        {
+          if (!hasNext())
+          {
+            throw new NoSuchElementException();
+          }
+          final int value = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+          word &= word - 1;
+          return value;
+        }
+      };
+    }
+
+    @Override
+    void encode(ByteStringBuilder builder)
+    {
+      // Entry IDs are allocated sequentially, so dense chunks are usually made of a few long runs.
+      final int nbRuns = countRuns();
+      if (nbRuns * 2 * 3 < BITMAP_WORDS * 8)
+      {
+        builder.appendByte(RUN_CONTAINER);
+        builder.appendCompactUnsigned(nbRuns);
+        int previousEnd = -1;
+        int start = nextSetBit(0);
+        while (start >= 0)
+        {
+          final int end = nextClearBit(start) - 1;
+          builder.appendCompactUnsigned(start - previousEnd - 1);
+          builder.appendCompactUnsigned(end - start);
+          previousEnd = end;
+          start = nextSetBit(end + 1);
+        }
+        return;
+      }
+      builder.appendByte(BITMAP_CONTAINER);
+      for (long word : words)
+      {
+        builder.appendLong(word);
+      }
+    }
+
+    @Override
+    int getEstimatedEncodedSize()
+    {
+      return BITMAP_WORDS * 8;
+    }
+
+    void set(int value)
+    {
+      final long word = words[value >>> 6];
+      final long newWord = word | (1L << value);
+      if (word != newWord)
+      {
+        words[value >>> 6] = newWord;
+        cardinality++;
+      }
+    }
+
+    void clear(int value)
+    {
+      final long word = words[value >>> 6];
+      final long newWord = word & ~(1L << value);
+      if (word != newWord)
+      {
+        words[value >>> 6] = newWord;
+        cardinality--;
+      }
+    }
+
+    void setRange(int start, int end)
+    {
+      for (int value = start; value <= end; value++)
+      {
+        set(value);
+      }
+    }
+
+    ArrayContainer toArrayContainer()
+    {
+      final char[] values = new char[cardinality];
+      int k = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          values[k++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return new ArrayContainer(values, k);
+    }
+
+    private int countRuns()
+    {
+      int nbRuns = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        final long word = words[i];
+        // A run starts on each set bit whose predecessor is clear.
+        final long previousBits = (word << 1) | (i > 0 ? words[i - 1] >>> 63 : 0);
+        nbRuns += Long.bitCount(word & ~previousBits);
+      }
+      return nbRuns;
+    }
+
+    private int nextSetBit(int from)
+    {
+      if (from >= CHUNK_SIZE)
+      {
+        return -1;
+      }
+      int wordIndex = from >>> 6;
+      long word = words[wordIndex] & (-1L << from);
+      while (word == 0)
+      {
+        if (++wordIndex == BITMAP_WORDS)
+        {
+          return -1;
+        }
+        word = words[wordIndex];
+      }
+      return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    private int nextClearBit(int from)
+    {
+      int wordIndex = from >>> 6;
+      long word = ~words[wordIndex] & (-1L << from);
+      while (word == 0)
+      {
+        if (++wordIndex == BITMAP_WORDS)
+        {
+          return CHUNK_SIZE;
+        }
+        word = ~words[wordIndex];
+      }
+      return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+  }
+}
@@ -43,6 +43,7 @@ final class EntryIDSet implements Iterable<EntryID>
 {
   public static final EntryIDSetCodec CODEC_V1 = new EntryIDSetCodecV1();
   public static final EntryIDSetCodec CODEC_V2 = new EntryIDSetCodecV2();
+  public static final EntryIDSetCodec CODEC_V4 = new EntryIDSetCodecV4();
 
   private static final ByteSequence NO_KEY = ByteString.valueOfUtf8("<none>");
   private static final long[] EMPTY_LONG_ARRAY = new long[0];
@@ -272,6 +273,91 @@ final class EntryIDSet implements Iterable<EntryID>
     }
   }
 
+  /**
+   * Concrete implementation representing a set of EntryIDs stored in a compressed bitmap. Such sets are created when
+   * decoding values encoded with {@link EntryIDSetCodecV4} so that set operations on large index values do not need to
+   * materialize their IDs.
+   */
+  private static final class BitmapImpl implements EntryIDSetImplementor
+  {
+    private final EntryIDBitmap bitmap;
+
+    BitmapImpl(EntryIDBitmap bitmap)
+    {
+      this.bitmap = checkNotNull(bitmap, "bitmap must not be null");
+    }
+
+    @Override
+    public long size()
+    {
+      return bitmap.cardinality();
+    }
+
+    @Override
+    public void toString(StringBuilder buffer)
+    {
+      buffer.append("[COUNT:").append(size()).append("]");
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return true;
+    }
+
+    @Override
+    public boolean add(EntryID entryID)
+    {
+      return bitmap.add(entryID.longValue());
+    }
+
+    @Override
+    public boolean remove(EntryID entryID)
+    {
+      return bitmap.remove(entryID.longValue());
+    }
+
+    @Override
+    public boolean contains(EntryID entryID)
+    {
+      return bitmap.contains(entryID.longValue());
+    }
+
+    @Override
+    public void addAll(EntryIDSet that)
+    {
+      bitmap.or(that.toBitmap());
+    }
+
+    @Override
+    public void removeAll(EntryIDSet that)
+    {
+      bitmap.andNot(that.toBitmap());
+    }
+
+    @Override
+    public Iterator<EntryID> iterator()
+    {
+      return bitmap.iterator();
+    }
+
+    @Override
+    public long[] getRange()
+    {
+      if (!bitmap.isEmpty())
+      {
+        return new long[] { bitmap.first(), bitmap.last() };
+      }
+      return NO_ENTRY_IDS_RANGE;
+    }
+
+    @Override
+    public long[] getIDs()
+    {
+      return bitmap.toArray();
+    }
+  }
+
   /**
    * Concrete implementation where the EntryIDs are not defined, for example when the index entry
    * limit has been exceeded.
@@ -539,7 +625,55 @@ final class EntryIDSet implements Iterable<EntryID>
   }
 
   /**
-   * Decorate a V1 or V2 codec with encryption. When writing EntryIDSets to disk,
+   * Bitmap EntryIDSet codec implementation. Defined sets are stored as a compressed bitmap (see {@link EntryIDBitmap})
+   * prefixed with a tag which cannot be the first byte of a value encoded with {@link EntryIDSetCodecV2}. This allows
+   * this codec to transparently read values written by {@link EntryIDSetCodecV2}, so that indexes can switch encoding
+   * without being rebuilt: old values are re-encoded the next time they are updated.
+   */
+  private static final class EntryIDSetCodecV4 implements EntryIDSetCodec
+  {
+    /**
+     * V2 values start with the compacted size of the set, which fits in an int and therefore never starts with a byte
+     * greater than 0xF7.
+     */
+    private static final byte BITMAP_SET = (byte) 0xFE;
+    private static final byte UNDEFINED_SET = (byte) 0xFF;
+
+    @Override
+    public ByteString encode(EntryIDSet idSet)
+    {
+      checkNotNull(idSet, "idSet must not be null");
+      if (!idSet.isDefined())
+      {
+        return ByteString.valueOfBytes(new byte[] { UNDEFINED_SET });
+      }
+      final EntryIDBitmap bitmap = idSet.toBitmap();
+      final ByteStringBuilder builder = new ByteStringBuilder(bitmap.getEstimatedEncodedSize() + 1);
+      builder.appendByte(BITMAP_SET);
+      return bitmap.encode(builder).toByteString();
+    }
+
+    @Override
+    public EntryIDSet decode(ByteSequence key, ByteString value)
+    {
+      checkNotNull(key, "key must not be null");
+      checkNotNull(value, "value must not be null");
+      switch (value.byteAt(0))
+      {
+      case UNDEFINED_SET:
+        return newUndefinedSetWithKey(key);
+      case BITMAP_SET:
+        final ByteSequenceReader reader = value.asReader();
+        reader.skip(1);
+        return new EntryIDSet(new BitmapImpl(EntryIDBitmap.decode(reader)));
+      default:
+        return CODEC_V2.decode(key, value);
+      }
+    }
+  }
+
+  /**
+   * Decorate a V1, V2 or V4 codec with encryption. When writing EntryIDSets to disk,
    * prepend two bytes, {0, 1} to mark them as encrypted.
    * The first is tag zero (unused in other encodings), followed by a byte
    * indicating version 1 of encryption.
@@ -689,6 +823,16 @@ final class EntryIDSet implements Iterable<EntryID>
       return newUndefinedSet();
     }
 
+    if (containsBitmapSet(sets))
+    {
+      final EntryIDBitmap union = new EntryIDBitmap();
+      for (EntryIDSet l : sets)
+      {
+        union.or(l.toBitmap());
+      }
+      return new EntryIDSet(new BitmapImpl(union));
+    }
+
     boolean needSort = false;
     long[] n = new long[count];
     int pos = 0;
@@ -723,6 +867,42 @@ final class EntryIDSet implements Iterable<EntryID>
     return newDefinedSet(Arrays.copyOf(n1, j));
   }
 
+  private static boolean containsBitmapSet(List<EntryIDSet> sets)
+  {
+    for (EntryIDSet set : sets)
+    {
+      if (set.isBitmap())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long[] retainContained(long[] ids, EntryIDSet bitmapSet)
+  {
+    return filterIDs(ids, bitmapSet.toBitmap(), true);
+  }
+
+  private static long[] retainNotContained(long[] ids, EntryIDSet bitmapSet)
+  {
+    return filterIDs(ids, bitmapSet.toBitmap(), false);
+  }
+
+  private static long[] filterIDs(long[] ids, EntryIDBitmap bitmap, boolean retainContained)
+  {
+    final long[] retained = new long[ids.length];
+    int count = 0;
+    for (long id : ids)
+    {
+      if (bitmap.contains(id) == retainContained)
+      {
+        retained[count++] = id;
+      }
+    }
+    return count < ids.length ? Arrays.copyOf(retained, count) : retained;
+  }
+
   private EntryIDSetImplementor concreteImpl;
 
   private EntryIDSet(EntryIDSetImplementor concreteImpl)
@@ -873,6 +1053,11 @@ final class EntryIDSet implements Iterable<EntryID>
   {
     checkNotNull(that, "that must not be null");
     Reject.ifFalse(that.isDefined(), "that must be defined");
+    if (that.isBitmap() && concreteImpl instanceof DefinedImpl)
+    {
+      // Keep large sets compressed rather than materializing the bitmap.
+      concreteImpl = new BitmapImpl(toBitmap());
+    }
     concreteImpl.addAll(that);
   }
 
@@ -889,7 +1074,11 @@ final class EntryIDSet implements Iterable<EntryID>
     checkNotNull(that, "that must not be null");
     if (!concreteImpl.isDefined())
     {
-      if ( that.isDefined() ) {
+      if (that.isBitmap())
+      {
+        concreteImpl = new BitmapImpl(that.toBitmap().copy());
+      }
+      else if ( that.isDefined() ) {
         // NOTE: It's ok to share the same array instance here thanks to the copy-on-write
         // performed by the implementation.
         concreteImpl = new DefinedImpl(that.getIDs());
@@ -903,8 +1092,20 @@ final class EntryIDSet implements Iterable<EntryID>
       return;
     }
 
-    final boolean thatSetOverlap = compareForOverlap(getRange(), that.getRange()) == 0;
-    if (thatSetOverlap)
+    if (isBitmap() && that.isBitmap())
+    {
+      ((BitmapImpl) concreteImpl).bitmap.and(that.toBitmap());
+    }
+    else if (isBitmap())
+    {
+      // The result cannot be larger than the array based set: probe the bitmap for each of its IDs.
+      concreteImpl = new DefinedImpl(retainContained(that.getIDs(), this));
+    }
+    else if (that.isBitmap())
+    {
+      concreteImpl = new DefinedImpl(retainContained(concreteImpl.getIDs(), that));
+    }
+    else if (compareForOverlap(getRange(), that.getRange()) == 0)
     {
       concreteImpl = new DefinedImpl(intersection(concreteImpl.getIDs(), that.getIDs()));
     }
@@ -928,6 +1129,11 @@ final class EntryIDSet implements Iterable<EntryID>
   {
     checkNotNull(that, "that must not be null");
     Reject.ifFalse(that.isDefined(), "that must be defined");
+    if (that.isBitmap() && concreteImpl instanceof DefinedImpl)
+    {
+      concreteImpl = new DefinedImpl(retainNotContained(concreteImpl.getIDs(), that));
+      return;
+    }
     concreteImpl.removeAll(that);
   }
 
@@ -947,6 +1153,24 @@ final class EntryIDSet implements Iterable<EntryID>
     return concreteImpl.getIDs();
   }
 
+  private boolean isBitmap()
+  {
+    return concreteImpl instanceof BitmapImpl;
+  }
+
+  /**
+   * Returns the IDs of this defined set as a bitmap. The returned bitmap is shared with this set when it is already
+   * stored as a bitmap, and must therefore not be modified.
+   */
+  private EntryIDBitmap toBitmap()
+  {
+    if (isBitmap())
+    {
+      return ((BitmapImpl) concreteImpl).bitmap;
+    }
+    return EntryIDBitmap.valueOf(concreteImpl.getIDs());
+  }
+
   private long[] getRange()
   {
     return concreteImpl.getRange();
@@ -0,0 +1,551 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.server.util.ServerConstants.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.util.Reject;
+import org.forgerock.util.Utils;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+
+/**
+ * Sorts the entry IDs of search candidates by their sort keys, as encoded by
+ * {@link VLVIndex#encodeVLVKey(java.util.List, org.opends.server.types.Entry, long)}. The encoded keys end with the
+ * entry ID, so they are unique and the entry ID can be read back from them.
+ * <p>
+ * When only the first keys of the sorted list are needed, then only these keys are kept in a bounded heap. Otherwise,
+ * sorted runs of keys are spilled to temporary files once too many keys are held in memory, and the runs are merged
+ * when the keys are read back. Either way, the memory used does not depend on the number of candidates. The number
+ * of runs read at once is bounded too: the runs are organized in levels, and once a level holds too many runs, they
+ * are merged into a single run of the next level. Each key is thus merged once per level, and the number of levels
+ * grows logarithmically with the number of runs.
+ */
+final class EntryIDSorter implements Closeable
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The default maximum number of keys held in memory before they are spilled to a temporary file. */
+  private static final int DEFAULT_IN_MEMORY_LIMIT = 100000;
+  /** The maximum number of keys held in memory before they are spilled to a temporary file. */
+  static final int IN_MEMORY_LIMIT =
+      Math.max(Integer.getInteger(SORT_IN_MEMORY_LIMIT, DEFAULT_IN_MEMORY_LIMIT), 16);
+
+  /** The maximum number of runs spilled to temporary files which are read at once. */
+  static final int MAX_MERGED_RUNS = 64;
+
+  private static final Comparator<ByteString> DESCENDING_ORDER = Collections.reverseOrder();
+
+  /** The maximum number of keys to keep, only the smallest keys being kept. */
+  private final int maxKeys;
+  private final int inMemoryLimit;
+  private final int maxMergedRuns;
+  /** The directory where the runs are spilled. */
+  private final File tmpDirectory;
+  /** The smallest keys added so far, largest first, when the number of kept keys is bounded. */
+  private final PriorityQueue<ByteString> smallestKeys;
+  /** The keys added since the last run was spilled, when the number of kept keys is not bounded. */
+  private final List<ByteString> keys;
+  /** The sorted runs of keys spilled to temporary files, by level: a run merges runs of the previous level. */
+  private final List<List<File>> levels = new ArrayList<>();
+  private final List<Closeable> openedRuns = new ArrayList<>();
+  private int size;
+
+  /**
+   * Creates a new sorter.
+   *
+   * @param maxKeys
+   *          The number of keys at the start of the sorted list which will be read, or {@link Integer#MAX_VALUE} if
+   *          the whole list will be read.
+   * @param tmpDirectory
+   *          The directory where the keys are spilled when too many keys are held in memory, created if needed.
+   */
+  EntryIDSorter(int maxKeys, File tmpDirectory)
+  {
+    this(maxKeys, IN_MEMORY_LIMIT, MAX_MERGED_RUNS, tmpDirectory);
+  }
+
+  /** Package private for testing. */
+  EntryIDSorter(int maxKeys, int inMemoryLimit, int maxMergedRuns, File tmpDirectory)
+  {
+    Reject.ifFalse(maxKeys >= 0 && inMemoryLimit > 0 && maxMergedRuns > 1);
+    Reject.ifNull(tmpDirectory);
+    this.maxKeys = maxKeys;
+    this.inMemoryLimit = inMemoryLimit;
+    this.maxMergedRuns = maxMergedRuns;
+    this.tmpDirectory = tmpDirectory;
+    if (maxKeys <= inMemoryLimit)
+    {
+      this.smallestKeys = new PriorityQueue<>(Math.max(maxKeys, 1), DESCENDING_ORDER);
+      this.keys = null;
+    }
+    else
+    {
+      this.smallestKeys = null;
+      this.keys = new ArrayList<>();
+    }
+  }
+
+  /**
+   * Adds the key of a candidate entry.
+   *
+   * @param key
+   *          The key of the candidate entry, ending with its entry ID.
+   * @throws StorageRuntimeException
+   *           If the keys could not be spilled to a temporary file.
+   */
+  void add(ByteString key)
+  {
+    size++;
+    if (smallestKeys != null)
+    {
+      if (smallestKeys.size() < maxKeys)
+      {
+        smallestKeys.add(key);
+      }
+      else if (maxKeys > 0 && key.compareTo(smallestKeys.peek()) < 0)
+      {
+        smallestKeys.poll();
+        smallestKeys.add(key);
+      }
+      return;
+    }
+
+    keys.add(key);
+    if (keys.size() >= inMemoryLimit)
+    {
+      spill();
+    }
+  }
+
+  /**
+   * Returns the number of keys added to this sorter, which may be greater than the number of keys kept.
+   *
+   * @return the number of keys added to this sorter
+   */
+  int size()
+  {
+    return size;
+  }
+
+  /**
+   * Returns whether keys have been spilled to temporary files.
+   *
+   * @return {@code true} if keys have been spilled to temporary files
+   */
+  boolean hasSpilled()
+  {
+    return getNbRuns() > 0;
+  }
+
+  private int getNbRuns()
+  {
+    int nbRuns = 0;
+    for (List<File> runs : levels)
+    {
+      nbRuns += runs.size();
+    }
+    return nbRuns;
+  }
+
+  private List<File> getLevel(int level)
+  {
+    while (levels.size() <= level)
+    {
+      levels.add(new ArrayList<File>());
+    }
+    return levels.get(level);
+  }
+
+  private void spill()
+  {
+    Collections.sort(keys);
+    writeRun(keys.iterator(), getLevel(0));
+    keys.clear();
+
+    for (int level = 0; level < levels.size(); level++)
+    {
+      final List<File> runs = levels.get(level);
+      if (runs.size() >= maxMergedRuns)
+      {
+        final List<File> mergedRuns = new ArrayList<>(runs);
+        runs.clear();
+        mergeRuns(mergedRuns, getLevel(level + 1));
+      }
+    }
+  }
+
+  /**
+   * Merges the smallest runs together until the remaining runs can be read at once along with the in-memory keys.
+   * Only the runs of the lowest levels are merged again.
+   */
+  private void mergeSmallestRuns()
+  {
+    int nbRuns = getNbRuns();
+    while (nbRuns > maxMergedRuns - 1)
+    {
+      final int nbMergedRuns = Math.min(maxMergedRuns, nbRuns - maxMergedRuns + 2);
+      final List<File> smallestRuns = new ArrayList<>(nbMergedRuns);
+      int level = 0;
+      for (; smallestRuns.size() < nbMergedRuns; level++)
+      {
+        final List<File> runs = levels.get(level);
+        while (!runs.isEmpty() && smallestRuns.size() < nbMergedRuns)
+        {
+          smallestRuns.add(runs.remove(runs.size() - 1));
+        }
+      }
+      mergeRuns(smallestRuns, levels.get(level - 1));
+      nbRuns -= nbMergedRuns - 1;
+    }
+  }
+
+  /** Merges the provided runs into a single run added to the target runs, then deletes them. */
+  private void mergeRuns(List<File> mergedRuns, List<File> targetRuns)
+  {
+    try
+    {
+      final List<Iterator<ByteString>> sortedRuns = new ArrayList<>();
+      for (File run : mergedRuns)
+      {
+        final RunIterator iterator = new RunIterator(run);
+        openedRuns.add(iterator);
+        sortedRuns.add(iterator);
+      }
+      writeRun(new MergingCursor(sortedRuns).asIterator(), targetRuns);
+    }
+    finally
+    {
+      Utils.closeSilently(openedRuns);
+      openedRuns.clear();
+      deleteRuns(mergedRuns);
+    }
+  }
+
+  private void writeRun(Iterator<ByteString> sortedKeys, List<File> targetRuns)
+  {
+    try
+    {
+      if (!tmpDirectory.isDirectory() && !tmpDirectory.mkdirs() && !tmpDirectory.isDirectory())
+      {
+        throw new IOException("Unable to create the temporary sort directory " + tmpDirectory);
+      }
+      final File run = File.createTempFile("sort", ".run", tmpDirectory);
+      targetRuns.add(run);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run))))
+      {
+        while (sortedKeys.hasNext())
+        {
+          final ByteString key = sortedKeys.next();
+          out.writeInt(key.length());
+          key.copyTo(out);
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      throw new StorageRuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns a cursor reading the kept keys in ascending order, along with their entry ID. Keys cannot be added once
+   * the cursor has been opened. The cursor is closed when this sorter is closed.
+   *
+   * @return a cursor reading the kept keys in ascending order
+   * @throws StorageRuntimeException
+   *           If a temporary file could not be read.
+   */
+  SequentialCursor<ByteString, EntryID> openCursor()
+  {
+    final List<Iterator<ByteString>> sortedRuns = new ArrayList<>();
+    if (smallestKeys != null)
+    {
+      final List<ByteString> sortedKeys = new ArrayList<>(smallestKeys);
+      Collections.sort(sortedKeys);
+      sortedRuns.add(sortedKeys.iterator());
+    }
+    else
+    {
+      // The in-memory keys are merged with the runs
+      mergeSmallestRuns();
+      Collections.sort(keys);
+      sortedRuns.add(keys.iterator());
+      for (List<File> runs : levels)
+      {
+        for (File run : runs)
+        {
+          final RunIterator iterator = new RunIterator(run);
+          openedRuns.add(iterator);
+          sortedRuns.add(iterator);
+        }
+      }
+    }
+    return new MergingCursor(sortedRuns);
+  }
+
+  @Override
+  public void close()
+  {
+    Utils.closeSilently(openedRuns);
+    openedRuns.clear();
+    for (List<File> runs : levels)
+    {
+      deleteRuns(runs);
+    }
+  }
+
+  private static void deleteRuns(List<File> runs)
+  {
+    for (File run : runs)
+    {
+      if (!run.delete())
+      {
+        logger.trace("Unable to delete the temporary sort file %s", run);
+      }
+    }
+    runs.clear();
+  }
+
+  /**
+   * Returns the entry ID ending the provided key.
+   *
+   * @param key
+   *          a key encoded with its entry ID
+   * @return the entry ID ending the provided key
+   */
+  static EntryID getEntryID(ByteString key)
+  {
+    long entryID = 0;
+    for (int i = key.length() - 8; i < key.length(); i++)
+    {
+      entryID = (entryID << 8) | (key.byteAt(i) & 0xFF);
+    }
+    return new EntryID(entryID);
+  }
+
+  /** Reads the keys of a run spilled to a temporary file. */
+  private static final class RunIterator implements Iterator<ByteString>, Closeable
+  {
+    private final DataInputStream in;
+    private ByteString next;
+
+    private RunIterator(File run)
+    {
+      try
+      {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+      }
+      catch (IOException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+      this.next = readKey();
+    }
+
+    private ByteString readKey()
+    {
+      try
+      {
+        final int length;
+        try
+        {
+          length = in.readInt();
+        }
+        catch (EOFException e)
+        {
+          return null;
+        }
+        final byte[] key = new byte[length];
+        in.readFully(key);
+        return ByteString.wrap(key);
+      }
+      catch (IOException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return next != null;
+    }
+
+    @Override
+    public ByteString next()
+    {
+      if (next == null)
+      {
+        throw new NoSuchElementException();
+      }
+      final ByteString current = next;
+      next = readKey();
+      return current;
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+      Utils.closeSilently(in);
+    }
+  }
+
+  /** Merges sorted runs of keys. */
+  private static final class MergingCursor implements SequentialCursor<ByteString, EntryID>
+  {
+    /** The head key of each run, along with the rest of the run. */
+    private final PriorityQueue<RunHead> heads;
+    private ByteString currentKey;
+
+    private MergingCursor(List<Iterator<ByteString>> sortedRuns)
+    {
+      heads = new PriorityQueue<>(Math.max(sortedRuns.size(), 1));
+      for (Iterator<ByteString> sortedRun : sortedRuns)
+      {
+        if (sortedRun.hasNext())
+        {
+          heads.add(new RunHead(sortedRun.next(), sortedRun));
+        }
+      }
+    }
+
+    @Override
+    public boolean next()
+    {
+      final RunHead head = heads.poll();
+      if (head == null)
+      {
+        currentKey = null;
+        return false;
+      }
+      currentKey = head.key;
+      if (head.rest.hasNext())
+      {
+        heads.add(new RunHead(head.rest.next(), head.rest));
+      }
+      return true;
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return currentKey != null;
+    }
+
+    @Override
+    public ByteString getKey() throws NoSuchElementException
+    {
+      if (currentKey == null)
+      {
+        throw new NoSuchElementException();
+      }
+      return currentKey;
+    }
+
+    @Override
+    public EntryID getValue() throws NoSuchElementException
+    {
+      return getEntryID(getKey());
+    }
+
+    @Override
+    public void delete() throws NoSuchElementException, UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+      // Runs are closed with the sorter
+    }
+
+    /** Returns an iterator over the keys not read yet by this cursor. */
+    private Iterator<ByteString> asIterator()
+    {
+      return new Iterator<ByteString>()
+      {
+        @Override
+        public boolean hasNext()
+        {
+          return !heads.isEmpty();
+        }
+
+        @Override
+        public ByteString next()
+        {
+          if (!MergingCursor.this.next())
+          {
+            throw new NoSuchElementException();
+          }
+          return currentKey;
+        }
+
+        @Override
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+  /** The smallest key of a sorted run which has not been read yet, along with the rest of the run. */
+  private static final class RunHead implements Comparable<RunHead>
+  {
+    private final ByteString key;
+    private final Iterator<ByteString> rest;
+
+    private RunHead(ByteString key, Iterator<ByteString> rest)
+    {
+      this.key = key;
+      this.rest = rest;
+    }
+
+    @Override
+    public int compareTo(RunHead o)
+    {
+      return key.compareTo(o.key);
+    }
+  }
+}
@@ -16,11 +16,20 @@
  */
 package org.opends.server.backends.pluggable;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteString;
@@ -34,13 +43,28 @@ import org.opends.server.types.LDIFExportConfig;
 import org.opends.server.util.LDIFException;
 import org.opends.server.util.StaticUtils;
 
+import static org.forgerock.util.Utils.*;
 import static org.opends.messages.BackendMessages.*;
 
-/** Export a backend to LDIF. */
+/**
+ * Export a backend to LDIF.
+ * <p>
+ * When several threads are requested, the entries are read in batches of
+ * consecutive IDs which are decoded, filtered and formatted concurrently by
+ * the export threads. The batches are written in the order they were read, so
+ * the LDIF is the same whatever the number of threads.
+ */
 class ExportJob
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  private static final String EXPORTER_THREAD_NAME = "EXPORTER-%d";
+
+  /** The number of consecutive entries decoded and formatted together by an export thread. */
+  private static final int BATCH_SIZE = 256;
+  /** The number of batches which can be pending per export thread, bounding the memory used. */
+  private static final int PENDING_BATCHES_PER_THREAD = 4;
+
   /** The requested LDIF export configuration. */
   private final LDIFExportConfig exportConfig;
 
@@ -53,6 +77,15 @@ class ExportJob
   /** The current number of entries skipped. */
   private long skippedCount;
 
+  /** The threads decoding and formatting the entries, or {@code null} when exporting on a single thread. */
+  private ExecutorService exporters;
+
+  /** The batches being decoded and formatted, in the order they must be written. */
+  private final Deque<Future<EntryBatch>> pendingBatches = new ArrayDeque<>();
+
+  /** The maximum number of pending batches. */
+  private int maxPendingBatches;
+
   /**
    * Create a new export job.
    *
@@ -100,6 +133,15 @@ class ExportJob
       }
     }
 
+    final int threadCount = exportConfig.getThreadCount() == 0 ? Runtime.getRuntime().availableProcessors()
+                                                               : exportConfig.getThreadCount();
+    if (threadCount > 1)
+    {
+      logger.info(NOTE_EXPORT_THREAD_COUNT, threadCount);
+      exporters = Executors.newFixedThreadPool(threadCount, newThreadFactory(null, EXPORTER_THREAD_NAME, true));
+      maxPendingBatches = threadCount * PENDING_BATCHES_PER_THREAD;
+    }
+
     // Make a note of the time we started.
     long startTime = System.currentTimeMillis();
 
@@ -144,6 +186,10 @@ class ExportJob
     finally
     {
       timer.cancel();
+      if (exporters != null)
+      {
+        exporters.shutdownNow();
+      }
     }
 
     long finishTime = System.currentTimeMillis();
@@ -174,6 +220,7 @@ class ExportJob
     ID2Entry id2entry = entryContainer.getID2Entry();
     try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(id2entry.getName()))
     {
+      EntryBatch batch = null;
       while (cursor.next())
       {
         if (exportConfig.isCancelled())
@@ -206,25 +253,23 @@ class ExportJob
         }
 
         ByteString value = cursor.getValue();
-        Entry entry = null;
-        try
+        if (exporters != null)
         {
-          entry = id2entry.entryFromDatabase(value, entryContainer.getRootContainer().getCompressedSchema());
-        }
-        catch (Exception e)
-        {
-          if (logger.isTraceEnabled())
+          if (batch == null)
           {
-            logger.traceException(e);
-
-            logger.trace("Malformed id2entry record for ID %d:%n%s%n",
-                       entryID, StaticUtils.bytesToHex(value));
+            batch = new EntryBatch(entryContainer);
+          }
+          batch.add(entryID, value);
+          if (batch.isFull())
+          {
+            submit(batch);
+            batch = null;
           }
-          skippedCount++;
           continue;
         }
 
-        if (entry.toLDIF(exportConfig))
+        Entry entry = decodeEntry(entryContainer, entryID, value);
+        if (entry != null && entry.toLDIF(exportConfig))
         {
           exportedCount++;
         }
@@ -233,6 +278,141 @@ class ExportJob
           skippedCount++;
         }
       }
+
+      if (batch != null)
+      {
+        submit(batch);
+      }
+      while (!pendingBatches.isEmpty())
+      {
+        writeOldestBatch();
+      }
+    }
+  }
+
+  /**
+   * Decodes an entry read from id2entry.
+   *
+   * @return the decoded entry, or {@code null} if the record is malformed
+   */
+  private static Entry decodeEntry(EntryContainer entryContainer, EntryID entryID, ByteString value)
+  {
+    try
+    {
+      return entryContainer.getID2Entry().entryFromDatabase(
+          value, entryContainer.getRootContainer().getCompressedSchema());
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
+
+        logger.trace("Malformed id2entry record for ID %d:%n%s%n",
+                   entryID, StaticUtils.bytesToHex(value));
+      }
+      return null;
+    }
+  }
+
+  /** Hands over the provided batch to the export threads, first writing the oldest batches if too many are pending. */
+  private void submit(EntryBatch batch) throws IOException, LDIFException
+  {
+    while (pendingBatches.size() >= maxPendingBatches)
+    {
+      writeOldestBatch();
+    }
+    pendingBatches.add(exporters.submit(batch));
+  }
+
+  /** Waits until the oldest pending batch is formatted, then writes it. */
+  private void writeOldestBatch() throws IOException, LDIFException
+  {
+    final EntryBatch batch;
+    try
+    {
+      batch = pendingBatches.removeFirst().get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new StorageRuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+      {
+        throw (IOException) cause;
+      }
+      else if (cause instanceof LDIFException)
+      {
+        throw (LDIFException) cause;
+      }
+      else if (cause instanceof RuntimeException)
+      {
+        throw (RuntimeException) cause;
+      }
+      throw new StorageRuntimeException(cause);
+    }
+
+    if (!exportConfig.isCancelled())
+    {
+      exportConfig.getWriter().write(batch.ldif.toString());
+      exportedCount += batch.exported;
+      skippedCount += batch.skipped;
+    }
+  }
+
+  /** Consecutive entries decoded, filtered and formatted together by an export thread. */
+  private final class EntryBatch implements Callable<EntryBatch>
+  {
+    private final EntryContainer entryContainer;
+    private final List<EntryID> entryIDs = new ArrayList<>(BATCH_SIZE);
+    private final List<ByteString> values = new ArrayList<>(BATCH_SIZE);
+
+    /** The LDIF of the exported entries, available once this batch has been processed. */
+    private final StringWriter ldif = new StringWriter();
+    private long exported;
+    private long skipped;
+
+    private EntryBatch(EntryContainer entryContainer)
+    {
+      this.entryContainer = entryContainer;
+    }
+
+    private void add(EntryID entryID, ByteString value)
+    {
+      entryIDs.add(entryID);
+      values.add(value);
+    }
+
+    private boolean isFull()
+    {
+      return entryIDs.size() >= BATCH_SIZE;
+    }
+
+    @Override
+    public EntryBatch call() throws IOException, LDIFException
+    {
+      final BufferedWriter writer = new BufferedWriter(ldif);
+      for (int i = 0; i < entryIDs.size() && !exportConfig.isCancelled(); i++)
+      {
+        final Entry entry = decodeEntry(entryContainer, entryIDs.get(i), values.get(i));
+        if (entry != null && entry.toLDIF(exportConfig, writer))
+        {
+          exported++;
+        }
+        else
+        {
+          skipped++;
+        }
+      }
+      writer.flush();
+      // The raw entries are no longer needed, only keep the LDIF until it is written
+      entryIDs.clear();
+      values.clear();
+      return this;
     }
   }
 
@@ -27,7 +27,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.InflaterOutputStream;
 
@@ -42,6 +44,7 @@ import org.forgerock.opendj.ldap.DecodeException;
 import org.forgerock.util.Function;
 import org.forgerock.util.Reject;
 import org.opends.server.api.CompressedSchema;
+import org.opends.server.backends.pluggable.PersistentCompressionDictionaries.Dictionary;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
@@ -119,6 +122,8 @@ class ID2Entry extends AbstractTree
     private static final byte PLAIN_ENTRY = 0x00;
     private static final byte COMPRESS_ENTRY = 0x01;
     private static final byte ENCRYPT_ENTRY = 0x02;
+    /** Raw deflate with a preset dictionary, whose ID follows the length. Always combined with COMPRESS_ENTRY. */
+    private static final byte COMPRESS_WITH_DICTIONARY = 0x04;
 
     /** The format version for entry encoding. */
     static final byte FORMAT_VERSION_V2 = 0x02;
@@ -127,6 +132,9 @@ class ID2Entry extends AbstractTree
     private final ByteStringBuilder entryBuffer = new ByteStringBuilder();
     private final ByteStringBuilder compressedEntryBuffer = new ByteStringBuilder();
     private final int maxBufferSize;
+    /** Lazily created, since entries are not compressed by default. */
+    private Deflater dictionaryDeflater;
+    private Inflater dictionaryInflater;
 
     private EntryCodec()
     {
@@ -139,8 +147,8 @@ class ID2Entry extends AbstractTree
       entryBuffer.clearAndTruncate(maxBufferSize, BUFFER_INIT_SIZE);
     }
 
-    private Entry decode(ByteString bytes, CompressedSchema compressedSchema)
-        throws DirectoryException, DecodeException, IOException
+    private Entry decode(ByteString bytes, CompressedSchema compressedSchema,
+        PersistentCompressionDictionaries dictionaries) throws DirectoryException, DecodeException, IOException
     {
       final byte formatVersion = bytes.byteAt(0);
       switch(formatVersion)
@@ -148,7 +156,7 @@ class ID2Entry extends AbstractTree
       case FORMAT_VERSION:
         return decodeV1(bytes, compressedSchema);
       case FORMAT_VERSION_V2:
-        return decodeV2(bytes, compressedSchema);
+        return decodeV2(bytes, compressedSchema, dictionaries);
       default:
         throw DecodeException.error(ERR_INCOMPATIBLE_ENTRY_VERSION.get(formatVersion));
       }
@@ -227,31 +235,43 @@ class ID2Entry extends AbstractTree
     /**
      * Decodes an entry in the new extensible format.
      * Enties are encoded according to the sequence
-     *   {VERSION_BYTE, FLAG_BYTE, COMPACT_INTEGER_LENGTH, ID2ENTRY_VALUE}
+     *   {VERSION_BYTE, FLAG_BYTE, COMPACT_INTEGER_LENGTH, [COMPACT_INTEGER_DICTIONARY_ID,] ID2ENTRY_VALUE}
      * where
      *
      * ID2ENTRY_VALUE = encoding of Entry as in decodeV1()
      * VERSION_BYTE = 0x2
      * FLAG_BYTE = bit field of OR'ed values indicating post-encoding processing.
-     *     possible meaningful flags are COMPRESS_ENTRY and ENCRYPT_ENTRY.
+     *     possible meaningful flags are COMPRESS_ENTRY, COMPRESS_WITH_DICTIONARY and ENCRYPT_ENTRY.
      * COMPACT_INTEGER_LENGTH = length of ID2ENTRY_VALUE
+     * COMPACT_INTEGER_DICTIONARY_ID = ID of the compression dictionary, only present with COMPRESS_WITH_DICTIONARY
      *
      * @param bytes A byte array containing the encoded tree value.
      * @param compressedSchema The compressed schema manager to use when decoding.
+     * @param dictionaries The compression dictionaries, may be null if entries are not compressed with dictionaries.
      * @return The decoded entry.
      * @throws DecodeException If the data is not in the expected ASN.1 encoding
      * format or a decryption error occurs.
      * @throws DirectoryException If a Directory Server error occurs.
      * @throws IOException if an error occurs while reading the ASN1 sequence.
      */
-    private Entry decodeV2(ByteString bytes, CompressedSchema compressedSchema)
-        throws DirectoryException, DecodeException, IOException
+    private Entry decodeV2(ByteString bytes, CompressedSchema compressedSchema,
+        PersistentCompressionDictionaries dictionaries) throws DirectoryException, DecodeException, IOException
     {
       ByteSequenceReader reader = bytes.asReader();
       // skip version byte
       reader.position(1);
       int format = reader.readByte();
       int encodedEntryLen = reader.readCompactUnsignedInt();
+      Dictionary dictionary = null;
+      if ((format & COMPRESS_WITH_DICTIONARY) == COMPRESS_WITH_DICTIONARY)
+      {
+        int dictionaryId = reader.readCompactUnsignedInt();
+        dictionary = dictionaries != null ? dictionaries.getDictionary(dictionaryId) : null;
+        if (dictionary == null)
+        {
+          throw DecodeException.error(ERR_UNKNOWN_COMPRESSION_DICTIONARY.get(dictionaryId));
+        }
+      }
       try
       {
         if (format == PLAIN_ENTRY)
@@ -263,7 +283,11 @@ class ID2Entry extends AbstractTree
         {
           is = getCryptoManager().getCipherInputStream(is);
         }
-        if ((format & COMPRESS_ENTRY) == COMPRESS_ENTRY)
+        if (dictionary != null)
+        {
+          is = new InflaterInputStream(is, getDictionaryInflater(dictionary));
+        }
+        else if ((format & COMPRESS_ENTRY) == COMPRESS_ENTRY)
         {
           is = new InflaterInputStream(is);
         }
@@ -290,6 +314,29 @@ class ID2Entry extends AbstractTree
       }
     }
 
+    private Inflater getDictionaryInflater(Dictionary dictionary)
+    {
+      if (dictionaryInflater == null)
+      {
+        dictionaryInflater = new Inflater(true);
+      }
+      dictionaryInflater.reset();
+      dictionaryInflater.setDictionary(dictionary.getBytes());
+      return dictionaryInflater;
+    }
+
+    private Deflater getDictionaryDeflater(Dictionary dictionary)
+    {
+      if (dictionaryDeflater == null)
+      {
+        // Favor speed: the dictionary provides most of the compression of small entries
+        dictionaryDeflater = new Deflater(Deflater.BEST_SPEED, true);
+      }
+      dictionaryDeflater.reset();
+      dictionaryDeflater.setDictionary(dictionary.getBytes());
+      return dictionaryDeflater;
+    }
+
     private ByteString encode(Entry entry, DataConfig dataConfig) throws DirectoryException
     {
       encodeVolatile(entry, dataConfig);
@@ -308,8 +355,20 @@ class ID2Entry extends AbstractTree
         encodedBuffer.appendCompactUnsigned(entryBuffer.length());
         if (dataConfig.isCompressed())
         {
-          os = new DeflaterOutputStream(os);
-          formatFlags[1] = COMPRESS_ENTRY;
+          final Dictionary dictionary = dataConfig.getDictionaries() != null
+              ? dataConfig.getDictionaries().getDictionaryForCompressing(entryBuffer)
+              : null;
+          if (dictionary != null)
+          {
+            encodedBuffer.appendCompactUnsigned(dictionary.getId());
+            os = new DeflaterOutputStream(os, getDictionaryDeflater(dictionary));
+            formatFlags[1] = COMPRESS_ENTRY | COMPRESS_WITH_DICTIONARY;
+          }
+          else
+          {
+            os = new DeflaterOutputStream(os);
+            formatFlags[1] = COMPRESS_ENTRY;
+          }
         }
         if (dataConfig.isEncrypted())
         {
@@ -387,7 +446,7 @@ class ID2Entry extends AbstractTree
     EntryCodec codec = acquireEntryCodec();
     try
     {
-      return codec.decode(bytes, compressedSchema);
+      return codec.decode(bytes, compressedSchema, dataConfig.getDictionaries());
     }
     finally
     {
@@ -19,12 +19,20 @@ import static org.opends.messages.UtilityMessages.*;
 import static org.opends.server.util.StaticUtils.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizableMessageBuilder;
@@ -41,10 +49,26 @@ import org.opends.server.types.ObjectClass;
 import org.opends.server.util.LDIFException;
 import org.opends.server.util.LDIFReader;
 
-/** This class specializes the LDIFReader for imports. */
+/**
+ * This class specializes the LDIFReader for imports.
+ * <p>
+ * When the data is read from plain LDIF files, the files are split into regions starting on entry boundaries. Each
+ * region is read and decoded by a single thread without any shared lock. Only the registration of the entries, which
+ * assigns the entry IDs and marks the entries as pending, is done region after region, so that entry IDs follow the
+ * order of the LDIF files and children can wait for their parent to be processed.
+ */
 final class ImportLDIFReader extends LDIFReader
 {
-  private final ConcurrentHashMap<DN, CountDownLatch> pendingMap = new ConcurrentHashMap<>();
+  /** The nominal size of the regions into which LDIF files are split. */
+  static final int REGION_SIZE = 4 * 1024 * 1024;
+  /** The size of the blocks read when looking for an entry boundary. */
+  private static final int BOUNDARY_BLOCK_SIZE = 8 * 1024;
+
+  private final ConcurrentHashMap<DN, PendingEntry> pendingMap = new ConcurrentHashMap<>();
+  /** The regions of the LDIF files, or {@code null} if the LDIF data cannot be split. */
+  private final List<LDIFRegion> regions;
+  /** The index of the next region to read. */
+  private final AtomicInteger nextRegion = new AtomicInteger();
 
   /**
    * A class holding the entry, its entryID as assigned by the LDIF reader and its suffix as
@@ -79,6 +103,95 @@ final class ImportLDIFReader extends LDIFReader
     }
   }
 
+  /** The lines of an entry read from the LDIF source along with its DN, its entry ID and its suffix. */
+  static final class EntryLines
+  {
+    private final LinkedList<StringBuilder> lines;
+    private final long lineNumber;
+    private DN entryDN;
+    private EntryID entryID;
+    private EntryContainer entryContainer;
+
+    private EntryLines(LinkedList<StringBuilder> lines, long lineNumber)
+    {
+      this.lines = lines;
+      this.lineNumber = lineNumber;
+    }
+
+    DN getEntryDN()
+    {
+      return entryDN;
+    }
+  }
+
+  /**
+   * A region of an LDIF file. The bounds of the region are moved to the first entry boundary found after their nominal
+   * position by the thread reading the region, so that the files do not have to be scanned before being split.
+   */
+  static final class LDIFRegion
+  {
+    private final Path file;
+    private final long nominalStart;
+    private final long nominalEnd;
+    private final long fileSize;
+    private final LDIFRegion previous;
+    /** Released once the entries of this region have been registered, allowing the next region to register. */
+    private final CountDownLatch registered = new CountDownLatch(1);
+    /** The number of lines of this region, once read. */
+    private long lineCount;
+    /** The number of lines read before the end of this region, available once the region has been registered. */
+    private long lastLineNumber;
+
+    LDIFRegion(Path file, long nominalStart, long nominalEnd, long fileSize, LDIFRegion previous)
+    {
+      this.file = file;
+      this.nominalStart = nominalStart;
+      this.nominalEnd = nominalEnd;
+      this.fileSize = fileSize;
+      this.previous = previous;
+    }
+
+    /**
+     * Reads the bytes of this region, from the first entry boundary found after its nominal start to the first entry
+     * boundary found after its nominal end.
+     */
+    byte[] readBytes() throws IOException
+    {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+      {
+        final long start = nominalStart == 0 ? 0 : findEntryBoundary(channel, nominalStart, fileSize);
+        final long end = nominalEnd == fileSize ? fileSize : findEntryBoundary(channel, nominalEnd, fileSize);
+        final byte[] bytes = new byte[(int) Math.max(end - start, 0)];
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining())
+        {
+          if (channel.read(buffer, start + buffer.position()) < 0)
+          {
+            throw new IOException("Unexpected end of file " + file);
+          }
+        }
+        return bytes;
+      }
+    }
+
+    boolean isStartOfFile()
+    {
+      return nominalStart == 0;
+    }
+  }
+
+  /** The latch of an entry being processed, remembering the ID assigned to the entry. */
+  private static final class PendingEntry extends CountDownLatch
+  {
+    private final EntryID entryID;
+
+    private PendingEntry(EntryID entryID)
+    {
+      super(1);
+      this.entryID = entryID;
+    }
+  }
+
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
   private final RootContainer rootContainer;
@@ -98,6 +211,242 @@ final class ImportLDIFReader extends LDIFReader
     super(importConfig);
     Reject.ifNull(importConfig, rootContainer);
     this.rootContainer = rootContainer;
+    this.regions = canSplit(importConfig) ? splitLDIFFiles(importConfig.getLDIFFiles(), REGION_SIZE) : null;
+  }
+
+  /**
+   * Returns whether the LDIF data described by the provided import configuration can be split into regions read
+   * concurrently, that is whether it is made of plain LDIF files.
+   */
+  static boolean canSplit(LDIFImportConfig importConfig)
+  {
+    return !importConfig.getLDIFFiles().isEmpty() && !importConfig.isCompressed() && !importConfig.isEncrypted();
+  }
+
+  /**
+   * Splits the provided LDIF files into regions of the provided nominal size.
+   *
+   * @param ldifFiles
+   *          The paths to the LDIF files, in the order they must be imported.
+   * @param regionSize
+   *          The nominal size of the regions.
+   * @return The regions of the LDIF files, in the order they must be registered.
+   * @throws IOException
+   *           If the size of a file cannot be read.
+   */
+  static List<LDIFRegion> splitLDIFFiles(List<String> ldifFiles, int regionSize) throws IOException
+  {
+    final List<LDIFRegion> regions = new ArrayList<>();
+    LDIFRegion previous = null;
+    for (String ldifFile : ldifFiles)
+    {
+      final Path file = Paths.get(ldifFile);
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+      {
+        final long fileSize = channel.size();
+        for (long start = 0; start < fileSize; start += regionSize)
+        {
+          previous = new LDIFRegion(file, start, Math.min(start + regionSize, fileSize), fileSize, previous);
+          regions.add(previous);
+        }
+      }
+    }
+    return regions;
+  }
+
+  /**
+   * Returns the position of the first blank line starting at or after the provided position, or the size of the file
+   * if there is none. Blank lines separate LDIF entries so such a position is an entry boundary.
+   */
+  static long findEntryBoundary(FileChannel channel, long position, long fileSize) throws IOException
+  {
+    final ByteBuffer block = ByteBuffer.allocate(BOUNDARY_BLOCK_SIZE);
+    // Start on the previous byte to know whether the provided position is the start of a line
+    long blockPosition = position - 1;
+    boolean atLineStart = false;
+    long lineStart = -1;
+    while (blockPosition < fileSize)
+    {
+      block.clear();
+      final int read = channel.read(block, blockPosition);
+      if (read <= 0)
+      {
+        break;
+      }
+      for (int i = 0; i < read; i++)
+      {
+        final byte b = block.get(i);
+        if (b == '\n')
+        {
+          if (atLineStart)
+          {
+            return lineStart;
+          }
+          atLineStart = true;
+          lineStart = blockPosition + i + 1;
+        }
+        else if (b != '\r' || !atLineStart)
+        {
+          atLineStart = false;
+        }
+      }
+      blockPosition += read;
+    }
+    return fileSize;
+  }
+
+  /**
+   * Returns whether the LDIF data is read region by region with {@link #readNextRegion(Map)} rather than entry by
+   * entry with {@link #readEntry(Map)}.
+   */
+  boolean isSplit()
+  {
+    return regions != null;
+  }
+
+  /**
+   * Reads the next region of the LDIF files and registers its entries. The lines and the DNs of the entries are
+   * decoded concurrently with the other regions, then the entries are registered once the previous region has
+   * registered its own entries. The registered entries must then be built with {@link #readEntry(EntryLines)} or
+   * released with {@link #removePending(DN)}.
+   *
+   * @param suffixesMap
+   *          A map of entry containers instances.
+   * @return The entries registered for the region, or <CODE>null</CODE> if all the regions have been read.
+   * @throws IOException
+   *           If an I/O problem occurs while reading from the file.
+   * @throws LDIFException
+   *           If the information read cannot be parsed as LDIF.
+   * @throws InterruptedException
+   *           If the thread was interrupted while waiting for the previous region to be registered.
+   */
+  List<EntryLines> readNextRegion(Map<DN, EntryContainer> suffixesMap)
+      throws IOException, LDIFException, InterruptedException
+  {
+    final int index = nextRegion.getAndIncrement();
+    if (index >= regions.size())
+    {
+      return null;
+    }
+    final LDIFRegion region = regions.get(index);
+    final List<EntryLines> registeredEntries = new ArrayList<>();
+    try
+    {
+      final List<EntryLines> entries = readEntriesLines(region);
+      for (EntryLines entry : entries)
+      {
+        try
+        {
+          entry.entryDN = readDN(entry.lines, new LinkedList<StringBuilder>());
+        }
+        catch (LDIFException e)
+        {
+          logger.traceException(e);
+        }
+      }
+
+      final long firstLineNumber = waitForRegistration(region.previous);
+      region.lastLineNumber = firstLineNumber + region.lineCount;
+      for (EntryLines entry : entries)
+      {
+        if (entry.entryDN != null)
+        {
+          lastEntryLineNumber = firstLineNumber + entry.lineNumber;
+          if (registerEntry(entry, suffixesMap))
+          {
+            registeredEntries.add(entry);
+          }
+        }
+      }
+      return registeredEntries;
+    }
+    finally
+    {
+      region.registered.countDown();
+    }
+  }
+
+  private static long waitForRegistration(LDIFRegion region) throws InterruptedException
+  {
+    if (region == null)
+    {
+      return 0;
+    }
+    region.registered.await();
+    return region.lastLineNumber;
+  }
+
+  /**
+   * Splits the bytes of a region into the lines of its entries, following the rules of {@link #readEntryLines()}. The
+   * line numbers are relative to the start of the region.
+   */
+  private List<EntryLines> readEntriesLines(LDIFRegion region) throws IOException, LDIFException
+  {
+    final byte[] bytes = region.readBytes();
+    final List<EntryLines> entries = new ArrayList<>();
+    LinkedList<StringBuilder> lines = new LinkedList<>();
+    long entryLineNumber = 0;
+    long lineNumber = 0;
+    int pos = 0;
+    if (region.isStartOfFile() && bytes.length >= 3
+        && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF)
+    {
+      // This is a UTF-8 BOM, skip it.
+      pos = 3;
+    }
+    while (pos < bytes.length)
+    {
+      int eol = pos;
+      while (eol < bytes.length && bytes[eol] != '\n')
+      {
+        eol++;
+      }
+      final int end = eol > pos && bytes[eol - 1] == '\r' ? eol - 1 : eol;
+      final int start = pos;
+      pos = eol + 1;
+      lineNumber++;
+
+      if (start == end)
+      {
+        // Blank line: end of the current entry, if any
+        if (!lines.isEmpty())
+        {
+          entries.add(new EntryLines(lines, entryLineNumber));
+          lines = new LinkedList<>();
+        }
+      }
+      else if (bytes[start] == '#')
+      {
+        // This is a comment. Ignore it.
+        continue;
+      }
+      else if (bytes[start] == ' ' || bytes[start] == '\t')
+      {
+        // This is a continuation of the previous line.
+        final String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        if (lines.isEmpty())
+        {
+          final LocalizableMessage message = ERR_LDIF_INVALID_LEADING_SPACE.get(lineNumber, line);
+          logToRejectWriter(lines, message);
+          throw new LDIFException(message, lineNumber, false);
+        }
+        lines.getLast().append(line, 1, line.length());
+      }
+      else
+      {
+        if (lines.isEmpty())
+        {
+          entryLineNumber = lineNumber;
+        }
+        lines.add(new StringBuilder(new String(bytes, start, end - start, StandardCharsets.UTF_8)));
+      }
+    }
+    if (!lines.isEmpty())
+    {
+      entries.add(new EntryLines(lines, entryLineNumber));
+    }
+    region.lineCount = lineNumber;
+    return entries;
   }
 
   /**
@@ -117,26 +466,24 @@ final class ImportLDIFReader extends LDIFReader
     final boolean checkSchema = importConfig.validateSchema();
     while (true)
     {
-      LinkedList<StringBuilder> lines;
-      DN entryDN;
-      EntryID entryID;
-      final EntryContainer entryContainer;
+      final EntryLines entryLines;
       synchronized (this)
       {
         // Read the set of lines that make up the next entry.
-        lines = readEntryLines();
+        final LinkedList<StringBuilder> lines = readEntryLines();
         if (lines == null)
         {
           return null;
         }
         lastEntryBodyLines = lines;
         lastEntryHeaderLines = new LinkedList<>();
+        entryLines = new EntryLines(lines, lastEntryLineNumber);
 
         // Read the DN of the entry and see if it is one that should be included
         // in the import.
         try
         {
-          entryDN = readDN(lines);
+          entryLines.entryDN = readDN(lines);
         }
         catch (LDIFException e)
         {
@@ -144,55 +491,98 @@ final class ImportLDIFReader extends LDIFReader
           continue;
         }
 
-        if (entryDN == null)
+        if (entryLines.entryDN == null)
         {
           // This should only happen if the LDIF starts with the "version:" line
           // and has a blank line immediately after that. In that case, simply
           // read and return the next entry.
           continue;
         }
-        if (!importConfig.includeEntry(entryDN))
-        {
-          logger.trace("Skipping entry %s because the DN is not one that "
-              + "should be included based on the include and exclude branches.", entryDN);
-          entriesRead.incrementAndGet();
-          logToSkipWriter(lines, ERR_LDIF_SKIP.get(entryDN));
-          continue;
-        }
-        entryContainer = getEntryContainer(entryDN, suffixesMap);
-        if (entryContainer == null)
-        {
-          logger.trace("Skipping entry %s because the DN is not one that "
-              + "should be included based on a suffix match check.", entryDN);
-          entriesRead.incrementAndGet();
-          logToSkipWriter(lines, ERR_LDIF_SKIP.get(entryDN));
-          continue;
-        }
-        entriesRead.incrementAndGet();
-        entryID = rootContainer.getNextEntryID();
-
-        if (!addPending(entryDN))
+        if (!registerEntry(entryLines, suffixesMap))
         {
-          logger.trace("Skipping entry %s because the DN already exists.", entryDN);
-          logToSkipWriter(lines, ERR_LDIF_SKIP.get(entryDN));
           continue;
         }
       }
 
-      // Create the entry and see if it is one that should be included in the import
-      final Entry entry = createEntry(lines, entryDN, checkSchema);
-      if (entry == null
-          || !isIncludedInImport(entry, lines)
-          || !invokeImportPlugins(entry, lines)
-          || (checkSchema && !isValidAgainstSchema(entry, lines)))
+      final EntryInformation entryInfo = readEntry(entryLines, checkSchema);
+      if (entryInfo != null)
       {
-        removePending(entryDN);
-        continue;
+        return entryInfo;
       }
-      return new EntryInformation(entry, entryID, entryContainer);
     }
   }
 
+  /**
+   * Builds the entry from its registered lines and checks whether it should be imported. If it should not, then it is
+   * removed from the pending entries.
+   *
+   * @param entryLines
+   *          The lines of the entry, as registered by {@link #readNextRegion(Map)}.
+   * @return The entry information, or <CODE>null</CODE> if the entry should not be imported.
+   */
+  EntryInformation readEntry(EntryLines entryLines)
+  {
+    return readEntry(entryLines, importConfig.validateSchema());
+  }
+
+  private EntryInformation readEntry(EntryLines entryLines, boolean checkSchema)
+  {
+    final LinkedList<StringBuilder> lines = entryLines.lines;
+    final DN entryDN = entryLines.entryDN;
+    // Create the entry and see if it is one that should be included in the import
+    final Entry entry = createEntry(lines, entryDN, checkSchema);
+    if (entry == null
+        || !isIncludedInImport(entry, lines)
+        || !invokeImportPlugins(entry, lines)
+        || (checkSchema && !isValidAgainstSchema(entry, lines)))
+    {
+      removePending(entryDN);
+      return null;
+    }
+    return new EntryInformation(entry, entryLines.entryID, entryLines.entryContainer);
+  }
+
+  /**
+   * Checks whether an entry should be included in the import based on its DN, then assigns it an entry ID and adds it
+   * to the pending entries. Entries must be registered in the order of the LDIF source.
+   *
+   * @return {@code true} if the entry has been registered, {@code false} if it must be skipped.
+   */
+  private boolean registerEntry(EntryLines entryLines, Map<DN, EntryContainer> suffixesMap)
+  {
+    final DN entryDN = entryLines.entryDN;
+    final LinkedList<StringBuilder> lines = entryLines.lines;
+    if (!importConfig.includeEntry(entryDN))
+    {
+      logger.trace("Skipping entry %s because the DN is not one that "
+          + "should be included based on the include and exclude branches.", entryDN);
+      entriesRead.incrementAndGet();
+      logToSkipWriter(lines, ERR_LDIF_SKIP.get(entryDN));
+      return false;
+    }
+    final EntryContainer entryContainer = getEntryContainer(entryDN, suffixesMap);
+    if (entryContainer == null)
+    {
+      logger.trace("Skipping entry %s because the DN is not one that "
+          + "should be included based on a suffix match check.", entryDN);
+      entriesRead.incrementAndGet();
+      logToSkipWriter(lines, ERR_LDIF_SKIP.get(entryDN));
+      return false;
+    }
+    entriesRead.incrementAndGet();
+    final EntryID entryID = rootContainer.getNextEntryID();
+
+    if (!addPending(entryDN, entryID))
+    {
+      logger.trace("Skipping entry %s because the DN already exists.", entryDN);
+      logToSkipWriter(lines, ERR_LDIF_SKIP.get(entryDN));
+      return false;
+    }
+    entryLines.entryID = entryID;
+    entryLines.entryContainer = entryContainer;
+    return true;
+  }
+
   private Entry createEntry(List<StringBuilder> lines, DN entryDN, boolean checkSchema)
   {
     // Read the set of attributes from the entry.
@@ -312,14 +702,16 @@ final class ImportLDIFReader extends LDIFReader
   }
 
   /**
-   * Make sure the specified parent DN is not in the pending map.
+   * Make sure the specified parent DN is not in the pending map. Only parents read before the child are waited for, so
+   * that a child read before its parent cannot wait for an entry which is itself waiting.
    *
    * @param parentDN The DN of the parent.
+   * @param entryID The entry ID of the child.
    */
-  void waitIfPending(DN parentDN)  throws InterruptedException
+  void waitIfPending(DN parentDN, EntryID entryID) throws InterruptedException
   {
-    final CountDownLatch l = pendingMap.get(parentDN);
-    if (l != null)
+    final PendingEntry l = pendingMap.get(parentDN);
+    if (l != null && l.entryID.compareTo(entryID) < 0)
     {
       l.await();
     }
@@ -329,11 +721,12 @@ final class ImportLDIFReader extends LDIFReader
    * Add specified DN to the pending map.
    *
    * @param dn The DN to add to the map.
+   * @param entryID The entry ID assigned to the entry.
    * @return true if the DN was added, false if the DN is already present.
    */
-  private boolean addPending(DN dn)
+  private boolean addPending(DN dn, EntryID entryID)
   {
-    return pendingMap.putIfAbsent(dn, new CountDownLatch(1)) == null;
+    return pendingMap.putIfAbsent(dn, new PendingEntry(entryID)) == null;
   }
 
   /**
@@ -344,7 +737,7 @@ final class ImportLDIFReader extends LDIFReader
    */
   void removePending(DN dn)
   {
-    CountDownLatch l = pendingMap.remove(dn);
+    PendingEntry l = pendingMap.remove(dn);
     if(l != null)
     {
       l.countDown();
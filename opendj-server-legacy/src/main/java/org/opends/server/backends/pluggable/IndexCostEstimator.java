@@ -0,0 +1,162 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.spi.IndexQueryFactory;
+import org.forgerock.opendj.ldap.spi.IndexingOptions;
+
+/**
+ * This class is an implementation of IndexQueryFactory which estimates the number of entry IDs that evaluating the
+ * index queries would read, from the statistics of the indexes. It mirrors {@link IndexQueryFactoryImpl} without
+ * reading the indexes, so that the cheapest filter components can be evaluated first.
+ */
+final class IndexCostEstimator implements IndexQueryFactory<Long>
+{
+  /** Estimate of queries which cannot be evaluated with the indexes and always return an undefined set. */
+  static final long NOT_INDEXED = Long.MAX_VALUE;
+  /** Estimate of queries against indexes without statistics. */
+  static final long UNKNOWN_ESTIMATE = IndexFilter.CURSOR_ENTRY_LIMIT;
+
+  private static final String PRESENCE_INDEX_KEY = "presence";
+
+  private final AttributeIndex attributeIndex;
+  private final ExecutorService statisticsGatherer;
+
+  /**
+   * Creates a new cost estimator.
+   *
+   * @param attributeIndex
+   *          The targeted attribute index
+   * @param statisticsGatherer
+   *          The executor gathering the missing index statistics
+   */
+  IndexCostEstimator(AttributeIndex attributeIndex, ExecutorService statisticsGatherer)
+  {
+    this.attributeIndex = attributeIndex;
+    this.statisticsGatherer = statisticsGatherer;
+  }
+
+  @Override
+  public Long createExactMatchQuery(String indexID, ByteSequence key)
+  {
+    final DefaultIndex index = attributeIndex.getNameToIndexes().get(indexID);
+    if (index != null)
+    {
+      return estimateKey(index, key);
+    }
+    final DefaultIndex protectedIndex =
+        attributeIndex.getNameToIndexes().get(indexID + AttributeIndex.PROTECTED_INDEX_ID);
+    if (protectedIndex != null)
+    {
+      // Keys are hashed, only rely on the average selectivity of the keys
+      return estimateKey(protectedIndex, null);
+    }
+    return createMatchAllQuery();
+  }
+
+  @Override
+  public Long createRangeMatchQuery(String indexID, ByteSequence lowerBound, ByteSequence upperBound,
+      boolean includeLowerBound, boolean includeUpperBound)
+  {
+    final DefaultIndex index = attributeIndex.getNameToIndexes().get(indexID);
+    if (index == null)
+    {
+      return createMatchAllQuery();
+    }
+    if (!index.isTrusted())
+    {
+      return NOT_INDEXED;
+    }
+    final IndexStatistics statistics = index.getStatistics(statisticsGatherer);
+    return statistics != null ? statistics.estimateRange(lowerBound, upperBound) : UNKNOWN_ESTIMATE;
+  }
+
+  @Override
+  public Long createIntersectionQuery(Collection<Long> subqueries)
+  {
+    // Intersections stop reading the sub-queries as soon as there are few candidates left
+    long estimate = NOT_INDEXED;
+    for (Long subquery : subqueries)
+    {
+      estimate = Math.min(estimate, subquery);
+    }
+    return estimate;
+  }
+
+  @Override
+  public Long createUnionQuery(Collection<Long> subqueries)
+  {
+    long estimate = 0;
+    for (Long subquery : subqueries)
+    {
+      estimate = addEstimates(estimate, subquery);
+    }
+    return estimate;
+  }
+
+  @Override
+  public Long createMatchAllQuery()
+  {
+    final DefaultIndex index = attributeIndex.getNameToIndexes().get(PRESENCE_INDEX_KEY);
+    return index != null ? estimateKey(index, AttributeIndex.PRESENCE_KEY) : NOT_INDEXED;
+  }
+
+  @Override
+  public IndexingOptions getIndexingOptions()
+  {
+    return attributeIndex.getIndexingOptions();
+  }
+
+  private Long estimateKey(DefaultIndex index, ByteSequence key)
+  {
+    if (!index.isTrusted())
+    {
+      return NOT_INDEXED;
+    }
+    final IndexStatistics statistics = index.getStatistics(statisticsGatherer);
+    if (statistics == null)
+    {
+      // A defined set of entry IDs never exceeds the index entry limit
+      final int indexEntryLimit = index.getIndexEntryLimit();
+      return indexEntryLimit > 0 ? (long) indexEntryLimit : UNKNOWN_ESTIMATE;
+    }
+    if (key == null)
+    {
+      final long nbKeys = statistics.getNbKeys();
+      return nbKeys > 0 ? statistics.getNbEntryIDs() / nbKeys : 0;
+    }
+    return statistics.estimateKey(key);
+  }
+
+  /**
+   * Adds two estimates without overflowing.
+   *
+   * @param estimate1
+   *          the first estimate
+   * @param estimate2
+   *          the second estimate
+   * @return the sum of the estimates, or {@link #NOT_INDEXED} if it overflows
+   */
+  static long addEstimates(long estimate1, long estimate2)
+  {
+    final long sum = estimate1 + estimate2;
+    return sum < 0 ? NOT_INDEXED : sum;
+  }
+}
@@ -18,9 +18,12 @@ package org.opends.server.backends.pluggable;
 
 import static org.opends.messages.BackendMessages.*;
 import static org.opends.server.backends.pluggable.EntryIDSet.*;
+import static org.opends.server.backends.pluggable.IndexCostEstimator.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.opends.server.backends.pluggable.AttributeIndex.IndexFilterType;
@@ -45,6 +48,45 @@ class IndexFilter
   /** Limit on the number of entry IDs that may be retrieved by cursoring through an index. */
   static final int CURSOR_ENTRY_LIMIT = 100000;
 
+  /**
+   * Reading and matching a candidate entry is assumed to cost as much as reading this number of entry IDs from an
+   * index.
+   */
+  private static final int ENTRY_TO_ENTRY_ID_COST_RATIO = 100;
+
+  /**
+   * A step of the evaluation of a logical filter: one of its components, or a pair of range components on the same
+   * attribute. Steps are ordered by their estimated cost.
+   */
+  private static final class PlanStep implements Comparable<PlanStep>
+  {
+    private final List<SearchFilter> filters;
+    /** Estimated number of entry IDs read when evaluating this step. */
+    private final long cost;
+
+    private PlanStep(List<SearchFilter> filters, long cost)
+    {
+      this.filters = filters;
+      this.cost = cost;
+    }
+
+    private boolean isBoundedRange()
+    {
+      return filters.size() == 2;
+    }
+
+    private SearchFilter getFilter()
+    {
+      return filters.get(0);
+    }
+
+    @Override
+    public int compareTo(PlanStep o)
+    {
+      return Long.compare(cost, o.cost);
+    }
+  }
+
   /** The entry container holding the attribute indexes. */
   private final EntryContainer entryContainer;
   private final ReadableTransaction txn;
@@ -164,28 +206,64 @@ class IndexFilter
 
   /**
    * Evaluate a logical AND search filter against the indexes.
+   * <p>
+   * The components are evaluated from the cheapest to the most expensive, as estimated from the index statistics.
+   * Evaluation stops as soon as there are few candidates left, and components whose evaluation costs more than
+   * matching the remaining candidate entries are skipped.
    *
    * @param andFilter The AND search filter to be evaluated.
    * @return A set of entry IDs representing candidate entries.
    */
   private EntryIDSet evaluateLogicalAndFilter(SearchFilter andFilter)
   {
-    // Put the slow range filters (greater-or-equal, less-or-equal)
-    // into a hash map, the faster components (equality, presence, approx)
-    // into one list and the remainder into another list.
+    final List<PlanStep> plan = planLogicalAndFilter(andFilter);
+    Collections.sort(plan);
 
-    ArrayList<SearchFilter> fastComps = new ArrayList<>();
-    ArrayList<SearchFilter> otherComps = new ArrayList<>();
-    HashMap<AttributeType, ArrayList<SearchFilter>> rangeComps = new HashMap<>();
+    final EntryIDSet results = newUndefinedSet();
+    for (PlanStep step : plan)
+    {
+      if (isBelowFilterThreshold(results))
+      {
+        return results;
+      }
+      appendCostToDebugBuffer(step.cost);
+      if (isCheaperToMatchEntries(results, step.cost))
+      {
+        if (buffer != null)
+        {
+          for (SearchFilter filter : step.filters)
+          {
+            filter.toString(buffer);
+          }
+          buffer.append("[SKIPPED]");
+        }
+        if (monitor.isFilterUseEnabled())
+        {
+          final SearchFilter filter =
+              step.isBoundedRange() ? SearchFilter.createANDFilter(step.filters) : step.getFilter();
+          monitor.updateStats(filter, INFO_INDEX_FILTER_EVALUATION_SKIPPED.get(results.size()));
+        }
+        continue;
+      }
+      results.retainAll(step.isBoundedRange() ? evaluateBoundedRange(step.filters) : evaluateFilter(step.getFilter()));
+    }
+    return results;
+  }
 
+  /**
+   * Splits an AND filter into steps which can be evaluated independently, pairing the range components on the same
+   * attribute like (cn>=A)(cn<=B) so that they are evaluated together.
+   */
+  private List<PlanStep> planLogicalAndFilter(SearchFilter andFilter)
+  {
+    final List<PlanStep> plan = new ArrayList<>();
+    final Map<AttributeType, List<SearchFilter>> rangeComps = new LinkedHashMap<>();
     for (SearchFilter filter : andFilter.getFilterComponents())
     {
-      FilterType filterType = filter.getFilterType();
-      if (filterType == FilterType.GREATER_OR_EQUAL ||
-           filterType == FilterType.LESS_OR_EQUAL)
+      final FilterType filterType = filter.getFilterType();
+      if (filterType == FilterType.GREATER_OR_EQUAL || filterType == FilterType.LESS_OR_EQUAL)
       {
-        ArrayList<SearchFilter> rangeList;
-        rangeList = rangeComps.get(filter.getAttributeType());
+        List<SearchFilter> rangeList = rangeComps.get(filter.getAttributeType());
         if (rangeList == null)
         {
           rangeList = new ArrayList<>();
@@ -193,81 +271,57 @@ class IndexFilter
         }
         rangeList.add(filter);
       }
-      else if (filterType == FilterType.EQUALITY ||
-           filterType == FilterType.PRESENT ||
-           filterType == FilterType.APPROXIMATE_MATCH)
-      {
-        fastComps.add(filter);
-      }
       else
       {
-        otherComps.add(filter);
+        plan.add(new PlanStep(Collections.singletonList(filter), estimateFilter(filter)));
       }
     }
 
-    EntryIDSet results = newUndefinedSet();
-    // First, process the fast components.
-    results = applyFiltersUntilThreshold(results, fastComps);
-    // Next, process the other (non-range) components.
-    results = applyFiltersUntilThreshold(results, otherComps);
-
-    if ( isBelowFilterThreshold(results) || rangeComps.isEmpty() ) {
-      return results;
-    }
-
-    // Next, process range component pairs like (cn>=A)(cn<=B).
-    ArrayList<SearchFilter> remainComps = new ArrayList<>();
-    for (Map.Entry<AttributeType, ArrayList<SearchFilter>> rangeEntry : rangeComps.entrySet())
+    for (List<SearchFilter> rangeList : rangeComps.values())
     {
-      ArrayList<SearchFilter> rangeList = rangeEntry.getValue();
       if (rangeList.size() == 2)
       {
-        SearchFilter filter1 = rangeList.get(0);
-        SearchFilter filter2 = rangeList.get(1);
-
-        AttributeIndex attributeIndex = entryContainer.getAttributeIndex(rangeEntry.getKey());
-        if (attributeIndex == null)
-        {
-          if(monitor.isFilterUseEnabled())
-          {
-            monitor.updateStats(SearchFilter.createANDFilter(rangeList),
-                INFO_INDEX_FILTER_INDEX_TYPE_DISABLED.get("ordering", rangeEntry.getKey().getNameOrOID()));
-          }
-          continue;
-        }
-
-        final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex);
-        EntryIDSet set = attributeIndex.evaluateBoundedRange(indexQueryFactory, filter1, filter2, buffer, monitor);
-        if(monitor.isFilterUseEnabled() && set.isDefined())
-        {
-          monitor.updateStats(SearchFilter.createANDFilter(rangeList), set.size());
-        }
-        results.retainAll(set);
-        if (isBelowFilterThreshold(results))
-        {
-          return results;
-        }
+        final long cost = addEstimates(estimateFilter(rangeList.get(0)), estimateFilter(rangeList.get(1)));
+        plan.add(new PlanStep(rangeList, cost));
       }
       else
       {
-        // Add to the remaining range components to be processed.
-        remainComps.addAll(rangeList);
+        for (SearchFilter filter : rangeList)
+        {
+          plan.add(new PlanStep(Collections.singletonList(filter), estimateFilter(filter)));
+        }
       }
     }
-
-    // Finally, process the remaining slow range components.
-    return applyFiltersUntilThreshold(results, remainComps);
+    return plan;
   }
 
-  private EntryIDSet applyFiltersUntilThreshold(EntryIDSet results, ArrayList<SearchFilter> filters)
+  private EntryIDSet evaluateBoundedRange(List<SearchFilter> rangeList)
   {
-    for(SearchFilter filter : filters) {
-      if (isBelowFilterThreshold(results)) {
-        return results;
+    final AttributeType attributeType = rangeList.get(0).getAttributeType();
+    final AttributeIndex attributeIndex = entryContainer.getAttributeIndex(attributeType);
+    if (attributeIndex == null)
+    {
+      if (monitor.isFilterUseEnabled())
+      {
+        monitor.updateStats(SearchFilter.createANDFilter(rangeList),
+            INFO_INDEX_FILTER_INDEX_TYPE_DISABLED.get("ordering", attributeType.getNameOrOID()));
       }
-      results.retainAll(evaluateFilter(filter));
+      return newUndefinedSet();
     }
-    return results;
+
+    final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex);
+    final EntryIDSet set = AttributeIndex.evaluateBoundedRange(
+        indexQueryFactory, rangeList.get(0), rangeList.get(1), buffer, monitor);
+    if (monitor.isFilterUseEnabled() && set.isDefined())
+    {
+      monitor.updateStats(SearchFilter.createANDFilter(rangeList), set.size());
+    }
+    return set;
+  }
+
+  private static boolean isCheaperToMatchEntries(EntryIDSet candidates, long cost)
+  {
+    return candidates.isDefined() && cost / ENTRY_TO_ENTRY_ID_COST_RATIO > candidates.size();
   }
 
   static boolean isBelowFilterThreshold(EntryIDSet set)
@@ -277,17 +331,27 @@ class IndexFilter
 
   /**
    * Evaluate a logical OR search filter against the indexes.
+   * <p>
+   * The components are evaluated from the most expensive to the cheapest, as estimated from the index statistics,
+   * so that the components which cannot be evaluated with the indexes are found before reading the others.
    *
    * @param orFilter The OR search filter to be evaluated.
    * @return A set of entry IDs representing candidate entries.
    */
   private EntryIDSet evaluateLogicalOrFilter(SearchFilter orFilter)
   {
-    ArrayList<EntryIDSet> candidateSets = new ArrayList<>(orFilter.getFilterComponents().size());
-
+    final List<PlanStep> plan = new ArrayList<>(orFilter.getFilterComponents().size());
     for (SearchFilter filter : orFilter.getFilterComponents())
     {
-      EntryIDSet set = evaluateFilter(filter);
+      plan.add(new PlanStep(Collections.singletonList(filter), estimateFilter(filter)));
+    }
+    Collections.sort(plan, Collections.reverseOrder());
+
+    final ArrayList<EntryIDSet> candidateSets = new ArrayList<>(plan.size());
+    for (PlanStep step : plan)
+    {
+      appendCostToDebugBuffer(step.cost);
+      EntryIDSet set = evaluateFilter(step.getFilter());
       if (!set.isDefined())
       {
         // There is no point continuing.
@@ -298,6 +362,66 @@ class IndexFilter
     return newSetFromUnion(candidateSets);
   }
 
+  /**
+   * Estimates the number of entry IDs read when evaluating a search filter against the indexes.
+   *
+   * @param filter The search filter to be estimated.
+   * @return The estimated number of entry IDs, or {@link IndexCostEstimator#NOT_INDEXED} if the filter cannot be
+   *         evaluated with the indexes.
+   */
+  private long estimateFilter(SearchFilter filter)
+  {
+    switch (filter.getFilterType())
+    {
+      case AND:
+        long andEstimate = NOT_INDEXED;
+        for (SearchFilter component : filter.getFilterComponents())
+        {
+          andEstimate = Math.min(andEstimate, estimateFilter(component));
+        }
+        return andEstimate;
+
+      case OR:
+        long orEstimate = 0;
+        for (SearchFilter component : filter.getFilterComponents())
+        {
+          orEstimate = addEstimates(orEstimate, estimateFilter(component));
+        }
+        return orEstimate;
+
+      case EQUALITY:
+        return estimateFilter(IndexFilterType.EQUALITY, filter);
+
+      case GREATER_OR_EQUAL:
+        return estimateFilter(IndexFilterType.GREATER_OR_EQUAL, filter);
+
+      case SUBSTRING:
+        return estimateFilter(IndexFilterType.SUBSTRING, filter);
+
+      case LESS_OR_EQUAL:
+        return estimateFilter(IndexFilterType.LESS_OR_EQUAL, filter);
+
+      case PRESENT:
+        return estimateFilter(IndexFilterType.PRESENCE, filter);
+
+      case APPROXIMATE_MATCH:
+        return estimateFilter(IndexFilterType.APPROXIMATE, filter);
+
+      case EXTENSIBLE_MATCH:
+        return filter.getDNAttributes() ? NOT_INDEXED : UNKNOWN_ESTIMATE;
+
+      case NOT:
+      default:
+        return NOT_INDEXED;
+    }
+  }
+
+  private long estimateFilter(IndexFilterType indexFilterType, SearchFilter filter)
+  {
+    AttributeIndex attributeIndex = entryContainer.getAttributeIndex(filter.getAttributeType());
+    return attributeIndex != null ? attributeIndex.estimateFilter(indexFilterType, filter) : NOT_INDEXED;
+  }
+
   private EntryIDSet evaluateFilterWithDiagnostic(IndexFilterType indexFilterType, SearchFilter filter)
   {
     if (buffer != null)
@@ -349,6 +473,14 @@ class IndexFilter
     return IndexQueryFactoryImpl.createNullIndexQuery().evaluate(null, null);
   }
 
+  private void appendCostToDebugBuffer(long cost)
+  {
+    if (buffer != null)
+    {
+      buffer.append("[COST:").append(cost == NOT_INDEXED ? "NOT-INDEXED" : Long.toString(cost)).append("]");
+    }
+  }
+
   private void appendToDebugBuffer(String content)
   {
     if (buffer != null)
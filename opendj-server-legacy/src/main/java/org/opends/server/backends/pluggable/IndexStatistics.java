@@ -0,0 +1,288 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Approximate statistics about the keys of an index and the number of entry IDs they reference. They consist of an
+ * equi-depth histogram: each bucket covers about the same number of consecutive keys and records how many entry IDs
+ * these keys reference, which gives the selectivity of the keys in different parts of the index.
+ * <p>
+ * Statistics are immutable snapshots gathered by scanning the index. They do not follow the updates made to the index
+ * afterwards, and must be considered stale once the index received enough updates to change them significantly.
+ */
+final class IndexStatistics
+{
+  /** Maximum number of buckets of a histogram. */
+  static final int MAX_BUCKETS = 64;
+  /** Minimum number of keys of a bucket whose entry IDs are counted, the others are estimated from them. */
+  static final int MIN_SAMPLED_KEYS_PER_BUCKET = 64;
+  /** Number of updates after which statistics must be gathered again, whatever the size of the index. */
+  private static final long MIN_UPDATES_BEFORE_STALE = 1000;
+  /** Ratio of the number of keys that must be updated before statistics must be gathered again. */
+  private static final int KEYS_PER_UPDATE_BEFORE_STALE = 10;
+
+  /** A histogram bucket covering the keys greater than the upper key of the previous bucket. */
+  private static final class Bucket
+  {
+    private final ByteString upperKey;
+    private final long nbKeys;
+    private final long nbEntryIDs;
+
+    private Bucket(ByteString upperKey, long nbKeys, long nbEntryIDs)
+    {
+      this.upperKey = upperKey;
+      this.nbKeys = nbKeys;
+      this.nbEntryIDs = nbEntryIDs;
+    }
+
+    private long getAverageNbEntryIDs()
+    {
+      return (nbEntryIDs + nbKeys - 1) / nbKeys;
+    }
+  }
+
+  /**
+   * Builds the statistics of an index from its keys, which must be added in ascending order.
+   * <p>
+   * Buckets are closed as soon as they hold the current bucket depth. When there are twice as many buckets as
+   * allowed, adjacent buckets are merged and the bucket depth doubles, so the histogram can be built in one pass
+   * without knowing the number of keys in advance.
+   * <p>
+   * Counting the entry IDs of a key requires decoding them, so once buckets are deep only a sample of the keys is
+   * counted, as told by {@link #isNextKeySampled()}. The other keys are assumed to reference as many entry IDs as the
+   * last sampled key.
+   */
+  static final class Builder
+  {
+    private final List<Bucket> buckets = new ArrayList<>();
+    private long bucketDepth = 1;
+    private ByteString lastKey;
+    private long nbKeys;
+    private long nbEntryIDs;
+    private long nbAddedKeys;
+    private long lastSampledNbEntryIDs;
+
+    /**
+     * Returns whether the number of entry IDs referenced by the next key must be counted, or whether the key can be
+     * added without it.
+     *
+     * @return {@code true} if the next key must be added with {@link #addKey(ByteString, long)}
+     */
+    boolean isNextKeySampled()
+    {
+      return nbAddedKeys % Math.max(bucketDepth / MIN_SAMPLED_KEYS_PER_BUCKET, 1) == 0;
+    }
+
+    /**
+     * Adds a key of the index, with the number of entry IDs it references.
+     *
+     * @param key
+     *          the key, greater than the previously added key
+     * @param nbEntryIDs
+     *          the number of entry IDs referenced by the key
+     * @return this builder
+     */
+    Builder addKey(ByteString key, long nbEntryIDs)
+    {
+      lastSampledNbEntryIDs = nbEntryIDs;
+      return addKey0(key, nbEntryIDs);
+    }
+
+    /**
+     * Adds a key of the index which is not part of the sample, whose number of entry IDs is estimated from the last
+     * sampled key.
+     *
+     * @param key
+     *          the key, greater than the previously added key
+     * @return this builder
+     */
+    Builder addKey(ByteString key)
+    {
+      return addKey0(key, lastSampledNbEntryIDs);
+    }
+
+    private Builder addKey0(ByteString key, long nbEntryIDs)
+    {
+      this.nbAddedKeys++;
+      this.lastKey = key;
+      this.nbKeys++;
+      this.nbEntryIDs += nbEntryIDs;
+      if (this.nbKeys >= bucketDepth)
+      {
+        closeBucket();
+        if (buckets.size() >= 2 * MAX_BUCKETS)
+        {
+          mergeBuckets();
+        }
+      }
+      return this;
+    }
+
+    private void closeBucket()
+    {
+      buckets.add(new Bucket(lastKey, nbKeys, nbEntryIDs));
+      nbKeys = 0;
+      nbEntryIDs = 0;
+    }
+
+    private void mergeBuckets()
+    {
+      final List<Bucket> merged = new ArrayList<>(MAX_BUCKETS);
+      for (int i = 0; i < buckets.size(); i += 2)
+      {
+        final Bucket b1 = buckets.get(i);
+        final Bucket b2 = buckets.get(i + 1);
+        merged.add(new Bucket(b2.upperKey, b1.nbKeys + b2.nbKeys, b1.nbEntryIDs + b2.nbEntryIDs));
+      }
+      buckets.clear();
+      buckets.addAll(merged);
+      bucketDepth *= 2;
+    }
+
+    /**
+     * Builds the statistics from the keys added so far.
+     *
+     * @return the statistics of the index
+     */
+    IndexStatistics build()
+    {
+      if (nbKeys > 0)
+      {
+        closeBucket();
+      }
+      return new IndexStatistics(buckets);
+    }
+  }
+
+  private final List<Bucket> buckets;
+  private final long nbKeys;
+  private final long nbEntryIDs;
+
+  private IndexStatistics(List<Bucket> buckets)
+  {
+    this.buckets = Collections.unmodifiableList(new ArrayList<>(buckets));
+    long keys = 0;
+    long entryIDs = 0;
+    for (Bucket bucket : buckets)
+    {
+      keys += bucket.nbKeys;
+      entryIDs += bucket.nbEntryIDs;
+    }
+    this.nbKeys = keys;
+    this.nbEntryIDs = entryIDs;
+  }
+
+  /**
+   * Returns whether the index received too many updates since these statistics were gathered for them to be trusted,
+   * in which case they must be gathered again.
+   *
+   * @param nbUpdates
+   *          the number of updates received by the index since these statistics were gathered
+   * @return {@code true} if these statistics are stale
+   */
+  boolean isStale(long nbUpdates)
+  {
+    return nbUpdates > Math.max(nbKeys / KEYS_PER_UPDATE_BEFORE_STALE, MIN_UPDATES_BEFORE_STALE);
+  }
+
+  /**
+   * Returns the number of keys in the index.
+   *
+   * @return the number of keys in the index
+   */
+  long getNbKeys()
+  {
+    return nbKeys;
+  }
+
+  /**
+   * Returns the number of entry IDs referenced by all the keys of the index.
+   *
+   * @return the number of entry IDs referenced by all the keys of the index
+   */
+  long getNbEntryIDs()
+  {
+    return nbEntryIDs;
+  }
+
+  /**
+   * Estimates the number of entry IDs referenced by a key, from the average of the keys close to it.
+   *
+   * @param key
+   *          the key
+   * @return the estimated number of entry IDs referenced by the key
+   */
+  long estimateKey(ByteSequence key)
+  {
+    for (Bucket bucket : buckets)
+    {
+      if (key.compareTo(bucket.upperKey) <= 0)
+      {
+        return bucket.getAverageNbEntryIDs();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Estimates the number of entry IDs referenced by the keys between two bounds. Buckets partially covered by the
+   * range count for half of their entry IDs.
+   *
+   * @param lowerBound
+   *          the lower bound, or an empty sequence if the range has no lower bound
+   * @param upperBound
+   *          the upper bound, or an empty sequence if the range has no upper bound
+   * @return the estimated number of entry IDs referenced by the keys of the range
+   */
+  long estimateRange(ByteSequence lowerBound, ByteSequence upperBound)
+  {
+    long estimate = 0;
+    ByteString bucketLowerKey = null;
+    for (Bucket bucket : buckets)
+    {
+      final boolean startsInRange =
+          lowerBound.length() == 0 || (bucketLowerKey != null && lowerBound.compareTo(bucketLowerKey) <= 0);
+      final boolean endsInRange = upperBound.length() == 0 || upperBound.compareTo(bucket.upperKey) >= 0;
+      final boolean isBeforeRange = lowerBound.length() > 0 && lowerBound.compareTo(bucket.upperKey) > 0;
+      final boolean isAfterRange =
+          upperBound.length() > 0 && bucketLowerKey != null && upperBound.compareTo(bucketLowerKey) <= 0;
+      if (startsInRange && endsInRange)
+      {
+        estimate += bucket.nbEntryIDs;
+      }
+      else if (!isBeforeRange && !isAfterRange)
+      {
+        estimate += (bucket.nbEntryIDs + 1) / 2;
+      }
+      bucketLowerKey = bucket.upperKey;
+    }
+    return estimate;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "(nbKeys=" + nbKeys + ", nbEntryIDs=" + nbEntryIDs
+        + ", nbBuckets=" + buckets.size() + ")";
+  }
+}
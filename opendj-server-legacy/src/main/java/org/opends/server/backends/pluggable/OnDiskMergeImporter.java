@@ -94,6 +94,7 @@ import org.opends.server.backends.pluggable.AttributeIndex.MatchingRuleIndex;
 import org.opends.server.backends.pluggable.CursorTransformer.SequentialCursorAdapter;
 import org.opends.server.backends.pluggable.DN2ID.TreeVisitor;
 import org.opends.server.backends.pluggable.ImportLDIFReader.EntryInformation;
+import org.opends.server.backends.pluggable.ImportLDIFReader.EntryLines;
 import org.opends.server.backends.pluggable.OnDiskMergeImporter.ExternalSortChunk.InMemorySortedChunk;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.Importer;
@@ -206,6 +207,8 @@ final class OnDiskMergeImporter
       try (final Importer dbStorage = rootContainer.getStorage().startImport();
            final BufferPool bufferPool = new BufferPool(nbBuffer, bufferSize))
       {
+        // The storage is closed, the entries can only be compressed with a dictionary stored by the importer
+        rootContainer.getCompressionDictionaries().startImport(dbStorage);
         final Collection<EntryContainer> entryContainers = rootContainer.getEntryContainers();
         final AbstractTwoPhaseImportStrategy importStrategy = importConfig.getSkipDNValidation()
             ? new SortAndImportWithoutDNValidation(entryContainers, dbStorage, tempDir, bufferPool, sorter)
@@ -216,6 +219,7 @@ final class OnDiskMergeImporter
       }
       finally
       {
+        rootContainer.getCompressionDictionaries().endImport();
         sorter.shutdownNow();
         if (OperatingSystem.isWindows())
         {
@@ -280,12 +284,42 @@ final class OnDiskMergeImporter
         clearDegradedState(entryContainer, indexesToRebuild);
         logger.info(NOTE_REBUILD_CLEARDEGRADEDSTATE_FINAL_STATUS, rebuildConfig.getRebuildList());
       }
+      else if (rebuildConfig.isBackground())
+      {
+        rebuildIndexInBackground(entryContainer, indexesToRebuild, rebuildConfig.getMaxEntriesPerSecond(),
+            totalEntries);
+      }
       else
       {
         rebuildIndex(entryContainer, rebuildConfig.getTmpDirectory(), indexesToRebuild, totalEntries);
       }
     }
 
+    private void rebuildIndexInBackground(EntryContainer entryContainer, Set<String> indexesToRebuild,
+        int maxEntriesPerSecond, long totalEntries) throws Exception
+    {
+      if (indexesToRebuild.isEmpty())
+      {
+        logger.info(NOTE_REBUILD_NOTHING_TO_REBUILD);
+        return;
+      }
+      final SelectAttributeIndexes selector = new SelectAttributeIndexes();
+      visitIndexes(entryContainer, visitOnlyIndexes(indexesToRebuild, selector));
+      if (!selector.getUnsupportedIndexNames().isEmpty())
+      {
+        throw new InitializationException(ERR_REBUILD_BACKGROUND_UNSUPPORTED_INDEX.get(
+            Utils.joinAsString(", ", selector.getUnsupportedIndexNames())));
+      }
+
+      final OnlineIndexBuilder builder = new OnlineIndexBuilder(entryContainer, selector.getSelectedIndexes(),
+          Runtime.getRuntime().availableProcessors(), maxEntriesPerSecond);
+      final long nbEntries = builder.build(totalEntries);
+
+      final long totalTime = builder.getElapsedTimeInMillis();
+      final float rate = totalTime > 0 ? 1000f * nbEntries / totalTime : 0;
+      logger.info(NOTE_REBUILD_FINAL_STATUS, nbEntries, totalTime / 1000, rate);
+    }
+
     private void clearDegradedState(final EntryContainer entryContainer, final Set<String> indexes) throws Exception
     {
       rootContainer.getStorage().write(new WriteOperation()
@@ -585,34 +619,15 @@ final class OnDiskMergeImporter
             public Void call() throws Exception
             {
               checkThreadNotInterrupted();
+              if (reader.isSplit())
+              {
+                processAllRegions(entryProcessor);
+                return null;
+              }
               EntryInformation entryInfo;
               while ((entryInfo = reader.readEntry(entryContainers)) != null && !importConfig.isCancelled())
               {
-                final EntryContainer entryContainer = entryInfo.getEntryContainer();
-                final Entry entry = entryInfo.getEntry();
-                final DN entryDN = entry.getName();
-                final DN parentDN = entryContainer.getParentWithinBase(entryDN);
-
-                if (parentDN != null)
-                {
-                  reader.waitIfPending(parentDN);
-                }
-                try
-                {
-                  entryProcessor.processEntry(entryContainer, entryInfo.getEntryID(), entry);
-                }
-                catch (DirectoryException e)
-                {
-                  reader.rejectEntry(entry, e.getMessageObject());
-                }
-                catch (Exception e)
-                {
-                  reader.rejectEntry(entry, ERR_EXECUTION_ERROR.get(e));
-                }
-                finally
-                {
-                  reader.removePending(entry.getName());
-                }
+                processEntry(entryProcessor, entryInfo);
                 checkThreadNotInterrupted();
               }
               return null;
@@ -628,6 +643,69 @@ final class OnDiskMergeImporter
       }
     }
 
+    /** Reads regions of the LDIF files and processes their entries, concurrently with the other threads. */
+    private void processAllRegions(EntryProcessor entryProcessor) throws Exception
+    {
+      List<EntryLines> entries;
+      while ((entries = reader.readNextRegion(entryContainers)) != null)
+      {
+        int i = 0;
+        try
+        {
+          for (; i < entries.size() && !importConfig.isCancelled(); i++)
+          {
+            final EntryInformation entryInfo = reader.readEntry(entries.get(i));
+            if (entryInfo != null)
+            {
+              processEntry(entryProcessor, entryInfo);
+            }
+            checkThreadNotInterrupted();
+          }
+        }
+        finally
+        {
+          // Release the entries which will not be processed so that their children do not wait forever
+          for (; i < entries.size(); i++)
+          {
+            reader.removePending(entries.get(i).getEntryDN());
+          }
+        }
+        if (importConfig.isCancelled())
+        {
+          return;
+        }
+      }
+    }
+
+    private void processEntry(EntryProcessor entryProcessor, EntryInformation entryInfo) throws InterruptedException
+    {
+      final EntryContainer entryContainer = entryInfo.getEntryContainer();
+      final Entry entry = entryInfo.getEntry();
+      final DN entryDN = entry.getName();
+      final DN parentDN = entryContainer.getParentWithinBase(entryDN);
+
+      if (parentDN != null)
+      {
+        reader.waitIfPending(parentDN, entryInfo.getEntryID());
+      }
+      try
+      {
+        entryProcessor.processEntry(entryContainer, entryInfo.getEntryID(), entry);
+      }
+      catch (DirectoryException e)
+      {
+        reader.rejectEntry(entry, e.getMessageObject());
+      }
+      catch (Exception e)
+      {
+        reader.rejectEntry(entry, ERR_EXECUTION_ERROR.get(e));
+      }
+      finally
+      {
+        reader.removePending(entry.getName());
+      }
+    }
+
     long getEntriesRead()
     {
       return reader.getEntriesRead();
@@ -3630,6 +3708,41 @@ final class OnDiskMergeImporter
     }
   }
 
+  /** Maintain the list of the visited attribute indexes, and the names of the other visited indexes. */
+  private static final class SelectAttributeIndexes implements IndexVisitor
+  {
+    private final List<MatchingRuleIndex> indexes = new ArrayList<>();
+    private final Set<String> unsupportedIndexNames = new HashSet<>();
+
+    List<MatchingRuleIndex> getSelectedIndexes()
+    {
+      return indexes;
+    }
+
+    Set<String> getUnsupportedIndexNames()
+    {
+      return unsupportedIndexNames;
+    }
+
+    @Override
+    public void visitAttributeIndex(Index index)
+    {
+      indexes.add((MatchingRuleIndex) index);
+    }
+
+    @Override
+    public void visitVLVIndex(VLVIndex index)
+    {
+      unsupportedIndexNames.add(index.getName().getIndexId());
+    }
+
+    @Override
+    public void visitSystemIndex(Tree index)
+    {
+      unsupportedIndexNames.add(index.getName().getIndexId());
+    }
+  }
+
   private static final IndexVisitor visitOnlyIndexes(Collection<String> indexNames, IndexVisitor delegate)
   {
     return new SpecificIndexFilter(delegate, indexNames);
@@ -0,0 +1,457 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.forgerock.util.Utils.*;
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.server.backends.pluggable.EntryIDSet.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.AttributeIndex.MatchingRuleIndex;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.types.Entry;
+
+/**
+ * Builds attribute indexes from the entries while the backend remains online.
+ * <p>
+ * The indexes being built are not used by searches, but updates of the entries keep maintaining them. Worker threads
+ * scan ID2Entry in parallel ranges of entry IDs and add the scanned entries to the indexes, optionally throttled to a
+ * maximum number of entries per second so that the build does not impact the response time of the operations.
+ * <p>
+ * An entry modified or deleted after being scanned may be added back to keys it no longer has. The indexes log the
+ * keys from which entry IDs are removed during the build, and these keys are checked against the current entries once
+ * the scan completes. The last logged keys are checked while holding the exclusive lock of the entry container, then
+ * the indexes are marked as trusted in the same transaction.
+ * <p>
+ * Keys are only logged while the build runs. If it fails, or if the server stops before it completes, the indexes are
+ * emptied and left untrusted until they are rebuilt.
+ */
+final class OnlineIndexBuilder
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final String BUILDER_THREAD_NAME = "ONLINE-INDEX-BUILDER-%d";
+  private static final String REPORTER_THREAD_NAME = "ONLINE-INDEX-REPORTER-%d";
+
+  /** Number of entries read and indexed in each transaction. */
+  private static final int BATCH_SIZE = 100;
+  /** Maximum number of removed keys checked while holding the exclusive lock of the entry container. */
+  private static final int MAX_LOCKED_REMOVED_KEYS = 1000;
+
+  private final EntryContainer entryContainer;
+  private final Storage storage;
+  private final Collection<MatchingRuleIndex> indexes;
+  private final int nbThreads;
+  private final int maxEntriesPerSecond;
+  private final AtomicLong nbEntriesProcessed = new AtomicLong();
+  private long startTime;
+
+  /**
+   * Creates a new online index builder.
+   *
+   * @param entryContainer
+   *          The entry container holding the indexes
+   * @param indexes
+   *          The attribute indexes to build
+   * @param nbThreads
+   *          The number of threads scanning the entries
+   * @param maxEntriesPerSecond
+   *          The maximum number of entries processed per second, or 0 for no limit
+   */
+  OnlineIndexBuilder(EntryContainer entryContainer, Collection<MatchingRuleIndex> indexes, int nbThreads,
+      int maxEntriesPerSecond)
+  {
+    this.entryContainer = entryContainer;
+    this.storage = entryContainer.getRootContainer().getStorage();
+    this.indexes = indexes;
+    this.nbThreads = nbThreads;
+    this.maxEntriesPerSecond = maxEntriesPerSecond;
+  }
+
+  /**
+   * Builds the indexes, returning once they are trusted.
+   *
+   * @param nbTotalEntries
+   *          The number of entries in the entry container, for reporting progress
+   * @return The number of entries processed
+   * @throws Exception
+   *           If an error occurred while building the indexes. The indexes are then emptied and left untrusted.
+   */
+  long build(long nbTotalEntries) throws Exception
+  {
+    startTime = System.currentTimeMillis();
+    boolean isTrusted = false;
+    try
+    {
+      startBuilding();
+      final long highestEntryID = storage.read(new ReadOperation<Long>()
+      {
+        @Override
+        public Long run(ReadableTransaction txn) throws Exception
+        {
+          return entryContainer.getHighestEntryID(txn).longValue();
+        }
+      });
+
+      scanEntries(highestEntryID, nbTotalEntries);
+      logger.info(NOTE_REBUILD_BACKGROUND_CATCHING_UP, joinAsString(", ", indexes));
+      checkRemovedKeysAndSetTrusted();
+      isTrusted = true;
+      return nbEntriesProcessed.get();
+    }
+    finally
+    {
+      if (!isTrusted)
+      {
+        abortBuilding();
+      }
+    }
+  }
+
+  /**
+   * Elapsed time since the build started.
+   *
+   * @return The elapsed time in milliseconds
+   */
+  long getElapsedTimeInMillis()
+  {
+    return System.currentTimeMillis() - startTime;
+  }
+
+  private void startBuilding() throws Exception
+  {
+    // Entries added by ongoing updates must be either scanned or indexed by the updates themselves
+    entryContainer.exclusiveLock.lock();
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          for (MatchingRuleIndex index : indexes)
+          {
+            index.startBuilding(txn);
+          }
+        }
+      });
+    }
+    finally
+    {
+      entryContainer.exclusiveLock.unlock();
+    }
+  }
+
+  /** Stops building the indexes after a failure, so that they stop logging the removed keys. */
+  private void abortBuilding()
+  {
+    entryContainer.exclusiveLock.lock();
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          for (MatchingRuleIndex index : indexes)
+          {
+            index.abortBuilding(txn);
+          }
+        }
+      });
+    }
+    catch (Exception e)
+    {
+      // Keep the original failure, the indexes will be reset when the backend is opened again
+      logger.traceException(e);
+    }
+    finally
+    {
+      entryContainer.exclusiveLock.unlock();
+    }
+  }
+
+  private void scanEntries(long highestEntryID, long nbTotalEntries) throws Exception
+  {
+    final ExecutorService builders =
+        Executors.newFixedThreadPool(nbThreads, newThreadFactory(null, BUILDER_THREAD_NAME, true));
+    final ScheduledExecutorService reporter =
+        Executors.newSingleThreadScheduledExecutor(newThreadFactory(null, REPORTER_THREAD_NAME, true));
+    reporter.scheduleAtFixedRate(new ProgressReporter(nbTotalEntries), 10, 10, TimeUnit.SECONDS);
+    try
+    {
+      final List<Future<Void>> futures = new ArrayList<>(nbThreads);
+      final long rangeSize = highestEntryID / nbThreads + 1;
+      for (long lowerID = 0; lowerID <= highestEntryID; lowerID += rangeSize)
+      {
+        futures.add(builders.submit(new RangeScanner(lowerID, Math.min(lowerID + rangeSize, highestEntryID + 1))));
+      }
+      for (Future<Void> future : futures)
+      {
+        future.get();
+      }
+    }
+    finally
+    {
+      builders.shutdownNow();
+      reporter.shutdown();
+    }
+  }
+
+  /** Scans the entries whose IDs are in a range and adds them to the indexes. */
+  private final class RangeScanner implements Callable<Void>
+  {
+    private final long lowerID;
+    private final long upperID;
+
+    RangeScanner(long lowerID, long upperID)
+    {
+      this.lowerID = lowerID;
+      this.upperID = upperID;
+    }
+
+    @Override
+    public Void call() throws Exception
+    {
+      long nextID = lowerID;
+      while (nextID < upperID)
+      {
+        final Map<EntryID, Entry> batch = readBatch(nextID);
+        if (batch.isEmpty())
+        {
+          break;
+        }
+        indexBatch(batch);
+        for (EntryID entryID : batch.keySet())
+        {
+          nextID = entryID.longValue() + 1;
+        }
+        throttle(batch.size());
+      }
+      return null;
+    }
+
+    private Map<EntryID, Entry> readBatch(final long fromID) throws Exception
+    {
+      return storage.read(new ReadOperation<Map<EntryID, Entry>>()
+      {
+        @Override
+        public Map<EntryID, Entry> run(ReadableTransaction txn) throws Exception
+        {
+          final Map<EntryID, Entry> batch = new LinkedHashMap<>();
+          try (Cursor<EntryID, Entry> cursor = entryContainer.getID2Entry().openCursor(txn))
+          {
+            boolean found = cursor.positionToKeyOrNext(new EntryID(fromID).toByteString());
+            while (found && batch.size() < BATCH_SIZE && cursor.getKey().longValue() < upperID)
+            {
+              batch.put(cursor.getKey(), cursor.getValue());
+              found = cursor.next();
+            }
+          }
+          return batch;
+        }
+      });
+    }
+  }
+
+  private void indexBatch(Map<EntryID, Entry> batch) throws Exception
+  {
+    final Map<MatchingRuleIndex, Map<ByteString, EntryIDSet>> addedKeys = new HashMap<>();
+    for (MatchingRuleIndex index : indexes)
+    {
+      // Sort the keys so that concurrent batches update them in the same order
+      final Map<ByteString, EntryIDSet> keys = new TreeMap<>();
+      for (Map.Entry<EntryID, Entry> entry : batch.entrySet())
+      {
+        for (ByteString key : index.indexEntry(entry.getValue()))
+        {
+          EntryIDSet entryIDs = keys.get(key);
+          if (entryIDs == null)
+          {
+            entryIDs = newDefinedSet();
+            keys.put(key, entryIDs);
+          }
+          entryIDs.add(entry.getKey());
+        }
+      }
+      addedKeys.put(index, keys);
+    }
+
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        for (Map.Entry<MatchingRuleIndex, Map<ByteString, EntryIDSet>> indexKeys : addedKeys.entrySet())
+        {
+          for (Map.Entry<ByteString, EntryIDSet> key : indexKeys.getValue().entrySet())
+          {
+            indexKeys.getKey().updateWithoutLogging(txn, key.getKey(), null, key.getValue());
+          }
+        }
+      }
+    });
+  }
+
+  private void throttle(int nbEntries) throws InterruptedException
+  {
+    final long nbProcessed = nbEntriesProcessed.addAndGet(nbEntries);
+    if (maxEntriesPerSecond > 0)
+    {
+      final long delay = startTime + 1000 * nbProcessed / maxEntriesPerSecond - System.currentTimeMillis();
+      if (delay > 0)
+      {
+        Thread.sleep(delay);
+      }
+    }
+  }
+
+  private void checkRemovedKeysAndSetTrusted() throws Exception
+  {
+    // Check most removed keys while the entries keep being updated
+    while (checkRemovedKeys(MAX_LOCKED_REMOVED_KEYS) >= MAX_LOCKED_REMOVED_KEYS)
+    {
+      // Updates removed more keys meanwhile
+    }
+
+    entryContainer.exclusiveLock.lock();
+    try
+    {
+      while (checkRemovedKeys(MAX_LOCKED_REMOVED_KEYS) > 0)
+      {
+        // No more keys can be removed while holding the lock
+      }
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          for (MatchingRuleIndex index : indexes)
+          {
+            index.setTrusted(txn, true);
+          }
+        }
+      });
+    }
+    finally
+    {
+      entryContainer.exclusiveLock.unlock();
+    }
+  }
+
+  /**
+   * Removes the entry IDs from the logged keys when the current entries no longer have these keys.
+   *
+   * @return The number of logged keys which were checked
+   */
+  private int checkRemovedKeys(int maxNbKeys) throws Exception
+  {
+    final Map<MatchingRuleIndex, List<Map.Entry<ByteString, EntryIDSet>>> removedKeys = new HashMap<>();
+    int nbKeys = 0;
+    for (MatchingRuleIndex index : indexes)
+    {
+      final List<Map.Entry<ByteString, EntryIDSet>> keys = new ArrayList<>();
+      Map.Entry<ByteString, EntryIDSet> key;
+      while (nbKeys < maxNbKeys && (key = index.pollRemovedKey()) != null)
+      {
+        keys.add(key);
+        nbKeys++;
+      }
+      removedKeys.put(index, keys);
+    }
+    if (nbKeys == 0)
+    {
+      return 0;
+    }
+
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        for (Map.Entry<MatchingRuleIndex, List<Map.Entry<ByteString, EntryIDSet>>> indexKeys : removedKeys.entrySet())
+        {
+          final MatchingRuleIndex index = indexKeys.getKey();
+          for (Map.Entry<ByteString, EntryIDSet> key : indexKeys.getValue())
+          {
+            for (EntryID entryID : key.getValue())
+            {
+              final Entry entry = entryContainer.getID2Entry().get(txn, entryID);
+              if (entry == null || !index.indexEntry(entry).contains(key.getKey()))
+              {
+                index.updateWithoutLogging(txn, key.getKey(), newDefinedSet(entryID.longValue()), null);
+              }
+            }
+          }
+        }
+      }
+    });
+    return nbKeys;
+  }
+
+  /** This class reports the progress of the scan at fixed intervals. */
+  private final class ProgressReporter implements Runnable
+  {
+    private final long nbTotalEntries;
+    /** The number of entries that had been processed at the time of the previous progress report. */
+    private long previousCount;
+    /** The time in milliseconds of the previous progress report. */
+    private long previousTime = System.currentTimeMillis();
+
+    ProgressReporter(long nbTotalEntries)
+    {
+      this.nbTotalEntries = nbTotalEntries;
+    }
+
+    @Override
+    public void run()
+    {
+      final long entriesProcessed = nbEntriesProcessed.get();
+      final long latestTime = System.currentTimeMillis();
+      final long deltaTime = latestTime - previousTime;
+      if (deltaTime == 0)
+      {
+        return;
+      }
+      final float progressPercent = nbTotalEntries > 0 ? Math.round((100f * entriesProcessed) / nbTotalEntries) : 0;
+      final float rate = 1000f * (entriesProcessed - previousCount) / deltaTime;
+      logger.info(NOTE_REBUILD_PROGRESS_REPORT, progressPercent, entriesProcessed, nbTotalEntries, rate);
+      previousCount = entriesProcessed;
+      previousTime = latestTime;
+    }
+  }
+}
@@ -0,0 +1,423 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.messages.BackendMessages.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+
+/**
+ * The preset dictionaries used to compress the entries stored in the ID2Entry trees, persisted in a tree next to the
+ * compressed schema.
+ * <p>
+ * Directory entries are small and share most of their content (attribute descriptions, object classes, DN
+ * suffixes, common values), so compressing each entry on its own achieves poor ratios. A preset dictionary made of
+ * the byte sequences most frequently found in sample entries gives the compressor this shared content up-front.
+ * <p>
+ * Dictionaries are versioned: each one is identified by an increasing ID, recorded in every entry compressed with
+ * it, so that entries compressed with older dictionaries can still be read. While the backend has no dictionary, the
+ * first entries written are sampled and a dictionary is trained from them.
+ * <p>
+ * Entries are sampled while they are written, inside the transactions of the updates, which may still be rolled back.
+ * The dictionary is therefore trained and stored in the background, in its own transaction, and it is only used for
+ * compressing once it has been committed: no stored entry can reference a dictionary which was not stored.
+ * <p>
+ * Offline imports write without transactions, through an {@link Importer}, while the storage is closed. During an
+ * import, the dictionary is trained by the thread writing the last sampled entry and stored through the importer,
+ * which persists it together with the imported entries.
+ * <p>
+ * Only one dictionary is ever trained: once it exists, it is used for compressing all the entries written
+ * afterwards, even if their content drifts away from the sampled entries. Entries written before it was trained stay
+ * compressed without dictionary until they are modified.
+ */
+final class PersistentCompressionDictionaries
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The tree holding the dictionaries, keyed by dictionary ID. */
+  private static final TreeName dictionariesTreeName = new TreeName("compressed_schema", "compression_dictionaries");
+
+  /** The maximum size of a dictionary, which is the size of the deflate window. */
+  static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+  /** The number of sampled entries triggering the training of a dictionary. */
+  private static final int TRAINING_NB_SAMPLES = 1000;
+  /** The total size of the sampled entries triggering the training of a dictionary. */
+  private static final int TRAINING_SAMPLES_SIZE = 1024 * 1024;
+  /** The maximum number of bytes sampled per entry. */
+  private static final int MAX_SAMPLE_SIZE = 4096;
+  /** The length of the byte sequences counted while training. */
+  private static final int SHINGLE_LENGTH = 8;
+  /** The length of the sample segments which may be selected in a dictionary. */
+  private static final int SEGMENT_LENGTH = 64;
+
+  /** A compression dictionary and its ID. */
+  static final class Dictionary
+  {
+    private final int id;
+    private final byte[] bytes;
+
+    Dictionary(int id, byte[] bytes)
+    {
+      this.id = id;
+      this.bytes = bytes;
+    }
+
+    int getId()
+    {
+      return id;
+    }
+
+    byte[] getBytes()
+    {
+      return bytes;
+    }
+  }
+
+  private final Storage storage;
+  private final boolean writeable;
+  /** Trains and stores the dictionaries, outside the transactions writing the sampled entries. */
+  private final Executor trainer;
+  /** All the dictionaries, used for decompressing. */
+  private final ConcurrentMap<Integer, Dictionary> dictionaries = new ConcurrentHashMap<>();
+  /** The dictionary to use for compressing, null until one has been trained. */
+  private volatile Dictionary currentDictionary;
+  /** The importer writing the entries while the storage is closed for an import, null otherwise. */
+  private volatile Importer importer;
+
+  /** Guarded by samples. */
+  private final List<byte[]> samples = new ArrayList<>();
+  private int samplesSize;
+
+  /**
+   * Loads the dictionaries from the provided storage.
+   *
+   * @param storage
+   *          The storage holding the dictionaries
+   * @param txn
+   *          A non null transaction
+   * @param accessMode
+   *          Specifies how the storage has been opened. Dictionaries are only trained when it is writeable.
+   * @param trainer
+   *          The executor training and storing the dictionaries in the background
+   * @throws StorageRuntimeException
+   *           If a problem occurs while reading the dictionaries
+   */
+  PersistentCompressionDictionaries(Storage storage, WriteableTransaction txn, AccessMode accessMode,
+      Executor trainer)
+  {
+    this.storage = storage;
+    this.writeable = accessMode.isWriteable();
+    this.trainer = trainer;
+    txn.openTree(dictionariesTreeName, writeable);
+    try (Cursor<ByteString, ByteString> cursor = txn.openCursor(dictionariesTreeName))
+    {
+      while (cursor.next())
+      {
+        final Dictionary dictionary = new Dictionary(cursor.getKey().toInt(), cursor.getValue().toByteArray());
+        dictionaries.put(dictionary.getId(), dictionary);
+        // keys are ordered, the last dictionary is the most recent one
+        currentDictionary = dictionary;
+      }
+    }
+  }
+
+  /**
+   * Stores the dictionaries trained from now on through the provided importer, while the storage is closed for an
+   * import.
+   *
+   * @param importer
+   *          The importer writing the imported entries
+   */
+  void startImport(Importer importer)
+  {
+    this.importer = importer;
+  }
+
+  /** Stores the dictionaries trained from now on through the storage, once an import is finished. */
+  void endImport()
+  {
+    importer = null;
+  }
+
+  /**
+   * Returns the dictionary with the provided ID.
+   *
+   * @param id
+   *          The ID of the dictionary
+   * @return the dictionary with the provided ID, or null if it does not exist
+   */
+  Dictionary getDictionary(int id)
+  {
+    return dictionaries.get(id);
+  }
+
+  /**
+   * Returns the dictionary to use for compressing the provided entry. If there is no dictionary yet, the entry is
+   * sampled, and a dictionary is trained in the background once enough entries have been sampled.
+   *
+   * @param encodedEntry
+   *          The uncompressed encoding of the entry to compress
+   * @return the dictionary to compress the entry with, or null if the entry must be compressed without dictionary
+   */
+  Dictionary getDictionaryForCompressing(ByteSequence encodedEntry)
+  {
+    final Dictionary dictionary = currentDictionary;
+    if (dictionary != null || !writeable)
+    {
+      return dictionary;
+    }
+
+    final List<byte[]> trainingSamples;
+    synchronized (samples)
+    {
+      if (currentDictionary != null || samples.size() >= TRAINING_NB_SAMPLES)
+      {
+        // Another thread is training the dictionary
+        return currentDictionary;
+      }
+      final byte[] sample = encodedEntry.subSequence(0, Math.min(encodedEntry.length(), MAX_SAMPLE_SIZE)).toByteArray();
+      samples.add(sample);
+      samplesSize += sample.length;
+      if (samples.size() < TRAINING_NB_SAMPLES && samplesSize < TRAINING_SAMPLES_SIZE)
+      {
+        return null;
+      }
+      trainingSamples = new ArrayList<>(samples);
+      // prevent other threads from sampling while training
+      while (samples.size() < TRAINING_NB_SAMPLES)
+      {
+        samples.add(null);
+      }
+    }
+
+    final Importer currentImporter = importer;
+    if (currentImporter != null)
+    {
+      // No transaction to stay out of, and the importer may be closed once the imported entries are written
+      trainAndStore(trainingSamples, currentImporter);
+      return currentDictionary;
+    }
+    try
+    {
+      trainer.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          trainAndStore(trainingSamples, null);
+        }
+      });
+    }
+    catch (RejectedExecutionException e)
+    {
+      // The backend is closing
+      logger.traceException(e);
+      clearSamples();
+    }
+    return null;
+  }
+
+  private void trainAndStore(List<byte[]> trainingSamples, Importer importer)
+  {
+    try
+    {
+      final Dictionary newDictionary = new Dictionary(nextDictionaryId(), trainDictionary(trainingSamples));
+      store(newDictionary, importer);
+      dictionaries.put(newDictionary.getId(), newDictionary);
+      currentDictionary = newDictionary;
+      logger.debug(INFO_COMPRESSION_DICTIONARY_TRAINED, newDictionary.getId(), newDictionary.getBytes().length,
+          trainingSamples.size());
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.warn(WARN_COMPRESSION_DICTIONARY_CANNOT_STORE, e.getMessage());
+    }
+    finally
+    {
+      // Sample again if the dictionary could not be stored
+      clearSamples();
+    }
+  }
+
+  private void clearSamples()
+  {
+    synchronized (samples)
+    {
+      samples.clear();
+      samplesSize = 0;
+    }
+  }
+
+  private int nextDictionaryId()
+  {
+    int maxId = 0;
+    for (Integer id : dictionaries.keySet())
+    {
+      maxId = Math.max(maxId, id);
+    }
+    return maxId + 1;
+  }
+
+  private void store(final Dictionary dictionary, Importer importer) throws Exception
+  {
+    final ByteString key = new ByteStringBuilder(4).appendInt(dictionary.getId()).toByteString();
+    final ByteString value = ByteString.wrap(dictionary.getBytes());
+    if (importer != null)
+    {
+      importer.put(dictionariesTreeName, key, value);
+      return;
+    }
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.put(dictionariesTreeName, key, value);
+      }
+    });
+  }
+
+  /**
+   * Trains a dictionary from the provided samples.
+   * <p>
+   * Each sample is split in segments, scored by how many samples contain the byte sequences they are made of. The
+   * best scoring distinct segments are kept, ordered by increasing score since the compressor finds the end of the
+   * dictionary with shorter distances.
+   *
+   * @param samples
+   *          The samples to train the dictionary from
+   * @return the dictionary
+   */
+  static byte[] trainDictionary(List<byte[]> samples)
+  {
+    // Count the number of samples containing each shingle
+    final Map<Long, Integer> frequencies = new HashMap<>();
+    final Set<Long> sampleShingles = new HashSet<>();
+    for (byte[] sample : samples)
+    {
+      sampleShingles.clear();
+      for (int i = 0; i + SHINGLE_LENGTH <= sample.length; i++)
+      {
+        sampleShingles.add(shingleAt(sample, i));
+      }
+      for (Long shingle : sampleShingles)
+      {
+        final Integer frequency = frequencies.get(shingle);
+        frequencies.put(shingle, frequency != null ? frequency + 1 : 1);
+      }
+    }
+
+    // Score the segments with the shingles found in more than one sample
+    final List<Segment> segments = new ArrayList<>();
+    for (byte[] sample : samples)
+    {
+      for (int start = 0; start + SHINGLE_LENGTH <= sample.length; start += SEGMENT_LENGTH)
+      {
+        final int end = Math.min(start + SEGMENT_LENGTH, sample.length);
+        long score = 0;
+        for (int i = start; i + SHINGLE_LENGTH <= end; i++)
+        {
+          score += frequencies.get(shingleAt(sample, i)) - 1;
+        }
+        if (score > 0)
+        {
+          segments.add(new Segment(ByteString.wrap(sample, start, end - start), score));
+        }
+      }
+    }
+    Collections.sort(segments, Segment.BY_DECREASING_SCORE);
+
+    final List<Segment> selected = new ArrayList<>();
+    final Set<ByteString> selectedContents = new HashSet<>();
+    int size = 0;
+    for (Segment segment : segments)
+    {
+      if (size + segment.content.length() > MAX_DICTIONARY_SIZE)
+      {
+        break;
+      }
+      if (selectedContents.add(segment.content))
+      {
+        selected.add(segment);
+        size += segment.content.length();
+      }
+    }
+
+    final ByteStringBuilder dictionary = new ByteStringBuilder(size);
+    for (int i = selected.size() - 1; i >= 0; i--)
+    {
+      dictionary.appendBytes(selected.get(i).content);
+    }
+    return dictionary.toByteArray();
+  }
+
+  private static long shingleAt(byte[] bytes, int offset)
+  {
+    long shingle = 0;
+    for (int i = offset; i < offset + SHINGLE_LENGTH; i++)
+    {
+      shingle = (shingle << 8) | (bytes[i] & 0xFF);
+    }
+    return shingle;
+  }
+
+  /** A segment of a sample and its score. */
+  private static final class Segment
+  {
+    private static final Comparator<Segment> BY_DECREASING_SCORE = new Comparator<Segment>()
+    {
+      @Override
+      public int compare(Segment s1, Segment s2)
+      {
+        return Long.compare(s2.score, s1.score);
+      }
+    };
+
+    private final ByteString content;
+    private final long score;
+
+    private Segment(ByteString content, long score)
+    {
+      this.content = content;
+      this.score = score;
+    }
+  }
+}
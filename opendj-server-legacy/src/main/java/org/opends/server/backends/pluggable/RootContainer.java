@@ -17,6 +17,7 @@
 package org.opends.server.backends.pluggable;
 
 import static org.opends.messages.BackendMessages.*;
+import static org.forgerock.util.Utils.newThreadFactory;
 import static org.opends.server.util.StaticUtils.*;
 
 import java.util.ArrayList;
@@ -26,6 +27,9 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -64,6 +68,10 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
 
   /** The tree storage. */
   private final Storage storage;
+  /** Groups concurrent entry updates in the same storage transaction. */
+  private final WriteBatcher writeBatcher;
+  /** Runs the background tasks of the entry containers, like gathering index statistics or building DN filters. */
+  private ExecutorService backgroundExecutor;
 
   /** The ID of the backend to which this entry root container belongs. */
   private final String backendId;
@@ -80,6 +88,8 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
 
   /** The compressed schema manager for this backend. */
   private PersistentCompressedSchema compressedSchema;
+  /** The dictionaries used for compressing the entries. */
+  private PersistentCompressionDictionaries compressionDictionaries;
 
   private final ServerContext serverContext;
 
@@ -100,6 +110,7 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     this.serverContext = serverContext;
     this.storage = storage;
     this.config = config;
+    this.writeBatcher = new WriteBatcher(storage, config.getMaxWriteBatchSize());
 
     getMonitorProvider().enableFilterUseStats(config.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(config.getIndexFilterAnalyzerMaxFilters());
@@ -117,6 +128,28 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     return storage;
   }
 
+  /**
+   * Returns the write batcher which groups concurrent entry updates in the same
+   * storage transaction.
+   *
+   * @return the write batcher of this root container
+   */
+  WriteBatcher getWriteBatcher()
+  {
+    return writeBatcher;
+  }
+
+  /**
+   * Returns the executor running the background tasks of the entry containers. Tasks must stop as soon as it is shut
+   * down, since the storage is closed next.
+   *
+   * @return the executor running the background tasks of the entry containers
+   */
+  ExecutorService getBackgroundExecutor()
+  {
+    return backgroundExecutor;
+  }
+
   /**
    * Opens the root container.
    *
@@ -131,6 +164,8 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
   {
     try
     {
+      backgroundExecutor = Executors.newSingleThreadExecutor(
+          newThreadFactory(null, "Background tasks " + backendId, true));
       storage.open(accessMode);
       storage.write(new WriteOperation()
       {
@@ -138,6 +173,8 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
         public void run(WriteableTransaction txn) throws Exception
         {
           compressedSchema = new PersistentCompressedSchema(serverContext, storage, txn, accessMode);
+          compressionDictionaries =
+              new PersistentCompressionDictionaries(storage, txn, accessMode, backgroundExecutor);
           openAndRegisterEntryContainers(txn, config.getBaseDN(), accessMode);
         }
       });
@@ -256,6 +293,16 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     return compressedSchema;
   }
 
+  /**
+   * Retrieves the dictionaries used for compressing the entries of this backend.
+   *
+   * @return The dictionaries used for compressing the entries of this backend.
+   */
+  PersistentCompressionDictionaries getCompressionDictionaries()
+  {
+    return compressionDictionaries;
+  }
+
   /**
    * Get the BackendMonitor object used by this root container.
    *
@@ -320,6 +367,7 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
    */
   void close() throws StorageRuntimeException
   {
+    stopBackgroundExecutor();
     for (DN baseDN : entryContainers.keySet())
     {
       EntryContainer ec = unregisterEntryContainer(baseDN);
@@ -340,6 +388,26 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     }
   }
 
+  /**
+   * Stops the background tasks. The background thread is not interrupted, since interrupting storage I/O may
+   * invalidate the storage: the tasks stop by themselves as soon as they notice the executor is shut down.
+   */
+  private void stopBackgroundExecutor()
+  {
+    if (backgroundExecutor != null)
+    {
+      backgroundExecutor.shutdown();
+      try
+      {
+        backgroundExecutor.awaitTermination(1, TimeUnit.MINUTES);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
   /**
    * Return all the entry containers in this root container.
    *
@@ -452,6 +520,7 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
   {
     getMonitorProvider().enableFilterUseStats(configuration.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(configuration.getIndexFilterAnalyzerMaxFilters());
+    writeBatcher.setMaxBatchSize(configuration.getMaxWriteBatchSize());
 
     return new ConfigChangeResult();
   }
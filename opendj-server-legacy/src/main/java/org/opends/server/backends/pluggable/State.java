@@ -46,6 +46,13 @@ class State extends AbstractTree
   private static final Collection<IndexFlag> DEFAULT_FLAGS = Collections.unmodifiableCollection(Arrays
       .asList(IndexFlag.COMPACTED));
 
+  /**
+   * Use BITMAP serialization for new indexes when enabled in the backend configuration.
+   * @see {@link EntryIDSet.EntryIDSetCodecV4}
+   */
+  private static final Collection<IndexFlag> BITMAP_DEFAULT_FLAGS = Collections.unmodifiableCollection(Arrays
+      .asList(IndexFlag.COMPACTED, IndexFlag.BITMAP));
+
   /**
    * Bit-field containing possible flags that an index can have
    * When adding flags, ensure that its value fits on a single bit.
@@ -55,7 +62,13 @@ class State extends AbstractTree
     TRUSTED(0x01),
 
     /** Use compact encoding for indexes' ID storage. */
-    COMPACTED(0x02);
+    COMPACTED(0x02),
+
+    /** Use compressed bitmap encoding for indexes' ID storage. Values using compact encoding can still be read. */
+    BITMAP(0x04),
+
+    /** The index is being built online: its keys may not reference all the matching entries yet. */
+    BUILDING(0x08);
 
     static final EnumSet<IndexFlag> ALL_FLAGS = EnumSet.allOf(IndexFlag.class);
 
@@ -66,14 +79,30 @@ class State extends AbstractTree
     }
   }
 
+  /** The flags of indexes which have no state record yet. */
+  private volatile Collection<IndexFlag> defaultFlags;
+
   /**
    * Create a new State object.
    *
    * @param name The name of the entry tree.
+   * @param bitmapEncoding Whether new indexes use the BITMAP serialization.
    */
-  State(TreeName name)
+  State(TreeName name, boolean bitmapEncoding)
   {
     super(name);
+    setBitmapEncoding(bitmapEncoding);
+  }
+
+  /**
+   * Sets whether new indexes use the BITMAP serialization. Indexes which already have a state record keep their
+   * serialization until they are rebuilt.
+   *
+   * @param bitmapEncoding Whether new indexes use the BITMAP serialization.
+   */
+  void setBitmapEncoding(boolean bitmapEncoding)
+  {
+    defaultFlags = bitmapEncoding ? BITMAP_DEFAULT_FLAGS : DEFAULT_FLAGS;
   }
 
   private static ByteString keyForIndex(TreeName indexTreeName) throws StorageRuntimeException
@@ -124,9 +153,9 @@ class State extends AbstractTree
     });
   }
 
-  private static EnumSet<IndexFlag> decodeFlagsOrGetDefault(ByteSequence sequence) {
+  private EnumSet<IndexFlag> decodeFlagsOrGetDefault(ByteSequence sequence) {
     if ( sequence == null ) {
-      return EnumSet.copyOf(DEFAULT_FLAGS);
+      return EnumSet.copyOf(defaultFlags);
     }
     final EnumSet<IndexFlag> indexState = EnumSet.noneOf(IndexFlag.class);
     final byte indexValue = sequence.byteAt(0);
@@ -836,7 +836,7 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
     return sortValue;
   }
 
-  private static MatchingRule getEffectiveOrderingRule(SortKey sortKey)
+  static MatchingRule getEffectiveOrderingRule(SortKey sortKey)
   {
     String mrOid = sortKey.getOrderingMatchingRule();
     if (mrOid != null)
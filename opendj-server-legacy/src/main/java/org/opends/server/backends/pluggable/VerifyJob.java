@@ -675,7 +675,7 @@ class VerifyJob
         {
           errorCount++;
           logger.traceException(e);
-          logger.trace("Malformed ID list: %n%s", keyDump(index, key));
+          logger.error(ERR_VERIFY_MALFORMED_IDSET, stackTraceToSingleLineString(e), keyDump(index, key));
           continue;
         }
 
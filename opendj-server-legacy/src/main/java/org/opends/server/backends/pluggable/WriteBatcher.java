@@ -0,0 +1,311 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.types.CanceledOperationException;
+import org.opends.server.types.DirectoryException;
+
+/**
+ * Groups concurrent entry updates into a single storage transaction so that
+ * they share the cost of the commit and of the durability sync.
+ * <p>
+ * A thread submitting a write adds it to the open batch, or opens a new batch
+ * and becomes its leader. The leader waits until fewer than
+ * {@link #MAX_CONCURRENT_COMMITS} batches are being committed, closes its
+ * batch, then runs all its writes in one transaction while the next batch
+ * fills up. The other submitters wait for their batch to be committed: each
+ * write is therefore exactly as durable as if it had been committed on its
+ * own. Batches do not wait for each other, they are only bounded in number,
+ * so that some writes wait and get grouped when the storage is busy. When one
+ * of the writes fails with an operation error (for example because the entry
+ * already exists) the transaction is rolled back, the failed write is reported
+ * to its submitter and the others are run again without it: this is safe
+ * since {@link WriteOperation} implementations must be idempotent. When the
+ * transaction fails for any other reason, each write is run again in its own
+ * transaction so that only the faulty ones fail.
+ * <p>
+ * A write running alone is submitted directly to the storage, so there is no
+ * overhead when there is no concurrency.
+ */
+final class WriteBatcher
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /**
+   * The maximum number of batches committed at the same time. Concurrent
+   * transactions scale with the storage, but any write beyond this number
+   * waits and is grouped with the others.
+   */
+  static final int MAX_CONCURRENT_COMMITS = 4;
+
+  /** A write waiting to be committed. */
+  private static final class PendingWrite
+  {
+    private final WriteOperation operation;
+    /** Written by the leader of the batch, read by the submitter once the batch is committed. */
+    private Exception failure;
+
+    private PendingWrite(WriteOperation operation)
+    {
+      this.operation = operation;
+    }
+  }
+
+  /** Writes committed together by the leader of the batch. */
+  private static final class Batch
+  {
+    /** Guarded by the open batch lock until the batch is closed, then only accessed by the leader. */
+    private final List<PendingWrite> writes = new ArrayList<>();
+    private final CountDownLatch committed = new CountDownLatch(1);
+  }
+
+  /** Thrown to roll back a batch when one of its writes fails with an operation error. */
+  private static final class WriteFailedException extends Exception
+  {
+    private static final long serialVersionUID = 1L;
+    private final transient PendingWrite write;
+
+    private WriteFailedException(PendingWrite write)
+    {
+      super(null, null, false, false);
+      this.write = write;
+    }
+  }
+
+  private final Storage storage;
+  private final Object openBatchLock = new Object();
+  /** The batch new writes are added to, {@code null} until the next write opens one. */
+  private Batch openBatch;
+  private final Semaphore commitPermits = new Semaphore(MAX_CONCURRENT_COMMITS);
+  /** The maximum number of writes committed together, 1 disables grouping. */
+  private volatile int maxBatchSize;
+
+  private final AtomicLong writeCount = new AtomicLong();
+  private final AtomicLong commitCount = new AtomicLong();
+
+  /**
+   * Creates a new write batcher.
+   *
+   * @param storage
+   *          the storage where to commit the writes
+   * @param maxBatchSize
+   *          the maximum number of writes committed in the same transaction, 1
+   *          or less disables grouping
+   */
+  WriteBatcher(Storage storage, int maxBatchSize)
+  {
+    this.storage = storage;
+    setMaxBatchSize(maxBatchSize);
+  }
+
+  /**
+   * Changes the maximum number of writes committed in the same transaction.
+   *
+   * @param maxBatchSize
+   *          the maximum number of writes committed in the same transaction, 1
+   *          or less disables grouping
+   */
+  void setMaxBatchSize(int maxBatchSize)
+  {
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+  }
+
+  /**
+   * Runs the provided write operation in a storage transaction, possibly
+   * shared with other concurrent write operations, and returns once the
+   * transaction is committed.
+   *
+   * @param operation
+   *          the write operation, which must be idempotent
+   * @throws Exception
+   *           if the write operation failed, or if a problem occurs with the
+   *           underlying storage engine
+   */
+  void write(WriteOperation operation) throws Exception
+  {
+    writeCount.incrementAndGet();
+    final int batchSize = maxBatchSize;
+    if (batchSize <= 1)
+    {
+      commitCount.incrementAndGet();
+      storage.write(operation);
+      return;
+    }
+
+    final PendingWrite write = new PendingWrite(operation);
+    final Batch batch;
+    final boolean isLeader;
+    synchronized (openBatchLock)
+    {
+      isLeader = openBatch == null;
+      if (isLeader)
+      {
+        openBatch = new Batch();
+      }
+      batch = openBatch;
+      batch.writes.add(write);
+      if (batch.writes.size() >= batchSize)
+      {
+        // Full, the next write opens a new batch
+        openBatch = null;
+      }
+    }
+
+    if (isLeader)
+    {
+      commitPermits.acquireUninterruptibly();
+      try
+      {
+        synchronized (openBatchLock)
+        {
+          if (openBatch == batch)
+          {
+            openBatch = null;
+          }
+        }
+        commit(batch.writes);
+      }
+      finally
+      {
+        commitPermits.release();
+        batch.committed.countDown();
+      }
+    }
+    else
+    {
+      awaitUninterruptibly(batch.committed);
+    }
+    if (write.failure != null)
+    {
+      throw write.failure;
+    }
+  }
+
+  /** A write must not be reported before it is committed, whatever the interruptions, as for the leader. */
+  private static void awaitUninterruptibly(CountDownLatch latch)
+  {
+    boolean interrupted = false;
+    while (true)
+    {
+      try
+      {
+        latch.await();
+        break;
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Commits the writes of a closed batch. */
+  private void commit(final List<PendingWrite> batch)
+  {
+    while (batch.size() > 1)
+    {
+      try
+      {
+        commitCount.incrementAndGet();
+        storage.write(new WriteOperation()
+        {
+          @Override
+          public void run(WriteableTransaction txn) throws Exception
+          {
+            for (PendingWrite write : batch)
+            {
+              try
+              {
+                write.operation.run(txn);
+              }
+              catch (DirectoryException | CanceledOperationException e)
+              {
+                write.failure = e;
+                throw new WriteFailedException(write);
+              }
+            }
+          }
+        });
+        return;
+      }
+      catch (WriteFailedException e)
+      {
+        // Commit the other writes without the failed one.
+        batch.remove(e.write);
+      }
+      catch (Exception e)
+      {
+        // Not the fault of a single write: give each one its own transaction.
+        logger.traceException(e);
+        break;
+      }
+    }
+    for (PendingWrite remaining : batch)
+    {
+      commitAlone(remaining);
+    }
+  }
+
+  private void commitAlone(PendingWrite write)
+  {
+    try
+    {
+      commitCount.incrementAndGet();
+      write.failure = null;
+      storage.write(write.operation);
+    }
+    catch (Exception e)
+    {
+      write.failure = e;
+    }
+  }
+
+  /**
+   * Returns the number of write operations submitted to this batcher.
+   *
+   * @return the number of write operations submitted to this batcher
+   */
+  long getWriteCount()
+  {
+    return writeCount.get();
+  }
+
+  /**
+   * Returns the number of storage transactions used to commit the write
+   * operations, including the transactions which were rolled back and retried.
+   *
+   * @return the number of storage transactions used to commit the write
+   *         operations
+   */
+  long getCommitCount()
+  {
+    return commitCount.get();
+  }
+}
@@ -4144,6 +4144,13 @@ public final class ConfigConstants
   public static final String ATTR_TASK_EXPORT_WRAP_COLUMN =
        NAME_PREFIX_TASK + "export-wrap-column";
 
+  /**
+   * The name of the attribute in an export task definition that specifies
+   * the number of threads decoding and formatting the entries.
+   */
+  public static final String ATTR_TASK_EXPORT_THREAD_COUNT =
+       NAME_PREFIX_TASK + "export-thread-count";
+
   /**
    * The name of the attribute in an export task definition that specifies
    * that operational attributes have to be included.
@@ -4337,6 +4344,20 @@ public final class ConfigConstants
   public static final String ATTR_REBUILD_TMP_DIRECTORY =
        NAME_PREFIX_TASK + "rebuild-tmp-directory";
 
+  /**
+   * The name of the attribute in an rebuild task definition that specifies
+   * whether the indexes must be rebuilt while the backend remains online.
+   */
+  public static final String ATTR_REBUILD_BACKGROUND =
+       NAME_PREFIX_TASK + "rebuild-background";
+
+  /**
+   * The name of the attribute in an rebuild task definition that specifies the
+   * maximum number of entries read per second by a background rebuild.
+   */
+  public static final String ATTR_REBUILD_MAX_ENTRIES_PER_SECOND =
+       NAME_PREFIX_TASK + "rebuild-max-entries-per-second";
+
   /**
    * Used to specify that the rebuild all boolean should be set.
    */
@@ -24,6 +24,7 @@ import static org.opends.server.util.ServerConstants.*;
 import static org.opends.server.util.StaticUtils.*;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,6 +40,7 @@ import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.config.server.ConfigChangeResult;
 import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.DN.CompactDn;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.util.Utils;
@@ -111,6 +113,9 @@ public class GroupManager extends InternalDirectoryServerPlugin
   /** Lock to protect internal data structures. */
   private final ReadWriteLock lock;
 
+  /** Reverse index from the group members to the groups they belong to. */
+  private final GroupMembershipIndex membershipIndex = new GroupMembershipIndex();
+
   /** Dummy configuration DN for Group Manager. */
   private static final String CONFIG_DN = "cn=Group Manager,cn=config";
 
@@ -270,6 +275,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           if (g.getClass().getName().equals(group.getClass().getName()))
           {
             iterator.remove();
+            membershipIndex.removeGroup(g.getGroupDN());
           }
         }
       }
@@ -331,6 +337,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
               if (g.getClass().getName().equals(group.getClass().getName()))
               {
                 iterator.remove();
+                membershipIndex.removeGroup(g.getGroupDN());
               }
             }
           }
@@ -582,6 +589,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
               Group<?> groupInstance = groupImplementation.newInstance(null, entry);
               groupInstances.put(entry.getName(), groupInstance);
               refreshToken++;
+              membershipIndex.addGroup(groupInstance);
             }
             catch (DirectoryException e)
             {
@@ -616,6 +624,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
         if (backend.handlesEntry(groupEntryDN))
         {
           iterator.remove();
+          membershipIndex.removeGroup(groupEntryDN);
         }
       }
     }
@@ -680,10 +689,15 @@ public class GroupManager extends InternalDirectoryServerPlugin
     lock.writeLock().lock();
     try
     {
-      if (groupInstances.removeSubtree(entry.getName(), null))
+      Set<Group<?>> groupSet = new HashSet<>();
+      if (groupInstances.removeSubtree(entry.getName(), groupSet))
       {
         refreshToken++;
       }
+      for (Group<?> group : groupSet)
+      {
+        membershipIndex.removeGroup(group.getGroupDN());
+      }
     }
     finally
     {
@@ -752,6 +766,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
             || updatesObjectClass(modifications))
         {
           groupInstances.remove(oldEntry.getName());
+          membershipIndex.removeGroup(oldEntry.getName());
           // This updates the refreshToken
           createAndRegisterGroup(newEntry);
         }
@@ -799,11 +814,16 @@ public class GroupManager extends InternalDirectoryServerPlugin
         final DN renamedGroupDN = groupDN.rename(oldDN, newDN);
         group.setGroupDN(renamedGroupDN);
         groupInstances.put(renamedGroupDN, group);
+        membershipIndex.removeGroup(groupDN);
       }
       if (!groupSet.isEmpty())
       {
         refreshToken++;
       }
+      for (Group<?> group : groupSet)
+      {
+        membershipIndex.addGroup(group);
+      }
     }
     finally
     {
@@ -944,6 +964,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           {
             groupInstances.put(entry.getName(), groupInstance);
             refreshToken++;
+            membershipIndex.addGroup(groupInstance);
           }
           finally
           {
@@ -969,6 +990,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
     try
     {
       groupInstances.clear();
+      membershipIndex.clear();
     }
     finally
     {
@@ -976,6 +998,50 @@ public class GroupManager extends InternalDirectoryServerPlugin
     }
   }
 
+  /**
+   * Retrieves the DNs of all the groups in which the user described by the
+   * provided entry is a member, either directly or through nested groups.
+   * The static groups are looked up in a reverse membership index, only the
+   * groups whose membership cannot be indexed are asked.
+   *
+   * @param  userEntry  The entry of the user.
+   *
+   * @return  The DNs of the groups in which the user is a member.
+   */
+  public Set<DN> getGroupDNs(Entry userEntry)
+  {
+    return membershipIndex.getGroupDNs(userEntry.getName(), userEntry);
+  }
+
+  /**
+   * Retrieves the DNs of all the groups in which the user with the provided
+   * DN is a member, either directly or through nested groups.
+   *
+   * @param  userDN  The DN of the user.
+   *
+   * @return  The DNs of the groups in which the user is a member.
+   */
+  public Set<DN> getGroupDNs(DN userDN)
+  {
+    return membershipIndex.getGroupDNs(userDN, null);
+  }
+
+  /**
+   * Reports the changes made to the member list of a group whose membership
+   * is indexed. This must be called by the groups returning {@code true}
+   * from {@link Group#isMembershipIndexable()} each time members are added
+   * to or removed from them.
+   *
+   * @param  groupDN         The DN of the group.
+   * @param  addedMembers    The DNs of the members added to the group.
+   * @param  removedMembers  The DNs of the members removed from the group.
+   */
+  public void updateMembershipIndex(DN groupDN,
+      Collection<CompactDn> addedMembers, Collection<CompactDn> removedMembers)
+  {
+    membershipIndex.updateMembers(groupDN, addedMembers, removedMembers);
+  }
+
   /**
    * Compare the specified token against the current group manager
    * token value. Can be used to reload cached group instances if there has
@@ -0,0 +1,332 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DN.CompactDn;
+import org.opends.server.api.Group;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.MemberList;
+import org.opends.server.types.MembershipException;
+
+/**
+ * Reverse index from the members of the groups to the groups they belong to.
+ * <p>
+ * Only the groups whose membership is entirely defined by their list of member DNs (static groups) are indexed. The
+ * other groups (e.g. dynamic groups) are remembered so that they can be asked directly when looking up the groups of
+ * a member. Nesting is resolved by walking the index from the groups a member directly belongs to, towards the groups
+ * which list these groups as members.
+ * <p>
+ * The index lock is never held while calling the groups, so it can be updated by the groups while they hold their
+ * own locks.
+ */
+final class GroupMembershipIndex
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The DNs of the indexed groups listing each member DN. */
+  private final Map<CompactDn, Set<DN>> groupsByMember = new HashMap<>();
+  /** The member DNs of each indexed group. */
+  private final Map<DN, Set<CompactDn>> membersByGroup = new HashMap<>();
+  /** The groups whose membership cannot be indexed. */
+  private final Map<DN, Group<?>> unindexedGroups = new LinkedHashMap<>();
+  /** Lock protecting the maps above. */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Adds the provided group to this index, replacing any group previously added with the same DN.
+   *
+   * @param group
+   *          The group to add
+   */
+  void addGroup(Group<?> group)
+  {
+    final DN groupDN = group.getGroupDN();
+    if (!group.isMembershipIndexable())
+    {
+      lock.writeLock().lock();
+      try
+      {
+        removeGroup0(groupDN);
+        unindexedGroups.put(groupDN, group);
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+      return;
+    }
+
+    final Set<CompactDn> members = readMembers(group);
+    lock.writeLock().lock();
+    try
+    {
+      removeGroup0(groupDN);
+      membersByGroup.put(groupDN, members);
+      for (CompactDn member : members)
+      {
+        addGroupOfMember(member, groupDN);
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private Set<CompactDn> readMembers(Group<?> group)
+  {
+    final Set<CompactDn> members = new HashSet<>();
+    try
+    {
+      final MemberList memberList = group.getMembers();
+      try
+      {
+        while (memberList.hasMoreMembers())
+        {
+          try
+          {
+            members.add(memberList.nextMemberDN().compact());
+          }
+          catch (MembershipException e)
+          {
+            logger.traceException(e);
+            if (!e.continueIterating())
+            {
+              break;
+            }
+          }
+        }
+      }
+      finally
+      {
+        memberList.close();
+      }
+    }
+    catch (DirectoryException e)
+    {
+      logger.traceException(e);
+    }
+    return members;
+  }
+
+  /**
+   * Removes the group with the provided DN from this index.
+   *
+   * @param groupDN
+   *          The DN of the group to remove
+   */
+  void removeGroup(DN groupDN)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      removeGroup0(groupDN);
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void removeGroup0(DN groupDN)
+  {
+    unindexedGroups.remove(groupDN);
+    final Set<CompactDn> members = membersByGroup.remove(groupDN);
+    if (members != null)
+    {
+      for (CompactDn member : members)
+      {
+        removeGroupOfMember(member, groupDN);
+      }
+    }
+  }
+
+  /**
+   * Applies the changes made to the member list of an indexed group. The removed members are processed before the
+   * added ones. Nothing is done if the group is not indexed.
+   *
+   * @param groupDN
+   *          The DN of the group whose member list changed
+   * @param addedMembers
+   *          The DNs of the members added to the group
+   * @param removedMembers
+   *          The DNs of the members removed from the group
+   */
+  void updateMembers(DN groupDN, Collection<CompactDn> addedMembers, Collection<CompactDn> removedMembers)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      final Set<CompactDn> members = membersByGroup.get(groupDN);
+      if (members == null)
+      {
+        return;
+      }
+      for (CompactDn member : removedMembers)
+      {
+        if (members.remove(member))
+        {
+          removeGroupOfMember(member, groupDN);
+        }
+      }
+      for (CompactDn member : addedMembers)
+      {
+        if (members.add(member))
+        {
+          addGroupOfMember(member, groupDN);
+        }
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void addGroupOfMember(CompactDn member, DN groupDN)
+  {
+    Set<DN> groups = groupsByMember.get(member);
+    if (groups == null)
+    {
+      // most members belong to a few groups
+      groups = new HashSet<>(4);
+      groupsByMember.put(member, groups);
+    }
+    groups.add(groupDN);
+  }
+
+  private void removeGroupOfMember(CompactDn member, DN groupDN)
+  {
+    final Set<DN> groups = groupsByMember.get(member);
+    if (groups != null && groups.remove(groupDN) && groups.isEmpty())
+    {
+      groupsByMember.remove(member);
+    }
+  }
+
+  /** Removes all the groups from this index. */
+  void clear()
+  {
+    lock.writeLock().lock();
+    try
+    {
+      groupsByMember.clear();
+      membersByGroup.clear();
+      unindexedGroups.clear();
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the DNs of all the groups the provided user is a member of, either directly or through nested groups.
+   *
+   * @param userDN
+   *          The DN of the user
+   * @param userEntry
+   *          The entry of the user, or {@code null} if only its DN is known
+   * @return the DNs of all the groups the provided user is a member of
+   */
+  Set<DN> getGroupDNs(DN userDN, Entry userEntry)
+  {
+    final Set<DN> groupDNs = new LinkedHashSet<>();
+    final Queue<DN> toExpand = new ArrayDeque<>();
+
+    // The groups which cannot be indexed must be asked, without holding the lock
+    for (Group<?> group : getUnindexedGroups())
+    {
+      try
+      {
+        if (userEntry != null ? group.isMember(userEntry) : group.isMember(userDN))
+        {
+          groupDNs.add(group.getGroupDN());
+          toExpand.add(group.getGroupDN());
+        }
+      }
+      catch (DirectoryException e)
+      {
+        logger.traceException(e);
+      }
+    }
+
+    lock.readLock().lock();
+    try
+    {
+      addGroupsOfMember(userDN, groupDNs, toExpand);
+      // Walk up the nesting hierarchy: groups which list a group as member also contain its members
+      DN groupDN;
+      while ((groupDN = toExpand.poll()) != null)
+      {
+        addGroupsOfMember(groupDN, groupDNs, toExpand);
+      }
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+    return groupDNs;
+  }
+
+  private void addGroupsOfMember(DN memberDN, Set<DN> groupDNs, Queue<DN> toExpand)
+  {
+    final Set<DN> groups = groupsByMember.get(memberDN.compact());
+    if (groups != null)
+    {
+      for (DN groupDN : groups)
+      {
+        if (groupDNs.add(groupDN))
+        {
+          toExpand.add(groupDN);
+        }
+      }
+    }
+  }
+
+  private List<Group<?>> getUnindexedGroups()
+  {
+    lock.readLock().lock();
+    try
+    {
+      return unindexedGroups.isEmpty()
+          ? Collections.<Group<?>> emptyList()
+          : new ArrayList<>(unindexedGroups.values());
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -34,7 +34,6 @@ import org.opends.server.api.ClientConnection;
 import org.opends.server.api.SASLMechanismHandler;
 import org.opends.server.core.BindOperation;
 import org.opends.server.core.DirectoryServer;
-import org.opends.server.protocols.ldap.LDAPClientConnection;
 import org.opends.server.types.Attribute;
 import org.opends.server.types.AuthenticationInfo;
 import org.forgerock.opendj.ldap.DN;
@@ -153,13 +152,13 @@ public class ExternalSASLMechanismHandler
       return;
     }
 
-    if(!(clientConnection instanceof LDAPClientConnection)) {
+    if(!(clientConnection instanceof TLSCapableConnection)) {
         bindOperation.setResultCode(ResultCode.INVALID_CREDENTIALS);
         LocalizableMessage message = ERR_SASLEXTERNAL_NOT_LDAP_CLIENT_INSTANCE.get();
         bindOperation.setAuthFailureReason(message);
         return;
     }
-    LDAPClientConnection lc = (LDAPClientConnection) clientConnection;
+    TLSCapableConnection lc = (TLSCapableConnection) clientConnection;
     Certificate[] clientCertChain = lc.getClientCertificateChain();
     if (clientCertChain == null || clientCertChain.length == 0) {
       bindOperation.setResultCode(ResultCode.INVALID_CREDENTIALS);
@@ -0,0 +1,937 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.server.config.server.EntryCacheCfg;
+import org.forgerock.opendj.server.config.server.OffHeapEntryCacheCfg;
+import org.forgerock.util.Utils;
+import org.opends.server.api.Backend;
+import org.opends.server.api.EntryCache;
+import org.opends.server.api.MonitorData;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Entry;
+import org.opends.server.types.EntryEncodeConfig;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+
+/**
+ * This class defines a Directory Server entry cache which stores the cached
+ * entries in their encoded form outside of the JVM heap.
+ * <p>
+ * Entries are encoded with compressed attribute descriptions and object class
+ * sets, then appended to a ring of direct memory slabs. Each record holds the
+ * hash of the entry DN, the backend and entry ID, the DN string and the
+ * encoded entry. The heap only holds two small indexes mapping DN hashes and
+ * entry IDs to the location of the records, so the cache can grow to tens of
+ * gigabytes without adding to the old generation. Entries are decoded each
+ * time they are read, and the DN stored in the record is checked against the
+ * requested one to rule out hash collisions.
+ * <p>
+ * Records are never moved: removing or replacing an entry only updates the
+ * indexes. When all the slabs are full, the oldest slab is recycled: the
+ * index entries still pointing to its records are removed and counted as
+ * evictions. Each slab has a generation, which is part of the record
+ * locations and is changed when the slab is recycled, so that readers which
+ * looked up a location just before the recycling never decode overwritten
+ * data.
+ * <p>
+ * Appending records is serialized, but entries are encoded before acquiring
+ * the lock and lookups only lock the slab they read from, in shared mode.
+ */
+public class OffHeapEntryCache
+       extends EntryCache<OffHeapEntryCacheCfg>
+       implements ConfigurationChangeListener<OffHeapEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Record header: record length, DN hash, entry ID, backend index and DN length. */
+  private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 4 + 4;
+  /** The maximum number of slabs, as slab indexes are stored on 16 bits in the locations. */
+  private static final int MAX_SLABS = 1 << 16;
+
+  /**
+   * The encoding used for the cached entries. The DN is stored separately in
+   * the record, which avoids decoding the whole entry to retrieve it.
+   */
+  private final EntryEncodeConfig encodeConfig = new EntryEncodeConfig(true, true, true);
+
+  /** The mapping between the hash of the entry DNs and the location of their records. */
+  private final ConcurrentMap<Long, Long> dnMap = new ConcurrentHashMap<>();
+
+  /** The mapping between entry backends/IDs and the location of their records. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Long>> idMap = new ConcurrentHashMap<>();
+
+  /** The backend IDs, referenced by their index in the records. Only ever appended to. */
+  private final List<String> backendIDs = new CopyOnWriteArrayList<>();
+
+  /** Serializes the allocation of records and the recycling of slabs. */
+  private final ReentrantLock allocationLock = new ReentrantLock();
+
+  /** The slabs, allocated as the cache fills up. Elements are guarded by allocationLock. */
+  private volatile Slab[] slabs;
+  /** The number of slabs actually usable, which may be reduced if direct memory runs out. */
+  private int slabCount;
+  /** The index of the slab records are appended to. Guarded by allocationLock. */
+  private int currentSlab;
+
+  /** The size of each slab. */
+  private int slabSize;
+  /** The maximum amount of direct memory to use. */
+  private long maxMemorySize;
+
+  /** The number of entries evicted when recycling slabs. */
+  private final AtomicLong cacheEvictions = new AtomicLong();
+
+  /** Currently registered configuration object. */
+  private OffHeapEntryCacheCfg registeredConfiguration;
+
+  /** Creates a new instance of this off-heap entry cache. */
+  public OffHeapEntryCache()
+  {
+    super();
+    // All initialization should be performed in the initializeEntryCache.
+  }
+
+  @Override
+  public void initializeEntryCache(OffHeapEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    registeredConfiguration = configuration;
+    configuration.addOffHeapChangeListener(this);
+
+    // Read configuration and apply changes.
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages
+          );
+    if (!processEntryCacheConfig(configuration, applyChanges, errorHandler)) {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_OFFHEAPCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+  }
+
+  @Override
+  public void finalizeEntryCache()
+  {
+    registeredConfiguration.removeOffHeapChangeListener(this);
+
+    // Release all memory currently in use by this cache. The direct memory
+    // is returned to the system once the slabs have been garbage collected.
+    allocationLock.lock();
+    try
+    {
+      clearIndexes();
+      slabs = new Slab[0];
+      slabCount = 0;
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    return entryDN != null && readRecord(entryDN) != null;
+  }
+
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    final Record record = readRecord(entryDN);
+    final Entry entry = record != null ? record.decodeEntry(entryDN) : null;
+    if (entry == null)
+    {
+      // Indicate cache miss.
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+    // Indicate cache hit.
+    cacheHits.getAndIncrement();
+    return entry;
+  }
+
+  @Override
+  public Entry getEntry(String backendID, long entryID)
+  {
+    final Record record = readRecord(backendID, entryID);
+    final Entry entry = record != null ? record.decodeEntry(record.getDN()) : null;
+    if (entry == null)
+    {
+      // Indicate cache miss.
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+    // Indicate cache hit.
+    cacheHits.getAndIncrement();
+    return entry;
+  }
+
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    final Record record = readRecord(entryDN);
+    return record != null ? record.entryID : -1;
+  }
+
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    final Record record = readRecord(backendID, entryID);
+    return record != null ? record.getDN() : null;
+  }
+
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(entry, backendID, entryID, false);
+  }
+
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    return put(entry, backendID, entryID, true);
+  }
+
+  private boolean put(Entry entry, String backendID, long entryID, boolean onlyIfAbsent)
+  {
+    final DN entryDN = entry.getName();
+    final long dnHash = hash(entryDN);
+    if (onlyIfAbsent && dnMap.containsKey(dnHash))
+    {
+      return false;
+    }
+
+    // Encode the record before acquiring the lock.
+    final ByteStringBuilder buffer = new ByteStringBuilder();
+    try
+    {
+      final byte[] dnBytes = getBytes(entryDN.toString());
+      buffer.appendInt(0);
+      buffer.appendLong(dnHash);
+      buffer.appendLong(entryID);
+      buffer.appendInt(0);
+      buffer.appendInt(dnBytes.length);
+      buffer.appendBytes(dnBytes);
+      entry.encode(buffer, encodeConfig);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return false;
+    }
+    final byte[] bytes = buffer.toByteArray();
+    ByteBuffer.wrap(bytes).putInt(0, bytes.length);
+
+    allocationLock.lock();
+    try
+    {
+      if (onlyIfAbsent && dnMap.containsKey(dnHash))
+      {
+        return false;
+      }
+      if (bytes.length > slabSize || slabCount == 0)
+      {
+        // The entry cannot be cached, make sure an older version is not served instead.
+        removeEntry(dnHash);
+        return false;
+      }
+
+      ByteBuffer.wrap(bytes).putInt(4 + 8 + 8, getBackendIndex(backendID));
+      final long location = append(bytes);
+      if (location == -1)
+      {
+        removeEntry(dnHash);
+        return false;
+      }
+
+      final Long previous = dnMap.put(dnHash, location);
+      if (previous != null)
+      {
+        removeFromIdMap(previous);
+      }
+      getIdMap(backendID).put(entryID, location);
+      return true;
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  /**
+   * Appends the provided record to the current slab, moving to the next slab
+   * and recycling it if needed. The caller must hold the allocation lock.
+   *
+   * @return the location of the appended record, or -1 if no direct memory could be allocated
+   */
+  private long append(byte[] bytes)
+  {
+    Slab slab = slabs[currentSlab];
+    if (slab == null)
+    {
+      slab = allocateSlab(currentSlab);
+    }
+    else if (slab.writeOffset + bytes.length > slabSize)
+    {
+      currentSlab = (currentSlab + 1) % slabCount;
+      slab = slabs[currentSlab];
+      if (slab == null)
+      {
+        slab = allocateSlab(currentSlab);
+      }
+      else
+      {
+        recycle(slab);
+      }
+    }
+    if (slab == null)
+    {
+      return -1;
+    }
+
+    final ByteBuffer duplicate = slab.buffer.duplicate();
+    duplicate.position(slab.writeOffset);
+    duplicate.put(bytes);
+    final long location = location(currentSlab, slab.generation, slab.writeOffset);
+    slab.writeOffset += bytes.length;
+    return location;
+  }
+
+  /**
+   * Allocates the slab at the provided index. If the direct memory is
+   * exhausted, the number of slabs is reduced and the oldest slab is recycled
+   * instead. The caller must hold the allocation lock.
+   *
+   * @return the slab to append to, or {@code null} if no slab could be allocated at all
+   */
+  private Slab allocateSlab(int index)
+  {
+    try
+    {
+      slabs[index] = new Slab(ByteBuffer.allocateDirect(slabSize));
+      return slabs[index];
+    }
+    catch (OutOfMemoryError e)
+    {
+      logger.traceException(e);
+      logger.warn(WARN_OFFHEAPCACHE_CANNOT_ALLOCATE_SLAB, index, slabs.length,
+          (long) index * slabSize, maxMemorySize, stackTraceToSingleLineString(e));
+      slabCount = index;
+      currentSlab = 0;
+      if (index == 0)
+      {
+        return null;
+      }
+      recycle(slabs[0]);
+      return slabs[0];
+    }
+  }
+
+  /**
+   * Removes the index entries still pointing to the records of the provided
+   * slab, then makes it ready to be reused. The caller must hold the
+   * allocation lock.
+   */
+  private void recycle(Slab slab)
+  {
+    final int slabIndex = indexOf(slab);
+    final ByteBuffer buffer = slab.buffer;
+    int offset = 0;
+    while (offset < slab.writeOffset)
+    {
+      final int length = buffer.getInt(offset);
+      final long location = location(slabIndex, slab.generation, offset);
+      if (dnMap.remove(buffer.getLong(offset + 4), location))
+      {
+        cacheEvictions.incrementAndGet();
+      }
+      final ConcurrentMap<Long, Long> backendMap = idMap.get(backendIDs.get(buffer.getInt(offset + 4 + 8 + 8)));
+      if (backendMap != null)
+      {
+        backendMap.remove(buffer.getLong(offset + 4 + 8), location);
+      }
+      offset += length;
+    }
+
+    // Wait for the readers of the previous generation before the slab is overwritten.
+    slab.lock.writeLock().lock();
+    try
+    {
+      slab.generation = (slab.generation + 1) & 0xffff;
+      slab.writeOffset = 0;
+    }
+    finally
+    {
+      slab.lock.writeLock().unlock();
+    }
+  }
+
+  private int indexOf(Slab slab)
+  {
+    for (int i = 0; i < slabs.length; i++)
+    {
+      if (slabs[i] == slab)
+      {
+        return i;
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  private int getBackendIndex(String backendID)
+  {
+    int index = backendIDs.indexOf(backendID);
+    if (index < 0)
+    {
+      index = backendIDs.size();
+      backendIDs.add(backendID);
+    }
+    return index;
+  }
+
+  private ConcurrentMap<Long, Long> getIdMap(String backendID)
+  {
+    ConcurrentMap<Long, Long> backendMap = idMap.get(backendID);
+    if (backendMap == null)
+    {
+      final ConcurrentMap<Long, Long> newMap = new ConcurrentHashMap<>();
+      backendMap = idMap.putIfAbsent(backendID, newMap);
+      if (backendMap == null)
+      {
+        backendMap = newMap;
+      }
+    }
+    return backendMap;
+  }
+
+  /** Removes the ID map entry of the record at the provided location, once it has been removed from the DN map. */
+  private void removeFromIdMap(long location)
+  {
+    final Record record = readRecord(location);
+    if (record != null)
+    {
+      final ConcurrentMap<Long, Long> backendMap = idMap.get(record.backendID);
+      if (backendMap != null)
+      {
+        backendMap.remove(record.entryID, location);
+      }
+    }
+  }
+
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    removeEntry(hash(entryDN));
+  }
+
+  private void removeEntry(long dnHash)
+  {
+    final Long location = dnMap.remove(dnHash);
+    if (location != null)
+    {
+      removeFromIdMap(location);
+    }
+  }
+
+  /** Removes the DN map entry of the record at the provided location, once it has been removed from the ID map. */
+  private void removeFromDnMap(long location)
+  {
+    final Record record = readRecord(location);
+    if (record != null)
+    {
+      dnMap.remove(record.dnHash, location);
+    }
+  }
+
+  @Override
+  public void clear()
+  {
+    allocationLock.lock();
+    try
+    {
+      clearIndexes();
+      for (Slab slab : slabs)
+      {
+        if (slab != null)
+        {
+          recycle(slab);
+        }
+      }
+      currentSlab = 0;
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  private void clearIndexes()
+  {
+    dnMap.clear();
+    idMap.clear();
+  }
+
+  @Override
+  public void clearBackend(String backendID)
+  {
+    final ConcurrentMap<Long, Long> backendMap = idMap.remove(backendID);
+    if (backendMap != null)
+    {
+      for (Long location : backendMap.values())
+      {
+        removeFromDnMap(location);
+      }
+    }
+  }
+
+  @Override
+  public void clearSubtree(DN baseDN)
+  {
+    // Determine which backend should be used for the provided base DN.  If
+    // there is none, then we don't need to do anything.
+    Backend<?> backend = DirectoryServer.getBackend(baseDN);
+    if (backend != null)
+    {
+      clearSubtree(baseDN, backend);
+    }
+  }
+
+  /**
+   * Clears all entries at or below the specified base DN that are associated
+   * with the given backend.
+   *
+   * @param  baseDN   The base DN below which all entries should be flushed.
+   * @param  backend  The backend for which to remove the appropriate entries.
+   */
+  private void clearSubtree(DN baseDN, Backend<?> backend)
+  {
+    final ConcurrentMap<Long, Long> backendMap = idMap.get(backend.getBackendID());
+    if (backendMap != null)
+    {
+      for (Map.Entry<Long, Long> mapEntry : backendMap.entrySet())
+      {
+        final Record record = readRecord(mapEntry.getValue());
+        if (record != null && record.getDN().isSubordinateOrEqualTo(baseDN)
+            && backendMap.remove(mapEntry.getKey(), mapEntry.getValue()))
+        {
+          removeFromDnMap(mapEntry.getValue());
+        }
+      }
+    }
+
+    // See if the backend has any subordinate backends.  If so, then process
+    // them recursively.
+    for (Backend<?> subBackend : backend.getSubordinateBackends())
+    {
+      for (DN subBase : subBackend.getBaseDNs())
+      {
+        if (subBase.isSubordinateOrEqualTo(baseDN))
+        {
+          clearSubtree(baseDN, subBackend);
+          break;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void handleLowMemory()
+  {
+    // Only the indexes live on the heap. If there are less than 1000 entries,
+    // then dump all of them. Otherwise, recycle the oldest 10% of the slabs.
+    if (dnMap.size() < 1000)
+    {
+      clear();
+      return;
+    }
+
+    allocationLock.lock();
+    try
+    {
+      final int toRecycle = Math.max(1, slabCount / 10);
+      for (int i = 1; i <= toRecycle && i < slabCount; i++)
+      {
+        final Slab slab = slabs[(currentSlab + i) % slabCount];
+        if (slab != null)
+        {
+          recycle(slab);
+        }
+      }
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration,
+                                           List<LocalizableMessage> unacceptableReasons)
+  {
+    OffHeapEntryCacheCfg config = (OffHeapEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      OffHeapEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons
+      )
+  {
+    boolean applyChanges = false;
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE,
+          unacceptableReasons,
+          null
+        );
+    processEntryCacheConfig (configuration, applyChanges, errorHandler);
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(OffHeapEntryCacheCfg configuration)
+  {
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages
+          );
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled()) {
+      processEntryCacheConfig (configuration, applyChanges, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(
+      OffHeapEntryCacheCfg                configuration,
+      boolean                             applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler
+      )
+  {
+    // Local variables to read configuration.
+    Set<SearchFilter> newIncludeFilters = null;
+    Set<SearchFilter> newExcludeFilters = null;
+
+    // Read configuration.
+    DN newConfigEntryDN = configuration.dn();
+    long newMaxMemorySize = configuration.getMaxMemorySize();
+    long newSlabSize = configuration.getSlabSize();
+    if (newSlabSize > newMaxMemorySize)
+    {
+      errorHandler.reportError(
+          ERR_OFFHEAPCACHE_SLAB_SIZE_TOO_LARGE.get(newSlabSize, newConfigEntryDN, newMaxMemorySize),
+          false, ResultCode.UNWILLING_TO_PERFORM);
+    }
+
+    // Get include and exclude filters.
+    switch (errorHandler.getConfigPhase())
+    {
+    case PHASE_INIT:
+    case PHASE_ACCEPTABLE:
+    case PHASE_APPLY:
+      newIncludeFilters = EntryCacheCommon.getFilters (
+          configuration.getIncludeFilter(),
+          ERR_CACHE_INVALID_INCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      newExcludeFilters = EntryCacheCommon.getFilters (
+          configuration.getExcludeFilter(),
+          ERR_CACHE_INVALID_EXCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      break;
+    }
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      if (slabs == null || newMaxMemorySize != maxMemorySize || newSlabSize != slabSize)
+      {
+        allocateSlabs(newMaxMemorySize, (int) newSlabSize);
+      }
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /** Flushes the cache and prepares the slabs for the provided sizes. Slabs are allocated lazily. */
+  private void allocateSlabs(long newMaxMemorySize, int newSlabSize)
+  {
+    allocationLock.lock();
+    try
+    {
+      clearIndexes();
+      maxMemorySize = newMaxMemorySize;
+      slabSize = newSlabSize;
+      slabCount = (int) Math.min(MAX_SLABS, newMaxMemorySize / newSlabSize);
+      slabs = new Slab[slabCount];
+      currentSlab = 0;
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  private Record readRecord(DN entryDN)
+  {
+    final Long location = dnMap.get(hash(entryDN));
+    if (location != null)
+    {
+      final Record record = readRecord(location);
+      // Rule out hash collisions.
+      if (record != null && record.getDN().equals(entryDN))
+      {
+        return record;
+      }
+    }
+    return null;
+  }
+
+  private Record readRecord(String backendID, long entryID)
+  {
+    final ConcurrentMap<Long, Long> backendMap = idMap.get(backendID);
+    final Long location = backendMap != null ? backendMap.get(entryID) : null;
+    return location != null ? readRecord(location) : null;
+  }
+
+  /**
+   * Copies the record at the provided location to the heap.
+   *
+   * @return the record, or {@code null} if its slab has been recycled in the meantime
+   */
+  private Record readRecord(long location)
+  {
+    final Slab[] s = slabs;
+    final int slabIndex = (int) (location >>> 48);
+    final Slab slab = slabIndex < s.length ? s[slabIndex] : null;
+    if (slab == null)
+    {
+      return null;
+    }
+
+    final int offset = (int) location;
+    final byte[] bytes;
+    slab.lock.readLock().lock();
+    try
+    {
+      if (slab.generation != (int) ((location >>> 32) & 0xffff))
+      {
+        return null;
+      }
+      final ByteBuffer duplicate = slab.buffer.duplicate();
+      duplicate.position(offset);
+      bytes = new byte[duplicate.getInt(offset)];
+      duplicate.get(bytes);
+    }
+    finally
+    {
+      slab.lock.readLock().unlock();
+    }
+    return new Record(bytes);
+  }
+
+  private static long location(int slabIndex, int generation, int offset)
+  {
+    return ((long) slabIndex << 48) | ((long) generation << 32) | (offset & 0xffffffffL);
+  }
+
+  /** Returns a 64-bit FNV-1a hash of the normalized DN. */
+  private static long hash(DN dn)
+  {
+    final ByteString normalizedDN = dn.toNormalizedByteString();
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < normalizedDN.length(); i++)
+    {
+      hash ^= normalizedDN.byteAt(i) & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    try {
+      long cacheSize = 0;
+      for (Slab slab : slabs)
+      {
+        cacheSize += slab != null ? slab.writeOffset : 0;
+      }
+      MonitorData monitorData = EntryCacheCommon.getGenericMonitorData(
+        cacheHits.longValue(),
+        cacheMisses.longValue(),
+        cacheSize,
+        maxMemorySize,
+        getCacheCount(),
+        null
+        );
+      monitorData.add("entryCacheEvictions", cacheEvictions.longValue());
+      return monitorData;
+    } catch (Exception e) {
+      logger.traceException(e);
+      return new MonitorData(0);
+    }
+  }
+
+  @Override
+  public Long getCacheCount()
+  {
+    return Long.valueOf(dnMap.size());
+  }
+
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (Map.Entry<String, ConcurrentMap<Long, Long>> backendCache : idMap.entrySet())
+    {
+      for (Map.Entry<Long, Long> mapEntry : backendCache.getValue().entrySet())
+      {
+        final Record record = readRecord(mapEntry.getValue());
+        if (record != null)
+        {
+          sb.append(record.getDN());
+          sb.append(":");
+          sb.append(mapEntry.getKey());
+          sb.append(":");
+          sb.append(backendCache.getKey());
+          sb.append(ServerConstants.EOL);
+        }
+      }
+    }
+
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+
+  /** A direct memory slab records are appended to. */
+  private static final class Slab
+  {
+    private final ByteBuffer buffer;
+    /** Held in shared mode while copying records, and exclusively while changing the generation. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Changed each time the slab is recycled. Guarded by lock. */
+    private int generation;
+    /** Where the next record will be written. Only changed while holding the allocation lock. */
+    private volatile int writeOffset;
+
+    private Slab(ByteBuffer buffer)
+    {
+      this.buffer = buffer;
+    }
+  }
+
+  /** A record copied from a slab. */
+  private final class Record
+  {
+    private final byte[] bytes;
+    private final long dnHash;
+    private final long entryID;
+    private final String backendID;
+    private final int dnLength;
+
+    private Record(byte[] bytes)
+    {
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      this.bytes = bytes;
+      buffer.getInt();
+      this.dnHash = buffer.getLong();
+      this.entryID = buffer.getLong();
+      final int backendIndex = buffer.getInt();
+      this.dnLength = buffer.getInt();
+      this.backendID = backendIDs.get(backendIndex);
+    }
+
+    private DN getDN()
+    {
+      return DN.valueOf(ByteString.wrap(bytes, RECORD_HEADER_SIZE, dnLength).toString());
+    }
+
+    private Entry decodeEntry(DN entryDN)
+    {
+      final int entryOffset = RECORD_HEADER_SIZE + dnLength;
+      final ByteSequenceReader reader =
+          ByteString.wrap(bytes, entryOffset, bytes.length - entryOffset).asReader();
+      try
+      {
+        final Entry entry = Entry.decode(reader, encodeConfig.getCompressedSchema());
+        entry.setDN(entryDN);
+        return entry;
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        return null;
+      }
+    }
+  }
+}
@@ -281,11 +281,7 @@ public class SASLContext implements CallbackHandler,
         // negotiated, dispose of the SASL server.
         if (isConfidentialIntegrity())
         {
-          final SASLByteChannel saslByteChannel = SASLByteChannel
-              .getSASLByteChannel(clientConn, mechanism, this);
-          final LDAPClientConnection ldapConn =
-              (LDAPClientConnection) clientConn;
-          ldapConn.setSASLPendingProvider(saslByteChannel);
+          setSASLPendingProvider(clientConn);
         }
         else
         {
@@ -370,10 +366,7 @@ public class SASLContext implements CallbackHandler,
       // use in later processing.
       if (isConfidentialIntegrity())
       {
-        final SASLByteChannel saslByteChannel = SASLByteChannel
-            .getSASLByteChannel(clientConn, mechanism, this);
-        final LDAPClientConnection ldapConn = (LDAPClientConnection) clientConn;
-        ldapConn.setSASLPendingProvider(saslByteChannel);
+        setSASLPendingProvider(clientConn);
       }
       else
       {
@@ -876,6 +869,27 @@ public class SASLContext implements CallbackHandler,
 
 
 
+  /**
+   * Creates a SASL security provider and saves it in the provided client
+   * connection, or fails the bind if the client connection does not support
+   * SASL security layers.
+   *
+   * @param clientConn
+   *          The client connection where the security layer was negotiated.
+   */
+  private void setSASLPendingProvider(final ClientConnection clientConn)
+  {
+    if (!(clientConn instanceof LDAPClientConnection))
+    {
+      handleError(ERR_SASL_SECURITY_LAYER_NOT_SUPPORTED.get(mechanism,
+          clientConn.getConnectionHandler().getConnectionHandlerName()));
+      return;
+    }
+    final SASLByteChannel saslByteChannel = SASLByteChannel
+        .getSASLByteChannel(clientConn, mechanism, this);
+    ((LDAPClientConnection) clientConn).setSASLPendingProvider(saslByteChannel);
+  }
+
   /**
    * This method is used to process an exception that is thrown during bind
    * processing. It will try to determine if the exception is a result of
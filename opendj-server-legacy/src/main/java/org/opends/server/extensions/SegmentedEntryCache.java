@@ -0,0 +1,1168 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.server.config.server.EntryCacheCfg;
+import org.forgerock.opendj.server.config.server.SegmentedEntryCacheCfg;
+import org.forgerock.util.Utils;
+import org.opends.server.api.Backend;
+import org.opends.server.api.EntryCache;
+import org.opends.server.api.MonitorData;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.CacheEntry;
+import org.opends.server.types.Entry;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+
+/**
+ * This class defines a Directory Server entry cache which splits the cached
+ * entries across a number of segments selected by hashing the entry DN.
+ * <p>
+ * Each segment stores its entries in a concurrent map, so that lookups never
+ * block. Changes to a segment are serialized by a lock owned by the segment,
+ * which means that threads adding or removing different entries rarely
+ * contend with each other. Accesses are recorded in the segment's eviction
+ * policy only when its lock can be acquired without waiting: under heavy load
+ * some accesses are simply not recorded, which only slightly degrades the
+ * eviction decisions.
+ * <p>
+ * The eviction policy of a segment is W-TinyLFU: new entries are added to a
+ * small LRU admission window. Entries leaving the window enter the main area,
+ * which is a segmented LRU made of a probation and a protected region. When
+ * the segment is full, the entry leaving the window is compared with the
+ * least recently used entry of the probation region and the one which has
+ * been requested least often, according to a compact frequency sketch, is
+ * evicted. Entries requested while in probation are promoted to the protected
+ * region.
+ * <p>
+ * Cache sizing is based on an estimate of the heap size of each cached entry
+ * and, optionally, on a maximum number of entries. Both limits are shared
+ * equally between the segments.
+ */
+public class SegmentedEntryCache
+       extends EntryCache<SegmentedEntryCacheCfg>
+       implements ConfigurationChangeListener<SegmentedEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The maximum number of segments. Segments are selected with the upper 16 bits of the DN hash. */
+  private static final int MAX_SEGMENTS = 1 << 16;
+  /** The minimum number of entries each segment must be able to hold. */
+  private static final long MIN_SEGMENT_ENTRIES = 16;
+  /** The minimum memory size each segment must be able to hold. */
+  private static final long MIN_SEGMENT_MEMORY_SIZE = 64 * 1024;
+  /** The percentage of a segment's capacity used for the admission window. */
+  private static final int WINDOW_PERCENT = 1;
+  /** The percentage of a segment's capacity used for the protected region. */
+  private static final int PROTECTED_PERCENT = 80;
+
+  /** Rough heap overhead of the objects used to store an entry in the cache. */
+  private static final long CACHE_ENTRY_OVERHEAD = 256;
+  /** Rough heap overhead of an attribute, or of an object class, held by an entry. */
+  private static final long ATTRIBUTE_OVERHEAD = 96;
+  /** Rough heap overhead of an attribute value. */
+  private static final long ATTRIBUTE_VALUE_OVERHEAD = 48;
+
+  /** Identifies the region of a segment holding a node. */
+  private static final int REGION_NONE = 0;
+  private static final int REGION_WINDOW = 1;
+  private static final int REGION_PROBATION = 2;
+  private static final int REGION_PROTECTED = 3;
+
+  /** The segments. Replaced, and the cache flushed, when the number of segments changes. */
+  private volatile Segment[] segments;
+
+  /** The mapping between entry backends/IDs and cached nodes. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Node>> idMap = new ConcurrentHashMap<>();
+
+  /** The maximum estimated heap size of the cached entries. */
+  private long maxMemorySize;
+
+  /** The maximum number of entries that may be held in the cache, 0 if unlimited. */
+  private long maxEntries;
+
+  /** Currently registered configuration object. */
+  private SegmentedEntryCacheCfg registeredConfiguration;
+
+  /** Creates a new instance of this segmented entry cache. */
+  public SegmentedEntryCache()
+  {
+    super();
+    // All initialization should be performed in the initializeEntryCache.
+  }
+
+  @Override
+  public void initializeEntryCache(SegmentedEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    registeredConfiguration = configuration;
+    configuration.addSegmentedChangeListener(this);
+
+    // Read configuration and apply changes.
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages
+          );
+    if (!processEntryCacheConfig(configuration, applyChanges, errorHandler)) {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_SEGMENTEDCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+  }
+
+  @Override
+  public void finalizeEntryCache()
+  {
+    registeredConfiguration.removeSegmentedChangeListener(this);
+
+    // Release all memory currently in use by this cache.
+    clear();
+  }
+
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    return entryDN != null && findNode(entryDN) != null;
+  }
+
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    final int hash = hash(entryDN);
+    final Segment segment = segmentFor(hash);
+    final Node node = segment.map.get(entryDN);
+    if (node == null)
+    {
+      segment.recordMiss(hash);
+      // Indicate cache miss.
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+    segment.recordHit(node);
+    // Indicate cache hit.
+    cacheHits.getAndIncrement();
+    return node.cacheEntry.getEntry();
+  }
+
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    final Node node = findNode(entryDN);
+    return node != null ? node.cacheEntry.getEntryID() : -1;
+  }
+
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    // Locate specific backend map and return the entry DN by ID.
+    final Map<Long, Node> backendMap = idMap.get(backendID);
+    if (backendMap != null)
+    {
+      final Node node = backendMap.get(entryID);
+      if (node != null)
+      {
+        return node.cacheEntry.getDN();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(new CacheEntry(entry, backendID, entryID), false);
+  }
+
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    return put(new CacheEntry(entry, backendID, entryID), true);
+  }
+
+  private boolean put(CacheEntry cacheEntry, boolean onlyIfAbsent)
+  {
+    try
+    {
+      final int hash = hash(cacheEntry.getDN());
+      final Node node = new Node(cacheEntry, hash, estimateHeapSize(cacheEntry.getEntry()));
+      return segmentFor(hash).put(node, onlyIfAbsent);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      // This shouldn't happen, but there's not much that we can do if it does.
+      return false;
+    }
+  }
+
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    final int hash = hash(entryDN);
+    segmentFor(hash).remove(entryDN);
+  }
+
+  @Override
+  public void clear()
+  {
+    for (Segment segment : segments)
+    {
+      segment.clear();
+    }
+  }
+
+  @Override
+  public void clearBackend(String backendID)
+  {
+    // Unlike the DN maps, the ID map is keyed by backend, so there is no need
+    // to look at the entries of other backends.
+    final Map<Long, Node> backendMap = idMap.remove(backendID);
+    if (backendMap != null)
+    {
+      for (Node node : backendMap.values())
+      {
+        segmentFor(node.hash).remove(node);
+      }
+    }
+  }
+
+  @Override
+  public void clearSubtree(DN baseDN)
+  {
+    // Determine which backend should be used for the provided base DN.  If
+    // there is none, then we don't need to do anything.
+    Backend<?> backend = DirectoryServer.getBackend(baseDN);
+    if (backend != null)
+    {
+      clearSubtree(baseDN, backend);
+    }
+  }
+
+  /**
+   * Clears all entries at or below the specified base DN that are associated
+   * with the given backend.
+   *
+   * @param  baseDN   The base DN below which all entries should be flushed.
+   * @param  backend  The backend for which to remove the appropriate entries.
+   */
+  private void clearSubtree(DN baseDN, Backend<?> backend)
+  {
+    final Map<Long, Node> backendMap = idMap.get(backend.getBackendID());
+    if (backendMap != null)
+    {
+      for (Node node : backendMap.values())
+      {
+        if (node.cacheEntry.getDN().isSubordinateOrEqualTo(baseDN))
+        {
+          segmentFor(node.hash).remove(node);
+        }
+      }
+    }
+
+    // See if the backend has any subordinate backends.  If so, then process
+    // them recursively.
+    for (Backend<?> subBackend : backend.getSubordinateBackends())
+    {
+      for (DN subBase : subBackend.getBaseDNs())
+      {
+        if (subBase.isSubordinateOrEqualTo(baseDN))
+        {
+          clearSubtree(baseDN, subBackend);
+          break;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void handleLowMemory()
+  {
+    // If there are less than 1000 entries, then dump all of them. Otherwise,
+    // evict the 10% of the entries of each segment which are the most likely
+    // candidates for eviction.
+    if (getCacheCount() < 1000)
+    {
+      clear();
+      return;
+    }
+    for (Segment segment : segments)
+    {
+      segment.evictFraction(10);
+    }
+  }
+
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration,
+                                           List<LocalizableMessage> unacceptableReasons)
+  {
+    SegmentedEntryCacheCfg config = (SegmentedEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      SegmentedEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons
+      )
+  {
+    boolean applyChanges = false;
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE,
+          unacceptableReasons,
+          null
+        );
+    processEntryCacheConfig (configuration, applyChanges, errorHandler);
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(SegmentedEntryCacheCfg configuration)
+  {
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages
+          );
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled()) {
+      processEntryCacheConfig (configuration, applyChanges, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(
+      SegmentedEntryCacheCfg              configuration,
+      boolean                             applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler
+      )
+  {
+    // Local variables to read configuration.
+    Set<SearchFilter> newIncludeFilters = null;
+    Set<SearchFilter> newExcludeFilters = null;
+
+    // Read configuration.
+    DN newConfigEntryDN = configuration.dn();
+    long newMaxEntries = configuration.getMaxEntries();
+    Long newMaxMemorySize = configuration.getMaxMemorySize();
+    if (newMaxMemorySize == null)
+    {
+      newMaxMemorySize = Runtime.getRuntime().maxMemory() / 10;
+    }
+    int newSegmentCount = computeSegmentCount(
+        configuration.getSegmentCount(), newMaxEntries, newMaxMemorySize);
+
+    // Get include and exclude filters.
+    switch (errorHandler.getConfigPhase())
+    {
+    case PHASE_INIT:
+    case PHASE_ACCEPTABLE:
+    case PHASE_APPLY:
+      newIncludeFilters = EntryCacheCommon.getFilters (
+          configuration.getIncludeFilter(),
+          ERR_CACHE_INVALID_INCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      newExcludeFilters = EntryCacheCommon.getFilters (
+          configuration.getExcludeFilter(),
+          ERR_CACHE_INVALID_EXCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      break;
+    }
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      maxEntries = newMaxEntries;
+      maxMemorySize = newMaxMemorySize;
+      applySegmentCount(newSegmentCount);
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /**
+   * Returns the number of segments to use for the provided configuration.
+   *
+   * @param configured     The configured number of segments, or {@code null} to let the server decide
+   * @param maxEntries     The maximum number of entries, 0 if unlimited
+   * @param maxMemorySize  The maximum estimated heap size of the cached entries
+   * @return a power of two such that each segment can hold a sensible number of entries
+   */
+  static int computeSegmentCount(Integer configured, long maxEntries, long maxMemorySize)
+  {
+    final int requested = configured != null
+        ? configured
+        : 4 * Runtime.getRuntime().availableProcessors();
+    int count = 1;
+    while (count < requested && count < MAX_SEGMENTS)
+    {
+      count <<= 1;
+    }
+    while (count > 1
+        && ((maxEntries > 0 && maxEntries / count < MIN_SEGMENT_ENTRIES)
+            || maxMemorySize / count < MIN_SEGMENT_MEMORY_SIZE))
+    {
+      count >>>= 1;
+    }
+    return count;
+  }
+
+  /**
+   * Sets the number of segments, then shares the configured limits between them. Changing the
+   * number of segments flushes the cache.
+   */
+  private void applySegmentCount(int segmentCount)
+  {
+    final Segment[] oldSegments = segments;
+    if (oldSegments != null && oldSegments.length == segmentCount)
+    {
+      for (Segment segment : oldSegments)
+      {
+        segment.setCapacity(maxMemorySize / segmentCount, getMaxEntriesPerSegment(segmentCount));
+      }
+      return;
+    }
+
+    final Segment[] newSegments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++)
+    {
+      newSegments[i] = new Segment();
+      newSegments[i].setCapacity(maxMemorySize / segmentCount, getMaxEntriesPerSegment(segmentCount));
+    }
+    if (oldSegments == null)
+    {
+      segments = newSegments;
+      return;
+    }
+
+    // Retire the old segments while holding all their locks, so that no entry
+    // can be added to them once the ID map has been flushed.
+    for (Segment segment : oldSegments)
+    {
+      segment.lock();
+    }
+    try
+    {
+      segments = newSegments;
+      idMap.clear();
+      for (Segment segment : oldSegments)
+      {
+        segment.retired = true;
+        segment.map.clear();
+      }
+    }
+    finally
+    {
+      for (Segment segment : oldSegments)
+      {
+        segment.unlock();
+      }
+    }
+  }
+
+  private long getMaxEntriesPerSegment(int segmentCount)
+  {
+    return maxEntries > 0 ? maxEntries / segmentCount : Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns an estimate of the heap size of the provided entry, once cached.
+   *
+   * @param entry  The entry
+   * @return an estimate of the number of bytes retained by the cached entry
+   */
+  static long estimateHeapSize(Entry entry)
+  {
+    long size = CACHE_ENTRY_OVERHEAD + 2L * entry.getName().toString().length();
+    for (String objectClassName : entry.getObjectClasses().values())
+    {
+      size += ATTRIBUTE_OVERHEAD + 2L * objectClassName.length();
+    }
+    size += estimateHeapSize(entry.getUserAttributes());
+    size += estimateHeapSize(entry.getOperationalAttributes());
+    return size;
+  }
+
+  private static long estimateHeapSize(Map<?, List<Attribute>> attributes)
+  {
+    long size = 0;
+    for (List<Attribute> attributeList : attributes.values())
+    {
+      for (Attribute attribute : attributeList)
+      {
+        size += ATTRIBUTE_OVERHEAD;
+        for (ByteString value : attribute)
+        {
+          size += ATTRIBUTE_VALUE_OVERHEAD + value.length();
+        }
+      }
+    }
+    return size;
+  }
+
+  private static long percentOf(long value, int percent)
+  {
+    return value < Long.MAX_VALUE / 100 ? value * percent / 100 : value / 100 * percent;
+  }
+
+  private Node findNode(DN entryDN)
+  {
+    return segmentFor(hash(entryDN)).map.get(entryDN);
+  }
+
+  private Segment segmentFor(int hash)
+  {
+    final Segment[] s = segments;
+    return s[(hash >>> 16) & (s.length - 1)];
+  }
+
+  /** Applies a supplemental hash function to the DN hash code, as DNs often share long suffixes. */
+  private static int hash(DN dn)
+  {
+    int h = dn.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private void addToIdMap(Node node)
+  {
+    final String backendID = node.cacheEntry.getBackendID();
+    ConcurrentMap<Long, Node> backendMap = idMap.get(backendID);
+    if (backendMap == null)
+    {
+      final ConcurrentMap<Long, Node> newMap = new ConcurrentHashMap<>();
+      backendMap = idMap.putIfAbsent(backendID, newMap);
+      if (backendMap == null)
+      {
+        backendMap = newMap;
+      }
+    }
+    backendMap.put(node.cacheEntry.getEntryID(), node);
+  }
+
+  private void removeFromIdMap(Node node)
+  {
+    final ConcurrentMap<Long, Node> backendMap = idMap.get(node.cacheEntry.getBackendID());
+    if (backendMap != null)
+    {
+      backendMap.remove(node.cacheEntry.getEntryID(), node);
+    }
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    try {
+      long cacheSize = 0;
+      for (Segment segment : segments)
+      {
+        cacheSize += segment.weight;
+      }
+      return EntryCacheCommon.getGenericMonitorData(
+        cacheHits.longValue(),
+        // If cache misses is maintained by default cache
+        // get it from there and if not point to itself.
+        DirectoryServer.getEntryCache().getCacheMisses(),
+        cacheSize,
+        maxMemorySize,
+        getCacheCount(),
+        Long.valueOf(
+            (maxEntries != Integer.MAX_VALUE && maxEntries != Long.MAX_VALUE) ? maxEntries : 0)
+        );
+    } catch (Exception e) {
+      logger.traceException(e);
+      return new MonitorData(0);
+    }
+  }
+
+  @Override
+  public Long getCacheCount()
+  {
+    long count = 0;
+    for (Segment segment : segments)
+    {
+      count += segment.map.size();
+    }
+    return count;
+  }
+
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (Segment segment : segments)
+    {
+      for (Node node : segment.map.values())
+      {
+        final CacheEntry cacheEntry = node.cacheEntry;
+        sb.append(cacheEntry.getDN());
+        sb.append(":");
+        sb.append(cacheEntry.getEntryID());
+        sb.append(":");
+        sb.append(cacheEntry.getBackendID());
+        sb.append(ServerConstants.EOL);
+      }
+    }
+
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+
+  /** A cached entry, linked into the access order list of the region of its segment holding it. */
+  private static final class Node
+  {
+    private final CacheEntry cacheEntry;
+    private final int hash;
+    private final long weight;
+
+    /** The fields below are guarded by the segment lock. */
+    private int region = REGION_NONE;
+    private Node previous;
+    private Node next;
+
+    private Node(CacheEntry cacheEntry, int hash, long weight)
+    {
+      this.cacheEntry = cacheEntry;
+      this.hash = hash;
+      this.weight = weight;
+    }
+  }
+
+  /** An access ordered list of nodes, from the least to the most recently used. */
+  private static final class AccessOrderList
+  {
+    private final int region;
+    private Node first;
+    private Node last;
+    private long weight;
+    private long count;
+
+    private AccessOrderList(int region)
+    {
+      this.region = region;
+    }
+
+    private void addLast(Node node)
+    {
+      node.region = region;
+      node.previous = last;
+      node.next = null;
+      if (last == null)
+      {
+        first = node;
+      }
+      else
+      {
+        last.next = node;
+      }
+      last = node;
+      weight += node.weight;
+      count++;
+    }
+
+    private void remove(Node node)
+    {
+      if (node.previous == null)
+      {
+        first = node.next;
+      }
+      else
+      {
+        node.previous.next = node.next;
+      }
+      if (node.next == null)
+      {
+        last = node.previous;
+      }
+      else
+      {
+        node.next.previous = node.previous;
+      }
+      node.region = REGION_NONE;
+      node.previous = null;
+      node.next = null;
+      weight -= node.weight;
+      count--;
+    }
+
+    private void moveToLast(Node node)
+    {
+      if (node != last)
+      {
+        remove(node);
+        addLast(node);
+      }
+    }
+
+    private boolean exceeds(long maxWeight, long maxCount)
+    {
+      return weight > maxWeight || count > maxCount;
+    }
+
+    private void clear()
+    {
+      first = null;
+      last = null;
+      weight = 0;
+      count = 0;
+    }
+  }
+
+  /**
+   * A segment of the cache. Reads go straight to the concurrent map, all the
+   * other fields are guarded by the segment lock.
+   */
+  private final class Segment extends ReentrantLock
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final ConcurrentMap<DN, Node> map = new ConcurrentHashMap<>();
+    private final AccessOrderList window = new AccessOrderList(REGION_WINDOW);
+    private final AccessOrderList probation = new AccessOrderList(REGION_PROBATION);
+    private final AccessOrderList protectedList = new AccessOrderList(REGION_PROTECTED);
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    /** The estimated heap size of the entries in this segment, readable without locking. */
+    private volatile long weight;
+    private long maxWeight;
+    private long maxCount;
+    private long windowMaxWeight;
+    private long windowMaxCount;
+    private long protectedMaxWeight;
+    private long protectedMaxCount;
+    /** Whether this segment has been replaced: nothing may be added to it anymore. */
+    private boolean retired;
+
+    private void setCapacity(long maxWeight, long maxCount)
+    {
+      lock();
+      try
+      {
+        this.maxWeight = maxWeight;
+        this.maxCount = maxCount;
+        this.windowMaxWeight = percentOf(maxWeight, WINDOW_PERCENT);
+        this.windowMaxCount = Math.max(1, percentOf(maxCount, WINDOW_PERCENT));
+        this.protectedMaxWeight = percentOf(maxWeight, PROTECTED_PERCENT);
+        this.protectedMaxCount = percentOf(maxCount, PROTECTED_PERCENT);
+        sketch.ensureCapacity(Math.min(maxCount, maxWeight / 1024));
+        evict(null);
+      }
+      finally
+      {
+        unlock();
+      }
+    }
+
+    private void recordHit(Node node)
+    {
+      // Dropping the access when the segment is busy keeps reads non-blocking.
+      if (tryLock())
+      {
+        try
+        {
+          sketch.increment(node.hash);
+          onAccess(node);
+        }
+        finally
+        {
+          unlock();
+        }
+      }
+    }
+
+    private void recordMiss(int hash)
+    {
+      // Recording misses lets entries which are often requested win their admission.
+      if (tryLock())
+      {
+        try
+        {
+          sketch.increment(hash);
+        }
+        finally
+        {
+          unlock();
+        }
+      }
+    }
+
+    private void onAccess(Node node)
+    {
+      switch (node.region)
+      {
+      case REGION_WINDOW:
+        window.moveToLast(node);
+        break;
+      case REGION_PROBATION:
+        probation.remove(node);
+        protectedList.addLast(node);
+        while (protectedList.exceeds(protectedMaxWeight, protectedMaxCount))
+        {
+          final Node demoted = protectedList.first;
+          protectedList.remove(demoted);
+          probation.addLast(demoted);
+        }
+        break;
+      case REGION_PROTECTED:
+        protectedList.moveToLast(node);
+        break;
+      default:
+        // The node has been removed concurrently.
+        break;
+      }
+    }
+
+    private boolean put(Node node, boolean onlyIfAbsent)
+    {
+      final DN dn = node.cacheEntry.getDN();
+      lock();
+      try
+      {
+        if (retired)
+        {
+          return false;
+        }
+        final Node existing = map.get(dn);
+        if (existing != null)
+        {
+          if (onlyIfAbsent)
+          {
+            return false;
+          }
+          unlink(existing);
+        }
+        if (node.weight > maxWeight || maxCount == 0)
+        {
+          // Too big to ever fit, the previous version of the entry has been removed anyway.
+          return false;
+        }
+
+        map.put(dn, node);
+        addToIdMap(node);
+        window.addLast(node);
+        weight += node.weight;
+        sketch.increment(node.hash);
+
+        // Move the entries overflowing the admission window to the main
+        // area, they become candidates for eviction.
+        Node candidate = null;
+        while (window.exceeds(windowMaxWeight, windowMaxCount)
+            && window.first != node)
+        {
+          final Node demoted = window.first;
+          window.remove(demoted);
+          probation.addLast(demoted);
+          if (candidate == null)
+          {
+            candidate = demoted;
+          }
+        }
+        evict(candidate);
+        return true;
+      }
+      finally
+      {
+        unlock();
+      }
+    }
+
+    /**
+     * Evicts entries until this segment is within its limits. The candidates, which are the
+     * entries that have just left the admission window, are only kept if they have been requested
+     * more often than the least recently used entries of the probation region.
+     */
+    private void evict(Node candidate)
+    {
+      while (weight > maxWeight || count() > maxCount)
+      {
+        Node victim = probation.first;
+        if (victim == null)
+        {
+          victim = protectedList.first != null ? protectedList.first : window.first;
+          if (victim == null)
+          {
+            return;
+          }
+        }
+
+        if (candidate == null)
+        {
+          unlink(victim);
+        }
+        else if (candidate == victim)
+        {
+          candidate = candidate.next;
+          unlink(victim);
+        }
+        else if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash))
+        {
+          unlink(victim);
+        }
+        else
+        {
+          final Node rejected = candidate;
+          candidate = candidate.next;
+          unlink(rejected);
+        }
+      }
+    }
+
+    private long count()
+    {
+      return window.count + probation.count + protectedList.count;
+    }
+
+    /** Evicts the provided percentage of the entries, taking the most likely victims first. */
+    private void evictFraction(int percent)
+    {
+      lock();
+      try
+      {
+        long toEvict = percentOf(count(), percent);
+        for (AccessOrderList list : new AccessOrderList[] { probation, window, protectedList })
+        {
+          while (toEvict > 0 && list.first != null)
+          {
+            unlink(list.first);
+            toEvict--;
+          }
+        }
+      }
+      finally
+      {
+        unlock();
+      }
+    }
+
+    private void remove(DN dn)
+    {
+      lock();
+      try
+      {
+        final Node node = map.get(dn);
+        if (node != null)
+        {
+          unlink(node);
+        }
+      }
+      finally
+      {
+        unlock();
+      }
+    }
+
+    private void remove(Node node)
+    {
+      lock();
+      try
+      {
+        if (map.get(node.cacheEntry.getDN()) == node)
+        {
+          unlink(node);
+        }
+      }
+      finally
+      {
+        unlock();
+      }
+    }
+
+    /** Removes the provided node from this segment and from the ID map. */
+    private void unlink(Node node)
+    {
+      map.remove(node.cacheEntry.getDN(), node);
+      removeFromIdMap(node);
+      switch (node.region)
+      {
+      case REGION_WINDOW:
+        window.remove(node);
+        break;
+      case REGION_PROBATION:
+        probation.remove(node);
+        break;
+      case REGION_PROTECTED:
+        protectedList.remove(node);
+        break;
+      default:
+        return;
+      }
+      weight -= node.weight;
+    }
+
+    private void clear()
+    {
+      lock();
+      try
+      {
+        for (Node node : map.values())
+        {
+          removeFromIdMap(node);
+        }
+        map.clear();
+        window.clear();
+        probation.clear();
+        protectedList.clear();
+        weight = 0;
+      }
+      finally
+      {
+        unlock();
+      }
+    }
+  }
+
+  /**
+   * A count-min sketch estimating how often each entry has been requested
+   * recently, with 4-bit counters, 16 of them per table slot. All the
+   * counters are halved periodically so that old accesses are forgotten.
+   */
+  private static final class FrequencySketch
+  {
+    private static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MIN_TABLE_SIZE = 64;
+    private static final int MAX_TABLE_SIZE = 1 << 22;
+
+    private long[] table = new long[MIN_TABLE_SIZE];
+    private int sampleSize = 10 * MIN_TABLE_SIZE;
+    private int size;
+
+    /** Grows the table to track the provided number of entries, forgetting all the frequencies. */
+    private void ensureCapacity(long maxEntries)
+    {
+      int tableSize = MIN_TABLE_SIZE;
+      while (tableSize < maxEntries && tableSize < MAX_TABLE_SIZE)
+      {
+        tableSize <<= 1;
+      }
+      if (tableSize > table.length)
+      {
+        table = new long[tableSize];
+        sampleSize = 10 * tableSize;
+        size = 0;
+      }
+    }
+
+    private int frequency(int hash)
+    {
+      final int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++)
+      {
+        final int offset = (start + i) << 2;
+        final int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    private void increment(int hash)
+    {
+      final int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++)
+      {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++size >= sampleSize)
+      {
+        reset();
+      }
+    }
+
+    private boolean incrementAt(int index, int counter)
+    {
+      final int offset = counter << 2;
+      final long mask = 0xfL << offset;
+      if ((table[index] & mask) != mask)
+      {
+        table[index] += 1L << offset;
+        return true;
+      }
+      return false;
+    }
+
+    private void reset()
+    {
+      int oddCounters = 0;
+      for (int i = 0; i < table.length; i++)
+      {
+        oddCounters += Long.bitCount(table[i] & ONE_MASK);
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      size = (size >>> 1) - (oddCounters >>> 2);
+    }
+
+    private int indexOf(int hash, int i)
+    {
+      long h = (hash + SEEDS[i]) * SEEDS[i];
+      h += h >>> 32;
+      return ((int) h) & (table.length - 1);
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package org.opends.server.extensions;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -328,8 +329,10 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
       nestedGroups = newNestedGroups;
       //Add it to the member DN list.
       LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
-      newMemberDNs.add(toCompactDn(nestedGroupDN));
+      CompactDn compactNestedGroupDN = toCompactDn(nestedGroupDN);
+      newMemberDNs.add(compactNestedGroupDN);
       memberDNs = newMemberDNs;
+      updateMembershipIndex(Collections.singleton(compactNestedGroupDN), Collections.<CompactDn> emptySet());
     }
     finally
     {
@@ -366,8 +369,10 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
       nestedGroups = newNestedGroups;
       //Remove it from the member DN list.
       LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
-      newMemberDNs.remove(toCompactDn(nestedGroupDN));
+      CompactDn compactNestedGroupDN = toCompactDn(nestedGroupDN);
+      newMemberDNs.remove(compactNestedGroupDN);
       memberDNs = newMemberDNs;
+      updateMembershipIndex(Collections.<CompactDn> emptySet(), Collections.singleton(compactNestedGroupDN));
     }
     finally
     {
@@ -521,6 +526,9 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     Reject.ifNull(nestedGroups);
 
     reloadIfNeeded();
+    // Net changes to the member list, reported to the group manager membership index
+    Set<CompactDn> addedMembers = new HashSet<>();
+    Set<CompactDn> removedMembers = new HashSet<>();
     lock.writeLock().lock();
     try
     {
@@ -535,7 +543,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
               for (ByteString v : attribute)
               {
                 DN member = DN.valueOf(v);
-                memberDNs.add(toCompactDn(member));
+                addMemberDN(toCompactDn(member), addedMembers, removedMembers);
                 if (DirectoryServer.getGroupManager().getGroupInstance(member) != null)
                 {
                   nestedGroups.add(member);
@@ -545,7 +553,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
             case DELETE:
               if (attribute.isEmpty())
               {
-                memberDNs.clear();
+                clearMemberDNs(addedMembers, removedMembers);
                 nestedGroups.clear();
               }
               else
@@ -553,18 +561,18 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
                 for (ByteString v : attribute)
                 {
                   DN member = DN.valueOf(v);
-                  memberDNs.remove(toCompactDn(member));
+                  removeMemberDN(toCompactDn(member), addedMembers, removedMembers);
                   nestedGroups.remove(member);
                 }
               }
               break;
             case REPLACE:
-              memberDNs.clear();
+              clearMemberDNs(addedMembers, removedMembers);
               nestedGroups.clear();
               for (ByteString v : attribute)
               {
                 DN member = DN.valueOf(v);
-                memberDNs.add(toCompactDn(member));
+                addMemberDN(toCompactDn(member), addedMembers, removedMembers);
                 if (DirectoryServer.getGroupManager().getGroupInstance(member) != null)
                 {
                   nestedGroups.add(member);
@@ -576,10 +584,53 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
       }
     }
     finally {
+      updateMembershipIndex(addedMembers, removedMembers);
       lock.writeLock().unlock();
     }
   }
 
+  private void addMemberDN(CompactDn member, Set<CompactDn> addedMembers, Set<CompactDn> removedMembers)
+  {
+    if (memberDNs.add(member) && !removedMembers.remove(member))
+    {
+      addedMembers.add(member);
+    }
+  }
+
+  private void removeMemberDN(CompactDn member, Set<CompactDn> addedMembers, Set<CompactDn> removedMembers)
+  {
+    if (memberDNs.remove(member) && !addedMembers.remove(member))
+    {
+      removedMembers.add(member);
+    }
+  }
+
+  private void clearMemberDNs(Set<CompactDn> addedMembers, Set<CompactDn> removedMembers)
+  {
+    for (CompactDn member : memberDNs)
+    {
+      if (!addedMembers.remove(member))
+      {
+        removedMembers.add(member);
+      }
+    }
+    memberDNs.clear();
+  }
+
+  private void updateMembershipIndex(Set<CompactDn> addedMembers, Set<CompactDn> removedMembers)
+  {
+    if (!addedMembers.isEmpty() || !removedMembers.isEmpty())
+    {
+      DirectoryServer.getGroupManager().updateMembershipIndex(groupEntryDN, addedMembers, removedMembers);
+    }
+  }
+
+  @Override
+  public boolean isMembershipIndexable()
+  {
+    return true;
+  }
+
   @Override
   public void addMember(Entry userEntry) throws UnsupportedOperationException, DirectoryException
   {
@@ -608,6 +659,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
       LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<CompactDn>(memberDNs);
       newMemberDNs.add(compactUserDN);
       memberDNs = newMemberDNs;
+      updateMembershipIndex(Collections.singleton(compactUserDN), Collections.<CompactDn> emptySet());
     }
     finally
     {
@@ -641,6 +693,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
       LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
       newMemberDNs.remove(compactUserDN);
       memberDNs = newMemberDNs;
+      updateMembershipIndex(Collections.<CompactDn> emptySet(), Collections.singleton(compactUserDN));
       //If it is in the nested group list remove it.
       if (nestedGroups.contains(userDN))
       {
@@ -488,7 +488,7 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
    * @return the Security Strength Factor corresponding to the supplied cipher
    *         string, null if the cipher cannot be recognized.
    */
-  static Integer getSSF(final String cipherString)
+  public static Integer getSSF(final String cipherString)
   {
     for (final Map.Entry<String, Integer> mapEntry : CIPHER_MAP.entrySet())
     {
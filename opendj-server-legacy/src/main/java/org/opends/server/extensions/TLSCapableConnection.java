@@ -12,10 +12,12 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2006-2009 Sun Microsystems, Inc.
- * Portions Copyright 2013-2015 ForgeRock AS.
+ * Portions Copyright 2013-2016 ForgeRock AS.
  */
 package org.opends.server.extensions;
 
+import java.security.cert.Certificate;
+
 import org.forgerock.i18n.LocalizableMessageBuilder;
 
 /**
@@ -41,5 +43,14 @@ public interface TLSCapableConnection
    *          connection, or <CODE>false</CODE> if it is not.
    */
   boolean prepareTLS(LocalizableMessageBuilder unavailableReason);
+
+  /**
+   * Returns the certificate chain presented by the client when negotiating the
+   * security layer of this connection.
+   *
+   * @return  The certificate chain presented by the client, or an empty array
+   *          if the client did not present any certificate.
+   */
+  Certificate[] getClientCertificateChain();
 }
 
@@ -0,0 +1,744 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.server.config.server.VirtualThreadWorkQueueCfg;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.VirtualThreadWorkQueueMonitor;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+import org.opends.server.types.OperationType;
+
+/**
+ * A work queue which processes each operation in its own thread instead of
+ * handing it to one of a fixed number of worker threads, so that operations
+ * blocked on a remote server or slow I/O do not starve the other operations.
+ * <p>
+ * Operations are processed in virtual threads when the Java runtime supports
+ * them, and in platform threads otherwise. The number of operations processed
+ * concurrently is bounded for each operation type: operations exceeding the
+ * limit wait in a FIFO queue and are picked up by the threads of completing
+ * operations of the same type, so the number of threads never exceeds the sum
+ * of the limits. Once the number of waiting operations reaches the capacity of
+ * the queue, new operations are rejected with a busy result.
+ */
+public class VirtualThreadWorkQueue
+       extends WorkQueue<VirtualThreadWorkQueueCfg>
+       implements ConfigurationChangeListener<VirtualThreadWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Limits the number of concurrent operations of one or more operation types. */
+  static final class ConcurrencyLimiter
+  {
+    /** The operations waiting for a permit, in submission order. */
+    private final ConcurrentLinkedQueue<Operation> waiting = new ConcurrentLinkedQueue<>();
+    /** The number of operations waiting for a permit, since the queue's size() is not constant time. */
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    /** The number of permits currently held. */
+    private final AtomicInteger running = new AtomicInteger();
+    /** The maximum number of permits which can be held at the same time. */
+    private volatile int limit;
+
+    ConcurrencyLimiter(int limit)
+    {
+      this.limit = limit;
+    }
+
+    boolean tryAcquire()
+    {
+      while (true)
+      {
+        final int current = running.get();
+        if (current >= limit)
+        {
+          return false;
+        }
+        if (running.compareAndSet(current, current + 1))
+        {
+          return true;
+        }
+      }
+    }
+
+    void release()
+    {
+      running.decrementAndGet();
+    }
+
+    void addWaiting(Operation operation)
+    {
+      waiting.offer(operation);
+      waitingCount.incrementAndGet();
+    }
+
+    Operation pollWaiting()
+    {
+      final Operation operation = waiting.poll();
+      if (operation != null)
+      {
+        waitingCount.decrementAndGet();
+      }
+      return operation;
+    }
+
+    boolean hasWaiting()
+    {
+      return !waiting.isEmpty();
+    }
+
+    int getWaitingCount()
+    {
+      return waitingCount.get();
+    }
+
+    int getRunningCount()
+    {
+      return running.get();
+    }
+
+    int getLimit()
+    {
+      return limit;
+    }
+
+    void setLimit(int limit)
+    {
+      this.limit = limit;
+    }
+  }
+
+  /**
+   * Processes an operation, then the operations waiting on the same limiter,
+   * until none is left.
+   */
+  private final class OperationTask implements Runnable
+  {
+    private final ConcurrencyLimiter limiter;
+    private Operation operation;
+
+    /**
+     * Creates a task which holds a permit of the provided limiter.
+     *
+     * @param limiter
+     *          The limiter from which a permit has been acquired.
+     * @param operation
+     *          The first operation to process, or {@code null} to start with
+     *          the waiting operations.
+     */
+    private OperationTask(ConcurrencyLimiter limiter, Operation operation)
+    {
+      this.limiter = limiter;
+      this.operation = operation;
+    }
+
+    @Override
+    public void run()
+    {
+      while (true)
+      {
+        if (operation != null)
+        {
+          runOperation(operation);
+        }
+        operation = pollWaiting(limiter);
+        if (operation != null)
+        {
+          continue;
+        }
+
+        limiter.release();
+        // An operation queued after the poll above may have failed to get the
+        // permit this task was still holding: take the permit back for it.
+        if (!limiter.hasWaiting() || !limiter.tryAcquire())
+        {
+          return;
+        }
+      }
+    }
+  }
+
+  /** The operations currently being processed. */
+  private final Set<Operation> activeOperations =
+      Collections.newSetFromMap(new ConcurrentHashMap<Operation, Boolean>());
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private final AtomicLong opsSubmitted = new AtomicLong();
+  /** The number of operations rejected because the queue was at its maximum capacity. */
+  private final AtomicLong queueFullRejects = new AtomicLong();
+  /** The number of operations waiting on any limiter. */
+  private final AtomicInteger waitingOps = new AtomicInteger();
+  /** The maximum number of waiting operations, or 0 if unbounded. */
+  private volatile int maxCapacity;
+
+  /** The limiter shared by the operation types which do not have their own limit. */
+  private ConcurrencyLimiter defaultLimiter;
+  /** The limiter of each operation type. */
+  private volatile Map<OperationType, ConcurrencyLimiter> limiters;
+
+  /** Starts the thread processing each task. */
+  private Executor executor;
+  /** The pool of platform threads, when virtual threads are not supported. */
+  private ThreadPoolExecutor platformThreadPool;
+  /** Whether the operations are processed in virtual threads. */
+  private boolean usingVirtualThreads;
+  /** The number of threads to report, since there is no fixed number of worker threads. */
+  private volatile int maxConcurrentOperations;
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /**
+   * Creates a new instance of this work queue. All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public VirtualThreadWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+  @Override
+  public void initializeWorkQueue(VirtualThreadWorkQueueCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    shutdownRequested = false;
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    configuration.addVirtualThreadChangeListener(this);
+
+    final Map<OperationType, Integer> typeLimits = parseConcurrencyLimits(configuration.getOperationConcurrencyLimit());
+    if (typeLimits == null)
+    {
+      throw new ConfigException(ERR_CONFIG_WORK_QUEUE_INVALID_CONCURRENCY_LIMIT.get(
+          configuration.getOperationConcurrencyLimit()));
+    }
+    defaultLimiter = new ConcurrencyLimiter(configuration.getMaxConcurrentOperations());
+    limiters = buildLimiters(typeLimits, null);
+    maxConcurrentOperations = computeMaxConcurrentOperations(limiters);
+
+    final ThreadFactory virtualThreadFactory = newVirtualThreadFactory("Worker Thread ");
+    usingVirtualThreads = virtualThreadFactory != null;
+    if (usingVirtualThreads)
+    {
+      // Virtual threads are cheap and must not be pooled.
+      executor = new Executor()
+      {
+        @Override
+        public void execute(Runnable command)
+        {
+          virtualThreadFactory.newThread(command).start();
+        }
+      };
+    }
+    else
+    {
+      logger.info(NOTE_CONFIG_WORK_QUEUE_VIRTUAL_THREADS_UNAVAILABLE);
+      // Threads are only created when a permit is available, so the limits
+      // bound the size of this pool.
+      platformThreadPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(), new DirectoryThread.Factory("Worker Thread"));
+      executor = platformThreadPool;
+    }
+
+    // Create and register a monitor provider for the work queue.
+    try
+    {
+      VirtualThreadWorkQueueMonitor monitor = new VirtualThreadWorkQueueMonitor(this);
+      monitor.initializeMonitorProvider(null);
+      DirectoryServer.registerMonitorProvider(monitor);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, VirtualThreadWorkQueueMonitor.class, e);
+    }
+  }
+
+  /**
+   * Returns a factory of virtual threads named with the provided prefix, or
+   * {@code null} if the Java runtime does not support virtual threads. The
+   * factory is obtained by reflection since the server must still run on Java
+   * runtimes without virtual threads.
+   *
+   * @param namePrefix
+   *          The prefix of the thread names, followed by a counter.
+   * @return a factory of virtual threads, or {@code null} if they are not
+   *         supported
+   */
+  static ThreadFactory newVirtualThreadFactory(String namePrefix)
+  {
+    try
+    {
+      final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return null;
+    }
+  }
+
+  /**
+   * Parses the values of the operation-concurrency-limit property.
+   *
+   * @param values
+   *          The values to parse, in the form "operation-type:limit".
+   * @return the limit of each listed operation type, or {@code null} if one of
+   *         the values is invalid
+   */
+  static Map<OperationType, Integer> parseConcurrencyLimits(SortedSet<String> values)
+  {
+    final Map<OperationType, Integer> typeLimits = new EnumMap<>(OperationType.class);
+    for (String value : values)
+    {
+      final int colon = value.lastIndexOf(':');
+      if (colon <= 0)
+      {
+        return null;
+      }
+      final OperationType type = toOperationType(value.substring(0, colon));
+      final int limit;
+      try
+      {
+        limit = Integer.parseInt(value.substring(colon + 1).trim());
+      }
+      catch (NumberFormatException e)
+      {
+        return null;
+      }
+      if (type == null || limit <= 0)
+      {
+        return null;
+      }
+      typeLimits.put(type, limit);
+    }
+    return typeLimits;
+  }
+
+  /** Accepts "modify-dn", "modify_dn", "modifydn" or any case variant. */
+  private static OperationType toOperationType(String name)
+  {
+    final String normalized = toUpperCase(name.trim()).replace("-", "").replace("_", "");
+    for (OperationType type : OperationType.values())
+    {
+      if (type.getOperationName().equals(normalized))
+      {
+        return type;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Builds the limiter of each operation type, reusing the limiters of the
+   * previous configuration so that their waiting operations are not lost.
+   */
+  private Map<OperationType, ConcurrencyLimiter> buildLimiters(Map<OperationType, Integer> typeLimits,
+      Map<OperationType, ConcurrencyLimiter> previous)
+  {
+    final Map<OperationType, ConcurrencyLimiter> newLimiters = new EnumMap<>(OperationType.class);
+    for (OperationType type : OperationType.values())
+    {
+      final Integer limit = typeLimits.get(type);
+      if (limit == null)
+      {
+        newLimiters.put(type, defaultLimiter);
+        continue;
+      }
+      ConcurrencyLimiter limiter = previous != null ? previous.get(type) : null;
+      if (limiter == null || limiter == defaultLimiter)
+      {
+        limiter = new ConcurrencyLimiter(limit);
+      }
+      else
+      {
+        limiter.setLimit(limit);
+      }
+      newLimiters.put(type, limiter);
+    }
+    return newLimiters;
+  }
+
+  private int computeMaxConcurrentOperations(Map<OperationType, ConcurrencyLimiter> typeLimiters)
+  {
+    long total = defaultLimiter.getLimit();
+    for (ConcurrencyLimiter limiter : typeLimiters.values())
+    {
+      if (limiter != defaultLimiter)
+      {
+        total += limiter.getLimit();
+      }
+    }
+    return (int) Math.min(total, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    shutdownRequested = true;
+
+    // Send responses to any waiting operations to indicate that they won't be
+    // processed because the server is shutting down.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    for (ConcurrencyLimiter limiter : getLimiters())
+    {
+      Operation o;
+      while ((o = pollWaiting(limiter)) != null)
+      {
+        try
+        {
+          // The operation has no chance of responding to the cancel
+          // request so avoid waiting for a cancel response.
+          if (o.getCancelResult() == null)
+          {
+            o.abort(cancelRequest);
+          }
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+          logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, o, e);
+        }
+      }
+    }
+
+    // Cancel the operations in progress.
+    final CancelRequest shutdownCancelRequest = new CancelRequest(true, INFO_CANCELED_BY_SHUTDOWN.get());
+    for (Operation o : activeOperations)
+    {
+      try
+      {
+        o.cancel(shutdownCancelRequest);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+    if (platformThreadPool != null)
+    {
+      platformThreadPool.shutdown();
+    }
+  }
+
+  /**
+   * Indicates whether this work queue has received a request to shut down.
+   *
+   * @return <CODE>true</CODE> if the work queue has received a request to shut
+   *         down, or <CODE>false</CODE> if not.
+   */
+  public boolean shutdownRequested()
+  {
+    return shutdownRequested;
+  }
+
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      LocalizableMessage message = WARN_OP_REJECTED_BY_SHUTDOWN.get();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, message);
+    }
+
+    final ConcurrencyLimiter limiter = limiters.get(operation.getOperationType());
+    if (limiter.tryAcquire())
+    {
+      opsSubmitted.incrementAndGet();
+      execute(new OperationTask(limiter, operation));
+      return;
+    }
+
+    reserveWaitingSlot();
+    opsSubmitted.incrementAndGet();
+    limiter.addWaiting(operation);
+    // All the permits may have been released while this operation was queued.
+    if (limiter.tryAcquire())
+    {
+      execute(new OperationTask(limiter, null));
+    }
+  }
+
+  @Override
+  public boolean trySubmitOperation(Operation operation) throws DirectoryException
+  {
+    // Submitting never blocks: operations beyond the limits wait in the queue,
+    // or are rejected when it is full.
+    try
+    {
+      submitOperation(operation);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  /** Reserves room for one more waiting operation, rejecting the operation if the queue is full. */
+  private void reserveWaitingSlot() throws DirectoryException
+  {
+    while (true)
+    {
+      final int capacity = maxCapacity;
+      final int waiting = waitingOps.get();
+      if (capacity > 0 && waiting >= capacity)
+      {
+        queueFullRejects.incrementAndGet();
+        LocalizableMessage message = WARN_OP_REJECTED_BY_QUEUE_FULL.get(capacity);
+        throw new DirectoryException(ResultCode.BUSY, message);
+      }
+      if (waitingOps.compareAndSet(waiting, waiting + 1))
+      {
+        return;
+      }
+    }
+  }
+
+  private Operation pollWaiting(ConcurrencyLimiter limiter)
+  {
+    final Operation operation = limiter.pollWaiting();
+    if (operation != null)
+    {
+      waitingOps.decrementAndGet();
+    }
+    return operation;
+  }
+
+  private void execute(OperationTask task) throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      task.limiter.release();
+      LocalizableMessage message = WARN_OP_REJECTED_BY_SHUTDOWN.get();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, message);
+    }
+    try
+    {
+      executor.execute(task);
+    }
+    catch (RejectedExecutionException e)
+    {
+      logger.traceException(e);
+      task.limiter.release();
+      LocalizableMessage message = WARN_OP_REJECTED_BY_SHUTDOWN.get();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, message);
+    }
+  }
+
+  private void runOperation(Operation operation)
+  {
+    activeOperations.add(operation);
+    try
+    {
+      WorkStealingWorkerThread.runOperation(operation, Thread.currentThread().getName());
+    }
+    finally
+    {
+      activeOperations.remove(operation);
+    }
+  }
+
+  private Set<ConcurrencyLimiter> getLimiters()
+  {
+    final Set<ConcurrencyLimiter> result =
+        Collections.newSetFromMap(new IdentityHashMap<ConcurrencyLimiter, Boolean>());
+    result.addAll(limiters.values());
+    return result;
+  }
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup.
+   *
+   * @return The total number of operations that have been successfully
+   *         submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.get();
+  }
+
+  /**
+   * Retrieves the number of operations currently being processed.
+   *
+   * @return The number of operations currently being processed.
+   */
+  public int getActiveOperationsCount()
+  {
+    return activeOperations.size();
+  }
+
+  /**
+   * Retrieves the number of operations waiting for an operation of the same
+   * type to complete.
+   *
+   * @return The number of operations waiting to be processed.
+   */
+  public int size()
+  {
+    int size = 0;
+    for (ConcurrencyLimiter limiter : getLimiters())
+    {
+      size += limiter.getWaitingCount();
+    }
+    return size;
+  }
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return The total number of operations that have been rejected because the
+   *         work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.get();
+  }
+
+  /**
+   * Indicates whether the operations are processed in virtual threads.
+   *
+   * @return {@code true} if the operations are processed in virtual threads,
+   *         {@code false} if platform threads are used.
+   */
+  public boolean isUsingVirtualThreads()
+  {
+    return usingVirtualThreads;
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(VirtualThreadWorkQueueCfg configuration,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    if (parseConcurrencyLimits(configuration.getOperationConcurrencyLimit()) == null)
+    {
+      unacceptableReasons.add(ERR_CONFIG_WORK_QUEUE_INVALID_CONCURRENCY_LIMIT.get(
+          configuration.getOperationConcurrencyLimit()));
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(VirtualThreadWorkQueueCfg configuration)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    final Map<OperationType, Integer> typeLimits = parseConcurrencyLimits(configuration.getOperationConcurrencyLimit());
+    if (typeLimits == null)
+    {
+      ccr.setResultCode(ResultCode.CONSTRAINT_VIOLATION);
+      ccr.addMessage(ERR_CONFIG_WORK_QUEUE_INVALID_CONCURRENCY_LIMIT.get(configuration.getOperationConcurrencyLimit()));
+      return ccr;
+    }
+
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    synchronized (this)
+    {
+      // Operations already waiting on a limiter which is no longer used are
+      // still picked up by the tasks holding its permits.
+      defaultLimiter.setLimit(configuration.getMaxConcurrentOperations());
+      limiters = buildLimiters(typeLimits, limiters);
+      maxConcurrentOperations = computeMaxConcurrentOperations(limiters);
+    }
+
+    // Start the waiting operations which fit in the new limits.
+    for (ConcurrencyLimiter limiter : getLimiters())
+    {
+      while (limiter.hasWaiting() && limiter.tryAcquire())
+      {
+        try
+        {
+          execute(new OperationTask(limiter, null));
+        }
+        catch (DirectoryException e)
+        {
+          logger.traceException(e);
+          break;
+        }
+      }
+    }
+    return ccr;
+  }
+
+  @Override
+  public boolean isIdle()
+  {
+    if (!activeOperations.isEmpty())
+    {
+      return false;
+    }
+    for (ConcurrencyLimiter limiter : getLimiters())
+    {
+      if (limiter.getRunningCount() > 0 || limiter.hasWaiting())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the maximum number of operations which can be processed
+   * concurrently, since there is no fixed number of worker threads.
+   *
+   * @return the maximum number of operations which can be processed
+   *         concurrently
+   */
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return maxConcurrentOperations;
+  }
+
+}
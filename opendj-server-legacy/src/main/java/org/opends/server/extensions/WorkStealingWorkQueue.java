@@ -0,0 +1,654 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.server.config.server.WorkStealingWorkQueueCfg;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.monitors.WorkStealingWorkQueueMonitor;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+
+/**
+ * A work queue where each worker thread owns a local queue of pending
+ * operations instead of all workers contending on a single shared queue.
+ * <p>
+ * Operations are assigned to the less loaded of two randomly chosen workers.
+ * Workers process their own queue first and steal from the other workers when
+ * they run out of work, so a burst of requests on a single connection is still
+ * spread across all the worker threads. Optionally, operations which are cheap
+ * enough (compare operations and base object searches) are processed directly
+ * by the thread which submits them, saving the hand-off to a worker thread.
+ */
+public class WorkStealingWorkQueue
+       extends WorkQueue<WorkStealingWorkQueueCfg>
+       implements ConfigurationChangeListener<WorkStealingWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** How long an idle worker parks before looking for work again. */
+  private static final long PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** The worker threads currently servicing this work queue. */
+  private volatile WorkStealingWorkerThread[] workers = new WorkStealingWorkerThread[0];
+  /** The worker threads which have been retired and are finishing their own queue. */
+  private final List<WorkStealingWorkerThread> retiringWorkers = new CopyOnWriteArrayList<>();
+  /** Serializes changes to the set of worker threads. */
+  private final Object workersLock = new Object();
+  /** The thread number used for the last worker thread that was created. */
+  private int lastThreadNumber;
+
+  /** The number of operations which have been submitted and not picked up by a worker yet. */
+  private final AtomicInteger pendingOps = new AtomicInteger();
+  /** The number of workers currently parked or about to park. */
+  private final AtomicInteger idleWorkers = new AtomicInteger();
+  /** Submitting threads wait on this object when the queue is full. */
+  private final Object capacityLock = new Object();
+  /** The number of submitting threads waiting for the queue to have available capacity. */
+  private volatile int capacityWaiters;
+
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private final AtomicLong opsSubmitted = new AtomicLong();
+  /** The number of operations rejected because the queue was full. */
+  private final AtomicLong queueFullRejects = new AtomicLong();
+  /** The number of operations processed by the submitting thread. */
+  private final AtomicLong opsProcessedInline = new AtomicLong();
+  /** The number of operations processed by another worker than the one they were assigned to. */
+  private final AtomicLong opsStolen = new AtomicLong();
+
+  /** The maximum number of pending operations, or zero if unbounded. */
+  private volatile int maxCapacity;
+  /** Whether cheap operations should be processed by the submitting thread. */
+  private volatile boolean inlineCheapOperations;
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /**
+   * Creates a new instance of this work queue. All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public WorkStealingWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+  @Override
+  public void initializeWorkQueue(WorkStealingWorkQueueCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    shutdownRequested = false;
+    configuration.addWorkStealingChangeListener(this);
+
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    inlineCheapOperations = configuration.isInlineCheapOperations();
+    final int numWorkerThreads = computeNumWorkerThreads(configuration.getNumWorkerThreads());
+
+    synchronized (workersLock)
+    {
+      final WorkStealingWorkerThread[] newWorkers = new WorkStealingWorkerThread[numWorkerThreads];
+      for (int i = 0; i < numWorkerThreads; i++)
+      {
+        newWorkers[i] = new WorkStealingWorkerThread(this, lastThreadNumber++);
+      }
+      workers = newWorkers;
+      for (WorkStealingWorkerThread t : newWorkers)
+      {
+        t.start();
+      }
+    }
+
+    // Create and register a monitor provider for the work queue.
+    try
+    {
+      WorkStealingWorkQueueMonitor monitor = new WorkStealingWorkQueueMonitor(this);
+      monitor.initializeMonitorProvider(null);
+      DirectoryServer.registerMonitorProvider(monitor);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, WorkStealingWorkQueueMonitor.class, e);
+    }
+  }
+
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    shutdownRequested = true;
+    synchronized (capacityLock)
+    {
+      capacityLock.notifyAll();
+    }
+
+    // Send responses to any operations in the pending queues to indicate that
+    // they won't be processed because the server is shutting down.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    final WorkStealingWorkerThread[] currentWorkers = workers;
+    for (WorkStealingWorkerThread t : currentWorkers)
+    {
+      Operation o;
+      while ((o = t.poll()) != null)
+      {
+        pendingOps.decrementAndGet();
+        try
+        {
+          // The operation has no chance of responding to the cancel
+          // request so avoid waiting for a cancel response.
+          if (o.getCancelResult() == null)
+          {
+            o.abort(cancelRequest);
+          }
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+          logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, o, e);
+        }
+      }
+    }
+
+    // Notify all the worker threads of the shutdown.
+    for (WorkStealingWorkerThread t : currentWorkers)
+    {
+      try
+      {
+        t.shutDown();
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_QUEUE_UNABLE_TO_NOTIFY_THREAD, t.getName(), e);
+      }
+    }
+  }
+
+  /**
+   * Indicates whether this work queue has received a request to shut down.
+   *
+   * @return <CODE>true</CODE> if the work queue has received a request to shut
+   *         down, or <CODE>false</CODE> if not.
+   */
+  public boolean shutdownRequested()
+  {
+    return shutdownRequested;
+  }
+
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    submitOperation(operation, true);
+  }
+
+  @Override
+  public boolean trySubmitOperation(Operation operation) throws DirectoryException
+  {
+    try
+    {
+      submitOperation(operation, false);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private void submitOperation(Operation operation, boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    checkNotShuttingDown();
+
+    if (inlineCheapOperations && isCheapOperation(operation))
+    {
+      opsSubmitted.incrementAndGet();
+      opsProcessedInline.incrementAndGet();
+      WorkStealingWorkerThread.runOperation(operation, Thread.currentThread().getName());
+      return;
+    }
+
+    reserveCapacity(blockEnqueuingWhenFull);
+    WorkStealingWorkerThread target;
+    do
+    {
+      if (shutdownRequested)
+      {
+        releaseCapacity();
+        checkNotShuttingDown();
+      }
+      target = chooseWorker(workers);
+      target.push(operation);
+    }
+    // The worker may have exited after it was chosen: take the operation back
+    // unless it already handed it over to another worker.
+    while (target.hasExited() && target.remove(operation));
+
+    opsSubmitted.incrementAndGet();
+    signalWorker(target);
+  }
+
+  private void checkNotShuttingDown() throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      LocalizableMessage message = WARN_OP_REJECTED_BY_SHUTDOWN.get();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, message);
+    }
+  }
+
+  /**
+   * Indicates whether the provided operation is cheap enough to be processed by
+   * the submitting thread. These operations target a single entry and never
+   * return more than one result.
+   *
+   * @param operation
+   *          The operation to check.
+   * @return {@code true} if the operation can be processed inline.
+   */
+  static boolean isCheapOperation(Operation operation)
+  {
+    switch (operation.getOperationType())
+    {
+    case COMPARE:
+      return true;
+    case SEARCH:
+      return operation instanceof SearchOperation
+          && ((SearchOperation) operation).getScope() == SearchScope.BASE_OBJECT;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Reserves room for one more pending operation, waiting if the queue is full
+   * and the caller accepts to block.
+   */
+  private void reserveCapacity(boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    while (true)
+    {
+      final int capacity = maxCapacity;
+      final int pending = pendingOps.get();
+      if (capacity <= 0 || pending < capacity)
+      {
+        if (pendingOps.compareAndSet(pending, pending + 1))
+        {
+          return;
+        }
+        continue;
+      }
+
+      if (!blockEnqueuingWhenFull)
+      {
+        queueFullRejects.incrementAndGet();
+        LocalizableMessage message = WARN_OP_REJECTED_BY_QUEUE_FULL.get(capacity);
+        throw new DirectoryException(ResultCode.BUSY, message);
+      }
+
+      synchronized (capacityLock)
+      {
+        capacityWaiters++;
+        try
+        {
+          final int currentCapacity = maxCapacity;
+          if (!shutdownRequested && currentCapacity > 0 && pendingOps.get() >= currentCapacity)
+          {
+            capacityLock.wait(1000);
+          }
+        }
+        catch (InterruptedException e)
+        {
+          // We cannot handle the interruption here. Reject the request and
+          // re-interrupt this thread.
+          Thread.currentThread().interrupt();
+          queueFullRejects.incrementAndGet();
+          LocalizableMessage message = WARN_OP_REJECTED_BY_QUEUE_INTERRUPT.get();
+          throw new DirectoryException(ResultCode.BUSY, message);
+        }
+        finally
+        {
+          capacityWaiters--;
+        }
+      }
+      checkNotShuttingDown();
+    }
+  }
+
+  private void releaseCapacity()
+  {
+    pendingOps.decrementAndGet();
+    if (capacityWaiters > 0)
+    {
+      synchronized (capacityLock)
+      {
+        capacityLock.notify();
+      }
+    }
+  }
+
+  /** Returns the less loaded of two randomly chosen workers. */
+  private WorkStealingWorkerThread chooseWorker(WorkStealingWorkerThread[] candidates)
+  {
+    final int n = candidates.length;
+    if (n == 1)
+    {
+      return candidates[0];
+    }
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final WorkStealingWorkerThread first = candidates[random.nextInt(n)];
+    final WorkStealingWorkerThread second = candidates[random.nextInt(n)];
+    return first.queueSize() <= second.queueSize() ? first : second;
+  }
+
+  /**
+   * Wakes up the worker which was assigned an operation or, if it is busy, an
+   * idle worker which can steal the operation.
+   */
+  private void signalWorker(WorkStealingWorkerThread target)
+  {
+    if (target.isParked())
+    {
+      LockSupport.unpark(target);
+      return;
+    }
+    if (idleWorkers.get() > 0)
+    {
+      final WorkStealingWorkerThread[] candidates = workers;
+      final int n = candidates.length;
+      final int start = ThreadLocalRandom.current().nextInt(n);
+      for (int i = 0; i < n; i++)
+      {
+        final WorkStealingWorkerThread t = candidates[(start + i) % n];
+        if (t.isParked())
+        {
+          LockSupport.unpark(t);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Retrieves the next operation that should be processed by the provided
+   * worker thread, blocking if necessary until a new request arrives. This
+   * method should only be called by a worker thread associated with this work
+   * queue.
+   *
+   * @param worker
+   *          The worker thread that is requesting the operation.
+   * @return The next operation that should be processed, or <CODE>null</CODE>
+   *         if the server is shutting down or the worker has been retired.
+   */
+  Operation nextOperation(WorkStealingWorkerThread worker)
+  {
+    while (!shutdownRequested)
+    {
+      Operation op = findOperation(worker);
+      if (op != null || worker.isRetired())
+      {
+        return op;
+      }
+
+      // Advertise that this worker is about to park, then look again so that a
+      // submitter which did not see the flag cannot leave an operation behind.
+      worker.setParked(true);
+      idleWorkers.incrementAndGet();
+      try
+      {
+        op = findOperation(worker);
+        if (op != null)
+        {
+          return op;
+        }
+        if (!worker.isRetired() && !shutdownRequested)
+        {
+          LockSupport.parkNanos(this, PARK_NANOS);
+          // Clear any interrupt so that the next park does not return immediately.
+          Thread.interrupted();
+        }
+      }
+      finally
+      {
+        worker.setParked(false);
+        idleWorkers.decrementAndGet();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Takes an operation from the local queue of the worker, or steals one from
+   * another worker. Retired workers only drain their own queue.
+   */
+  private Operation findOperation(WorkStealingWorkerThread worker)
+  {
+    Operation op = worker.poll();
+    if (op == null && !worker.isRetired())
+    {
+      op = steal(worker);
+    }
+    if (op != null)
+    {
+      releaseCapacity();
+    }
+    return op;
+  }
+
+  private Operation steal(WorkStealingWorkerThread thief)
+  {
+    final WorkStealingWorkerThread[] victims = workers;
+    final int n = victims.length;
+    final int start = ThreadLocalRandom.current().nextInt(n);
+    for (int i = 0; i < n; i++)
+    {
+      final WorkStealingWorkerThread victim = victims[(start + i) % n];
+      if (victim != thief && victim.queueSize() > 0)
+      {
+        final Operation op = victim.poll();
+        if (op != null)
+        {
+          opsStolen.incrementAndGet();
+          return op;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Hands the operations left in the local queue of an exiting worker over to
+   * the remaining workers.
+   *
+   * @param worker
+   *          The worker which is exiting.
+   */
+  void redistribute(WorkStealingWorkerThread worker)
+  {
+    Operation op;
+    while ((op = worker.poll()) != null)
+    {
+      final WorkStealingWorkerThread target = chooseWorker(workers);
+      target.push(op);
+      signalWorker(target);
+    }
+    retiringWorkers.remove(worker);
+  }
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup. This
+   * does not include operations that have been rejected for some reason like
+   * the queue already at its maximum capacity.
+   *
+   * @return The total number of operations that have been successfully
+   *         submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.get();
+  }
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return The total number of operations that have been rejected because the
+   *         work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.get();
+  }
+
+  /**
+   * Retrieves the total number of operations that have been processed by the
+   * submitting thread instead of being handed over to a worker thread.
+   *
+   * @return The total number of operations processed inline.
+   */
+  public long getOpsProcessedInline()
+  {
+    return opsProcessedInline.get();
+  }
+
+  /**
+   * Retrieves the total number of operations that have been stolen by a worker
+   * thread from the local queue of another worker thread.
+   *
+   * @return The total number of operations stolen by worker threads.
+   */
+  public long getOpsStolen()
+  {
+    return opsStolen.get();
+  }
+
+  /**
+   * Retrieves the number of pending operations that have not yet been picked
+   * up for processing.
+   *
+   * @return The number of pending operations that have not yet been picked up
+   *         for processing.
+   */
+  public int size()
+  {
+    return Math.max(0, pendingOps.get());
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(WorkStealingWorkQueueCfg configuration,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(WorkStealingWorkQueueCfg configuration)
+  {
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    inlineCheapOperations = configuration.isInlineCheapOperations();
+    synchronized (capacityLock)
+    {
+      // The capacity may have been increased.
+      capacityLock.notifyAll();
+    }
+
+    final int newNumThreads = computeNumWorkerThreads(configuration.getNumWorkerThreads());
+    synchronized (workersLock)
+    {
+      final WorkStealingWorkerThread[] currentWorkers = workers;
+      final int currentThreads = currentWorkers.length;
+      if (newNumThreads > currentThreads)
+      {
+        final WorkStealingWorkerThread[] newWorkers = Arrays.copyOf(currentWorkers, newNumThreads);
+        for (int i = currentThreads; i < newNumThreads; i++)
+        {
+          newWorkers[i] = new WorkStealingWorkerThread(this, lastThreadNumber++);
+        }
+        workers = newWorkers;
+        for (int i = currentThreads; i < newNumThreads; i++)
+        {
+          newWorkers[i].start();
+        }
+      }
+      else if (newNumThreads < currentThreads)
+      {
+        // Stop assigning operations to the retired workers before telling them
+        // to exit: they finish their own queue and hand over any leftover.
+        workers = Arrays.copyOf(currentWorkers, newNumThreads);
+        for (int i = newNumThreads; i < currentThreads; i++)
+        {
+          retiringWorkers.add(currentWorkers[i]);
+          currentWorkers[i].setStoppedByReducedThreadNumber();
+        }
+      }
+    }
+    return new ConfigChangeResult();
+  }
+
+  @Override
+  public boolean isIdle()
+  {
+    if (pendingOps.get() > 0)
+    {
+      return false;
+    }
+    for (WorkStealingWorkerThread t : workers)
+    {
+      if (t.isActive())
+      {
+        return false;
+      }
+    }
+    for (WorkStealingWorkerThread t : retiringWorkers)
+    {
+      if (t.isActive())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return workers.length;
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DisconnectReason;
+import org.opends.server.types.Operation;
+
+/**
+ * A worker thread of the {@link WorkStealingWorkQueue}. Each worker owns a
+ * local queue of pending operations. It processes the operations from its own
+ * queue first and steals operations from the other workers when it runs out of
+ * work, parking only when every queue is empty.
+ */
+public class WorkStealingWorkerThread extends DirectoryThread
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The operations which have been assigned to this worker and not picked up yet. */
+  private final ConcurrentLinkedDeque<Operation> localQueue = new ConcurrentLinkedDeque<>();
+  /** The number of operations in the local queue, since the deque's size() is not constant time. */
+  private final AtomicInteger localQueueSize = new AtomicInteger();
+
+  /** The work queue that this worker thread will service. */
+  private final WorkStealingWorkQueue workQueue;
+
+  /** Indicates whether the server is shutting down and this thread should stop running. */
+  private volatile boolean shutdownRequested;
+  /** Indicates whether this thread must exit because the number of worker threads was reduced. */
+  private volatile boolean stoppedByReducedThreadNumber;
+  /** Indicates whether this thread is parked waiting for work. */
+  private volatile boolean parked;
+  /** Indicates whether this thread has stopped picking up new operations. */
+  private volatile boolean exited;
+
+  /** The operation that this worker thread is currently processing. */
+  private volatile Operation operation;
+
+  /**
+   * Creates a new worker thread that will service the provided work queue.
+   *
+   * @param workQueue
+   *          The work queue with which this worker thread is associated.
+   * @param threadID
+   *          The thread ID for this worker thread.
+   */
+  public WorkStealingWorkerThread(WorkStealingWorkQueue workQueue, int threadID)
+  {
+    super("Worker Thread " + threadID);
+    this.workQueue = workQueue;
+  }
+
+  /**
+   * Indicates that this thread is about to be stopped because the Directory
+   * Server configuration has been updated to reduce the number of worker
+   * threads. The thread finishes the operations already assigned to it before
+   * exiting.
+   */
+  public void setStoppedByReducedThreadNumber()
+  {
+    stoppedByReducedThreadNumber = true;
+    LockSupport.unpark(this);
+  }
+
+  /**
+   * Indicates whether this worker thread is actively processing a request.
+   * Note that this is a point-in-time determination.
+   *
+   * @return {@code true} if this worker thread is actively processing a
+   *         request, or {@code false} if it is idle.
+   */
+  public boolean isActive()
+  {
+    return isAlive() && operation != null;
+  }
+
+  /**
+   * Operates in a loop, retrieving the next operation from the local queue or
+   * from the other workers, processing it, and then going back for more.
+   */
+  @Override
+  public void run()
+  {
+    while (!shutdownRequested)
+    {
+      operation = workQueue.nextOperation(this);
+      if (operation == null)
+      {
+        // The server is shutting down or this thread has been retired.
+        break;
+      }
+      runOperation(operation, getName());
+      operation = null;
+    }
+    exited = true;
+
+    if (stoppedByReducedThreadNumber)
+    {
+      // Give back whatever was assigned to this thread while it was exiting.
+      workQueue.redistribute(this);
+      logger.debug(INFO_WORKER_STOPPED_BY_REDUCED_THREADNUMBER, getName());
+    }
+    else if (!workQueue.shutdownRequested())
+    {
+      logger.warn(WARN_UNEXPECTED_WORKER_THREAD_EXIT, getName());
+    }
+
+    if (logger.isTraceEnabled())
+    {
+      logger.trace(getName() + " exiting.");
+    }
+  }
+
+  /**
+   * Processes the provided operation in the current thread, sending an error
+   * response and disconnecting the client if it fails unexpectedly.
+   *
+   * @param operation
+   *          The operation to process.
+   * @param threadName
+   *          The name of the thread processing the operation, used in the
+   *          error messages.
+   */
+  static void runOperation(Operation operation, String threadName)
+  {
+    try
+    {
+      operation.run();
+      operation.operationCompleted();
+    }
+    catch (Throwable t)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.trace("Uncaught exception in worker thread while processing operation %s: %s", operation, t);
+        logger.traceException(t);
+      }
+
+      LocalizableMessage message =
+          ERR_UNCAUGHT_WORKER_THREAD_EXCEPTION.get(threadName, operation, stackTraceToSingleLineString(t));
+      try
+      {
+        logger.error(message);
+        operation.setResultCode(DirectoryServer.getServerErrorResultCode());
+        operation.appendErrorMessage(message);
+        operation.getClientConnection().sendResponse(operation);
+      }
+      catch (Throwable t2)
+      {
+        if (logger.isTraceEnabled())
+        {
+          logger.trace("Exception in worker thread while trying to log a message about an uncaught exception %s: %s",
+              t, t2);
+          logger.traceException(t2);
+        }
+      }
+
+      try
+      {
+        operation.disconnectClient(DisconnectReason.SERVER_ERROR, true, message);
+      }
+      catch (Throwable t2)
+      {
+        logger.traceException(t2);
+      }
+    }
+  }
+
+  /**
+   * Indicates that the Directory Server has received a request to stop running
+   * and that this thread should stop running as soon as possible.
+   */
+  public void shutDown()
+  {
+    if (logger.isTraceEnabled())
+    {
+      logger.trace(getName() + " being signaled to shut down.");
+    }
+
+    shutdownRequested = true;
+    final Operation current = operation;
+    if (current == null)
+    {
+      LockSupport.unpark(this);
+      return;
+    }
+
+    try
+    {
+      current.cancel(new CancelRequest(true, INFO_CANCELED_BY_SHUTDOWN.get()));
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.trace("Caught an exception while trying to abandon the operation in progress for the worker thread: %s",
+            e);
+        logger.traceException(e);
+      }
+    }
+  }
+
+  /**
+   * Adds an operation to the local queue of this worker.
+   *
+   * @param op
+   *          The operation to add.
+   */
+  void push(Operation op)
+  {
+    localQueue.offerLast(op);
+    localQueueSize.incrementAndGet();
+  }
+
+  /**
+   * Removes the oldest operation from the local queue of this worker. This is
+   * used both by the owner and by the workers stealing from it, so that
+   * operations are processed in the order they were received.
+   *
+   * @return The oldest operation, or {@code null} if the local queue is empty.
+   */
+  Operation poll()
+  {
+    final Operation op = localQueue.pollFirst();
+    if (op != null)
+    {
+      localQueueSize.decrementAndGet();
+    }
+    return op;
+  }
+
+  /**
+   * Removes the provided operation from the local queue of this worker.
+   *
+   * @param op
+   *          The operation to remove.
+   * @return {@code true} if the operation was still in the local queue.
+   */
+  boolean remove(Operation op)
+  {
+    if (localQueue.removeFirstOccurrence(op))
+    {
+      localQueueSize.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of operations waiting in the local queue of this worker.
+   *
+   * @return The number of operations waiting in the local queue of this worker.
+   */
+  int queueSize()
+  {
+    return localQueueSize.get();
+  }
+
+  /**
+   * Indicates whether this worker will not pick up new operations anymore.
+   *
+   * @return {@code true} if this worker is being retired or has exited.
+   */
+  boolean isRetired()
+  {
+    return stoppedByReducedThreadNumber || shutdownRequested || exited;
+  }
+
+  /**
+   * Indicates whether this worker has stopped picking up operations.
+   *
+   * @return {@code true} if this worker has left its processing loop.
+   */
+  boolean hasExited()
+  {
+    return exited;
+  }
+
+  /**
+   * Indicates whether this worker is parked, or about to park, waiting for work.
+   *
+   * @return {@code true} if this worker is waiting for work.
+   */
+  boolean isParked()
+  {
+    return parked;
+  }
+
+  /**
+   * Records whether this worker is about to park waiting for work.
+   *
+   * @param parked
+   *          {@code true} before parking, {@code false} once awake.
+   */
+  void setParked(boolean parked)
+  {
+    this.parked = parked;
+  }
+
+  @Override
+  public Map<String, String> getDebugProperties()
+  {
+    Map<String, String> properties = super.getDebugProperties();
+    final Operation current = operation;
+    if (current != null)
+    {
+      properties.put("clientConnection", current.getClientConnection().toString());
+      properties.put("operation", current.toString());
+    }
+    return properties;
+  }
+}
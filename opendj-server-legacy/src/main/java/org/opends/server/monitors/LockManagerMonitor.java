@@ -0,0 +1,67 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.monitors;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
+import org.opends.server.api.MonitorData;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.types.LockManager;
+
+/**
+ * This class defines a Directory Server monitor that can be used to provide
+ * information about the contention on the locks of the lock manager.
+ */
+public class LockManagerMonitor extends MonitorProvider<MonitorProviderCfg>
+{
+  /** The name to use for the monitor attribute that provides the number of lock attempts which had to wait. */
+  public static final String ATTR_LOCK_WAITS = "lockWaits";
+  /** The name to use for the monitor attribute that provides the total time spent waiting for locks. */
+  public static final String ATTR_LOCK_WAIT_TIME = "lockWaitTimeMillis";
+  /** The name to use for the monitor attribute that provides the number of lock attempts which timed out. */
+  public static final String ATTR_LOCK_TIMEOUTS = "lockTimeouts";
+
+  /** The lock manager with which this monitor is associated. */
+  private final LockManager lockManager;
+
+  /**
+   * Initializes this monitor provider.
+   *
+   * @param lockManager
+   *          The lock manager with which this monitor is associated.
+   */
+  public LockManagerMonitor(LockManager lockManager)
+  {
+    this.lockManager = lockManager;
+  }
+
+  @Override
+  public String getMonitorInstanceName()
+  {
+    return "Lock Manager";
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    final MonitorData monitorAttrs = new MonitorData(3);
+    monitorAttrs.add(ATTR_LOCK_WAITS, lockManager.getLockWaitCount());
+    monitorAttrs.add(ATTR_LOCK_WAIT_TIME, lockManager.getLockWaitTime(TimeUnit.MILLISECONDS));
+    monitorAttrs.add(ATTR_LOCK_TIMEOUTS, lockManager.getLockTimeoutCount());
+    return monitorAttrs;
+  }
+}
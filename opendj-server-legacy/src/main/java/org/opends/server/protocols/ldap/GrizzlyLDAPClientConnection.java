@@ -0,0 +1,478 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.opends.messages.ProtocolMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.security.cert.Certificate;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.LocalizableMessageBuilder;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.io.ASN1;
+import org.forgerock.opendj.io.ASN1Reader;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.EmptyCompletionHandler;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.ssl.SSLUtils;
+import org.glassfish.grizzly.threadpool.Threads;
+import org.opends.server.extensions.TLSByteChannel;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.DisconnectReason;
+import org.opends.server.types.LDAPException;
+
+/**
+ * This class defines an LDAP client connection accepted by an instance of the
+ * {@link GrizzlyLDAPConnectionHandler}, reading and writing through a
+ * non-blocking Grizzly connection.
+ * <p>
+ * Responses are never written by the threads producing them: they are handed
+ * to the Grizzly asynchronous write queue. While a write is in progress, the
+ * following responses are accumulated and written all at once when it
+ * completes. A thread producing responses only waits when the client lets too
+ * many of them accumulate, for no longer than the maximum blocked write time
+ * limit.
+ */
+public final class GrizzlyLDAPClientConnection extends AbstractLDAPClientConnection
+{
+  /** The tracer object for the debug logger. */
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /**
+   * The number of bytes of responses that may be waiting to be written to a
+   * client before the threads producing responses for it wait.
+   */
+  private static final int MAX_PENDING_WRITES_SIZE = 1024 * 1024;
+
+  /** Notified of the completion of a write to the client. */
+  private final class WriteCompletionHandler extends EmptyCompletionHandler<Object>
+  {
+    private final int length;
+
+    private WriteCompletionHandler(int length)
+    {
+      this.length = length;
+    }
+
+    @Override
+    public void completed(Object result)
+    {
+      if (keepStats)
+      {
+        statTracker.updateBytesWritten(length);
+      }
+      synchronized (writeLock)
+      {
+        writesInProgress--;
+        if (writesInProgress == 0 && pendingWrites.length() > 0 && !writeFailed)
+        {
+          // Write all the responses accumulated meanwhile at once
+          flushPendingWrites();
+        }
+        writeLock.notifyAll();
+      }
+    }
+
+    @Override
+    public void failed(Throwable throwable)
+    {
+      synchronized (writeLock)
+      {
+        writesInProgress--;
+        writeFailed = true;
+        pendingWrites.clear();
+        writeLock.notifyAll();
+      }
+      logger.traceException(throwable);
+      disconnect(DisconnectReason.IO_ERROR, false,
+          ERR_IO_ERROR_ON_CLIENT_CONNECTION.get(getExceptionMessage(throwable)));
+    }
+  }
+
+  /** The reference to the connection handler that accepted this connection. */
+  private final GrizzlyLDAPConnectionHandler connectionHandler;
+
+  /** The Grizzly connection with the client. */
+  private final Connection<?> connection;
+
+  private final int bufferSize;
+  private final int maxRequestSize;
+  /** The bytes read from the client which have not been decoded yet. Also guards decoding. */
+  private final ByteStringBuilder readBuffer;
+
+  /** Guards the writes to the client. */
+  private final Object writeLock = new Object();
+  /** The responses waiting for the writes in progress to complete. */
+  private final ByteStringBuilder pendingWrites;
+  /** The number of writes handed to Grizzly which have not completed yet. */
+  private int writesInProgress;
+  /** Whether a write failed, in which case nothing more can be written. */
+  private boolean writeFailed;
+
+  /** Whether the security layer is enabled by the response of the StartTLS operation in progress. */
+  private volatile boolean tlsPending;
+  /** Whether the connection is protected by TLS. */
+  private volatile boolean tlsEnabled;
+
+  /**
+   * Creates a new LDAP client connection with the provided information.
+   *
+   * @param connectionHandler
+   *          The connection handler that accepted this connection.
+   * @param connection
+   *          The Grizzly connection that may be used to communicate with
+   *          the client.
+   * @param protocol
+   *          String representing the protocol (LDAP or LDAP+SSL).
+   */
+  GrizzlyLDAPClientConnection(GrizzlyLDAPConnectionHandler connectionHandler,
+      Connection<?> connection, String protocol)
+  {
+    super(connectionHandler, (InetSocketAddress) connection.getPeerAddress(),
+        (InetSocketAddress) connection.getLocalAddress(), protocol);
+    this.connectionHandler = connectionHandler;
+    this.connection = connection;
+    tlsEnabled = connectionHandler.useSSL();
+
+    bufferSize = connectionHandler.getBufferSize();
+    maxRequestSize = connectionHandler.getMaxRequestSize();
+    readBuffer = new ByteStringBuilder(bufferSize);
+    pendingWrites = new ByteStringBuilder(bufferSize);
+
+    registerConnection();
+  }
+
+  /**
+   * Indicates whether this client connection is currently using a
+   * secure mechanism to communicate with the server. Note that this may
+   * change over time based on operations performed by the client (e.g.,
+   * it may go from <CODE>false</CODE> to <CODE>true</CODE> if the client
+   * uses the StartTLS extended operation).
+   *
+   * @return <CODE>true</CODE> if the client connection is currently
+   *         using a secure mechanism to communicate with the server, or
+   *         <CODE>false</CODE> if not.
+   */
+  @Override
+  public boolean isSecure()
+  {
+    return tlsEnabled;
+  }
+
+  /**
+   * Writes the provided bytes to the client. They are handed to Grizzly
+   * straight away if no write is in progress, otherwise they are written
+   * with the other pending responses once the writes in progress complete,
+   * whether they may be delayed or not.
+   */
+  @Override
+  void write(ByteStringBuilder bytes, boolean mayDelay) throws IOException
+  {
+    synchronized (writeLock)
+    {
+      if (writeFailed)
+      {
+        throw new ClosedChannelException();
+      }
+
+      pendingWrites.appendBytes(bytes);
+      if (writesInProgress == 0)
+      {
+        flushPendingWrites();
+      }
+      else if (pendingWrites.length() > MAX_PENDING_WRITES_SIZE && mayWaitForPendingWrites())
+      {
+        waitForPendingWrites();
+      }
+    }
+  }
+
+  /**
+   * Any thread producing responses waits for the client, whichever work queue
+   * it belongs to, except Grizzly threads since they are the ones completing
+   * the writes, and threads decoding requests. The latter only write small
+   * responses, at most one per request read.
+   */
+  private boolean mayWaitForPendingWrites()
+  {
+    return !Threads.isService() && !Thread.holdsLock(readBuffer);
+  }
+
+  private void waitForPendingWrites() throws IOException
+  {
+    final long stopTime = System.currentTimeMillis() + getWriteTimeLimit();
+    try
+    {
+      while (pendingWrites.length() > MAX_PENDING_WRITES_SIZE)
+      {
+        if (writeFailed)
+        {
+          throw new ClosedChannelException();
+        }
+        final long waitTime = stopTime - System.currentTimeMillis();
+        if (waitTime <= 0)
+        {
+          // The client did not read the responses for too long.
+          throw new SocketTimeoutException();
+        }
+        writeLock.wait(waitTime);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /** Hands the pending responses to Grizzly, must be called while holding the write lock. */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void flushPendingWrites()
+  {
+    final Buffer buffer = Buffers.wrap(connection.getTransport().getMemoryManager(), pendingWrites.toByteArray());
+    pendingWrites.clearAndTruncate(bufferSize, bufferSize);
+    writesInProgress++;
+    ((Connection) connection).write(buffer, new WriteCompletionHandler(buffer.remaining()));
+  }
+
+  /**
+   * Closes the Grizzly connection. Unless closing it because of a network
+   * failure, the pending responses are written before, which includes the
+   * notice of disconnection.
+   */
+  @Override
+  void closeConnection(DisconnectReason disconnectReason)
+  {
+    connectionHandler.removeClientConnection(this);
+    synchronized (readBuffer)
+    {
+      readBuffer.clear();
+    }
+    if (disconnectReason == DisconnectReason.IO_ERROR
+        || disconnectReason == DisconnectReason.IO_TIMEOUT)
+    {
+      connection.terminateSilently();
+      return;
+    }
+    synchronized (writeLock)
+    {
+      if (pendingWrites.length() > 0 && !writeFailed)
+      {
+        // Grizzly preserves the order of the writes
+        flushPendingWrites();
+      }
+    }
+    // Graceful close, after the writes in progress
+    connection.closeSilently();
+  }
+
+  /**
+   * Processes the data read from the client, decoding the complete requests
+   * and placing them in the work queue. Requests read while a bind or StartTLS
+   * is in progress are only decoded once it is finished.
+   *
+   * @param bytes
+   *          The data read from the client
+   */
+  void processDataRead(byte[] bytes)
+  {
+    if (keepStats)
+    {
+      statTracker.updateBytesRead(bytes.length);
+    }
+    synchronized (readBuffer)
+    {
+      readBuffer.appendBytes(bytes);
+      decodeRequests();
+    }
+  }
+
+  /** Decodes the complete requests read, must be called while holding the read buffer lock. */
+  private void decodeRequests()
+  {
+    int position = 0;
+    try
+    {
+      while (isConnectionValid() && position < readBuffer.length()
+          && !bindInProgress.get() && !startTLSInProgress.get())
+      {
+        final ByteSequenceReader reader = readBuffer.subSequence(position, readBuffer.length()).asReader();
+        final ASN1Reader asn1Reader = ASN1.getReader(reader, maxRequestSize);
+        if (!asn1Reader.elementAvailable())
+        {
+          // Wait for the rest of the request
+          break;
+        }
+        final LDAPMessage message = LDAPReader.readMessage(asn1Reader);
+        position += reader.position();
+        if (!processLDAPMessage(message))
+        {
+          break;
+        }
+      }
+    }
+    catch (DecodeException | LDAPException e)
+    {
+      logger.traceException(e);
+      disconnect(DisconnectReason.PROTOCOL_ERROR, true, e.getMessageObject());
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      disconnect(DisconnectReason.PROTOCOL_ERROR, true, LocalizableMessage.raw(e.toString()));
+    }
+    finally
+    {
+      compactReadBuffer(position);
+    }
+  }
+
+  /** Discards the bytes of the requests already decoded. */
+  private void compactReadBuffer(int position)
+  {
+    if (!isConnectionValid() || position == readBuffer.length())
+    {
+      readBuffer.clearAndTruncate(bufferSize, bufferSize);
+    }
+    else if (position > 0)
+    {
+      final ByteString remaining = readBuffer.subSequence(position, readBuffer.length()).toByteString();
+      readBuffer.clear().appendBytes(remaining);
+    }
+  }
+
+  /** Decodes the requests read while a bind or StartTLS was in progress. */
+  private void resumeDecoding()
+  {
+    synchronized (readBuffer)
+    {
+      decodeRequests();
+    }
+  }
+
+  @Override
+  void appendSecurityLayers(StringBuilder buffer)
+  {
+    if (tlsEnabled)
+    {
+      buffer.append("TLS");
+    }
+  }
+
+  @Override
+  public boolean prepareTLS(LocalizableMessageBuilder unavailableReason)
+  {
+    if (tlsEnabled)
+    {
+      unavailableReason.append(ERR_LDAP_TLS_EXISTING_SECURITY_PROVIDER.get("TLS"));
+      return false;
+    }
+    // Make sure that the connection handler allows the use of the
+    // StartTLS operation.
+    if (!connectionHandler.allowStartTLS())
+    {
+      unavailableReason.append(ERR_LDAP_TLS_STARTTLS_NOT_ALLOWED.get());
+      return false;
+    }
+    tlsPending = true;
+    return true;
+  }
+
+  @Override
+  public Certificate[] getClientCertificateChain()
+  {
+    final SSLEngine sslEngine = SSLUtils.getSSLEngine(connection);
+    if (sslEngine != null)
+    {
+      try
+      {
+        return sslEngine.getSession().getPeerCertificates();
+      }
+      catch (SSLPeerUnverifiedException e)
+      {
+        logger.traceException(e);
+      }
+    }
+    return new Certificate[0];
+  }
+
+  @Override
+  public int getSSF()
+  {
+    final SSLEngine sslEngine = SSLUtils.getSSLEngine(connection);
+    if (sslEngine != null)
+    {
+      final Integer ssf = TLSByteChannel.getSSF(sslEngine.getSession().getCipherSuite());
+      if (ssf != null)
+      {
+        return ssf;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public void finishBind()
+  {
+    super.finishBind();
+    resumeDecoding();
+  }
+
+  @Override
+  public void finishStartTLS()
+  {
+    if (tlsPending)
+    {
+      tlsPending = false;
+      synchronized (writeLock)
+      {
+        // The StartTLS response must be written in clear, before securing the connection
+        if (pendingWrites.length() > 0 && !writeFailed)
+        {
+          flushPendingWrites();
+        }
+        try
+        {
+          connectionHandler.enableTLS(connection);
+          tlsEnabled = true;
+        }
+        catch (DirectoryException e)
+        {
+          logger.traceException(e);
+          disconnect(DisconnectReason.SECURITY_PROBLEM, false, e.getMessageObject());
+          return;
+        }
+      }
+    }
+
+    super.finishStartTLS();
+    resumeDecoding();
+  }
+}
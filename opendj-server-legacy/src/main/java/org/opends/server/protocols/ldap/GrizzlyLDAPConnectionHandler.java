@@ -0,0 +1,358 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.opends.messages.ProtocolMessages.*;
+import static org.opends.server.loggers.AccessLogger.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.server.config.server.LDAPConnectionHandlerCfg;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.attributes.Attribute;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChain;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+import org.glassfish.grizzly.ssl.SSLEngineConfigurator;
+import org.glassfish.grizzly.ssl.SSLFilter;
+import org.glassfish.grizzly.strategies.SameThreadIOStrategy;
+import org.opends.server.api.ClientConnection;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.WorkQueueStrategy;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.DisconnectReason;
+import org.opends.server.util.StaticUtils;
+
+/**
+ * This class defines a connection handler that will be used for communicating
+ * with clients over LDAP, using the non-blocking Grizzly transport.
+ * <p>
+ * It shares the configuration of the {@link LDAPConnectionHandler} and is
+ * enabled by setting the java-class of an LDAP connection handler to this
+ * class. Requests are decoded by the Grizzly selector threads and placed in the
+ * work queue. Responses are written asynchronously: the responses produced
+ * while a write is in progress are coalesced and written together once it
+ * completes, so that worker threads never wait for the network unless a client
+ * falls too far behind reading its responses.
+ * <p>
+ * SASL integrity and confidentiality security layers are not supported by
+ * this connection handler.
+ */
+public final class GrizzlyLDAPConnectionHandler extends
+    AbstractLDAPConnectionHandler<GrizzlyLDAPClientConnection>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The client connection associated with each Grizzly connection. */
+  private static final Attribute<GrizzlyLDAPClientConnection> CLIENT_CONNECTION_ATTR =
+      Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute("GrizzlyLDAPClientConnection");
+
+  /**
+   * The Grizzly filter decoding the requests read from the clients and
+   * handling the lifecycle of the client connections.
+   */
+  private final class ClientConnectionFilter extends BaseFilter
+  {
+    @Override
+    public NextAction handleAccept(FilterChainContext ctx) throws IOException
+    {
+      final Connection<?> connection = ctx.getConnection();
+      try
+      {
+        final GrizzlyLDAPClientConnection clientConnection =
+            new GrizzlyLDAPClientConnection(GrizzlyLDAPConnectionHandler.this, connection, getProtocol());
+        CLIENT_CONNECTION_ATTR.set(connection, clientConnection);
+        acceptConnection(clientConnection);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        connection.closeSilently();
+      }
+      return ctx.getStopAction();
+    }
+
+    @Override
+    public NextAction handleRead(FilterChainContext ctx) throws IOException
+    {
+      final Buffer buffer = ctx.getMessage();
+      final GrizzlyLDAPClientConnection clientConnection = CLIENT_CONNECTION_ATTR.get(ctx.getConnection());
+      if (clientConnection != null)
+      {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        clientConnection.processDataRead(bytes);
+      }
+      buffer.tryDispose();
+      return ctx.getStopAction();
+    }
+
+    @Override
+    public NextAction handleClose(FilterChainContext ctx) throws IOException
+    {
+      final GrizzlyLDAPClientConnection clientConnection = CLIENT_CONNECTION_ATTR.remove(ctx.getConnection());
+      if (clientConnection != null)
+      {
+        clientConnection.disconnect(DisconnectReason.CLIENT_DISCONNECT, false, null);
+      }
+      return ctx.getStopAction();
+    }
+
+    @Override
+    public void exceptionOccurred(FilterChainContext ctx, Throwable error)
+    {
+      final GrizzlyLDAPClientConnection clientConnection = CLIENT_CONNECTION_ATTR.remove(ctx.getConnection());
+      if (clientConnection != null)
+      {
+        logger.traceException(error);
+        clientConnection.disconnect(DisconnectReason.IO_ERROR, false,
+            ERR_LDAP_CLIENT_IO_ERROR_DURING_READ.get(getExceptionMessage(error)));
+      }
+    }
+  }
+
+  /** The client connections established through this connection handler. */
+  private final Set<GrizzlyLDAPClientConnection> clientConnections =
+      Collections.newSetFromMap(new ConcurrentHashMap<GrizzlyLDAPClientConnection, Boolean>());
+
+  /** The Grizzly transport accepting and serving the client connections. */
+  private TCPNIOTransport transport;
+
+  /**
+   * Creates a new instance of this LDAP connection handler. It must be
+   * initialized before it may be used.
+   */
+  public GrizzlyLDAPConnectionHandler()
+  {
+    super(new WorkQueueStrategy(), null);
+  }
+
+  @Override
+  void initializeServing(LDAPConnectionHandlerCfg config)
+  {
+    // The transport is created when starting to listen
+  }
+
+  @Override
+  void finalizeServing(LocalizableMessage finalizeReason)
+  {
+    disconnectAll();
+    stopTransport();
+  }
+
+  /**
+   * Retrieves the set of active client connections that have been established
+   * through this connection handler.
+   *
+   * @return The set of active client connections that have been established
+   *         through this connection handler.
+   */
+  @Override
+  public Collection<ClientConnection> getClientConnections()
+  {
+    return new ArrayList<ClientConnection>(clientConnections);
+  }
+
+  @Override
+  void disconnectClients(LocalizableMessage reason)
+  {
+    disconnectAll();
+  }
+
+  private void disconnectAll()
+  {
+    for (GrizzlyLDAPClientConnection c : getGrizzlyClientConnections())
+    {
+      try
+      {
+        c.disconnect(DisconnectReason.SERVER_SHUTDOWN, true,
+            ERR_LDAP_REQHANDLER_DEREGISTER_DUE_TO_SHUTDOWN.get());
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+  }
+
+  private List<GrizzlyLDAPClientConnection> getGrizzlyClientConnections()
+  {
+    return new ArrayList<>(clientConnections);
+  }
+
+  @Override
+  void listen(InetSocketAddress listenAddress) throws IOException
+  {
+    if (transport == null)
+    {
+      transport = createTransport();
+      transport.start();
+    }
+    transport.bind(listenAddress, backlog);
+  }
+
+  private TCPNIOTransport createTransport() throws IOException
+  {
+    final TCPNIOTransportBuilder builder = TCPNIOTransportBuilder.newInstance();
+    // Requests are only decoded by the selector threads, then processed by the work queue
+    builder.setIOStrategy(SameThreadIOStrategy.getInstance());
+    final TCPNIOTransport transport = builder.build();
+
+    transport.setReuseAddress(allowReuseAddress);
+    transport.setKeepAlive(currentConfig.isUseTCPKeepAlive());
+    transport.setTcpNoDelay(currentConfig.isUseTCPNoDelay());
+    final int bufferSize = getBufferSize();
+    transport.setReadBufferSize(bufferSize);
+    transport.setWriteBufferSize(bufferSize);
+    transport.setSelectorRunnersCount(numRequestHandlers);
+    transport.setServerConnectionBackLog(backlog);
+
+    final FilterChainBuilder filterChain = FilterChainBuilder.stateless().add(new TransportFilter());
+    if (currentConfig.isUseSSL())
+    {
+      try
+      {
+        filterChain.add(newSSLFilter());
+      }
+      catch (DirectoryException e)
+      {
+        throw new IOException(e.getMessage(), e);
+      }
+    }
+    transport.setProcessor(filterChain.add(new ClientConnectionFilter()).build());
+    return transport;
+  }
+
+  @Override
+  void stopListening()
+  {
+    if (transport != null)
+    {
+      transport.unbindAll();
+    }
+  }
+
+  /** The connections are served by the Grizzly transport threads, so just check again for a while. */
+  @Override
+  void serveIncomingConnections()
+  {
+    StaticUtils.sleep(1000);
+  }
+
+  @Override
+  void closeListening()
+  {
+    stopTransport();
+  }
+
+  private void stopTransport()
+  {
+    final TCPNIOTransport t = transport;
+    if (t != null)
+    {
+      transport = null;
+      try
+      {
+        t.shutdownNow();
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+  }
+
+  @Override
+  void serveClient(GrizzlyLDAPClientConnection clientConnection)
+  {
+    if (shutdownRequested)
+    {
+      clientConnection.disconnect(DisconnectReason.SERVER_SHUTDOWN, true,
+          ERR_LDAP_REQHANDLER_REJECT_DUE_TO_SHUTDOWN.get());
+      return;
+    }
+    clientConnections.add(clientConnection);
+    logConnect(clientConnection);
+  }
+
+  /**
+   * Removes a disconnected client connection from the connections established
+   * through this connection handler.
+   *
+   * @param clientConnection
+   *          The disconnected client connection
+   */
+  void removeClientConnection(GrizzlyLDAPClientConnection clientConnection)
+  {
+    clientConnections.remove(clientConnection);
+  }
+
+  /**
+   * Adds a new SSL filter to the filter chain of the provided connection,
+   * beneath the filter decoding the requests.
+   *
+   * @param connection
+   *          The connection to secure
+   * @throws DirectoryException
+   *           If the SSL filter cannot be created.
+   */
+  void enableTLS(Connection<?> connection) throws DirectoryException
+  {
+    final FilterChain currentChain = (FilterChain) connection.getProcessor();
+    final FilterChain newChain = FilterChainBuilder.stateless()
+        .addAll(currentChain).add(currentChain.size() - 1, newSSLFilter()).build();
+    connection.setProcessor(newChain);
+  }
+
+  private SSLFilter newSSLFilter() throws DirectoryException
+  {
+    final SSLContext context = sslContext;
+    final SSLEngine engine = sslEngine;
+    if (context == null || engine == null)
+    {
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_CONNHANDLER_SSL_CANNOT_INITIALIZE.get(ERR_LDAP_TLS_STARTTLS_NOT_ALLOWED.get()));
+    }
+    final SSLEngineConfigurator serverConfig = new SSLEngineConfigurator(context, false, false, false);
+    serverConfig.setEnabledProtocols(engine.getEnabledProtocols());
+    serverConfig.setEnabledCipherSuites(engine.getEnabledCipherSuites());
+    serverConfig.setWantClientAuth(engine.getWantClientAuth());
+    serverConfig.setNeedClientAuth(engine.getNeedClientAuth());
+    // This connection handler never acts as an SSL client
+    final SSLEngineConfigurator clientConfig = new SSLEngineConfigurator(context, true, false, false);
+    return new SSLFilter(serverConfig, clientConfig);
+  }
+}
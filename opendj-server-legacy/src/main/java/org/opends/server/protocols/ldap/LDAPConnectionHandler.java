@@ -17,47 +17,35 @@
 package org.opends.server.protocols.ldap;
 
 import static org.opends.messages.ProtocolMessages.*;
-import static org.opends.server.util.ServerConstants.*;
 import static org.opends.server.util.StaticUtils.*;
-
 import java.io.IOException;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.nio.channels.*;
-import java.util.*;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLEngine;
-
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
-import org.forgerock.opendj.config.server.ConfigChangeResult;
-import org.forgerock.opendj.config.server.ConfigException;
-import org.forgerock.opendj.ldap.AddressMask;
-import org.forgerock.opendj.ldap.DN;
-import org.forgerock.opendj.ldap.ResultCode;
-import org.forgerock.opendj.config.server.ConfigurationChangeListener;
-import org.forgerock.opendj.server.config.server.ConnectionHandlerCfg;
 import org.forgerock.opendj.server.config.server.LDAPConnectionHandlerCfg;
-import org.opends.server.api.*;
-import org.opends.server.api.plugin.PluginResult;
-import org.opends.server.core.DirectoryServer;
-import org.opends.server.core.PluginConfigManager;
+import org.opends.server.api.ClientConnection;
+import org.opends.server.api.DirectoryThread;
 import org.opends.server.core.QueueingStrategy;
-import org.opends.server.core.ServerContext;
 import org.opends.server.core.WorkQueueStrategy;
-import org.opends.server.extensions.NullKeyManagerProvider;
-import org.opends.server.extensions.NullTrustManagerProvider;
 import org.opends.server.extensions.TLSByteChannel;
-import org.opends.server.monitors.ClientConnectionMonitorProvider;
-import org.opends.server.types.*;
-import org.opends.server.util.SelectableCertificateKeyManager;
-import org.opends.server.util.StaticUtils;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.InitializationException;
 
 /**
  * This class defines a connection handler that will be used for communicating
@@ -70,9 +58,7 @@ import org.opends.server.util.StaticUtils;
  * performance in a multi-CPU system.
  */
 public final class LDAPConnectionHandler extends
-    ConnectionHandler<LDAPConnectionHandlerCfg> implements
-    ConfigurationChangeListener<LDAPConnectionHandlerCfg>,
-    ServerShutdownListener, AlertGenerator
+    AbstractLDAPConnectionHandler<LDAPClientConnection>
 {
   /** Task run periodically by the connection finalizer. */
   private final class ConnectionFinalizerRunnable implements Runnable
@@ -100,102 +86,21 @@ public final class LDAPConnectionHandler extends
   }
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
-  /** Default friendly name for the LDAP connection handler. */
-  private static final String DEFAULT_FRIENDLY_NAME = "LDAP Connection Handler";
-
-  /** SSL instance name used in context creation. */
-  private static final String SSL_CONTEXT_INSTANCE_NAME = "TLS";
-
-  /** The current configuration state. */
-  private LDAPConnectionHandlerCfg currentConfig;
-
-  /* Properties that cannot be modified dynamically */
-
-  /** The set of addresses on which to listen for new connections. */
-  private Set<InetAddress> listenAddresses;
-
-  /** The port on which this connection handler should listen for requests. */
-  private int listenPort;
-
-  /** The SSL client auth policy used by this connection handler. */
-  private SSLClientAuthPolicy sslClientAuthPolicy;
-
-  /** The backlog that will be used for the accept queue. */
-  private int backlog;
-
-  /** Indicates whether to allow the reuse address socket option. */
-  private boolean allowReuseAddress;
-
-  /** The number of request handlers that should be used for this connection handler. */
-  private int numRequestHandlers;
-
-  /** Indicates whether the Directory Server is in the process of shutting down. */
-  private volatile boolean shutdownRequested;
-
-  /* Internal LDAP connection handler state */
-
-  /** Indicates whether this connection handler is enabled. */
-  private boolean enabled;
-
-  /** The set of clients that are explicitly allowed access to the server. */
-  private Collection<AddressMask> allowedClients;
-
-  /** The set of clients that have been explicitly denied access to the server. */
-  private Collection<AddressMask> deniedClients;
-
   /**
    * The index to the request handler that will be used for the next connection
    * accepted by the server.
    */
   private int requestHandlerIndex;
 
-  /** The set of listeners for this connection handler. */
-  private List<HostPort> listeners;
-
   /** The set of request handlers that are associated with this connection handler. */
   private LDAPRequestHandler[] requestHandlers;
 
-  /** The set of statistics collected for this connection handler. */
-  private LDAPStatistics statTracker;
-
-  /** The client connection monitor provider associated with this connection handler. */
-  private ClientConnectionMonitorProvider connMonitor;
-
   /**
    * The selector that will be used to multiplex connection acceptance across
    * multiple sockets by a single thread.
    */
   private Selector selector;
 
-  /** The unique name assigned to this connection handler. */
-  private String handlerName;
-
-  /** The protocol used by this connection handler. */
-  private String protocol;
-
-  /** Queueing strategy. */
-  private final QueueingStrategy queueingStrategy;
-
-  /**
-   * The condition variable that will be used by the start method to wait for
-   * the socket port to be opened and ready to process requests before
-   * returning.
-   */
-  private final Object waitListen = new Object();
-
-  /** The friendly name of this connection handler. */
-  private String friendlyName;
-
-  /**
-   * SSL context.
-   *
-   * @see LDAPConnectionHandler#sslEngine
-   */
-  private SSLContext sslContext;
-
-  /** The SSL engine is used for obtaining default SSL parameters. */
-  private SSLEngine sslEngine;
-
   /**
    * Connection finalizer thread.
    * <p>
@@ -208,6 +113,9 @@ public final class LDAPConnectionHandler extends
   private List<Runnable> connectionFinalizerActiveJobQueue;
   private List<Runnable> connectionFinalizerPendingJobQueue;
 
+  /** Writes the search results gathered by the client connections once they have waited long enough. */
+  private volatile ScheduledExecutorService pendingWritesFlusher;
+
   /**
    * Creates a new instance of this LDAP connection handler. It must be
    * initialized before it may be used.
@@ -229,128 +137,58 @@ public final class LDAPConnectionHandler extends
    */
   public LDAPConnectionHandler(QueueingStrategy strategy, String friendlyName)
   {
-    super(friendlyName != null ? friendlyName : DEFAULT_FRIENDLY_NAME
-        + " Thread");
-
-    this.friendlyName = friendlyName;
-    this.queueingStrategy = strategy;
-
-    // No real implementation is required. Do all the work in the
-    // initializeConnectionHandler method.
-  }
-
-  /**
-   * Indicates whether this connection handler should allow interaction with
-   * LDAPv2 clients.
-   *
-   * @return <CODE>true</CODE> if LDAPv2 is allowed, or <CODE>false</CODE> if
-   *         not.
-   */
-  public boolean allowLDAPv2()
-  {
-    return currentConfig.isAllowLDAPV2();
-  }
-
-  /**
-   * Indicates whether this connection handler should allow the use of the
-   * StartTLS extended operation.
-   *
-   * @return <CODE>true</CODE> if StartTLS is allowed, or <CODE>false</CODE> if
-   *         not.
-   */
-  public boolean allowStartTLS()
-  {
-    return currentConfig.isAllowStartTLS() && !currentConfig.isUseSSL();
+    super(strategy, friendlyName);
   }
 
   @Override
-  public ConfigChangeResult applyConfigurationChange(
-      LDAPConnectionHandlerCfg config)
+  void initializeServing(LDAPConnectionHandlerCfg config) throws InitializationException
   {
-    final ConfigChangeResult ccr = new ConfigChangeResult();
-
-    // Note that the following properties cannot be modified:
-    // * listen port and addresses
-    // * use ssl
-    // * ssl policy
-    // * ssl cert nickname
-    // * accept backlog
-    // * tcp reuse address
-    // * num request handler
-
-    // Clear the stat tracker if LDAPv2 is being enabled.
-    if (currentConfig.isAllowLDAPV2() != config.isAllowLDAPV2()
-        && config.isAllowLDAPV2())
-    {
-      statTracker.clearStatistics();
-    }
-
-    // Apply the changes.
-    currentConfig = config;
-    enabled = config.isEnabled();
-    allowedClients = config.getAllowedClient();
-    deniedClients = config.getDeniedClient();
-
-    // Reconfigure SSL if needed.
+    // Open the selector.
     try
     {
-      configureSSL(config);
+      selector = Selector.open();
     }
-    catch (DirectoryException e)
+    catch (Exception e)
     {
       logger.traceException(e);
-      ccr.setResultCode(e.getResultCode());
-      ccr.addMessage(e.getMessageObject());
-      return ccr;
-    }
 
-    if (config.isAllowLDAPV2())
-    {
-      DirectoryServer.registerSupportedLDAPVersion(2, this);
-    }
-    else
-    {
-      DirectoryServer.deregisterSupportedLDAPVersion(2, this);
+      LocalizableMessage message = ERR_LDAP_CONNHANDLER_OPEN_SELECTOR_FAILED.get(
+          config.dn(), stackTraceToSingleLineString(e));
+      throw new InitializationException(message, e);
     }
+    requestHandlerIndex = 0;
 
-    return ccr;
-  }
+    // Create and start a connection finalizer thread for this
+    // connection handler.
+    connectionFinalizer = Executors
+        .newSingleThreadScheduledExecutor(new DirectoryThread.Factory(
+            "LDAP Connection Finalizer for connection handler " + toString()));
 
-  private void configureSSL(LDAPConnectionHandlerCfg config)
-      throws DirectoryException
-  {
-    protocol = config.isUseSSL() ? "LDAPS" : "LDAP";
-    if (config.isUseSSL() || config.isAllowStartTLS())
-    {
-      sslContext = createSSLContext(config);
-      sslEngine = createSSLEngine(config, sslContext);
-    }
-    else
-    {
-      sslContext = null;
-      sslEngine = null;
-    }
-  }
+    connectionFinalizerActiveJobQueue = new ArrayList<>();
+    connectionFinalizerPendingJobQueue = new ArrayList<>();
 
-  @Override
-  public void finalizeConnectionHandler(LocalizableMessage finalizeReason)
-  {
-    shutdownRequested = true;
-    currentConfig.removeLDAPChangeListener(this);
+    connectionFinalizer.scheduleWithFixedDelay(
+        new ConnectionFinalizerRunnable(), 100, 100, TimeUnit.MILLISECONDS);
 
-    if (connMonitor != null)
+    pendingWritesFlusher = Executors.newSingleThreadScheduledExecutor(new DirectoryThread.Factory(
+        "LDAP Pending Writes Flusher for connection handler " + toString()));
+
+    // Create and start the request handlers.
+    requestHandlers = new LDAPRequestHandler[numRequestHandlers];
+    for (int i = 0; i < numRequestHandlers; i++)
     {
-      DirectoryServer.deregisterMonitorProvider(connMonitor);
+      requestHandlers[i] = new LDAPRequestHandler(this, i);
     }
 
-    if (statTracker != null)
+    for (int i = 0; i < numRequestHandlers; i++)
     {
-      DirectoryServer.deregisterMonitorProvider(statTracker);
+      requestHandlers[i].start();
     }
+  }
 
-    DirectoryServer.deregisterSupportedLDAPVersion(2, this);
-    DirectoryServer.deregisterSupportedLDAPVersion(3, this);
-
+  @Override
+  void finalizeServing(LocalizableMessage finalizeReason)
+  {
     try
     {
       selector.wakeup();
@@ -367,6 +205,8 @@ public final class LDAPConnectionHandler extends
 
     // Shutdown the connection finalizer and ensure that any pending
     // unclosed connections are closed.
+    pendingWritesFlusher.shutdown();
+
     synchronized (connectionFinalizerLock)
     {
       connectionFinalizer.shutdown();
@@ -378,42 +218,6 @@ public final class LDAPConnectionHandler extends
     }
   }
 
-  /**
-   * Retrieves information about the set of alerts that this generator may
-   * produce. The map returned should be between the notification type for a
-   * particular notification and the human-readable description for that
-   * notification. This alert generator must not generate any alerts with types
-   * that are not contained in this list.
-   *
-   * @return Information about the set of alerts that this generator may
-   *         produce.
-   */
-  @Override
-  public Map<String, String> getAlerts()
-  {
-    Map<String, String> alerts = new LinkedHashMap<>();
-
-    alerts.put(ALERT_TYPE_LDAP_CONNECTION_HANDLER_CONSECUTIVE_FAILURES,
-        ALERT_DESCRIPTION_LDAP_CONNECTION_HANDLER_CONSECUTIVE_FAILURES);
-    alerts.put(ALERT_TYPE_LDAP_CONNECTION_HANDLER_UNCAUGHT_ERROR,
-        ALERT_DESCRIPTION_LDAP_CONNECTION_HANDLER_UNCAUGHT_ERROR);
-
-    return alerts;
-  }
-
-  /**
-   * Retrieves the fully-qualified name of the Java class for this alert
-   * generator implementation.
-   *
-   * @return The fully-qualified name of the Java class for this alert generator
-   *         implementation.
-   */
-  @Override
-  public String getClassName()
-  {
-    return LDAPConnectionHandler.class.getName();
-  }
-
   /**
    * Retrieves the set of active client connections that have been established
    * through this connection handler.
@@ -432,357 +236,9 @@ public final class LDAPConnectionHandler extends
     return connectionList;
   }
 
-  /**
-   * Retrieves the DN of the configuration entry with which this alert generator
-   * is associated.
-   *
-   * @return The DN of the configuration entry with which this alert generator
-   *         is associated.
-   */
-  @Override
-  public DN getComponentEntryDN()
-  {
-    return currentConfig.dn();
-  }
-
-  @Override
-  public String getConnectionHandlerName()
-  {
-    return handlerName;
-  }
-
-  @Override
-  public Collection<String> getEnabledSSLCipherSuites()
-  {
-    final SSLEngine engine = sslEngine;
-    if (engine != null)
-    {
-      return Arrays.asList(engine.getEnabledCipherSuites());
-    }
-    return super.getEnabledSSLCipherSuites();
-  }
-
-  @Override
-  public Collection<String> getEnabledSSLProtocols()
-  {
-    final SSLEngine engine = sslEngine;
-    if (engine != null)
-    {
-      return Arrays.asList(engine.getEnabledProtocols());
-    }
-    return super.getEnabledSSLProtocols();
-  }
-
   @Override
-  public Collection<HostPort> getListeners()
-  {
-    return listeners;
-  }
-
-  /**
-   * Retrieves the port on which this connection handler is listening for client
-   * connections.
-   *
-   * @return The port on which this connection handler is listening for client
-   *         connections.
-   */
-  public int getListenPort()
+  void disconnectClients(LocalizableMessage reason)
   {
-    return listenPort;
-  }
-
-  /**
-   * Retrieves the maximum length of time in milliseconds that attempts to write
-   * to LDAP client connections should be allowed to block.
-   *
-   * @return The maximum length of time in milliseconds that attempts to write
-   *         to LDAP client connections should be allowed to block, or zero if
-   *         there should not be any limit imposed.
-   */
-  public long getMaxBlockedWriteTimeLimit()
-  {
-    return currentConfig.getMaxBlockedWriteTimeLimit();
-  }
-
-  /**
-   * Retrieves the maximum ASN.1 element value length that will be allowed by
-   * this connection handler.
-   *
-   * @return The maximum ASN.1 element value length that will be allowed by this
-   *         connection handler.
-   */
-  public int getMaxRequestSize()
-  {
-    return (int) currentConfig.getMaxRequestSize();
-  }
-
-  /**
-   * Retrieves the size in bytes of the LDAP response message write buffer
-   * defined for this connection handler.
-   *
-   * @return The size in bytes of the LDAP response message write buffer.
-   */
-  public int getBufferSize()
-  {
-    return (int) currentConfig.getBufferSize();
-  }
-
-  @Override
-  public String getProtocol()
-  {
-    return protocol;
-  }
-
-  @Override
-  public String getShutdownListenerName()
-  {
-    return handlerName;
-  }
-
-  /**
-   * Retrieves the SSL client authentication policy for this connection handler.
-   *
-   * @return The SSL client authentication policy for this connection handler.
-   */
-  public SSLClientAuthPolicy getSSLClientAuthPolicy()
-  {
-    return sslClientAuthPolicy;
-  }
-
-  /**
-   * Retrieves the set of statistics maintained by this connection handler.
-   *
-   * @return The set of statistics maintained by this connection handler.
-   */
-  public LDAPStatistics getStatTracker()
-  {
-    return statTracker;
-  }
-
-  @Override
-  public void initializeConnectionHandler(ServerContext serverContext, LDAPConnectionHandlerCfg config)
-      throws ConfigException, InitializationException
-  {
-    if (friendlyName == null)
-    {
-      friendlyName = config.dn().rdn().getFirstAVA().getAttributeValue().toString();
-    }
-
-    // Open the selector.
-    try
-    {
-      selector = Selector.open();
-    }
-    catch (Exception e)
-    {
-      logger.traceException(e);
-
-      LocalizableMessage message = ERR_LDAP_CONNHANDLER_OPEN_SELECTOR_FAILED.get(
-          config.dn(), stackTraceToSingleLineString(e));
-      throw new InitializationException(message, e);
-    }
-
-    // Save this configuration for future reference.
-    currentConfig = config;
-    enabled = config.isEnabled();
-    requestHandlerIndex = 0;
-    allowedClients = config.getAllowedClient();
-    deniedClients = config.getDeniedClient();
-
-    // Configure SSL if needed.
-    try
-    {
-      // This call may disable the connector if wrong SSL settings
-      configureSSL(config);
-    }
-    catch (DirectoryException e)
-    {
-      logger.traceException(e);
-      throw new InitializationException(e.getMessageObject());
-    }
-
-    // Save properties that cannot be dynamically modified.
-    allowReuseAddress = config.isAllowTCPReuseAddress();
-    backlog = config.getAcceptBacklog();
-    listenAddresses = config.getListenAddress();
-    listenPort = config.getListenPort();
-    numRequestHandlers =
-        getNumRequestHandlers(config.getNumRequestHandlers(), friendlyName);
-
-    // Construct a unique name for this connection handler, and put
-    // together the set of listeners.
-    listeners = new LinkedList<>();
-    StringBuilder nameBuffer = new StringBuilder();
-    nameBuffer.append(friendlyName);
-    for (InetAddress a : listenAddresses)
-    {
-      listeners.add(new HostPort(a.getHostAddress(), listenPort));
-      nameBuffer.append(" ");
-      nameBuffer.append(a.getHostAddress());
-    }
-    nameBuffer.append(" port ");
-    nameBuffer.append(listenPort);
-    handlerName = nameBuffer.toString();
-
-    // Attempt to bind to the listen port on all configured addresses to
-    // verify whether the connection handler will be able to start.
-    LocalizableMessage errorMessage =
-        checkAnyListenAddressInUse(listenAddresses, listenPort,
-            allowReuseAddress, config.dn());
-    if (errorMessage != null)
-    {
-      logger.error(errorMessage);
-      throw new InitializationException(errorMessage);
-    }
-
-    // Create a system property to store the LDAP(S) port the server is
-    // listening to. This information can be displayed with jinfo.
-    System.setProperty(protocol + "_port", String.valueOf(listenPort));
-
-    // Create and start a connection finalizer thread for this
-    // connection handler.
-    connectionFinalizer = Executors
-        .newSingleThreadScheduledExecutor(new DirectoryThread.Factory(
-            "LDAP Connection Finalizer for connection handler " + toString()));
-
-    connectionFinalizerActiveJobQueue = new ArrayList<>();
-    connectionFinalizerPendingJobQueue = new ArrayList<>();
-
-    connectionFinalizer.scheduleWithFixedDelay(
-        new ConnectionFinalizerRunnable(), 100, 100, TimeUnit.MILLISECONDS);
-
-    // Create and start the request handlers.
-    requestHandlers = new LDAPRequestHandler[numRequestHandlers];
-    for (int i = 0; i < numRequestHandlers; i++)
-    {
-      requestHandlers[i] = new LDAPRequestHandler(this, i);
-    }
-
-    for (int i = 0; i < numRequestHandlers; i++)
-    {
-      requestHandlers[i].start();
-    }
-
-    // Register the set of supported LDAP versions.
-    DirectoryServer.registerSupportedLDAPVersion(3, this);
-    if (config.isAllowLDAPV2())
-    {
-      DirectoryServer.registerSupportedLDAPVersion(2, this);
-    }
-
-    // Create and register monitors.
-    statTracker = new LDAPStatistics(handlerName + " Statistics");
-    DirectoryServer.registerMonitorProvider(statTracker);
-
-    connMonitor = new ClientConnectionMonitorProvider(this);
-    DirectoryServer.registerMonitorProvider(connMonitor);
-
-    // Register this as a change listener.
-    config.addLDAPChangeListener(this);
-  }
-
-  @Override
-  public boolean isConfigurationAcceptable(ConnectionHandlerCfg configuration,
-      List<LocalizableMessage> unacceptableReasons)
-  {
-    LDAPConnectionHandlerCfg config = (LDAPConnectionHandlerCfg) configuration;
-
-    if (currentConfig == null
-        || (!currentConfig.isEnabled() && config.isEnabled()))
-    {
-      // Attempt to bind to the listen port on all configured addresses to
-      // verify whether the connection handler will be able to start.
-      LocalizableMessage errorMessage =
-          checkAnyListenAddressInUse(config.getListenAddress(), config
-              .getListenPort(), config.isAllowTCPReuseAddress(), config.dn());
-      if (errorMessage != null)
-      {
-        unacceptableReasons.add(errorMessage);
-        return false;
-      }
-    }
-
-    if (config.isEnabled()
-        // Check that the SSL configuration is valid.
-        && (config.isUseSSL() || config.isAllowStartTLS()))
-    {
-      try
-      {
-        createSSLEngine(config, createSSLContext(config));
-      }
-      catch (DirectoryException e)
-      {
-        logger.traceException(e);
-
-        unacceptableReasons.add(e.getMessageObject());
-        return false;
-      }
-    }
-
-    return true;
-  }
-
-  /**
-   * Checks whether any listen address is in use for the given port. The check
-   * is performed by binding to each address and port.
-   *
-   * @param listenAddresses
-   *          the listen {@link InetAddress} to test
-   * @param listenPort
-   *          the listen port to test
-   * @param allowReuseAddress
-   *          whether addresses can be reused
-   * @param configEntryDN
-   *          the configuration entry DN
-   * @return an error message if at least one of the address is already in use,
-   *         null otherwise.
-   */
-  private LocalizableMessage checkAnyListenAddressInUse(
-      Collection<InetAddress> listenAddresses, int listenPort,
-      boolean allowReuseAddress, DN configEntryDN)
-  {
-    for (InetAddress a : listenAddresses)
-    {
-      try
-      {
-        if (StaticUtils.isAddressInUse(a, listenPort, allowReuseAddress))
-        {
-          throw new IOException(ERR_CONNHANDLER_ADDRESS_INUSE.get().toString());
-        }
-      }
-      catch (IOException e)
-      {
-        logger.traceException(e);
-        return ERR_CONNHANDLER_CANNOT_BIND.get("LDAP", configEntryDN, a.getHostAddress(), listenPort,
-            getExceptionMessage(e));
-      }
-    }
-    return null;
-  }
-
-  @Override
-  public boolean isConfigurationChangeAcceptable(
-      LDAPConnectionHandlerCfg config, List<LocalizableMessage> unacceptableReasons)
-  {
-    return isConfigurationAcceptable(config, unacceptableReasons);
-  }
-
-  /**
-   * Indicates whether this connection handler should maintain usage statistics.
-   *
-   * @return <CODE>true</CODE> if this connection handler should maintain usage
-   *         statistics, or <CODE>false</CODE> if not.
-   */
-  public boolean keepStats()
-  {
-    return currentConfig.isKeepStats();
-  }
-
-  @Override
-  public void processServerShutdown(LocalizableMessage reason)
-  {
-    shutdownRequested = true;
-
     try
     {
       for (LDAPRequestHandler requestHandler : requestHandlers)
@@ -802,180 +258,30 @@ public final class LDAPConnectionHandler extends
   }
 
   @Override
-  public void start()
+  void listen(InetSocketAddress listenAddress) throws IOException
   {
-    // The Directory Server start process should only return
-    // when the connection handlers port are fully opened
-    // and working. The start method therefore needs to wait for
-    // the created thread to
-    synchronized (waitListen)
-    {
-      super.start();
-
-      try
-      {
-        waitListen.wait();
-      }
-      catch (InterruptedException e)
-      {
-        // If something interrupted the start its probably better
-        // to return ASAP.
-      }
-    }
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.socket().setReuseAddress(allowReuseAddress);
+    channel.socket().bind(listenAddress, backlog);
+    channel.configureBlocking(false);
+    channel.register(selector, SelectionKey.OP_ACCEPT);
   }
 
-  /**
-   * Operates in a loop, accepting new connections and ensuring that requests on
-   * those connections are handled properly.
-   */
   @Override
-  public void run()
+  void stopListening()
   {
-    setName(handlerName);
-    boolean listening = false;
-    boolean starting = true;
-
-    while (!shutdownRequested)
-    {
-      // If this connection handler is not enabled, then just sleep
-      // for a bit and check again.
-      if (!enabled)
-      {
-        if (listening)
-        {
-          cleanUpSelector();
-          listening = false;
-
-          logger.info(NOTE_CONNHANDLER_STOPPED_LISTENING, handlerName);
-        }
-
-        if (starting)
-        {
-          // This may happen if there was an initialisation error
-          // which led to disable the connector.
-          // The main thread is waiting for the connector to listen
-          // on its port, which will not occur yet,
-          // so notify here to allow the server startup to complete.
-          synchronized (waitListen)
-          {
-            starting = false;
-            waitListen.notify();
-          }
-        }
-
-        StaticUtils.sleep(1000);
-        continue;
-      }
-
-      // If we have gotten here, then we are about to start listening
-      // for the first time since startup or since we were previously
-      // disabled. Make sure to start with a clean selector and then
-      // create all the listeners.
-      try
-      {
-        cleanUpSelector();
-
-        int numRegistered = registerChannels();
-
-        // At this point, the connection Handler either started
-        // correctly or failed to start but the start process
-        // should be notified and resume its work in any cases.
-        synchronized (waitListen)
-        {
-          waitListen.notify();
-        }
-
-        // If none of the listeners were created successfully, then
-        // consider the connection handler disabled and require
-        // administrative action before trying again.
-        if (numRegistered == 0)
-        {
-          logger.error(ERR_LDAP_CONNHANDLER_NO_ACCEPTORS, currentConfig.dn());
-
-          enabled = false;
-          continue;
-        }
-
-        listening = true;
-
-        // Enter a loop, waiting for new connections to arrive and
-        // then accepting them as they come in.
-        boolean lastIterationFailed = false;
-        while (enabled && !shutdownRequested)
-        {
-          try
-          {
-            serveIncomingConnections();
-
-            lastIterationFailed = false;
-          }
-          catch (Exception e)
-          {
-            logger.traceException(e);
-            logger.error(ERR_CONNHANDLER_CANNOT_ACCEPT_CONNECTION, friendlyName,
-                currentConfig.dn(), getExceptionMessage(e));
-
-            if (lastIterationFailed)
-            {
-              // The last time through the accept loop we also
-              // encountered a failure. Rather than enter a potential
-              // infinite loop of failures, disable this acceptor and
-              // log an error.
-              LocalizableMessage message =
-                  ERR_CONNHANDLER_CONSECUTIVE_ACCEPT_FAILURES.get(friendlyName,
-                      currentConfig.dn(), stackTraceToSingleLineString(e));
-              logger.error(message);
-
-              DirectoryServer.sendAlertNotification(this,
-                  ALERT_TYPE_LDAP_CONNECTION_HANDLER_CONSECUTIVE_FAILURES,
-                  message);
-
-              cleanUpSelector();
-              enabled = false;
-            }
-            else
-            {
-              lastIterationFailed = true;
-            }
-          }
-        }
-
-        if (shutdownRequested)
-        {
-          cleanUpSelector();
-          selector.close();
-          listening = false;
-          enabled = false;
-        }
-      }
-      catch (Exception e)
-      {
-        logger.traceException(e);
-
-        // This is very bad because we failed outside the loop. The
-        // only thing we can do here is log a message, send an alert,
-        // and disable the selector until an administrator can figure
-        // out what's going on.
-        LocalizableMessage message =
-            ERR_LDAP_CONNHANDLER_UNCAUGHT_ERROR.get(currentConfig.dn(), stackTraceToSingleLineString(e));
-        logger.error(message);
-
-        DirectoryServer.sendAlertNotification(this,
-            ALERT_TYPE_LDAP_CONNECTION_HANDLER_UNCAUGHT_ERROR, message);
+    cleanUpSelector();
+  }
 
-        cleanUpSelector();
-        enabled = false;
-      }
-    }
+  @Override
+  void closeListening()
+  {
+    cleanUpSelector();
+    close(selector);
   }
 
-  /**
-   * Serves the incoming connections.
-   *
-   * @throws IOException
-   * @throws DirectoryException
-   */
-  private void serveIncomingConnections() throws IOException, DirectoryException
+  @Override
+  void serveIncomingConnections() throws IOException, DirectoryException
   {
     int selectorState = selector.select();
 
@@ -1012,40 +318,6 @@ public final class LDAPConnectionHandler extends
     }
   }
 
-  /**
-   * Open channels for each listen address and register them against this
-   * ConnectionHandler's {@link Selector}.
-   *
-   * @return the number of successfully registered channel
-   */
-  private int registerChannels()
-  {
-    int numRegistered = 0;
-    for (InetAddress a : listenAddresses)
-    {
-      try
-      {
-        ServerSocketChannel channel = ServerSocketChannel.open();
-        channel.socket().setReuseAddress(allowReuseAddress);
-        channel.socket()
-            .bind(new InetSocketAddress(a, listenPort), backlog);
-        channel.configureBlocking(false);
-        channel.register(selector, SelectionKey.OP_ACCEPT);
-        numRegistered++;
-
-        logger.info(NOTE_CONNHANDLER_STARTED_LISTENING, handlerName);
-      }
-      catch (Exception e)
-      {
-        logger.traceException(e);
-
-        logger.error(ERR_LDAP_CONNHANDLER_CREATE_CHANNEL_FAILED, currentConfig.dn(), a.getHostAddress(), listenPort,
-            stackTraceToSingleLineString(e));
-      }
-    }
-    return numRegistered;
-  }
-
   private void acceptConnection(SocketChannel clientChannel)
       throws DirectoryException
   {
@@ -1062,107 +334,19 @@ public final class LDAPConnectionHandler extends
       close(clientChannel);
     }
 
-    // Check to see if the core server rejected the
-    // connection (e.g., already too many connections
-    // established).
-    LDAPClientConnection clientConnection = new LDAPClientConnection(this,
-        clientChannel, getProtocol());
-    if (clientConnection.getConnectionID() < 0)
-    {
-      clientConnection.disconnect(DisconnectReason.ADMIN_LIMIT_EXCEEDED, true,
-          ERR_CONNHANDLER_REJECTED_BY_SERVER.get());
-      return;
-    }
-
-    InetAddress clientAddr = clientConnection.getRemoteAddress();
-    // Check to see if the client is on the denied list.
-    // If so, then reject it immediately.
-    if (!deniedClients.isEmpty()
-        && AddressMask.matchesAny(deniedClients, clientAddr))
-    {
-      clientConnection.disconnect(DisconnectReason.CONNECTION_REJECTED,
-          currentConfig.isSendRejectionNotice(), ERR_CONNHANDLER_DENIED_CLIENT
-              .get(clientConnection.getClientHostPort(), clientConnection
-                  .getServerHostPort()));
-      return;
-    }
-    // Check to see if there is an allowed list and if
-    // there is whether the client is on that list. If
-    // not, then reject the connection.
-    if (!allowedClients.isEmpty()
-        && !AddressMask.matchesAny(allowedClients, clientAddr))
-    {
-      clientConnection.disconnect(DisconnectReason.CONNECTION_REJECTED,
-          currentConfig.isSendRejectionNotice(),
-          ERR_CONNHANDLER_DISALLOWED_CLIENT.get(clientConnection
-              .getClientHostPort(), clientConnection.getServerHostPort()));
-      return;
-    }
-
-    // If we've gotten here, then we'll take the
-    // connection so invoke the post-connect plugins and
-    // register the client connection with a request
-    // handler.
-    try
-    {
-      PluginConfigManager pluginManager = DirectoryServer
-          .getPluginConfigManager();
-      PluginResult.PostConnect pluginResult = pluginManager
-          .invokePostConnectPlugins(clientConnection);
-      if (!pluginResult.continueProcessing())
-      {
-        clientConnection.disconnect(pluginResult.getDisconnectReason(),
-            pluginResult.sendDisconnectNotification(),
-            pluginResult.getErrorMessage());
-        return;
-      }
-
-      LDAPRequestHandler requestHandler =
-          requestHandlers[requestHandlerIndex++];
-      if (requestHandlerIndex >= numRequestHandlers)
-      {
-        requestHandlerIndex = 0;
-      }
-      requestHandler.registerClient(clientConnection);
-    }
-    catch (Exception e)
-    {
-      logger.traceException(e);
-
-      LocalizableMessage message =
-          INFO_CONNHANDLER_UNABLE_TO_REGISTER_CLIENT.get(clientConnection
-              .getClientHostPort(), clientConnection.getServerHostPort(),
-              getExceptionMessage(e));
-      logger.debug(message);
-
-      clientConnection.disconnect(DisconnectReason.SERVER_ERROR,
-          currentConfig.isSendRejectionNotice(), message);
-    }
+    acceptConnection(new LDAPClientConnection(this, clientChannel, getProtocol()));
   }
 
-  /**
-   * Appends a string representation of this connection handler to the provided
-   * buffer.
-   *
-   * @param buffer
-   *          The buffer to which the information should be appended.
-   */
   @Override
-  public void toString(StringBuilder buffer)
+  void serveClient(LDAPClientConnection clientConnection) throws DirectoryException
   {
-    buffer.append(handlerName);
-  }
-
-  /**
-   * Indicates whether this connection handler should use SSL to communicate
-   * with clients.
-   *
-   * @return {@code true} if this connection handler should use SSL to
-   *         communicate with clients, or {@code false} if not.
-   */
-  public boolean useSSL()
-  {
-    return currentConfig.isUseSSL();
+    LDAPRequestHandler requestHandler =
+        requestHandlers[requestHandlerIndex++];
+    if (requestHandlerIndex >= numRequestHandlers)
+    {
+      requestHandlerIndex = 0;
+    }
+    requestHandler.registerClient(clientConnection);
   }
 
   /**
@@ -1201,16 +385,6 @@ public final class LDAPConnectionHandler extends
     }
   }
 
-  /**
-   * Get the queueing strategy.
-   *
-   * @return The queueing strategy.
-   */
-  public QueueingStrategy getQueueingStrategy()
-  {
-    return queueingStrategy;
-  }
-
   /**
    * Creates a TLS Byte Channel instance using the specified socket channel.
    *
@@ -1223,135 +397,7 @@ public final class LDAPConnectionHandler extends
   public TLSByteChannel getTLSByteChannel(ByteChannel channel)
       throws DirectoryException
   {
-    SSLEngine sslEngine = createSSLEngine(currentConfig, sslContext);
-    return new TLSByteChannel(channel, sslEngine);
-  }
-
-  private SSLEngine createSSLEngine(LDAPConnectionHandlerCfg config,
-      SSLContext sslContext) throws DirectoryException
-  {
-    try
-    {
-      SSLEngine sslEngine = sslContext.createSSLEngine();
-      sslEngine.setUseClientMode(false);
-
-      final Set<String> protocols = config.getSSLProtocol();
-      if (!protocols.isEmpty())
-      {
-        sslEngine.setEnabledProtocols(protocols.toArray(new String[0]));
-      }
-
-      final Set<String> ciphers = config.getSSLCipherSuite();
-      if (!ciphers.isEmpty())
-      {
-        sslEngine.setEnabledCipherSuites(ciphers.toArray(new String[0]));
-      }
-
-      switch (config.getSSLClientAuthPolicy())
-      {
-      case DISABLED:
-        sslEngine.setNeedClientAuth(false);
-        sslEngine.setWantClientAuth(false);
-        break;
-      case REQUIRED:
-        sslEngine.setWantClientAuth(true);
-        sslEngine.setNeedClientAuth(true);
-        break;
-      case OPTIONAL:
-      default:
-        sslEngine.setNeedClientAuth(false);
-        sslEngine.setWantClientAuth(true);
-        break;
-      }
-
-      return sslEngine;
-    }
-    catch (Exception e)
-    {
-      logger.traceException(e);
-      ResultCode resCode = DirectoryServer.getServerErrorResultCode();
-      LocalizableMessage message = ERR_CONNHANDLER_SSL_CANNOT_INITIALIZE
-          .get(getExceptionMessage(e));
-      throw new DirectoryException(resCode, message, e);
-    }
-  }
-
-  private void disableAndWarnIfUseSSL(LDAPConnectionHandlerCfg config)
-  {
-    if (config.isUseSSL())
-    {
-      logger.warn(INFO_DISABLE_CONNECTION, friendlyName);
-      enabled = false;
-    }
-  }
-
-  private SSLContext createSSLContext(LDAPConnectionHandlerCfg config)
-      throws DirectoryException
-  {
-    try
-    {
-      DN keyMgrDN = config.getKeyManagerProviderDN();
-      KeyManagerProvider<?> keyManagerProvider = DirectoryServer
-          .getKeyManagerProvider(keyMgrDN);
-      if (keyManagerProvider == null)
-      {
-        logger.error(ERR_NULL_KEY_PROVIDER_MANAGER, keyMgrDN, friendlyName);
-        disableAndWarnIfUseSSL(config);
-        keyManagerProvider = new NullKeyManagerProvider();
-        // The SSL connection is unusable without a key manager provider
-      }
-      else if (! keyManagerProvider.containsAtLeastOneKey())
-      {
-        logger.error(ERR_INVALID_KEYSTORE, friendlyName);
-        disableAndWarnIfUseSSL(config);
-      }
-
-      final SortedSet<String> aliases = new TreeSet<>(config.getSSLCertNickname());
-      final KeyManager[] keyManagers;
-      if (aliases.isEmpty())
-      {
-        keyManagers = keyManagerProvider.getKeyManagers();
-      }
-      else
-      {
-        final Iterator<String> it = aliases.iterator();
-        while (it.hasNext())
-        {
-          if (!keyManagerProvider.containsKeyWithAlias(it.next()))
-          {
-            logger.error(ERR_KEYSTORE_DOES_NOT_CONTAIN_ALIAS, aliases, friendlyName);
-            it.remove();
-          }
-        }
-
-        if (aliases.isEmpty())
-        {
-          disableAndWarnIfUseSSL(config);
-        }
-        keyManagers = SelectableCertificateKeyManager.wrap(keyManagerProvider.getKeyManagers(), aliases, friendlyName);
-      }
-
-      DN trustMgrDN = config.getTrustManagerProviderDN();
-      TrustManagerProvider<?> trustManagerProvider = DirectoryServer
-          .getTrustManagerProvider(trustMgrDN);
-      if (trustManagerProvider == null)
-      {
-        trustManagerProvider = new NullTrustManagerProvider();
-      }
-
-      SSLContext sslContext = SSLContext.getInstance(SSL_CONTEXT_INSTANCE_NAME);
-      sslContext.init(keyManagers, trustManagerProvider.getTrustManagers(),
-          null);
-      return sslContext;
-    }
-    catch (Exception e)
-    {
-      logger.traceException(e);
-      ResultCode resCode = DirectoryServer.getServerErrorResultCode();
-      LocalizableMessage message = ERR_CONNHANDLER_SSL_CANNOT_INITIALIZE
-          .get(getExceptionMessage(e));
-      throw new DirectoryException(resCode, message, e);
-    }
+    return new TLSByteChannel(channel, createSSLEngine(currentConfig, sslContext));
   }
 
   /**
@@ -1375,4 +421,26 @@ public final class LDAPConnectionHandler extends
       }
     }
   }
+
+  /**
+   * Schedules the write of the search results gathered by a client connection.
+   * They are written immediately if the connection handler is shutting down.
+   *
+   * @param flush
+   *          The task writing the gathered search results.
+   * @param delay
+   *          The delay, in nanoseconds, after which they must be written.
+   */
+  void schedulePendingWritesFlush(Runnable flush, long delay)
+  {
+    try
+    {
+      pendingWritesFlusher.schedule(flush, delay, TimeUnit.NANOSECONDS);
+    }
+    catch (RejectedExecutionException e)
+    {
+      logger.traceException(e);
+      flush.run();
+    }
+  }
 }
@@ -19,6 +19,7 @@ package org.opends.server.replication.plugin;
 import static org.opends.messages.ReplicationMessages.*;
 import static org.opends.server.replication.plugin.HistAttrModificationKey.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -59,6 +60,10 @@ import org.opends.server.util.TimeThread;
  * </ol>
  * One Historical object is created for each entry in the entry cache each Historical Object
  * contains a list of attribute historical information
+ * <p>
+ * The historical information of an attribute is only decoded when a modification targets the
+ * attribute, or when some of its historical information must be purged. Otherwise, it is encoded
+ * back exactly as it was read from the entry.
  */
 public class EntryHistorical
 {
@@ -108,6 +113,13 @@ public class EntryHistorical
 
   /** Contains Historical information for each attribute description. */
   private final Map<AttributeDescription, AttrHistorical> attributesHistorical = new HashMap<>();
+  /**
+   * Contains the encoded historical information which has not been decoded yet, for each attribute
+   * description which does not have an entry in {@link #attributesHistorical}.
+   */
+  private final Map<AttributeDescription, List<ByteString>> undecodedAttributesHistorical = new HashMap<>();
+  /** The name of the entry, used to report badly encoded historical information. */
+  private DN entryDN;
 
   @Override
   public String toString()
@@ -310,10 +322,41 @@ public class EntryHistorical
     {
       attrHist = AttrHistorical.createAttributeHistorical(modAttr.getAttributeDescription().getAttributeType());
       attributesHistorical.put(attrDesc, attrHist);
+      decodeAttrHistorical(attrDesc, attrHist);
     }
     return attrHist;
   }
 
+  /**
+   * Decodes the historical information read from the entry for the provided attribute description,
+   * if it was not decoded yet.
+   */
+  private void decodeAttrHistorical(AttributeDescription attrDesc, AttrHistorical attrHist)
+  {
+    final List<ByteString> histValues = undecodedAttributesHistorical.remove(attrDesc);
+    if (histValues == null)
+    {
+      return;
+    }
+    try
+    {
+      for (ByteString histValue : histValues)
+      {
+        final HistoricalAttributeValue histVal = new HistoricalAttributeValue(histValue.toString());
+        final CSN csn = histVal.getCSN();
+        updateOldestCSN(csn);
+        attrHist.assign(histVal.getHistKey(), histVal.getAttributeValue(), csn);
+      }
+    }
+    catch (Exception e)
+    {
+      // Any exception happening here means that the coding of the historical
+      // information was wrong.
+      // Log an error and continue with the historical decoded so far.
+      logger.error(ERR_BAD_HISTORICAL, entryDN);
+    }
+  }
+
   /**
    * For stats/monitoring purpose, returns the number of historical values
    * purged the last time a purge has been applied on this entry historical.
@@ -347,6 +390,25 @@ public class EntryHistorical
 
     AttributeBuilder builder = new AttributeBuilder(HISTORICAL_ATTRIBUTE_NAME);
 
+    if (purgeDelayInMillisec > 0)
+    {
+      // Only decode the historical information of the attributes having some values to purge
+      for (AttributeDescription attrDesc : new ArrayList<>(undecodedAttributesHistorical.keySet()))
+      {
+        if (hasValuesToPurge(undecodedAttributesHistorical.get(attrDesc), purgeDate))
+        {
+          final AttrHistorical attrHist = AttrHistorical.createAttributeHistorical(attrDesc.getAttributeType());
+          attributesHistorical.put(attrDesc, attrHist);
+          decodeAttrHistorical(attrDesc, attrHist);
+        }
+      }
+    }
+    // The historical information of the other attributes is encoded back as it was read
+    for (List<ByteString> histValues : undecodedAttributesHistorical.values())
+    {
+      builder.addAll(histValues);
+    }
+
     for (Map.Entry<AttributeDescription, AttrHistorical> mapEntry : attributesHistorical.entrySet())
     {
       AttributeDescription attrDesc = mapEntry.getKey();
@@ -432,6 +494,20 @@ public class EntryHistorical
     return builder.toAttribute();
   }
 
+  private boolean hasValuesToPurge(List<ByteString> histValues, long purgeDate)
+  {
+    for (ByteString histValue : histValues)
+    {
+      final CSN csn = HistoricalAttributeValue.decodeCSN(histValue);
+      // Also decode badly encoded values, so they get reported
+      if (csn == null || csn.getTime() <= purgeDate)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private boolean needsPurge(CSN csn, long purgeDate)
   {
     boolean needsPurge = purgeDelayInMillisec > 0 && csn.getTime() <= purgeDate;
@@ -518,6 +594,7 @@ public class EntryHistorical
 
     // Now we'll build the Historical object we want to construct
     final EntryHistorical newHistorical = new EntryHistorical();
+    newHistorical.entryDN = entry.getName();
     if (histAttrWithOptionsFromEntry.isEmpty())
     {
       // No historical attribute in the entry, return empty object
@@ -526,8 +603,10 @@ public class EntryHistorical
 
     try
     {
-      // For each value of the historical attr read (mod. on a user attribute)
-      //   build an AttrInfo sub-object
+      // The values of the historical attr read (mod. on a user attribute)
+      // are only grouped by attribute description here: each group is decoded
+      // to an AttrInfo sub-object when first needed.
+      final Map<String, List<ByteString>> histValuesByAttrString = new HashMap<>();
 
       // Traverse the Attributes (when several options for the hist attr)
       // of the historical attribute read from the entry
@@ -536,7 +615,20 @@ public class EntryHistorical
         // For each Attribute (option), traverse the values
         for (ByteString histAttrValueFromEntry : histAttrFromEntry)
         {
-          // From each value of the hist attr, create an object
+          final String attrString = HistoricalAttributeValue.decodeAttributeString(histAttrValueFromEntry);
+          if (attrString != null && !isEntryHistoricalValue(attrString))
+          {
+            List<ByteString> histValues = histValuesByAttrString.get(attrString);
+            if (histValues == null)
+            {
+              histValues = new ArrayList<>();
+              histValuesByAttrString.put(attrString, histValues);
+            }
+            histValues.add(histAttrValueFromEntry);
+            continue;
+          }
+
+          // From each value of the hist attr for the entry, create an object
           final HistoricalAttributeValue histVal = new HistoricalAttributeValue(histAttrValueFromEntry.toString());
           final CSN csn = histVal.getCSN();
 
@@ -551,36 +643,33 @@ public class EntryHistorical
           {
             newHistorical.entryMODDNDate = csn;
           }
-          else
-          {
-            AttributeDescription attrDesc = histVal.getAttributeDescription();
-            if (attrDesc == null)
-            {
-              /*
-               * This attribute is unknown from the schema
-               * Just skip it, the modification will be processed but no
-               * historical information is going to be kept.
-               * Log information for the repair tool.
-               */
-              logger.error(ERR_UNKNOWN_ATTRIBUTE_IN_HISTORICAL, entry.getName(), histVal.getAttrString());
-              continue;
-            }
+        }
+      }
 
-            /* if attribute type does not match we create new
-             *   AttrInfoWithOptions and AttrInfo
-             *   we also add old AttrInfoWithOptions into histObj.attributesInfo
-             * if attribute type match but options does not match we create new
-             *   AttrInfo that we add to AttrInfoWithOptions
-             * if both match we keep everything
-             */
-            AttrHistorical attrInfo = newHistorical.attributesHistorical.get(attrDesc);
-            if (attrInfo == null)
-            {
-              attrInfo = AttrHistorical.createAttributeHistorical(attrDesc.getAttributeType());
-              newHistorical.attributesHistorical.put(attrDesc, attrInfo);
-            }
-            attrInfo.assign(histVal.getHistKey(), histVal.getAttributeValue(), csn);
-          }
+      for (Map.Entry<String, List<ByteString>> mapEntry : histValuesByAttrString.entrySet())
+      {
+        final AttributeDescription attrDesc = AttributeDescription.valueOf(mapEntry.getKey());
+        if (attrDesc == null)
+        {
+          /*
+           * This attribute is unknown from the schema
+           * Just skip it, the modification will be processed but no
+           * historical information is going to be kept.
+           * Log information for the repair tool.
+           */
+          logger.error(ERR_UNKNOWN_ATTRIBUTE_IN_HISTORICAL, entry.getName(), mapEntry.getKey());
+          continue;
+        }
+
+        // Several strings may represent the same attribute description
+        final List<ByteString> histValues = newHistorical.undecodedAttributesHistorical.get(attrDesc);
+        if (histValues == null)
+        {
+          newHistorical.undecodedAttributesHistorical.put(attrDesc, mapEntry.getValue());
+        }
+        else
+        {
+          histValues.addAll(mapEntry.getValue());
         }
       }
     } catch (Exception e)
@@ -595,6 +684,16 @@ public class EntryHistorical
     return newHistorical;
   }
 
+  /**
+   * Returns whether the historical attribute values with the provided attribute string store the
+   * date of the ADD or MODDN operations of the entry.
+   */
+  private static boolean isEntryHistoricalValue(String attrString)
+  {
+    final int optionsIndex = attrString.indexOf(';');
+    return "dn".equalsIgnoreCase(optionsIndex >= 0 ? attrString.substring(0, optionsIndex) : attrString);
+  }
+
   /**
    * Use this historical information to generate fake operations that would
    * result in this historical information.
@@ -732,6 +831,14 @@ public class EntryHistorical
    */
   public CSN getOldestCSN()
   {
+    // The historical information which has not been decoded yet may contain older CSNs
+    for (List<ByteString> histValues : undecodedAttributesHistorical.values())
+    {
+      for (ByteString histValue : histValues)
+      {
+        updateOldestCSN(HistoricalAttributeValue.decodeCSN(histValue));
+      }
+    }
     return this.oldestCSN;
   }
 
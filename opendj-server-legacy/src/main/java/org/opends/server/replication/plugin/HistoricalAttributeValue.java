@@ -20,6 +20,7 @@ import static org.opends.server.replication.plugin.HistAttrModificationKey.*;
 import static org.opends.server.util.StaticUtils.*;
 
 import org.forgerock.opendj.ldap.AttributeDescription;
+import org.forgerock.opendj.ldap.ByteSequence;
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ModificationType;
 import org.opends.server.replication.common.CSN;
@@ -116,6 +117,56 @@ class HistoricalAttributeValue
     }
   }
 
+  /**
+   * Returns the attribute description part of an encoded historical attribute value, without decoding the rest of
+   * the value.
+   *
+   * @param value
+   *          The encoded form of historical attribute value.
+   * @return the attribute description part of the value, or {@code null} if the value does not contain any
+   */
+  static String decodeAttributeString(ByteSequence value)
+  {
+    final int separatorIndex = indexOfSeparator(value);
+    return separatorIndex >= 0 ? value.subSequence(0, separatorIndex).toString() : null;
+  }
+
+  /**
+   * Returns the CSN of an encoded historical attribute value, without decoding the rest of the value.
+   *
+   * @param value
+   *          The encoded form of historical attribute value.
+   * @return the CSN of the value, or {@code null} if the value does not contain a valid CSN
+   */
+  static CSN decodeCSN(ByteSequence value)
+  {
+    final int csnIndex = indexOfSeparator(value) + 1;
+    if (csnIndex == 0 || value.length() < csnIndex + 28)
+    {
+      return null;
+    }
+    try
+    {
+      return new CSN(value.subSequence(csnIndex, csnIndex + 28).toString());
+    }
+    catch (NumberFormatException e)
+    {
+      return null;
+    }
+  }
+
+  private static int indexOfSeparator(ByteSequence value)
+  {
+    for (int i = 0; i < value.length(); i++)
+    {
+      if (value.byteAt(i) == ':')
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   /**
    * Get the String form of the attribute type.
    *
@@ -49,11 +49,11 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.DataFormatException;
 
@@ -298,7 +298,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    * The update to replay message queue where the listener thread is going to
    * push incoming update messages.
    */
-  private final BlockingQueue<UpdateToReplay> updateToReplayQueue;
+  private final ReplayQueue updateToReplayQueue;
   /** The number of naming conflicts successfully resolved. */
   private final AtomicInteger numResolvedNamingConflicts = new AtomicInteger();
   /** The number of modify conflicts successfully resolved. */
@@ -308,6 +308,14 @@ public final class LDAPReplicationDomain extends ReplicationDomain
       new AtomicInteger();
   /** The number of updates replayed successfully by the replication. */
   private final AtomicInteger numReplayedPostOpCalled = new AtomicInteger();
+  /** The number of updates replayed by the replication, successfully or not. */
+  private final AtomicLong numReplayedUpdates = new AtomicLong();
+  /** The time elapsed between the creation of the last replayed update and its replay, in milliseconds. */
+  private volatile long replayLagMillis;
+  /** The number of replayed updates when the replay throughput was last monitored. */
+  private long lastMonitoredReplayedUpdates;
+  /** The time when the replay throughput was last monitored. */
+  private long lastMonitoredReplayTime = TimeThread.getTime();
 
   private final PersistentServerState state;
   private volatile boolean generationIdSavedStatus;
@@ -540,7 +548,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    * @throws ConfigException In case of invalid configuration.
    */
   LDAPReplicationDomain(ReplicationDomainCfg configuration,
-      BlockingQueue<UpdateToReplay> updateToReplayQueue,
+      ReplayQueue updateToReplayQueue,
       DSRSShutdownSync dsrsShutdownSync) throws ConfigException
   {
     super(configuration, -1);
@@ -2261,15 +2269,6 @@ public final class LDAPReplicationDomain extends ReplicationDomain
     }
   }
 
-  /**
-   * Marks the specified message as the one currently processed by a replay thread.
-   * @param msg the message being processed
-   */
-  void markInProgress(LDAPUpdateMsg msg)
-  {
-    remotePendingChanges.markInProgress(msg);
-  }
-
   /**
    * Create and replay a synchronized Operation from an UpdateMsg.
    *
@@ -2455,6 +2454,8 @@ public final class LDAPReplicationDomain extends ReplicationDomain
         if (!dependency)
         {
           processUpdateDone(msg, replayErrorMsg);
+          numReplayedUpdates.incrementAndGet();
+          replayLagMillis = Math.max(TimeThread.getTime() - msg.getCSN().getTime(), 0);
         }
       }
 
@@ -4268,6 +4269,12 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
         }
         return true;
       }
+      /*
+       * Mark the update as in progress right away, in the order the updates are received: the replay
+       * threads take the updates from different partitions of the queue, so a newer update may start
+       * being replayed before an older update it depends on.
+       */
+      remotePendingChanges.markInProgress(msg);
 
       // Put update message into the replay queue
       // (block until some place in the queue is available)
@@ -4308,6 +4315,29 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
     attributes.add("remote-pending-changes-size", remotePendingChanges.getQueueSize());
     attributes.add("dependent-changes-size", remotePendingChanges.getDependentChangesSize());
     attributes.add("changes-in-progress-size", remotePendingChanges.changesInProgressSize());
+    attributes.add("replayed-updates", numReplayedUpdates.get());
+    attributes.add("replay-lag-millis", replayLagMillis);
+    attributes.add("replay-throughput", getReplayThroughput());
+  }
+
+  /**
+   * Returns the number of updates replayed per second since the last time this method was called.
+   *
+   * @return the number of updates replayed per second since the last time this method was called
+   */
+  private synchronized long getReplayThroughput()
+  {
+    final long now = TimeThread.getTime();
+    final long replayedUpdates = numReplayedUpdates.get();
+    final long elapsedMillis = now - lastMonitoredReplayTime;
+    if (elapsedMillis <= 0)
+    {
+      return 0;
+    }
+    final long throughput = (replayedUpdates - lastMonitoredReplayedUpdates) * 1000 / elapsedMillis;
+    lastMonitoredReplayedUpdates = replayedUpdates;
+    lastMonitoredReplayTime = now;
+    return throughput;
   }
 
   /**
@@ -27,11 +27,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -97,7 +94,7 @@ public class MultimasterReplication
   private static final Map<DN, LDAPReplicationDomain> domains = new ConcurrentHashMap<>(4);
   private static final DSRSShutdownSync dsrsShutdownSync = new DSRSShutdownSync();
   /** The queue of received update messages, to be treated by the ReplayThread threads. */
-  private static final BlockingQueue<UpdateToReplay> updateToReplayQueue = new LinkedBlockingQueue<>(10000);
+  private static final ReplayQueue updateToReplayQueue = new ReplayQueue(10000);
   /** The list of ReplayThread threads. */
   private static final List<ReplayThread> replayThreads = new ArrayList<>();
   /** The configurable number of replay threads. */
@@ -214,7 +211,7 @@ public class MultimasterReplication
    * is only used for tests so far.
    *
    * @param configuration The entry with the configuration of this domain.
-   * @param queue         The BlockingQueue that this domain will use.
+   * @param queue         The ReplayQueue that this domain will use.
    *
    * @return              The domain created.
    *
@@ -222,7 +219,7 @@ public class MultimasterReplication
    */
   static LDAPReplicationDomain createNewDomain(
       ReplicationDomainCfg configuration,
-      BlockingQueue<UpdateToReplay> queue)
+      ReplayQueue queue)
       throws ConfigException
   {
     final LDAPReplicationDomain domain =
@@ -302,10 +299,11 @@ public class MultimasterReplication
   {
     replayThreads.clear();
 
-    ReentrantLock switchQueueLock = new ReentrantLock();
+    // One partition per thread, so that the updates of an entry are replayed in order by the same thread
+    updateToReplayQueue.setNumberOfPartitions(replayThreadNumber);
     for (int i = 0; i < replayThreadNumber; i++)
     {
-      ReplayThread replayThread = new ReplayThread(updateToReplayQueue, switchQueueLock);
+      ReplayThread replayThread = new ReplayThread(updateToReplayQueue.getPartition(i));
       replayThread.start();
       replayThreads.add(replayThread);
     }
@@ -28,7 +28,7 @@ import org.opends.server.types.operation.PluginOperation;
 class PendingChange implements Comparable<PendingChange>
 {
   private final CSN csn;
-  private boolean committed;
+  private volatile boolean committed;
   private UpdateMsg msg;
   private final PluginOperation op;
 
@@ -17,16 +17,11 @@
 package org.opends.server.replication.plugin;
 
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-import net.jcip.annotations.GuardedBy;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.forgerock.opendj.ldap.DN;
 import org.opends.server.core.AddOperation;
@@ -51,30 +46,29 @@ import org.opends.server.types.Operation;
  * the dependencies between operations.
  *
  * One of this object is instantiated for each ReplicationDomain.
+ * <p>
+ * It is accessed concurrently by the replay threads without locking: changes are kept in concurrent sorted
+ * collections, and only one thread at a time moves the committed changes into the ServerState.
  */
 final class RemotePendingChanges
 {
   /** A map used to store the pending changes. */
-  @GuardedBy("pendingChangesLock")
-  private final SortedMap<CSN, PendingChange> pendingChanges = new TreeMap<>();
+  private final ConcurrentSkipListMap<CSN, PendingChange> pendingChanges = new ConcurrentSkipListMap<>();
 
   /**
    * A sorted set containing the list of PendingChanges that have
    * not been replayed correctly because they are dependent on
    * another change to be completed.
    */
-  @GuardedBy("dependentChangesLock")
-  private final SortedSet<PendingChange> dependentChanges = new TreeSet<>();
+  private final ConcurrentSkipListSet<PendingChange> dependentChanges = new ConcurrentSkipListSet<>();
   /**
    * {@code activeAndDependentChanges} also contains changes discovered to be dependent
    * on currently in progress changes.
    */
   private final ConcurrentSkipListSet<PendingChange> activeAndDependentChanges = new ConcurrentSkipListSet<>();
 
-  private final ReentrantReadWriteLock pendingChangesLock = new ReentrantReadWriteLock(true);
-  private final ReentrantReadWriteLock.ReadLock pendingChangesReadLock = pendingChangesLock.readLock();
-  private final ReentrantReadWriteLock.WriteLock pendingChangesWriteLock = pendingChangesLock.writeLock();
-  private final ReentrantLock dependentChangesLock = new ReentrantLock();
+  /** Whether a thread is currently moving the committed changes into the ServerState. */
+  private final AtomicBoolean updatingState = new AtomicBoolean();
 
   /** The ServerState that will be updated when LDAPUpdateMsg are fully replayed. */
   private final ServerState state;
@@ -97,15 +91,7 @@ final class RemotePendingChanges
    */
   public int getQueueSize()
   {
-    pendingChangesReadLock.lock();
-    try
-    {
-      return pendingChanges.size();
-    }
-    finally
-    {
-      pendingChangesReadLock.unlock();
-    }
+    return pendingChanges.size();
   }
 
   /**
@@ -125,15 +111,7 @@ final class RemotePendingChanges
    */
   public int getDependentChangesSize()
   {
-    dependentChangesLock.lock();
-    try
-    {
-      return dependentChanges.size();
-    }
-    finally
-    {
-      dependentChangesLock.unlock();
-    }
+    return dependentChanges.size();
   }
 
   /**
@@ -147,16 +125,8 @@ final class RemotePendingChanges
    */
   public boolean putRemoteUpdate(LDAPUpdateMsg update)
   {
-    pendingChangesWriteLock.lock();
-    try
-    {
-      CSN csn = update.getCSN();
-      return pendingChanges.put(csn, new PendingChange(csn, null, update)) == null;
-    }
-    finally
-    {
-      pendingChangesWriteLock.unlock();
-    }
+    CSN csn = update.getCSN();
+    return pendingChanges.putIfAbsent(csn, new PendingChange(csn, null, update)) == null;
   }
 
   /**
@@ -167,48 +137,66 @@ final class RemotePendingChanges
    */
   public void commit(CSN csn)
   {
-    pendingChangesWriteLock.lock();
-    try
+    PendingChange curChange = pendingChanges.get(csn);
+    if (curChange == null)
     {
-      PendingChange curChange = pendingChanges.get(csn);
-      if (curChange == null)
+      throw new NoSuchElementException();
+    }
+    curChange.setCommitted(true);
+    activeAndDependentChanges.remove(curChange);
+
+    // Another thread may be updating the state: it will then see this change committed
+    // when checking the first pending change again.
+    do
+    {
+      if (!updatingState.compareAndSet(false, true))
       {
-        throw new NoSuchElementException();
+        return;
       }
-      curChange.setCommitted(true);
-      activeAndDependentChanges.remove(curChange);
-
-      final Iterator<PendingChange> it = pendingChanges.values().iterator();
-      while (it.hasNext())
+      try
       {
-        PendingChange pendingChange = it.next();
-        if (!pendingChange.isCommitted())
+        final Iterator<PendingChange> it = pendingChanges.values().iterator();
+        while (it.hasNext())
         {
-          break;
-        }
-        if (pendingChange.getMsg().contributesToDomainState())
-        {
-          state.update(pendingChange.getCSN());
+          PendingChange pendingChange = it.next();
+          if (!pendingChange.isCommitted())
+          {
+            break;
+          }
+          if (pendingChange.getMsg().contributesToDomainState())
+          {
+            state.update(pendingChange.getCSN());
+          }
+          it.remove();
         }
-        it.remove();
+      }
+      finally
+      {
+        updatingState.set(false);
       }
     }
-    finally
-    {
-      pendingChangesWriteLock.unlock();
-    }
+    while (isFirstChangeCommitted());
+  }
+
+  private boolean isFirstChangeCommitted()
+  {
+    final Map.Entry<CSN, PendingChange> first = pendingChanges.firstEntry();
+    return first != null && first.getValue().isCommitted();
   }
 
+  /**
+   * Marks an update message as being replayed, so that the newer changes which depend on it wait for it to be
+   * committed.
+   *
+   * @param msg
+   *          The update message being replayed.
+   */
   public void markInProgress(LDAPUpdateMsg msg)
   {
-    pendingChangesReadLock.lock();
-    try
+    final PendingChange change = pendingChanges.get(msg.getCSN());
+    if (change != null)
     {
-      activeAndDependentChanges.add(pendingChanges.get(msg.getCSN()));
-    }
-    finally
-    {
-      pendingChangesReadLock.unlock();
+      activeAndDependentChanges.add(change);
     }
   }
   /**
@@ -218,25 +206,25 @@ final class RemotePendingChanges
    */
   public LDAPUpdateMsg getNextUpdate()
   {
-    pendingChangesReadLock.lock();
-    dependentChangesLock.lock();
-    try
+    while (true)
     {
-      if (!dependentChanges.isEmpty())
+      final Iterator<PendingChange> it = dependentChanges.iterator();
+      if (!it.hasNext())
       {
-        PendingChange firstDependentChange = dependentChanges.first();
-        if (pendingChanges.firstKey().isNewerThanOrEqualTo(firstDependentChange.getCSN()))
-        {
-          dependentChanges.remove(firstDependentChange);
-          return firstDependentChange.getLDAPUpdateMsg();
-        }
+        return null;
+      }
+      final PendingChange firstDependentChange = it.next();
+      final Map.Entry<CSN, PendingChange> firstPendingChange = pendingChanges.firstEntry();
+      if (firstPendingChange == null
+          || !firstPendingChange.getKey().isNewerThanOrEqualTo(firstDependentChange.getCSN()))
+      {
+        return null;
+      }
+      // Several replay threads may try to take the same dependent change: only one of them gets it
+      if (dependentChanges.remove(firstDependentChange))
+      {
+        return firstDependentChange.getLDAPUpdateMsg();
       }
-      return null;
-    }
-    finally
-    {
-      dependentChangesLock.unlock();
-      pendingChangesReadLock.unlock();
     }
   }
 
@@ -247,28 +235,12 @@ final class RemotePendingChanges
    */
   private void addDependency(PendingChange dependentChange)
   {
-    dependentChangesLock.lock();
-    try
-    {
-      dependentChanges.add(dependentChange);
-    }
-    finally
-    {
-      dependentChangesLock.unlock();
-    }
+    dependentChanges.add(dependentChange);
   }
 
   private PendingChange getPendingChange(CSN csn)
   {
-    pendingChangesReadLock.lock();
-    try
-    {
-      return pendingChanges.get(csn);
-    }
-    finally
-    {
-      pendingChangesReadLock.unlock();
-    }
+    return pendingChanges.get(csn);
   }
 
   /**
@@ -0,0 +1,261 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.plugin;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.util.Reject;
+import org.opends.server.replication.protocol.LDAPUpdateMsg;
+
+/**
+ * The queue of updates received from the replication servers and waiting to be replayed, split in partitions by the
+ * entryUUID of the entry targeted by each update.
+ * <p>
+ * Each partition is consumed by a single {@link ReplayThread}: the updates targeting the same entry are replayed in
+ * the order they were received, while the updates targeting different entries are replayed concurrently by different
+ * threads. The dependencies between updates targeting different entries, like the add of an entry and the add of its
+ * children, are still enforced by {@link RemotePendingChanges}.
+ * <p>
+ * Unlike its DN, the entryUUID of an entry does not change when it is renamed: the updates following a modify DN are
+ * in the same partition as the modify DN, whichever DN they target.
+ * <p>
+ * Updates are added to this queue, but they are retrieved by the replay threads from the partitions returned by
+ * {@link #getPartition(int)}: this queue only offers the non blocking retrieval operations of {@link java.util.Queue}.
+ */
+final class ReplayQueue extends AbstractQueue<UpdateToReplay>
+{
+  /** The maximum number of updates held by all the partitions. */
+  private final int capacity;
+  /** Prevents updates from being added while they are moved to new partitions. */
+  private final ReentrantReadWriteLock partitionsLock = new ReentrantReadWriteLock();
+  private volatile List<BlockingQueue<UpdateToReplay>> partitions;
+
+  /**
+   * Creates a new queue with a single partition.
+   *
+   * @param capacity
+   *          The maximum number of updates held by all the partitions.
+   */
+  ReplayQueue(int capacity)
+  {
+    Reject.ifFalse(capacity > 0);
+    this.capacity = capacity;
+    this.partitions = newPartitions(Collections.<List<UpdateToReplay>> singletonList(new ArrayList<UpdateToReplay>()));
+  }
+
+  /**
+   * Changes the number of partitions of this queue. The updates already queued are moved to the new partitions,
+   * keeping the order of the updates targeting the same entry. No update must be retrieved from the current
+   * partitions while they are being changed.
+   *
+   * @param nbPartitions
+   *          The new number of partitions
+   */
+  void setNumberOfPartitions(int nbPartitions)
+  {
+    Reject.ifFalse(nbPartitions > 0);
+    partitionsLock.writeLock().lock();
+    try
+    {
+      if (partitions.size() == nbPartitions)
+      {
+        return;
+      }
+      final List<List<UpdateToReplay>> updates = new ArrayList<>(nbPartitions);
+      for (int i = 0; i < nbPartitions; i++)
+      {
+        updates.add(new ArrayList<UpdateToReplay>());
+      }
+      final List<UpdateToReplay> partitionUpdates = new ArrayList<>();
+      for (BlockingQueue<UpdateToReplay> partition : partitions)
+      {
+        partition.drainTo(partitionUpdates);
+        for (UpdateToReplay update : partitionUpdates)
+        {
+          updates.get(getPartitionIndex(update, nbPartitions)).add(update);
+        }
+        partitionUpdates.clear();
+      }
+      partitions = newPartitions(updates);
+    }
+    finally
+    {
+      partitionsLock.writeLock().unlock();
+    }
+  }
+
+  private List<BlockingQueue<UpdateToReplay>> newPartitions(List<List<UpdateToReplay>> updates)
+  {
+    final int partitionCapacity = Math.max(capacity / updates.size(), 1);
+    final List<BlockingQueue<UpdateToReplay>> newPartitions = new ArrayList<>(updates.size());
+    for (List<UpdateToReplay> partitionUpdates : updates)
+    {
+      // Moved updates must not be lost, even if they exceed the capacity of their new partition
+      final BlockingQueue<UpdateToReplay> partition =
+          new LinkedBlockingQueue<>(Math.max(partitionCapacity, partitionUpdates.size()));
+      partition.addAll(partitionUpdates);
+      newPartitions.add(partition);
+    }
+    return Collections.unmodifiableList(newPartitions);
+  }
+
+  /**
+   * Returns the number of partitions of this queue.
+   *
+   * @return the number of partitions of this queue
+   */
+  int getNumberOfPartitions()
+  {
+    return partitions.size();
+  }
+
+  /**
+   * Returns a partition of this queue.
+   *
+   * @param index
+   *          The index of the partition, lower than {@link #getNumberOfPartitions()}
+   * @return the partition of this queue at the provided index
+   */
+  BlockingQueue<UpdateToReplay> getPartition(int index)
+  {
+    return partitions.get(index);
+  }
+
+  /** Package private for testing. */
+  static int getPartitionIndex(UpdateToReplay update, int nbPartitions)
+  {
+    final LDAPUpdateMsg msg = update.getUpdateMessage();
+    // Updates without entryUUID can only be grouped by DN
+    final Object entryKey = msg.getEntryUUID() != null ? msg.getEntryUUID() : msg.getDN();
+    // Spread the hash codes, which may differ only by their high bits
+    final int hash = entryKey.hashCode() * 0x9E3779B9;
+    return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % nbPartitions;
+  }
+
+  @Override
+  public boolean offer(UpdateToReplay update)
+  {
+    partitionsLock.readLock().lock();
+    try
+    {
+      return partitions.get(getPartitionIndex(update, partitions.size())).offer(update);
+    }
+    finally
+    {
+      partitionsLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Inserts the provided update in its partition, waiting up to the specified wait time for space to become available
+   * in the partition.
+   *
+   * @param update
+   *          The update to add
+   * @param timeout
+   *          How long to wait before giving up, in units of {@code unit}
+   * @param unit
+   *          The unit of the timeout
+   * @return {@code true} if the update was added, {@code false} if the timeout elapsed before space was available
+   * @throws InterruptedException
+   *           If interrupted while waiting
+   */
+  boolean offer(UpdateToReplay update, long timeout, TimeUnit unit) throws InterruptedException
+  {
+    partitionsLock.readLock().lock();
+    try
+    {
+      return partitions.get(getPartitionIndex(update, partitions.size())).offer(update, timeout, unit);
+    }
+    finally
+    {
+      partitionsLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public UpdateToReplay poll()
+  {
+    for (BlockingQueue<UpdateToReplay> partition : partitions)
+    {
+      final UpdateToReplay update = partition.poll();
+      if (update != null)
+      {
+        return update;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public UpdateToReplay peek()
+  {
+    for (BlockingQueue<UpdateToReplay> partition : partitions)
+    {
+      final UpdateToReplay update = partition.peek();
+      if (update != null)
+      {
+        return update;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int size()
+  {
+    int size = 0;
+    for (BlockingQueue<UpdateToReplay> partition : partitions)
+    {
+      size += partition.size();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the number of updates that can still be added to the partitions without blocking.
+   *
+   * @return the remaining capacity of all the partitions
+   */
+  int remainingCapacity()
+  {
+    int remainingCapacity = 0;
+    for (BlockingQueue<UpdateToReplay> partition : partitions)
+    {
+      remainingCapacity += partition.remainingCapacity();
+    }
+    return remainingCapacity;
+  }
+
+  @Override
+  public Iterator<UpdateToReplay> iterator()
+  {
+    final List<UpdateToReplay> updates = new ArrayList<>();
+    for (BlockingQueue<UpdateToReplay> partition : partitions)
+    {
+      updates.addAll(partition);
+    }
+    return Collections.unmodifiableList(updates).iterator();
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.server.changelog.file;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Random access to the content of a log file, as needed by a
+ * {@link BlockLogReader}.
+ * <p>
+ * An input has its own position in the file, so it must not be shared between
+ * readers.
+ */
+interface LogFileInput extends Closeable
+{
+  /**
+   * Returns the length of the log file.
+   *
+   * @return the length of the log file, in bytes
+   * @throws IOException
+   *           If an error occurs.
+   */
+  long length() throws IOException;
+
+  /**
+   * Returns the current position in the log file.
+   *
+   * @return the offset from the beginning of the file, in bytes
+   * @throws IOException
+   *           If an error occurs.
+   */
+  long getPosition() throws IOException;
+
+  /**
+   * Moves to the provided position in the log file.
+   *
+   * @param position
+   *          offset from the beginning of the file, in bytes
+   * @throws IOException
+   *           If an error occurs.
+   */
+  void seek(long position) throws IOException;
+
+  /**
+   * Skips the provided number of bytes, or less if the end of file is reached.
+   *
+   * @param length
+   *          the number of bytes to skip
+   * @throws IOException
+   *           If an error occurs.
+   */
+  void skipBytes(int length) throws IOException;
+
+  /**
+   * Reads a big-endian integer from the current position.
+   *
+   * @return the integer read
+   * @throws EOFException
+   *           If the end of file is reached before reading 4 bytes.
+   * @throws IOException
+   *           If an error occurs.
+   */
+  int readInt() throws IOException;
+
+  /**
+   * Reads the provided number of bytes from the current position and appends
+   * them to the provided builder.
+   *
+   * @param builder
+   *          the builder where to append the bytes read
+   * @param length
+   *          the number of bytes to read
+   * @throws EOFException
+   *           If the end of file is reached before reading all the bytes.
+   * @throws IOException
+   *           If an error occurs.
+   */
+  void readBytes(ByteStringBuilder builder, int length) throws IOException;
+}
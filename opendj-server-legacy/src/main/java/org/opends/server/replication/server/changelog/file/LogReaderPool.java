@@ -11,21 +11,31 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2014 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 
+import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.opends.server.replication.server.changelog.api.ChangelogException;
 import org.opends.server.util.StaticUtils;
 
+import com.forgerock.opendj.util.OperatingSystem;
+
 import static org.opends.messages.ReplicationMessages.*;
+import static org.opends.server.util.ServerConstants.*;
 
 /**
  * A Pool of readers to a log file.
-
+ * <p>
+ * The readers of a read-only log file may share a memory mapping of the file,
+ * so that reading records requires neither system calls nor intermediate
+ * buffers. Memory mapping is not used on Windows, where a mapped file cannot
+ * be deleted until the mapping is garbage collected, or when disabled with the
+ * {@code org.forgerock.opendj.DisableChangelogMemoryMapping} system property.
  *
  * @param <K>
  *          Type of the key of a record, which must be comparable.
@@ -35,11 +45,23 @@ import static org.opends.messages.ReplicationMessages.*;
 // TODO : implement a real pool - reusing readers instead of opening-closing them each time
 class LogReaderPool<K extends Comparable<K>, V>
 {
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Indicates whether read-only log files can be mapped in memory. */
+  private static final boolean MEMORY_MAPPING_ENABLED =
+      !OperatingSystem.isWindows() && System.getProperty(DISABLE_CHANGELOG_MEMORY_MAPPING) == null;
+
   /** The file to read. */
   private final File file;
 
   private final RecordParser<K, V> parser;
 
+  /** Indicates whether the file is read through a memory mapping. */
+  private boolean isMemoryMapped;
+
+  /** The memory mapping shared by all the readers, lazily created. */
+  private MappedLogFile mappedFile;
+
   /**
    * Creates a pool of readers for provided file.
    *
@@ -47,11 +69,15 @@ class LogReaderPool<K extends Comparable<K>, V>
    *          The file to read.
    * @param parser
    *          The parser to decode the records read.
+   * @param isReadOnly
+   *          Indicates whether the file can no longer be modified, which allows
+   *          to map it in memory.
    */
-  LogReaderPool(File file, RecordParser<K, V> parser)
+  LogReaderPool(File file, RecordParser<K, V> parser, boolean isReadOnly)
   {
     this.file = file;
     this.parser = parser;
+    this.isMemoryMapped = isReadOnly && MEMORY_MAPPING_ENABLED;
   }
 
   /**
@@ -66,6 +92,11 @@ class LogReaderPool<K extends Comparable<K>, V>
    */
   BlockLogReader<K, V> get() throws ChangelogException
   {
+    final MappedLogFile mapped = getMappedFile();
+    if (mapped != null)
+    {
+      return BlockLogReader.newMappedReader(file, mapped, parser);
+    }
     return getReader(file);
   }
 
@@ -83,6 +114,25 @@ class LogReaderPool<K extends Comparable<K>, V>
     StaticUtils.close(reader);
   }
 
+  /** Returns the memory mapping of the file, or {@code null} if the file is not read through a memory mapping. */
+  private synchronized MappedLogFile getMappedFile()
+  {
+    if (isMemoryMapped && mappedFile == null)
+    {
+      try
+      {
+        mappedFile = MappedLogFile.map(file);
+      }
+      catch (IOException e)
+      {
+        // Not fatal, fall back to random access files
+        logger.traceException(e);
+        isMemoryMapped = false;
+      }
+    }
+    return mappedFile;
+  }
+
   /** Returns a random access file to read this log. */
   private BlockLogReader<K, V> getReader(File file) throws ChangelogException
   {
@@ -99,10 +149,15 @@ class LogReaderPool<K extends Comparable<K>, V>
   /**
    * Shutdown this pool, releasing all files handles opened
    * on the file.
+   * <p>
+   * The memory mapping of the file, if any, is released once the readers still
+   * using it are garbage collected.
    */
-  void shutdown()
+  synchronized void shutdown()
   {
-    // Nothing to do yet as no file handle is kept opened.
+    // No file handle is kept opened.
+    isMemoryMapped = false;
+    mappedFile = null;
   }
 
 }
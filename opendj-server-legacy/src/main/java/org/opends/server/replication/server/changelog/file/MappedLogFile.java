@@ -0,0 +1,171 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.server.changelog.file;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * A read-only log file mapped in memory.
+ * <p>
+ * The mapping is shared by all the readers of the file: each reader gets its
+ * own {@link LogFileInput}, which is a view on the mapping with its own
+ * position. Reading a record is then a copy from the page cache, without any
+ * system call or intermediate buffer.
+ * <p>
+ * The file must not be modified once it is mapped, which is the case of the
+ * log files which have been rotated. The mapping is released when this object
+ * and all the inputs obtained from it are garbage collected.
+ */
+final class MappedLogFile
+{
+  private final File file;
+  private final MappedByteBuffer mapping;
+
+  private MappedLogFile(final File file, final MappedByteBuffer mapping)
+  {
+    this.file = file;
+    this.mapping = mapping;
+  }
+
+  /**
+   * Maps the provided log file in memory.
+   *
+   * @param file
+   *          The log file to map, which must not be modified anymore.
+   * @return the mapped log file
+   * @throws IOException
+   *           If the file cannot be mapped, in particular if it is too large
+   *           to be mapped in a single buffer.
+   */
+  static MappedLogFile map(final File file) throws IOException
+  {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel())
+    {
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE)
+      {
+        throw new IOException("File " + file.getPath() + " is too large to be mapped in memory: " + size + " bytes");
+      }
+      // The mapping remains valid after the channel is closed
+      return new MappedLogFile(file, channel.map(MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  /**
+   * Returns a new input on this mapped log file, positioned at the beginning
+   * of the file.
+   *
+   * @return a new input on this mapped log file
+   */
+  LogFileInput newInput()
+  {
+    return new Input(file, mapping.duplicate());
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "(" + file.getPath() + ", " + mapping.capacity() + " bytes)";
+  }
+
+  /** An input on a mapped log file, with its own position. */
+  private static final class Input implements LogFileInput
+  {
+    private final File file;
+    private final ByteBuffer buffer;
+
+    private Input(final File file, final ByteBuffer buffer)
+    {
+      this.file = file;
+      this.buffer = buffer;
+    }
+
+    @Override
+    public long length()
+    {
+      return buffer.limit();
+    }
+
+    @Override
+    public long getPosition()
+    {
+      return buffer.position();
+    }
+
+    @Override
+    public void seek(final long position) throws IOException
+    {
+      if (position < 0 || position > buffer.limit())
+      {
+        throw new EOFException("Cannot seek to position " + position + " of " + file.getPath()
+            + " which has " + buffer.limit() + " bytes");
+      }
+      buffer.position((int) position);
+    }
+
+    @Override
+    public void skipBytes(final int length)
+    {
+      buffer.position(Math.min(buffer.limit(), buffer.position() + length));
+    }
+
+    @Override
+    public int readInt() throws IOException
+    {
+      checkRemaining(4);
+      return buffer.getInt();
+    }
+
+    @Override
+    public void readBytes(final ByteStringBuilder builder, final int length) throws IOException
+    {
+      checkRemaining(length);
+      builder.appendBytes(buffer, length);
+    }
+
+    private void checkRemaining(final int length) throws EOFException
+    {
+      if (buffer.remaining() < length)
+      {
+        // The position is left unchanged, contrary to a random access file,
+        // but callers do not rely on the position after an end of file.
+        throw new EOFException();
+      }
+    }
+
+    @Override
+    public void close()
+    {
+      // Nothing to do: the mapping is shared with the other inputs
+    }
+
+    @Override
+    public String toString()
+    {
+      return file.getPath();
+    }
+  }
+}
@@ -61,6 +61,8 @@ public class RebuildTask extends Task
   private String tmpDirectory;
   private RebuildMode rebuildMode = RebuildMode.USER_DEFINED;
   private boolean isClearDegradedState;
+  private boolean isBackground;
+  private int maxEntriesPerSecond;
 
   /** {@inheritDoc} */
   @Override
@@ -94,6 +96,17 @@ public class RebuildTask extends Task
     tmpDirectory = asString(taskEntry, ATTR_REBUILD_TMP_DIRECTORY);
     final String val = asString(taskEntry, ATTR_REBUILD_INDEX_CLEARDEGRADEDSTATE);
     isClearDegradedState = Boolean.parseBoolean(val);
+    isBackground = Boolean.parseBoolean(asString(taskEntry, ATTR_REBUILD_BACKGROUND));
+    final String maxRate = asString(taskEntry, ATTR_REBUILD_MAX_ENTRIES_PER_SECOND);
+    try
+    {
+      maxEntriesPerSecond = maxRate != null ? Integer.parseInt(maxRate) : 0;
+    }
+    catch (NumberFormatException e)
+    {
+      throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM,
+          ERR_TASK_INDEXREBUILD_INVALID_MAX_ENTRIES_PER_SECOND.get(maxRate));
+    }
 
     AttributeType typeIndex = getAttributeType(ATTR_REBUILD_INDEX);
     List<Attribute> attrList = taskEntry.getAttribute(typeIndex);
@@ -157,6 +170,10 @@ public class RebuildTask extends Task
     // The degraded state is set(if present in args)
     // during the initialization.
     rebuildConfig.isClearDegradedState(isClearDegradedState);
+    rebuildConfig.setBackground(isBackground);
+    rebuildConfig.setMaxEntriesPerSecond(maxEntriesPerSecond);
+    // Background rebuilds and 'cleardegradedstate' mode keep the backend online
+    final boolean keepBackendOnline = isClearDegradedState || isBackground;
     boolean isBackendNeedToBeEnabled = false;
 
     if (tmpDirectory == null)
@@ -184,8 +201,8 @@ public class RebuildTask extends Task
     StringBuilder failureReason = new StringBuilder();
 
     // Disable the backend
-    // Except in 'cleardegradedstate' mode we don't need to disable it.
-    if (!isClearDegradedState)
+    // Except in 'cleardegradedstate' and background modes we don't need to disable it.
+    if (!keepBackendOnline)
     {
       try
       {
@@ -282,7 +299,7 @@ public class RebuildTask extends Task
     // The backend must be enabled only if the task is successful
     // for prevent potential risks of database corruption.
     if ((returnCode == TaskState.COMPLETED_SUCCESSFULLY || isBackendNeedToBeEnabled)
-        && !isClearDegradedState)
+        && !keepBackendOnline)
     {
       // Enable the backend.
       try
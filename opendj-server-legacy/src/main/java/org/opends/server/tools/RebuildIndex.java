@@ -51,6 +51,7 @@ import org.opends.server.util.cli.LDAPConnectionArgumentParser;
 
 import com.forgerock.opendj.cli.ArgumentException;
 import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.IntegerArgument;
 import com.forgerock.opendj.cli.StringArgument;
 
 /**
@@ -71,6 +72,8 @@ public class RebuildIndex extends TaskTool
   private BooleanArgument rebuildAll;
   private BooleanArgument rebuildDegraded;
   private BooleanArgument clearDegradedState;
+  private BooleanArgument background;
+  private IntegerArgument maxEntriesPerSecond;
 
   private final LDAPConnectionArgumentParser argParser = createArgParser(
       "org.opends.server.tools.RebuildIndex",
@@ -260,6 +263,17 @@ public class RebuildIndex extends TaskTool
             BooleanArgument.builder("clearDegradedState")
                     .description(INFO_REBUILDINDEX_DESCRIPTION_CLEAR_DEGRADED_STATE.get())
                     .buildAndAddToParser(argParser);
+    background =
+            BooleanArgument.builder("background")
+                    .description(INFO_REBUILDINDEX_DESCRIPTION_BACKGROUND.get())
+                    .buildAndAddToParser(argParser);
+    maxEntriesPerSecond =
+            IntegerArgument.builder("maxEntriesPerSecond")
+                    .description(INFO_REBUILDINDEX_DESCRIPTION_MAX_ENTRIES_PER_SECOND.get())
+                    .lowerBound(0)
+                    .defaultValue(0)
+                    .valuePlaceholder(INFO_REBUILDINDEX_MAX_ENTRIES_PER_SECOND_PLACEHOLDER.get())
+                    .buildAndAddToParser(argParser);
     tmpDirectory =
             StringArgument.builder("tmpdirectory")
                     .description(INFO_REBUILDINDEX_DESCRIPTION_TEMP_DIRECTORY.get())
@@ -391,6 +405,9 @@ public class RebuildIndex extends TaskTool
     }
 
     config.setTmpDirectory(tmpDirectory.getValue());
+    config.setBackground(background.isPresent());
+    // The value has already been checked against the lower bound by the argument parser
+    config.setMaxEntriesPerSecond(Integer.parseInt(maxEntriesPerSecond.getValue()));
     return config;
   }
 
@@ -617,6 +634,16 @@ public class RebuildIndex extends TaskTool
     {
       addLdapAttribute(attributes, ATTR_REBUILD_INDEX_CLEARDEGRADEDSTATE, "true");
     }
+
+    if (hasNonDefaultValue(background))
+    {
+      addLdapAttribute(attributes, ATTR_REBUILD_BACKGROUND, "true");
+    }
+
+    if (hasNonDefaultValue(maxEntriesPerSecond))
+    {
+      addLdapAttribute(attributes, ATTR_REBUILD_MAX_ENTRIES_PER_SECOND, maxEntriesPerSecond.getValue());
+    }
   }
 
   private void addLdapAttribute(List<RawAttribute> attributes, String attrType, String attrValue)
@@ -630,6 +657,12 @@ public class RebuildIndex extends TaskTool
         && !arg.getValue().equals(arg.getDefaultValue());
   }
 
+  private boolean hasNonDefaultValue(IntegerArgument arg)
+  {
+    return arg.getValue() != null
+        && !arg.getValue().equals(arg.getDefaultValue());
+  }
+
   private boolean hasNonDefaultValue(StringArgument arg)
   {
     return arg.getValue() != null
@@ -3660,6 +3660,50 @@ public class Entry
    */
   public boolean toLDIF(LDIFExportConfig exportConfig)
          throws IOException, LDIFException
+  {
+    if (!isIncludedInExport(exportConfig))
+    {
+      return false;
+    }
+    writeLDIF(exportConfig, exportConfig.getWriter());
+    return true;
+  }
+
+
+  /**
+   * Writes this entry in LDIF form according to the provided
+   * configuration, but to the provided writer rather than to the
+   * writer of the configuration. This allows to format several
+   * entries concurrently before writing them in order.
+   *
+   * @param  exportConfig  The configuration that specifies how the
+   *                       entry should be written.
+   * @param  writer        The writer to which the entry should be
+   *                       written.
+   *
+   * @return  <CODE>true</CODE> if the entry is actually written, or
+   *          <CODE>false</CODE> if it is not for some reason.
+   *
+   * @throws  IOException  If a problem occurs while writing the
+   *                       information.
+   *
+   * @throws  LDIFException  If a problem occurs while trying to
+   *                         determine whether to write the entry.
+   */
+  public boolean toLDIF(LDIFExportConfig exportConfig, BufferedWriter writer)
+         throws IOException, LDIFException
+  {
+    if (!isIncludedInExport(exportConfig))
+    {
+      return false;
+    }
+    writeLDIF(exportConfig, writer);
+    return true;
+  }
+
+
+  private boolean isIncludedInExport(LDIFExportConfig exportConfig)
+         throws LDIFException
   {
     // See if this entry should be included in the export at all.
     try
@@ -3693,10 +3737,14 @@ public class Entry
         return false;
       }
     }
+    return true;
+  }
 
 
+  private void writeLDIF(LDIFExportConfig exportConfig, BufferedWriter writer)
+         throws IOException
+  {
     // Get the information necessary to write the LDIF.
-    BufferedWriter writer     = exportConfig.getWriter();
     int            wrapColumn = exportConfig.getWrapColumn();
     boolean        wrapLines  = wrapColumn > 1;
 
@@ -3776,9 +3824,6 @@ public class Entry
 
     // Make sure there is a blank line after the entry.
     writer.newLine();
-
-
-    return true;
   }
 
 
@@ -88,6 +88,9 @@ public final class LDIFExportConfig extends OperationConfig
   /** The column number at which long lines should be wrapped. */
   private int wrapColumn;
 
+  /** The number of threads decoding and formatting the entries, 0 for one per CPU. */
+  private int threadCount;
+
   /** The set of base DNs to exclude from the export. */
   private List<DN> excludeBranches;
   /** The set of base DNs to include from the export. */
@@ -136,6 +139,7 @@ public final class LDIFExportConfig extends OperationConfig
     excludeAttributes            = new HashSet<>();
     includeAttributes            = new HashSet<>();
     wrapColumn                   = -1;
+    threadCount                  = 1;
   }
 
   /**
@@ -168,6 +172,7 @@ public final class LDIFExportConfig extends OperationConfig
     excludeAttributes            = new HashSet<>();
     includeAttributes            = new HashSet<>();
     wrapColumn                   = -1;
+    threadCount                  = 1;
   }
 
   /**
@@ -816,6 +821,32 @@ public final class LDIFExportConfig extends OperationConfig
     return true;
   }
 
+  /**
+   * Retrieves the number of threads which should decode and format the
+   * entries to export. The entries are written in the same order whatever
+   * the number of threads.
+   *
+   * @return  The number of threads which should decode and format the
+   *          entries, or 0 to use one thread per CPU.
+   */
+  public int getThreadCount()
+  {
+    return threadCount;
+  }
+
+  /**
+   * Specifies the number of threads which should decode and format the
+   * entries to export.
+   *
+   * @param  threadCount  The number of threads which should decode and
+   *                      format the entries, or 0 to use one thread
+   *                      per CPU.
+   */
+  public void setThreadCount(int threadCount)
+  {
+    this.threadCount = threadCount;
+  }
+
   /** Closes any resources that this export config might have open. */
   @Override
   public void close()
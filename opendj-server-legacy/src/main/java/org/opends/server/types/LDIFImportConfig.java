@@ -211,6 +211,20 @@ public final class LDIFImportConfig extends OperationConfig
 
 
 
+  /**
+   * Retrieves the paths to the LDIF files with the data to import.
+   *
+   * @return  The paths to the LDIF files with the data to import, or
+   *          an empty list if the data is read from a stream or a
+   *          reader.
+   */
+  public List<String> getLDIFFiles()
+  {
+    return Collections.unmodifiableList(ldifFiles);
+  }
+
+
+
   /**
    * Retrieves the reader that should be used to read the LDIF data.
    * Note that if the LDIF file is compressed and/or encrypted, then
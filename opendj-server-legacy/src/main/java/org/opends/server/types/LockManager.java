@@ -15,12 +15,16 @@
  */
 package org.opends.server.types;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.util.Reject;
@@ -44,9 +48,9 @@ import org.forgerock.util.Reject;
  * an implicit subtree read lock on the parent
  * <li>deleting an entry: client code must acquire a subtree write lock for the target entry using
  * {@link #tryWriteLockSubtree(DN)}
- * <li>renaming an entry: client code must acquire a subtree write lock for the old entry, and a
- * subtree write lock for the new entry using {@link #tryWriteLockSubtree(DN)}. Care should be taken
- * to avoid deadlocks, e.g. by locking the DN which sorts first.
+ * <li>renaming an entry: client code must acquire a subtree write lock for both the old entry and
+ * the new entry using {@link #tryWriteLockSubtrees(DN, DN)}. Locking them one after the other may
+ * deadlock with another rename, because two unrelated DNs may share the same lock
  * </ul>
  * In addition, backend implementations may choose to use their own lock manager for enforcing
  * atomicity and isolation. This is typically the case for backends which cannot take advantage of
@@ -54,74 +58,85 @@ import org.forgerock.util.Reject;
  * <p>
  * <b>Implementation Notes</b>
  * <p>
- * The lock table is conceptually a cache of locks keyed on DN, i.e. a {@code Map<DN, DNLock>}.
- * Locks must be kept in the cache while they are locked, but may be removed once they are no longer
- * locked by any threads. Locks are represented using a pair of read-write locks: the first lock is
- * the "subtree" lock and the second is the "entry" lock.
+ * Locks are not allocated per DN: the lock table is made of fixed arrays of locks, called stripes,
+ * and a DN uses the stripe selected by the hash code of its normalized form. There is one array of
+ * "subtree" locks and one array of "entry" locks per depth in the DIT, however deep the DN, so that
+ * a DN never shares a stripe with one of its ancestors. Two DNs sharing a stripe
+ * share the same lock, which is harmless since this only happens rarely and locks are held for a
+ * short time. Locking a DN therefore involves neither allocation, except for the returned
+ * {@link DNLock}, nor shared bookkeeping such as reference counts.
  * <p>
  * In order to lock an entry for read or write a <b>subtree</b> read lock is first acquired on each
  * of the parent entries from the root DN down to the immediate parent of the entry to be locked.
  * Then the appropriate read or write <b>entry</b> lock is acquired for the target entry. Subtree
  * write locking is performed by acquiring a <b>subtree</b> read lock on each of the parent entries
  * from the root DN down to the immediate parent of the subtree to be locked. Then a <b>subtree</b>
- * write lock is acquired for the target subtree.
+ * write lock is acquired for the target subtree. Since the parents are always locked before their
+ * children, and since each depth has its own stripes, the locks of a DN are always acquired in the
+ * same global order and a parent can never share a stripe with one of its children. This global
+ * order ranks the subtree locks before the entry locks, then by depth, then by stripe index. When
+ * two subtrees are locked at once, their locks are merged and acquired in this order too, since
+ * sorting the DNs themselves does not order their stripes.
  * <p>
- * The lock table itself is not represented using a {@code ConcurrentHashMap} because the JDK6/7
- * APIs do not provide the ability to atomically add-and-lock or unlock-and-remove locks (this
- * capability is provided in JDK8). Instead, we provide our own implementation comprising of a fixed
- * number of buckets, a bucket being a {@code LinkedList} of {@code DNLock}s. In addition, it is
- * important to be able to efficiently iterate up and down a chain of hierarchically related locks,
- * so each lock maintains a reference to its parent lock. Modern directories tend to have a flat
- * structure so it is also important to avoid contention on "hot" parent DNs. Typically, a lock
- * attempt against a DN will involve a cache miss for the target DN and a cache hit for the parent,
- * but the parent will be the same parent for all lock requests, resulting in a lot of contention on
- * the same lock bucket. To avoid this the lock manager maintains a small-thread local cache of
- * locks, so that parent locks can be acquired using a lock-free algorithm.
+ * Modern directories tend to have a flat structure, so every update of an entry read locks the
+ * subtree lock of the same few parent DNs, such as {@code ou=people}. In order to avoid contention
+ * on these "hot" locks, each stripe counts its readers in several counters, each on its own cache
+ * line, and a thread only updates the counter selected by its identifier. Readers are optimistic:
+ * they register themselves and then check that there is no writer, backing off only if there is
+ * one. Writers, which are rare for subtree locks, first exclude new readers and then wait for the
+ * registered readers to leave.
  * <p>
- * Since the thread local cache may reference locks which are not actively locked by anyone, a
- * reference counting mechanism is used in order to prevent cached locks from being removed from the
- * underlying lock table. The reference counting mechanism is also used for references between a
- * lock and its parent lock. To summarize, locking a DN involves the following steps:
- * <ul>
- * <li>get the lock from the thread local cache. If the lock was not in the thread local cache then
- * try fetching it from the lock table:
- * <ul>
- * <li><i>found</i> - store it in the thread local cache and bump the reference count
- * <li><i>not found</i> - create a new lock. First fetch the parent lock using the same process,
- * i.e. looking in the thread local cache, etc. Then create a new lock referencing the parent lock
- * (bumps the reference count for the parent lock), and store it in the lock table and the thread
- * local cache with a reference count of 1.
- * </ul>
- * <li>return the lock to the application and increment its reference count since the application
- * now also has a reference to the lock.
- * </ul>
- * Locks are dereferenced when they are unlocked, when they are evicted from a thread local cache,
- * and when a child lock's reference count reaches zero. A lock is completely removed from the lock
- * table once its reference count reaches zero.
+ * Threads which have to wait for a lock are counted, along with the time spent waiting and the
+ * number of lock attempts which timed out, so that lock contention can be monitored.
  */
 @org.opends.server.types.PublicAPI(stability = org.opends.server.types.StabilityLevel.UNCOMMITTED,
     mayInstantiate = false, mayExtend = false, mayInvoke = true)
 public final class LockManager
 {
-  /** A lock on an entry or subtree. A lock can only be unlocked once. */
+  /** A lock on an entry or subtree, or on two subtrees. A lock can only be unlocked once. */
   public final class DNLock
   {
-    private final DNLockHolder lock;
-    private final Lock subtreeLock;
-    private final Lock entryLock;
+    private final DN dn;
+    private final StripeLock subtreeLock;
+    private final boolean isSubtreeWriteLock;
+    private final StripeLock entryLock;
+    private final boolean isEntryWriteLock;
+    /** The other locked subtree, or {@code null} if this lock is for a single DN. */
+    private final DN otherDN;
+    /** All the locks of both subtrees in acquisition order, or {@code null} if this lock is for a single DN. */
+    private final StripeLock[] locks;
+    private final boolean[] isWriteLocks;
     private boolean isLocked = true;
 
-    private DNLock(final DNLockHolder lock, final Lock subtreeLock, final Lock entryLock)
+    private DNLock(final DN dn, final StripeLock subtreeLock, final boolean isSubtreeWriteLock,
+        final StripeLock entryLock, final boolean isEntryWriteLock)
     {
-      this.lock = lock;
+      this.dn = dn;
       this.subtreeLock = subtreeLock;
+      this.isSubtreeWriteLock = isSubtreeWriteLock;
       this.entryLock = entryLock;
+      this.isEntryWriteLock = isEntryWriteLock;
+      this.otherDN = null;
+      this.locks = null;
+      this.isWriteLocks = null;
+    }
+
+    private DNLock(final DN dn, final DN otherDN, final StripeLock[] locks, final boolean[] isWriteLocks)
+    {
+      this.dn = dn;
+      this.subtreeLock = null;
+      this.isSubtreeWriteLock = true;
+      this.entryLock = null;
+      this.isEntryWriteLock = true;
+      this.otherDN = otherDN;
+      this.locks = locks;
+      this.isWriteLocks = isWriteLocks;
     }
 
     @Override
     public String toString()
     {
-      return lock.toString();
+      return otherDN == null ? "\"" + dn + "\"" : "\"" + dn + "\", \"" + otherDN + "\"";
     }
 
     /**
@@ -136,142 +151,284 @@ public final class LockManager
       {
         throw new IllegalStateException("Already unlocked");
       }
-      lock.releaseParentSubtreeReadLock();
-      subtreeLock.unlock();
-      entryLock.unlock();
-      dereference(lock);
+      if (locks != null)
+      {
+        releaseLocks(locks, isWriteLocks, locks.length);
+      }
+      else
+      {
+        entryLock.unlock(isEntryWriteLock);
+        subtreeLock.unlock(isSubtreeWriteLock);
+        releaseParentSubtreeReadLocks(dn, 1);
+      }
       isLocked = false;
     }
-
-    /** For unit testing. */
-    int refCount()
-    {
-      return lock.refCount.get();
-    }
   }
 
-  /** Lock implementation. */
-  private final class DNLockHolder
+  /**
+   * A read-write lock shared by all the DNs of a stripe.
+   * <p>
+   * Write locks are reentrant, and the thread holding the write lock can also acquire the read
+   * lock. Read locks are reentrant too, except when a writer is waiting for the readers to leave:
+   * readers do not know which threads hold the read lock, so a thread asking for the read lock
+   * again must wait for the writer, which waits for it, until one of them times out. This only
+   * happens when deleting or renaming a subtree while the same thread locks several of its
+   * children, which the server never does.
+   */
+  private final class StripeLock
   {
-    private final AtomicInteger refCount = new AtomicInteger();
-    private final DNLockHolder parent;
-    private final DN dn;
-    private final int dnHashCode;
-    private final ReentrantReadWriteLock subtreeLock = new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock entryLock = new ReentrantReadWriteLock();
-
-    DNLockHolder(final DNLockHolder parent, final DN dn, final int dnHashCode)
+    /** Each reader counter is alone on its cache line, assuming 64 bytes cache lines. */
+    private static final int COUNTER_PADDING = 16;
+
+    /** The rank of this lock in the global lock order. */
+    private final long rank;
+    /** The number of readers, split in several counters whose sum is the actual number. */
+    private final AtomicIntegerArray readers;
+    private final int counterMask;
+    private final AtomicReference<Thread> writer = new AtomicReference<>();
+    /** Only accessed by the writer. */
+    private int writeHolds;
+    /** The number of threads waiting on the monitor of this lock, only modified while holding it. */
+    private volatile int waiters;
+
+    private StripeLock(final long rank, final int nbCounters)
     {
-      this.parent = parent;
-      this.dn = dn;
-      this.dnHashCode = dnHashCode;
+      this.rank = rank;
+      this.readers = new AtomicIntegerArray(nbCounters == 1 ? 1 : nbCounters * COUNTER_PADDING);
+      this.counterMask = nbCounters - 1;
     }
 
-    @Override
-    public String toString()
+    boolean tryLock(final boolean isWriteLock)
     {
-      return "\"" + dn + "\" : " + refCount;
+      return isWriteLock ? tryWriteLock() : tryReadLock();
     }
 
-    /** Unlocks the subtree read lock from the parent of this lock up to the root. */
-    void releaseParentSubtreeReadLock()
+    void unlock(final boolean isWriteLock)
     {
-      for (DNLockHolder lock = parent; lock != null; lock = lock.parent)
+      if (isWriteLock)
+      {
+        writeUnlock();
+      }
+      else
       {
-        lock.subtreeLock.readLock().unlock();
+        readUnlock();
       }
     }
 
-    DNLock tryReadLockEntry()
+    private boolean tryReadLock()
     {
-      return tryLock(subtreeLock.readLock(), entryLock.readLock());
+      final int counter = getReaderCounter();
+      if (tryRegisterReader(counter))
+      {
+        return true;
+      }
+
+      // Slow path: wait for the writer to leave.
+      final long startTime = System.nanoTime();
+      final long deadline = startTime + lockTimeoutNanos;
+      do
+      {
+        if (!await(false, deadline))
+        {
+          lockAttemptFailed(startTime);
+          return false;
+        }
+      }
+      while (!tryRegisterReader(counter));
+      lockAttemptWaited(startTime);
+      return true;
     }
 
-    DNLock tryWriteLockEntry()
+    /** Registers the current thread as a reader and checks there is no writer, or backs off. */
+    private boolean tryRegisterReader(final int counter)
     {
-      return tryLock(subtreeLock.readLock(), entryLock.writeLock());
+      readers.incrementAndGet(counter);
+      final Thread owner = writer.get();
+      if (owner == null || owner == Thread.currentThread())
+      {
+        return true;
+      }
+      readers.decrementAndGet(counter);
+      // The writer may be waiting for this reader to leave.
+      signalWaiters();
+      return false;
     }
 
-    DNLock tryWriteLockSubtree()
+    private void readUnlock()
     {
-      return tryLock(subtreeLock.writeLock(), entryLock.writeLock());
+      readers.decrementAndGet(getReaderCounter());
+      if (writer.get() != null)
+      {
+        // The writer may be waiting for this reader to leave.
+        signalWaiters();
+      }
     }
 
-    /** Locks the subtree read lock from the root down to the parent of this lock. */
-    private boolean tryAcquireParentSubtreeReadLock()
+    private boolean tryWriteLock()
     {
-      // First lock the parents of the parent.
-      if (parent == null)
+      final Thread currentThread = Thread.currentThread();
+      if (writer.get() == currentThread)
       {
+        writeHolds++;
         return true;
       }
 
-      if (!parent.tryAcquireParentSubtreeReadLock())
+      long startTime = 0;
+      long deadline = 0;
+      if (!writer.compareAndSet(null, currentThread))
+      {
+        // Slow path: wait for the other writer to leave.
+        startTime = System.nanoTime();
+        deadline = startTime + lockTimeoutNanos;
+        do
+        {
+          if (!await(false, deadline))
+          {
+            lockAttemptFailed(startTime);
+            return false;
+          }
+        }
+        while (!writer.compareAndSet(null, currentThread));
+      }
+
+      // New readers now back off, wait for the registered ones to leave.
+      if (hasReaders())
       {
-        return false;
+        if (startTime == 0)
+        {
+          startTime = System.nanoTime();
+          deadline = startTime + lockTimeoutNanos;
+        }
+        if (!await(true, deadline))
+        {
+          writer.set(null);
+          signalWaiters();
+          lockAttemptFailed(startTime);
+          return false;
+        }
+      }
+      writeHolds = 1;
+      if (startTime != 0)
+      {
+        lockAttemptWaited(startTime);
       }
+      return true;
+    }
 
-      // Then lock the parent of this lock
-      if (tryLockWithTimeout(parent.subtreeLock.readLock()))
+    private void writeUnlock()
+    {
+      if (--writeHolds == 0)
       {
-        return true;
+        writer.set(null);
+        signalWaiters();
       }
+    }
 
-      // Failed to grab the parent lock within the timeout, so roll-back the other locks.
-      releaseParentSubtreeReadLock();
-      return false;
+    private int getReaderCounter()
+    {
+      return ((int) Thread.currentThread().getId() & counterMask) * COUNTER_PADDING;
     }
 
-    private DNLock tryLock(final Lock subtreeLock, final Lock entryLock)
+    private boolean hasReaders()
+    {
+      // A lock may be released by another thread than the one which acquired it,
+      // so only the sum of the counters is meaningful.
+      int nbReaders = 0;
+      for (int i = 0; i <= counterMask; i++)
+      {
+        nbReaders += readers.get(i * COUNTER_PADDING);
+      }
+      return nbReaders != 0;
+    }
+
+    /**
+     * Waits until there are no more readers, or no more writer.
+     *
+     * @return {@code true} if the awaited condition is met, {@code false} if the deadline was
+     *         reached first
+     */
+    private boolean await(final boolean waitForReaders, final long deadline)
     {
-      if (tryAcquireParentSubtreeReadLock())
+      synchronized (this)
       {
-        if (tryLockWithTimeout(subtreeLock))
+        waiters++;
+        try
         {
-          if (tryLockWithTimeout(entryLock))
+          while (waitForReaders ? hasReaders() : writer.get() != null)
           {
-            return new DNLock(this, subtreeLock, entryLock);
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+              return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
           }
-          subtreeLock.unlock();
+          return true;
+        }
+        catch (final InterruptedException e)
+        {
+          // Unable to handle interrupts here.
+          Thread.currentThread().interrupt();
+          return false;
+        }
+        finally
+        {
+          waiters--;
         }
-        releaseParentSubtreeReadLock();
       }
-      // Failed to acquire all the necessary locks within the time out.
-      dereference(this);
-      return null;
     }
 
-    private boolean tryLockWithTimeout(final Lock lock)
+    private void signalWaiters()
     {
-      try
+      if (waiters > 0)
       {
-        return lock.tryLock(lockTimeout, lockTimeoutUnits);
-      }
-      catch (final InterruptedException e)
-      {
-        // Unable to handle interrupts here.
-        Thread.currentThread().interrupt();
-        return false;
+        synchronized (this)
+        {
+          notifyAll();
+        }
       }
     }
+
+    @Override
+    public String toString()
+    {
+      return "writer=" + writer.get() + ", readers=" + hasReaders();
+    }
   }
 
   private static final long DEFAULT_LOCK_TIMEOUT = 9;
   private static final TimeUnit DEFAULT_LOCK_TIMEOUT_UNITS = TimeUnit.SECONDS;
-  private static final int MINIMUM_NUMBER_OF_BUCKETS = 64;
-  private static final int THREAD_LOCAL_CACHE_SIZE = 8;
+  private static final int DEFAULT_NUMBER_OF_STRIPES = 1024;
+  private static final int MINIMUM_NUMBER_OF_STRIPES = 64;
+  /** Number of depths whose stripes are found by index, the stripes of deeper DNs are found in a map. */
+  private static final int NUMBER_OF_INDEXED_DEPTHS = 32;
+  /** Ranks the entry locks after all the subtree locks, the rank of a lock is then made of its depth and index. */
+  private static final long ENTRY_LOCKS_RANK = 1L << 62;
+  private static final int MAXIMUM_NUMBER_OF_READER_COUNTERS = 8;
+  /** Orders the stripes as they must be acquired. */
+  private static final Comparator<StripeLock> BY_RANK = new Comparator<StripeLock>()
+  {
+    @Override
+    public int compare(final StripeLock lock1, final StripeLock lock2)
+    {
+      return Long.compare(lock1.rank, lock2.rank);
+    }
+  };
 
-  private final int numberOfBuckets;
-  private final LinkedList<DNLockHolder>[] lockTable;
-  private final long lockTimeout;
-  private final TimeUnit lockTimeoutUnits;
+  private final long lockTimeoutNanos;
+  private final StripeTable subtreeLocks;
+  private final StripeTable entryLocks;
 
-  /** Avoid sub-classing in order to workaround class leaks in app servers. */
-  private final ThreadLocal<LinkedList<DNLockHolder>> threadLocalCache = new ThreadLocal<>();
+  /** The number of lock attempts which had to wait for another thread, including those which timed out. */
+  private final AtomicLong lockWaitCount = new AtomicLong();
+  /** The total time spent waiting for locks, in nanoseconds. */
+  private final AtomicLong lockWaitTime = new AtomicLong();
+  /** The number of lock attempts which timed out. */
+  private final AtomicLong lockTimeoutCount = new AtomicLong();
 
   /**
-   * Creates a new lock manager with a lock timeout of 9 seconds and an automatically chosen number
-   * of lock table buckets based on the number of processors.
+   * Creates a new lock manager with a lock timeout of 9 seconds and the default number of lock
+   * stripes.
    */
   public LockManager()
   {
@@ -279,8 +436,8 @@ public final class LockManager
   }
 
   /**
-   * Creates a new lock manager with the specified lock timeout and an automatically chosen number
-   * of lock table buckets based on the number of processors.
+   * Creates a new lock manager with the specified lock timeout and the default number of lock
+   * stripes.
    *
    * @param lockTimeout
    *          The lock timeout.
@@ -289,7 +446,7 @@ public final class LockManager
    */
   public LockManager(final long lockTimeout, final TimeUnit lockTimeoutUnit)
   {
-    this(lockTimeout, lockTimeoutUnit, Runtime.getRuntime().availableProcessors() * 8);
+    this(lockTimeout, lockTimeoutUnit, DEFAULT_NUMBER_OF_STRIPES);
   }
 
   /**
@@ -299,43 +456,32 @@ public final class LockManager
    *          The lock timeout.
    * @param lockTimeoutUnit
    *          The lock timeout units.
-   * @param numberOfBuckets
-   *          The number of buckets to use in the lock table. The minimum number of buckets is 64.
+   * @param numberOfStripes
+   *          The number of entry locks for each depth of the DIT, there are four times less subtree
+   *          locks. The minimum number of stripes is 64.
    */
-  @SuppressWarnings("unchecked")
-  private LockManager(final long lockTimeout, final TimeUnit lockTimeoutUnit, final int numberOfBuckets)
+  private LockManager(final long lockTimeout, final TimeUnit lockTimeoutUnit, final int numberOfStripes)
   {
     Reject.ifFalse(lockTimeout >= 0, "lockTimeout must be a non-negative integer");
     Reject.ifNull(lockTimeoutUnit, "lockTimeoutUnit must be non-null");
-    Reject.ifFalse(numberOfBuckets > 0, "numberOfBuckets must be a positive integer");
-
-    this.lockTimeout = lockTimeout;
-    this.lockTimeoutUnits = lockTimeoutUnit;
-    this.numberOfBuckets = getNumberOfBuckets(numberOfBuckets);
-    this.lockTable = new LinkedList[this.numberOfBuckets];
-    for (int i = 0; i < this.numberOfBuckets; i++)
-    {
-      this.lockTable[i] = new LinkedList<>();
-    }
+    Reject.ifFalse(numberOfStripes > 0, "numberOfStripes must be a positive integer");
+
+    this.lockTimeoutNanos = lockTimeoutUnit.toNanos(lockTimeout);
+    final int nbEntryStripes = roundUpToPowerOf2(Math.max(numberOfStripes, MINIMUM_NUMBER_OF_STRIPES));
+    final int nbReaderCounters =
+        roundUpToPowerOf2(Math.min(Runtime.getRuntime().availableProcessors(), MAXIMUM_NUMBER_OF_READER_COUNTERS));
+    // Subtree locks are rarely write locked, so sharing them is less of a problem.
+    this.subtreeLocks = new StripeTable(0, nbEntryStripes / 4 - 1, nbReaderCounters);
+    // Entry locks are mostly write locked, which does not benefit from several reader counters.
+    this.entryLocks = new StripeTable(ENTRY_LOCKS_RANK, nbEntryStripes - 1, 1);
   }
 
   @Override
   public String toString()
   {
-    final StringBuilder builder = new StringBuilder();
-    for (int i = 0; i < numberOfBuckets; i++)
-    {
-      final LinkedList<DNLockHolder> bucket = lockTable[i];
-      synchronized (bucket)
-      {
-        for (final DNLockHolder lock : bucket)
-        {
-          builder.append(lock);
-          builder.append('\n');
-        }
-      }
-    }
-    return builder.toString();
+    return "lockWaitCount=" + getLockWaitCount()
+        + ", lockWaitTimeMillis=" + getLockWaitTime(TimeUnit.MILLISECONDS)
+        + ", lockTimeoutCount=" + getLockTimeoutCount();
   }
 
   /**
@@ -348,7 +494,7 @@ public final class LockManager
    */
   public DNLock tryReadLockEntry(final DN entry)
   {
-    return acquireLockFromCache(entry).tryReadLockEntry();
+    return tryLock(entry, false, false);
   }
 
   /**
@@ -361,7 +507,7 @@ public final class LockManager
    */
   public DNLock tryWriteLockEntry(final DN entry)
   {
-    return acquireLockFromCache(entry).tryWriteLockEntry();
+    return tryLock(entry, false, true);
   }
 
   /**
@@ -375,173 +521,242 @@ public final class LockManager
    */
   public DNLock tryWriteLockSubtree(final DN subtree)
   {
-    return acquireLockFromCache(subtree).tryWriteLockSubtree();
+    return tryLock(subtree, true, true);
   }
 
-  /** For unit testing. */
-  int getLockTableRefCountFor(final DN dn)
+  /**
+   * Acquires the write locks for two subtrees, typically the current and new DNs of a renamed entry.
+   * This method will block if any entry or subtree within either subtree is already read or write
+   * locked or if any of the parent entries of the subtrees have the subtree write lock taken.
+   * <p>
+   * The locks of both subtrees are acquired in the global lock order, so that concurrent calls
+   * cannot deadlock even when unrelated DNs share the same locks.
+   *
+   * @param subtree1
+   *          The first subtree whose write lock is required.
+   * @param subtree2
+   *          The second subtree whose write lock is required.
+   * @return The lock on both subtrees, or {@code null} if the lock attempt timed out.
+   */
+  public DNLock tryWriteLockSubtrees(final DN subtree1, final DN subtree2)
   {
-    final int dnHashCode = dn.hashCode();
-    final LinkedList<DNLockHolder> bucket = getBucket(dnHashCode);
-    synchronized (bucket)
+    // A stripe needed by both subtrees is only acquired once, write locked if either needs it.
+    final Map<StripeLock, Boolean> requestedLocks = new TreeMap<>(BY_RANK);
+    addSubtreeWriteLocks(requestedLocks, subtree1);
+    addSubtreeWriteLocks(requestedLocks, subtree2);
+
+    final StripeLock[] locks = new StripeLock[requestedLocks.size()];
+    final boolean[] isWriteLocks = new boolean[locks.length];
+    int i = 0;
+    for (Map.Entry<StripeLock, Boolean> requestedLock : requestedLocks.entrySet())
+    {
+      locks[i] = requestedLock.getKey();
+      isWriteLocks[i] = requestedLock.getValue();
+      i++;
+    }
+
+    for (i = 0; i < locks.length; i++)
     {
-      for (final DNLockHolder lock : bucket)
+      if (!locks[i].tryLock(isWriteLocks[i]))
       {
-        if (lock.dnHashCode == dnHashCode && lock.dn.equals(dn))
-        {
-          return lock.refCount.get();
-        }
+        releaseLocks(locks, isWriteLocks, i);
+        return null;
       }
-      return -1;
     }
+    return new DNLock(subtree1, subtree2, locks, isWriteLocks);
   }
 
-  /** For unit testing. */
-  int getThreadLocalCacheRefCountFor(final DN dn)
+  private void addSubtreeWriteLocks(final Map<StripeLock, Boolean> requestedLocks, final DN subtree)
   {
-    final LinkedList<DNLockHolder> cache = threadLocalCache.get();
-    if (cache == null)
+    for (int i = subtree.size(); i > 0; i--)
     {
-      return -1;
+      addLock(requestedLocks, getSubtreeLock(subtree.parent(i)), false);
     }
-    final int dnHashCode = dn.hashCode();
-    for (final DNLockHolder lock : cache)
-    {
-      if (lock.dnHashCode == dnHashCode && lock.dn.equals(dn))
-      {
-        return lock.refCount.get();
-      }
-    }
-    return -1;
+    addLock(requestedLocks, getSubtreeLock(subtree), true);
+    addLock(requestedLocks, getEntryLock(subtree), true);
   }
 
-  private DNLockHolder acquireLockFromCache(final DN dn)
+  private static void addLock(final Map<StripeLock, Boolean> requestedLocks, final StripeLock lock,
+      final boolean isWriteLock)
   {
-    LinkedList<DNLockHolder> cache = threadLocalCache.get();
-    if (cache == null)
+    final Boolean wasWriteLock = requestedLocks.put(lock, isWriteLock);
+    if (wasWriteLock != null && wasWriteLock)
     {
-      cache = new LinkedList<>();
-      threadLocalCache.set(cache);
+      requestedLocks.put(lock, true);
     }
-    return acquireLockFromCache0(dn, cache);
   }
 
-  private DNLockHolder acquireLockFromCache0(final DN dn, final LinkedList<DNLockHolder> cache)
+  /** Releases the first locks of the provided array, in reverse acquisition order. */
+  private static void releaseLocks(final StripeLock[] locks, final boolean[] isWriteLocks, final int nbLocks)
   {
-    final int dnHashCode = dn.hashCode();
-    DNLockHolder lock = removeLock(cache, dn, dnHashCode);
-    if (lock == null)
+    for (int i = nbLocks - 1; i >= 0; i--)
     {
-      lock = acquireLockFromLockTable(dn, dnHashCode, cache);
-      if (cache.size() >= THREAD_LOCAL_CACHE_SIZE)
-      {
-        // Cache too big: evict oldest entry.
-        dereference(cache.removeLast());
-      }
+      locks[i].unlock(isWriteLocks[i]);
     }
-    cache.addFirst(lock); // optimize for LRU
-    lock.refCount.incrementAndGet();
-    return lock;
   }
 
-  private DNLockHolder acquireLockFromLockTable(final DN dn, final int dnHashCode, final LinkedList<DNLockHolder> cache)
+  /**
+   * Returns the number of lock attempts which had to wait for a lock held by another thread,
+   * including those which eventually timed out.
+   *
+   * @return the number of lock attempts which had to wait
+   */
+  public long getLockWaitCount()
+  {
+    return lockWaitCount.get();
+  }
+
+  /**
+   * Returns the total time spent waiting for locks held by other threads.
+   *
+   * @param unit
+   *          the unit of the returned time
+   * @return the total time spent waiting for locks
+   */
+  public long getLockWaitTime(final TimeUnit unit)
   {
-    /*
-     * The lock doesn't exist yet so we'll have to create a new one referencing its parent lock. The
-     * parent lock may not yet exist in the lock table either so acquire it before locking the
-     * bucket in order to avoid deadlocks resulting from reentrant bucket locks. Note that we
-     * pre-emptively fetch the parent lock because experiments show that the requested child lock is
-     * almost never in the lock-table. Specifically, this method is only called if we are already on
-     * the slow path due to a cache miss in the thread-local cache.
-     */
-    final DN parentDN = dn.parent();
-    final DNLockHolder parentLock = parentDN != null ? acquireLockFromCache0(parentDN, cache) : null;
-    boolean parentLockWasUsed = false;
-    try
+    return unit.convert(lockWaitTime.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the number of lock attempts which timed out.
+   *
+   * @return the number of lock attempts which timed out
+   */
+  public long getLockTimeoutCount()
+  {
+    return lockTimeoutCount.get();
+  }
+
+  /** For unit testing. */
+  boolean isSameEntryLock(final DN dn1, final DN dn2)
+  {
+    return getEntryLock(dn1) == getEntryLock(dn2);
+  }
+
+  /** For unit testing. */
+  boolean isSameSubtreeLock(final DN dn1, final DN dn2)
+  {
+    return getSubtreeLock(dn1) == getSubtreeLock(dn2);
+  }
+
+  private DNLock tryLock(final DN dn, final boolean isSubtreeWriteLock, final boolean isEntryWriteLock)
+  {
+    final int depth = dn.size();
+    // Lock the parents from the root DN down to the immediate parent.
+    for (int i = depth; i > 0; i--)
     {
-      final LinkedList<DNLockHolder> bucket = getBucket(dnHashCode);
-      synchronized (bucket)
+      if (!getSubtreeLock(dn.parent(i)).tryLock(false))
       {
-        DNLockHolder lock = removeLock(bucket, dn, dnHashCode);
-        if (lock == null)
-        {
-          lock = new DNLockHolder(parentLock, dn, dnHashCode);
-          parentLockWasUsed = true;
-        }
-        bucket.addFirst(lock); // optimize for LRU
-        lock.refCount.incrementAndGet();
-        return lock;
+        releaseParentSubtreeReadLocks(dn, i + 1);
+        return null;
       }
     }
-    finally
+
+    final StripeLock subtreeLock = getSubtreeLock(dn);
+    if (subtreeLock.tryLock(isSubtreeWriteLock))
     {
-      if (!parentLockWasUsed && parentLock != null)
+      final StripeLock entryLock = getEntryLock(dn);
+      if (entryLock.tryLock(isEntryWriteLock))
       {
-        dereference(parentLock);
+        return new DNLock(dn, subtreeLock, isSubtreeWriteLock, entryLock, isEntryWriteLock);
       }
+      subtreeLock.unlock(isSubtreeWriteLock);
+    }
+    releaseParentSubtreeReadLocks(dn, 1);
+    return null;
+  }
+
+  /**
+   * Releases the subtree read locks of the parents of the provided DN, from the parent at the
+   * provided distance up to the root DN.
+   */
+  private void releaseParentSubtreeReadLocks(final DN dn, final int firstLockedParentIndex)
+  {
+    for (DN parent = dn.parent(firstLockedParentIndex); parent != null; parent = parent.parent())
+    {
+      getSubtreeLock(parent).unlock(false);
     }
   }
 
-  private void dereference(final DNLockHolder lock)
+  private StripeLock getSubtreeLock(final DN dn)
   {
-    if (lock.refCount.decrementAndGet() <= 0)
+    return subtreeLocks.getStripe(dn);
+  }
+
+  private StripeLock getEntryLock(final DN dn)
+  {
+    return entryLocks.getStripe(dn);
+  }
+
+  /** The stripes of one kind of locks, with separate stripes for each depth in the DIT, created on first use. */
+  private final class StripeTable
+  {
+    /** The rank of the first lock of depth 0. */
+    private final long firstRank;
+    private final int stripeMask;
+    private final int nbCounters;
+    private final AtomicReferenceArray<StripeLock[]> stripesPerDepth =
+        new AtomicReferenceArray<>(NUMBER_OF_INDEXED_DEPTHS);
+    /** Such deep DNs are rare. */
+    private final ConcurrentMap<Integer, StripeLock[]> deeperStripesPerDepth = new ConcurrentHashMap<>();
+
+    private StripeTable(final long firstRank, final int stripeMask, final int nbCounters)
     {
-      final LinkedList<DNLockHolder> bucket = getBucket(lock.dnHashCode);
-      boolean lockWasRemoved = false;
-      synchronized (bucket)
+      this.firstRank = firstRank;
+      this.stripeMask = stripeMask;
+      this.nbCounters = nbCounters;
+    }
+
+    private StripeLock getStripe(final DN dn)
+    {
+      final int depth = dn.size();
+      StripeLock[] stripes =
+          depth < NUMBER_OF_INDEXED_DEPTHS ? stripesPerDepth.get(depth) : deeperStripesPerDepth.get(depth);
+      if (stripes == null)
       {
-        // Double check: another thread could have acquired the lock since we decremented it to zero.
-        if (lock.refCount.get() <= 0)
-        {
-          removeLock(bucket, lock.dn, lock.dnHashCode);
-          lockWasRemoved = true;
-        }
+        stripes = createStripes(depth);
       }
+      // The hash code of a DN is the one of its normalized form: spread its high bits.
+      final int hashCode = dn.hashCode();
+      return stripes[(hashCode ^ (hashCode >>> 16)) & stripeMask];
+    }
 
-      /*
-       * Dereference the parent outside of the bucket lock to avoid potential deadlocks due to
-       * reentrant bucket locks.
-       */
-      if (lockWasRemoved && lock.parent != null)
+    private StripeLock[] createStripes(final int depth)
+    {
+      final StripeLock[] stripes = new StripeLock[stripeMask + 1];
+      for (int i = 0; i < stripes.length; i++)
       {
-        dereference(lock.parent);
+        stripes[i] = new StripeLock(firstRank | ((long) depth << 32) | i, nbCounters);
       }
+      if (depth < NUMBER_OF_INDEXED_DEPTHS)
+      {
+        return stripesPerDepth.compareAndSet(depth, null, stripes) ? stripes : stripesPerDepth.get(depth);
+      }
+      final StripeLock[] existingStripes = deeperStripesPerDepth.putIfAbsent(depth, stripes);
+      return existingStripes != null ? existingStripes : stripes;
     }
   }
 
-  private LinkedList<DNLockHolder> getBucket(final int dnHashCode)
+  private void lockAttemptWaited(final long startTime)
   {
-    return lockTable[dnHashCode & numberOfBuckets - 1];
+    lockWaitCount.incrementAndGet();
+    lockWaitTime.addAndGet(System.nanoTime() - startTime);
   }
 
-  /**
-   * Ensure that the number of buckets is a power of 2 in order to make it easier to map hash codes
-   * to bucket indexes.
-   */
-  private int getNumberOfBuckets(final int buckets)
+  private void lockAttemptFailed(final long startTime)
   {
-    final int roundedNumberOfBuckets = Math.min(buckets, MINIMUM_NUMBER_OF_BUCKETS);
-    int powerOf2 = 1;
-    while (powerOf2 < roundedNumberOfBuckets)
-    {
-      powerOf2 <<= 1;
-    }
-    return powerOf2;
+    lockAttemptWaited(startTime);
+    lockTimeoutCount.incrementAndGet();
   }
 
-  private DNLockHolder removeLock(final LinkedList<DNLockHolder> lockList, final DN dn, final int dnHashCode)
+  private static int roundUpToPowerOf2(final int value)
   {
-    final Iterator<DNLockHolder> iterator = lockList.iterator();
-    while (iterator.hasNext())
+    int powerOf2 = 1;
+    while (powerOf2 < value)
     {
-      final DNLockHolder lock = iterator.next();
-      if (lock.dnHashCode == dnHashCode && lock.dn.equals(dn))
-      {
-        // Found: remove the lock because it will be moved to the front of the list.
-        iterator.remove();
-        return lock;
-      }
+      powerOf2 <<= 1;
     }
-    return null;
+    return powerOf2;
   }
 }
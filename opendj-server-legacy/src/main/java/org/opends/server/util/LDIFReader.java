@@ -526,6 +526,28 @@ public class LDIFReader implements Closeable
    *                         occurs while trying to parse it.
    */
   protected DN readDN(LinkedList<StringBuilder> lines) throws LDIFException
+  {
+    return readDN(lines, lastEntryHeaderLines);
+  }
+
+
+
+  /**
+   * Reads the DN of the entry from the provided list of lines, as done by
+   * {@link #readDN(LinkedList)}, but without sharing the header lines of the
+   * last entry read. This allows several threads to decode DNs concurrently.
+   *
+   * @param  lines        The set of lines from which the DN should be read.
+   * @param  headerLines  The list to which the header lines of the entry are
+   *                      added.
+   *
+   * @return  The decoded entry DN.
+   *
+   * @throws  LDIFException  If DN is not the first element in the list (or the
+   *                         second after the LDIF version), or if a problem
+   *                         occurs while trying to parse it.
+   */
+  protected DN readDN(LinkedList<StringBuilder> lines, List<StringBuilder> headerLines) throws LDIFException
   {
     if (lines.isEmpty())
     {
@@ -536,7 +558,7 @@ public class LDIFReader implements Closeable
     }
 
     StringBuilder line = lines.remove();
-    lastEntryHeaderLines.add(line);
+    headerLines.add(line);
     int colonPos = line.indexOf(":");
     if (colonPos <= 0)
     {
@@ -551,7 +573,7 @@ public class LDIFReader implements Closeable
     if (attrName.equals("version"))
     {
       // This is the version line, and we can skip it.
-      return readDN(lines);
+      return readDN(lines, headerLines);
     }
     else if (! attrName.equals("dn"))
     {
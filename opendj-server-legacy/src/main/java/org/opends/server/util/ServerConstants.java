@@ -3133,5 +3133,27 @@ public final class ServerConstants
   /** System property to use for overriding CertAndKeyGen class location. */
   public static final String CERTANDKEYGEN_PROVIDER = "org.forgerock.opendj.CertAndKeyGenProvider";
 
+  /**
+   * System property to use for disabling the memory mapping of the rotated
+   * files of the replication changelog, which are otherwise read through
+   * memory mappings on all platforms but Windows.
+   */
+  public static final String DISABLE_CHANGELOG_MEMORY_MAPPING = "org.forgerock.opendj.DisableChangelogMemoryMapping";
+
+  /**
+   * System property to use for overriding the maximum number of sort keys
+   * which are held in memory by the pluggable backends when sorting search
+   * results, before they are spilled to temporary files.
+   */
+  public static final String SORT_IN_MEMORY_LIMIT = "org.forgerock.opendj.SortInMemoryLimit";
+
+  /**
+   * System property to use for overriding the directory, relative to the
+   * instance root unless it is absolute, where the pluggable backends spill
+   * sort keys when sorting search results. Defaults to the import temporary
+   * directory.
+   */
+  public static final String SORT_TMP_DIRECTORY = "org.forgerock.opendj.SortTmpDirectory";
+
 }
 
@@ -288,35 +288,17 @@ public class LocalBackendModifyDNOperation
     checkIfCanceled(false);
 
     /*
-     * Acquire subtree write locks for the current and new DN. Be careful to avoid deadlocks by
-     * taking the locks in a well defined order.
+     * Acquire subtree write locks for the current and new DN. The lock manager acquires them in a
+     * well defined order in order to avoid deadlocks.
      */
-    DNLock currentLock = null;
-    DNLock newLock = null;
+    DNLock subtreesLock = null;
     try
     {
-      if (entryDN.compareTo(newDN) < 0)
-      {
-        currentLock = DirectoryServer.getLockManager().tryWriteLockSubtree(entryDN);
-        newLock = DirectoryServer.getLockManager().tryWriteLockSubtree(newDN);
-      }
-      else
-      {
-        newLock = DirectoryServer.getLockManager().tryWriteLockSubtree(newDN);
-        currentLock = DirectoryServer.getLockManager().tryWriteLockSubtree(entryDN);
-      }
-
-      if (currentLock == null)
+      subtreesLock = DirectoryServer.getLockManager().tryWriteLockSubtrees(entryDN, newDN);
+      if (subtreesLock == null)
       {
         setResultCode(ResultCode.BUSY);
-        appendErrorMessage(ERR_MODDN_CANNOT_LOCK_CURRENT_DN.get(entryDN));
-        return;
-      }
-
-      if (newLock == null)
-      {
-        setResultCode(ResultCode.BUSY);
-        appendErrorMessage(ERR_MODDN_CANNOT_LOCK_NEW_DN.get(entryDN, newDN));
+        appendErrorMessage(ERR_MODDN_CANNOT_LOCK_DNS.get(entryDN, newDN));
         return;
       }
 
@@ -458,13 +440,9 @@ public class LocalBackendModifyDNOperation
     }
     finally
     {
-      if (currentLock != null)
-      {
-        currentLock.unlock();
-      }
-      if (newLock != null)
+      if (subtreesLock != null)
       {
-        newLock.unlock();
+        subtreesLock.unlock();
       }
       processSynchPostOperationPlugins();
     }
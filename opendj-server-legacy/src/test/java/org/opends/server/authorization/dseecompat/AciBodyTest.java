@@ -60,4 +60,25 @@ public class AciBodyTest extends DirectoryServerTestCase
     assertThat(aciBody.toString()).isEqualTo(aci);
     assertThat(aciBody.getPermBindRulePairs()).hasSize(1);
   }
+
+  @DataProvider
+  public Object[][] bindRulesDependingOnClientOnly()
+  {
+    return new Object[][] {
+      { "userdn=\"ldap:///anyone\"", true },
+      { "userdn=\"ldap:///uid=user.0,dc=example,dc=com\"", true },
+      { "groupdn=\"ldap:///cn=group,dc=example,dc=com\"", true },
+      { "ip=\"127.0.0.1\" and authmethod=\"simple\"", true },
+      { "userdn=\"ldap:///self\"", false },
+      { "userdn=\"ldap:///anyone || ldap:///parent\"", false },
+      { "userattr=\"manager#USERDN\"", false },
+      { "groupdn=\"ldap:///cn=group,dc=example,dc=com\" or dayofweek=\"sun\"", false },
+    };
+  }
+
+  @Test(dataProvider = "bindRulesDependingOnClientOnly")
+  public void bindRuleDependsOnClientOnly(String bindRule, boolean dependsOnClientOnly) throws Exception
+  {
+    assertThat(BindRule.decode(bindRule).dependsOnClientOnly()).isEqualTo(dependsOnClientOnly);
+  }
 }
@@ -0,0 +1,202 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.inmemory;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.config.ConfigurationMock.*;
+import static org.forgerock.opendj.ldap.ByteString.*;
+import static org.mockito.Mockito.*;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.InMemoryBackendCfg;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.ServerContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(sequential = true)
+public class InMemoryStorageTest extends DirectoryServerTestCase
+{
+  private static final int NB_RECORDS = 1000;
+
+  private final TreeName treeName = new TreeName("dc=test", "test");
+  private InMemoryBackendCfg backendCfg;
+  private InMemoryStorage storage;
+
+  @BeforeClass
+  public static void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    backendCfg = createBackendCfg();
+    storage = new InMemoryStorage(backendCfg, mock(ServerContext.class));
+    storage.removeStorageFiles();
+    storage.open(AccessMode.READ_WRITE);
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    storage.close();
+    storage.removeStorageFiles();
+  }
+
+  @Test
+  public void testCursor() throws Exception
+  {
+    putRecords(0, NB_RECORDS);
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        assertThat(txn.getRecordCount(treeName)).isEqualTo(NB_RECORDS);
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          assertThat(cursor.next()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(0));
+          assertThat(cursor.positionToKey(valueOfUtf8("key"))).isFalse();
+          assertThat(cursor.isDefined()).isFalse();
+          assertThat(cursor.positionToKeyOrNext(valueOfUtf8("key"))).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(0));
+          assertThat(cursor.positionToIndex(10)).isTrue();
+          assertThat(cursor.getValue()).isEqualTo(value(10));
+          assertThat(cursor.positionToLastKey()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(NB_RECORDS - 1));
+          assertThat(cursor.next()).isFalse();
+        }
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testFailedTransactionIsUndone() throws Exception
+  {
+    putRecords(0, 10);
+    final TreeName newTreeName = new TreeName("dc=test", "new");
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.put(treeName, key(0), valueOfUtf8("changed"));
+          txn.put(treeName, key(10), value(10));
+          txn.delete(treeName, key(1));
+          txn.openTree(newTreeName, true);
+          txn.deleteTree(treeName);
+          throw new IllegalStateException("rollback");
+        }
+      });
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    }
+    catch (IllegalStateException expected)
+    {
+      // Expected
+    }
+
+    assertThat(storage.listTrees()).containsOnly(treeName);
+    assertThat(read(key(0))).isEqualTo(value(0));
+    assertThat(read(key(1))).isEqualTo(value(1));
+    assertThat(read(key(10))).isNull();
+  }
+
+  @Test
+  public void testSnapshotIsLoadedOnOpen() throws Exception
+  {
+    putRecords(0, NB_RECORDS);
+    storage.close();
+
+    storage = new InMemoryStorage(backendCfg, mock(ServerContext.class));
+    storage.open(AccessMode.READ_ONLY);
+    assertThat(read(key(NB_RECORDS - 1))).isEqualTo(value(NB_RECORDS - 1));
+  }
+
+  @Test
+  public void testContentsSurviveClose() throws Exception
+  {
+    when(backendCfg.isDBSnapshotEnabled()).thenReturn(false);
+    putRecords(0, 10);
+    storage.close();
+    storage.open(AccessMode.READ_WRITE);
+    assertThat(read(key(5))).isEqualTo(value(5));
+  }
+
+  private void putRecords(final int from, final int to) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(treeName, true);
+        for (int i = from; i < to; i++)
+        {
+          txn.put(treeName, key(i), value(i));
+        }
+      }
+    });
+  }
+
+  private ByteString read(final ByteString key) throws Exception
+  {
+    return storage.read(new ReadOperation<ByteString>()
+    {
+      @Override
+      public ByteString run(ReadableTransaction txn) throws Exception
+      {
+        return txn.read(treeName, key);
+      }
+    });
+  }
+
+  private static ByteString key(int i)
+  {
+    return valueOfUtf8(String.format("key%08d", i));
+  }
+
+  private static ByteString value(int i)
+  {
+    return valueOfUtf8("value" + i);
+  }
+
+  private static InMemoryBackendCfg createBackendCfg()
+  {
+    InMemoryBackendCfg backendCfg = mockCfg(InMemoryBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("InMemoryStorageTest");
+    when(backendCfg.getDBDirectory()).thenReturn("InMemoryStorageTest");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.isDBSnapshotEnabled()).thenReturn(true);
+    return backendCfg;
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.config.ConfigurationMock.*;
+import static org.forgerock.opendj.ldap.ByteString.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.LSMBackendCfg;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.PromiseImpl;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(sequential = true)
+public class LSMStorageTest extends DirectoryServerTestCase
+{
+  /** Enough records for several flushes of the small memtables used by these tests. */
+  private static final int NB_RECORDS = 20000;
+
+  private final TreeName treeName = new TreeName("dc=test", "test");
+  private ServerContext serverContext;
+  private LSMBackendCfg backendCfg;
+  private LSMStorage storage;
+
+  @BeforeClass
+  public static void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    serverContext = mock(ServerContext.class);
+    when(serverContext.getMemoryQuota()).thenReturn(new MemoryQuota());
+    when(serverContext.getDiskSpaceMonitor()).thenReturn(mock(DiskSpaceMonitor.class));
+    backendCfg = createBackendCfg();
+
+    storage = new LSMStorage(backendCfg, serverContext);
+    storage.removeStorageFiles();
+    storage.open(AccessMode.READ_WRITE);
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    storage.close();
+    storage.removeStorageFiles();
+  }
+
+  @Test
+  public void testPutReadDelete() throws Exception
+  {
+    putRecords(0, 10);
+    assertThat(read(key(5))).isEqualTo(value(5));
+    assertThat(read(key(10))).isNull();
+
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        assertThat(txn.delete(treeName, key(5))).isTrue();
+        assertThat(txn.delete(treeName, key(5))).isFalse();
+        // changes are visible to the transaction before it commits
+        assertThat(txn.read(treeName, key(5))).isNull();
+        assertThat(txn.update(treeName, key(6), new UpdateFunction()
+        {
+          @Override
+          public ByteSequence computeNewValue(ByteSequence oldValue)
+          {
+            return valueOfUtf8(oldValue.toString() + "-updated");
+          }
+        })).isTrue();
+      }
+    });
+
+    assertThat(read(key(5))).isNull();
+    assertThat(read(key(6))).isEqualTo(valueOfUtf8(value(6) + "-updated"));
+    assertThat(countRecords()).isEqualTo(9);
+  }
+
+  @Test
+  public void testCursorMergesMemTableAndSegments() throws Exception
+  {
+    putRecords(0, NB_RECORDS);
+    deleteRecords(0, NB_RECORDS / 2);
+
+    assertThat(countRecords()).isEqualTo(NB_RECORDS / 2);
+    final List<ByteString> keys = storage.read(new ReadOperation<List<ByteString>>()
+    {
+      @Override
+      public List<ByteString> run(ReadableTransaction txn) throws Exception
+      {
+        final List<ByteString> keys = new ArrayList<>();
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          assertThat(cursor.positionToKeyOrNext(key(NB_RECORDS / 4))).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(NB_RECORDS / 2));
+          assertThat(cursor.positionToLastKey()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(NB_RECORDS - 1));
+          assertThat(cursor.positionToKey(key(NB_RECORDS / 2 - 1))).isFalse();
+          cursor.positionToKeyOrNext(key(0));
+          do
+          {
+            keys.add(cursor.getKey());
+          }
+          while (cursor.next());
+        }
+        return keys;
+      }
+    });
+    assertThat(keys).hasSize(NB_RECORDS / 2);
+    assertThat(keys).isSorted();
+  }
+
+  @Test
+  public void testRecordsAreRecoveredOnRestart() throws Exception
+  {
+    putRecords(0, NB_RECORDS);
+    deleteRecords(0, 10);
+    storage.close();
+
+    storage = new LSMStorage(backendCfg, serverContext);
+    storage.open(AccessMode.READ_ONLY);
+    assertThat(countRecords()).isEqualTo(NB_RECORDS - 10);
+    assertThat(read(key(5))).isNull();
+    assertThat(read(key(NB_RECORDS - 1))).isEqualTo(value(NB_RECORDS - 1));
+    try
+    {
+      putRecords(NB_RECORDS, NB_RECORDS + 1);
+      failBecauseExceptionWasNotThrown(ReadOnlyStorageException.class);
+    }
+    catch (ReadOnlyStorageException expected)
+    {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testStorageCannotBeOpenedTwice() throws Exception
+  {
+    final LSMStorage other = new LSMStorage(backendCfg, serverContext);
+    try
+    {
+      other.open(AccessMode.READ_WRITE);
+      fail("The storage should be locked");
+    }
+    catch (Exception expected)
+    {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testDeleteTree() throws Exception
+  {
+    putRecords(0, NB_RECORDS);
+    assertThat(storage.listTrees()).contains(treeName);
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.deleteTree(treeName);
+      }
+    });
+    assertThat(storage.listTrees()).doesNotContain(treeName);
+    assertThat(countRecords()).isEqualTo(0);
+
+    storage.close();
+    storage = new LSMStorage(backendCfg, serverContext);
+    storage.open(AccessMode.READ_WRITE);
+    assertThat(storage.listTrees()).doesNotContain(treeName);
+  }
+
+  private void putRecords(final int from, final int to) throws Exception
+  {
+    for (int i = from; i < to; i += 100)
+    {
+      final int start = i;
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.openTree(treeName, true);
+          for (int j = start; j < Math.min(start + 100, to); j++)
+          {
+            txn.put(treeName, key(j), value(j));
+          }
+        }
+      });
+    }
+  }
+
+  private void deleteRecords(final int from, final int to) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        for (int i = from; i < to; i++)
+        {
+          txn.delete(treeName, key(i));
+        }
+      }
+    });
+  }
+
+  private ByteString read(final ByteString key) throws Exception
+  {
+    final PromiseImpl<ByteString, NeverThrowsException> p = PromiseImpl.create();
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        p.handleResult(txn.read(treeName, key));
+        return null;
+      }
+    });
+    return p.get();
+  }
+
+  private long countRecords() throws Exception
+  {
+    return storage.read(new ReadOperation<Long>()
+    {
+      @Override
+      public Long run(ReadableTransaction txn) throws Exception
+      {
+        return txn.getRecordCount(treeName);
+      }
+    });
+  }
+
+  private static ByteString key(int i)
+  {
+    return valueOfUtf8(String.format("key%08d", i));
+  }
+
+  private static ByteString value(int i)
+  {
+    return valueOfUtf8("value of the record number " + i);
+  }
+
+  private static LSMBackendCfg createBackendCfg()
+  {
+    LSMBackendCfg backendCfg = mockCfg(LSMBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("LSMStorageTest");
+    when(backendCfg.getDBDirectory()).thenReturn("LSMStorageTest");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.getDBMemtableSize()).thenReturn(64L * 1024);
+    return backendCfg;
+  }
+}
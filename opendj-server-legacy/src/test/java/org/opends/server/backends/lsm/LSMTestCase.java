@@ -0,0 +1,45 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static org.forgerock.opendj.config.ConfigurationMock.mockCfg;
+import static org.mockito.Mockito.when;
+
+import org.forgerock.opendj.server.config.server.LSMBackendCfg;
+import org.opends.server.backends.pluggable.PluggableBackendImplTestCase;
+import org.testng.annotations.Test;
+
+/** {@link LSMBackend} Tester. */
+@Test
+public class LSMTestCase extends PluggableBackendImplTestCase<LSMBackendCfg>
+{
+  @Override
+  protected LSMBackend createBackend()
+  {
+    return new LSMBackend();
+  }
+
+  @Override
+  protected LSMBackendCfg createBackendCfg()
+  {
+    LSMBackendCfg backendCfg = mockCfg(LSMBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("LSMTestCase");
+    when(backendCfg.getDBDirectory()).thenReturn("LSMTestCase");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.getDBMemtableSize()).thenReturn(1024L * 1024);
+    return backendCfg;
+  }
+}
@@ -22,6 +22,7 @@ import static org.opends.server.util.CollectionUtils.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.forgerock.opendj.config.server.ConfigException;
@@ -194,6 +195,78 @@ public class DN2IDTest extends DirectoryServerTestCase
     assertThat(remove("dc=non,dc=existing")).isFalse();
   }
 
+  @Test
+  public void testFilterAnswersLookups() throws Exception
+  {
+    populate();
+    buildFilter();
+
+    assertThat(get("cn=foo,ou=People,dc=example,dc=com")).isEqualTo(id(5));
+    assertThat(get("cn=missing,ou=People,dc=example,dc=com")).isNull();
+
+    put(dn("cn=added,ou=People,dc=example,dc=com"), 42);
+    assertThat(get("cn=added,ou=People,dc=example,dc=com")).isEqualTo(id(42));
+    assertThat(remove("cn=foo,ou=People,dc=example,dc=com")).isTrue();
+    assertThat(get("cn=foo,ou=People,dc=example,dc=com")).isNull();
+  }
+
+  @Test
+  public void testAbsentDNsAreCachedUntilInvalidated() throws Exception
+  {
+    populate();
+    buildFilter();
+    final DN added = dn("cn=added,ou=People,dc=example,dc=com");
+
+    dn2ID.setAbsent(added, dn2ID.getAbsentStamp());
+    put(added, 42);
+    // Callers invalidate the cache once the transaction adding the DN has ended
+    assertThat(get(added.toString())).isNull();
+    dn2ID.invalidateAbsent(added);
+    assertThat(get(added.toString())).isEqualTo(id(42));
+  }
+
+  @Test
+  public void testAbsentDNIsNotCachedAfterConcurrentWrite() throws Exception
+  {
+    populate();
+    buildFilter();
+    final DN added = dn("cn=added,ou=People,dc=example,dc=com");
+
+    final long stamp = dn2ID.getAbsentStamp();
+    put(added, 42);
+    dn2ID.invalidateAbsent(added);
+    // The lookup started before the DN was added
+    dn2ID.setAbsent(added, stamp);
+    assertThat(get(added.toString())).isEqualTo(id(42));
+  }
+
+  @Test
+  public void testFilterCompletedWhileTreeIsWritten() throws Exception
+  {
+    populate();
+    dn2ID.clearFilter(10, 10);
+    put(dn("cn=added,ou=People,dc=example,dc=com"), 42);
+    assertThat(completeFilter()).isTrue();
+
+    assertThat(get("cn=foo,ou=People,dc=example,dc=com")).isEqualTo(id(5));
+    assertThat(get("cn=added,ou=People,dc=example,dc=com")).isEqualTo(id(42));
+    assertThat(get("cn=missing,ou=People,dc=example,dc=com")).isNull();
+  }
+
+  @Test
+  public void testDisabledFilterAlwaysReadsTree() throws Exception
+  {
+    populate();
+    dn2ID.clearFilter(10, 0);
+    assertThat(completeFilter()).isFalse();
+    final DN added = dn("cn=added,ou=People,dc=example,dc=com");
+
+    assertThat(get(added.toString())).isNull();
+    dn2ID.setAbsent(added, dn2ID.getAbsentStamp());
+    put(added, 42);
+    assertThat(get(added.toString())).isEqualTo(id(42));
+  }
+
   @Test
   public void testTraverseChildren() throws Exception
   {
@@ -232,6 +305,24 @@ public class DN2IDTest extends DirectoryServerTestCase
     });
   }
 
+  private void buildFilter() throws Exception
+  {
+    dn2ID.clearFilter(10, 10);
+    assertThat(completeFilter()).isTrue();
+  }
+
+  private boolean completeFilter() throws Exception
+  {
+    return storage.read(new ReadOperation<Boolean>()
+    {
+      @Override
+      public Boolean run(ReadableTransaction txn) throws Exception
+      {
+        return dn2ID.completeFilter(txn, mock(ExecutorService.class));
+      }
+    });
+  }
+
   private List<EntryID> traverseChildren(final String dn) throws Exception
   {
     return storage.read(new ReadOperation<List<EntryID>>()
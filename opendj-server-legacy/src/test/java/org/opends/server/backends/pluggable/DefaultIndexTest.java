@@ -98,6 +98,64 @@ public class DefaultIndexTest extends DirectoryServerTestCase
     assertThat(txn.read(index.getName(), valueOfUtf8("key"))).isNull();
   }
 
+  @Test
+  public void testIndexBeingBuiltIsNotUsedButMaintained() {
+    index.startBuilding(txn);
+    assertThat(index.isBuilding()).isTrue();
+
+    update(newDefinedSet(), newDefinedSet(1, 2, 3));
+    assertIdsEquals(get(), 1, 2, 3);
+    assertThat(index.get(txn, valueOfUtf8("key")).isDefined()).isFalse();
+
+    update(newDefinedSet(2), newDefinedSet());
+    assertIdsEquals(get(), 1, 3);
+    final Entry<ByteString, EntryIDSet> removedKey = index.pollRemovedKey();
+    assertThat(removedKey.getKey()).isEqualTo(valueOfUtf8("key"));
+    assertIdsEquals(removedKey.getValue(), 2);
+    assertThat(index.pollRemovedKey()).isNull();
+
+    index.setTrusted(txn, true);
+    assertThat(index.isBuilding()).isFalse();
+    assertIdsEquals(index.get(txn, valueOfUtf8("key")), 1, 3);
+  }
+
+  @Test
+  public void testIndexLeftBuildingIsUntrustedWhenOpened() {
+    final State state = mock(State.class);
+    when(state.getIndexFlags(any(ReadableTransaction.class), any(TreeName.class)))
+        .thenReturn(EnumSet.of(BUILDING, COMPACTED));
+    final EntryContainer entryContainer = mock(EntryContainer.class);
+    when(entryContainer.getHighestEntryID(any(ReadableTransaction.class))).thenReturn(new EntryID(10));
+    final CryptoSuite cryptoSuite = mock(CryptoSuite.class);
+    index = new DefaultIndex(new TreeName("dc=example,dc=com", "building"), state, 5, entryContainer, cryptoSuite);
+
+    index.open(txn, true);
+    assertThat(index.isBuilding()).isFalse();
+    assertThat(index.isTrusted()).isFalse();
+    verify(state).removeFlagsFromIndex(txn, index.getName(), BUILDING);
+
+    put(newDefinedSet(1, 2, 3));
+    update(newDefinedSet(2), newDefinedSet());
+    assertIdsEquals(get(), 1, 3);
+    assertThat(index.pollRemovedKey()).isNull();
+  }
+
+  @Test
+  public void testAbortedBuildStopsLoggingRemovedKeys() {
+    index.startBuilding(txn);
+    update(newDefinedSet(), newDefinedSet(1, 2, 3));
+    update(newDefinedSet(2), newDefinedSet());
+
+    index.abortBuilding(txn);
+    assertThat(index.isBuilding()).isFalse();
+    assertThat(index.isTrusted()).isFalse();
+    assertThat(index.pollRemovedKey()).isNull();
+    assertThat(getFromDb()).isNull();
+
+    update(newDefinedSet(1), newDefinedSet());
+    assertThat(index.pollRemovedKey()).isNull();
+  }
+
   private void update(EntryIDSet deletedIDSet, EntryIDSet addedIDSet) {
     index.update(txn, valueOfUtf8("key"), deletedIDSet, addedIDSet);
   }
@@ -290,9 +290,137 @@ public class EntryIDSetTest extends DirectoryServerTestCase
     assertIdsEquals(retained, 1, 3, 5, 7, 9);
   }
 
+  @Test
+  public void testBitmapCodecReadsCompactedValues()
+  {
+    final ByteString string = CODEC_V2.encode(newDefinedSet(4, 6, 8, 10, 12));
+    assertThat(CODEC_V4.decode(KEY, string).toLongArray()).containsExactly(4, 6, 8, 10, 12);
+
+    assertThat(CODEC_V4.decode(KEY, CODEC_V2.encode(newUndefinedSet())).isDefined()).isFalse();
+  }
+
+  @Test
+  public void testBitmapCodecEmptyDefinedSet()
+  {
+    final EntryIDSet decoded = CODEC_V4.decode(KEY, CODEC_V4.encode(newDefinedSet()));
+    assertThat(decoded.isDefined()).isTrue();
+    assertThat(decoded.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testBitmapCodecDenseAndSparseContainers()
+  {
+    final long[] ids = concat(range(1, 100000), range(200000, 200003), range(1L << 40, (1L << 40) + 5000));
+    final EntryIDSet decoded = CODEC_V4.decode(KEY, CODEC_V4.encode(newDefinedSet(ids)));
+    assertThat(decoded.size()).isEqualTo(ids.length);
+    assertThat(decoded.toLongArray()).isEqualTo(ids);
+  }
+
+  @Test
+  public void testBitmapAddRemove()
+  {
+    final EntryIDSet set = bitmapSet(range(0, 5000));
+
+    assertThat(set.add(id(70000))).isTrue();
+    assertThat(set.add(id(70000))).isFalse();
+    assertThat(set.contains(id(70000))).isTrue();
+    assertThat(set.size()).isEqualTo(5001);
+
+    for (long id = 0; id < 4000; id++)
+    {
+      assertThat(set.remove(id(id))).isTrue();
+    }
+    assertThat(set.remove(id(0))).isFalse();
+    assertThat(set.toLongArray()).isEqualTo(concat(range(4000, 5000), new long[] { 70000 }));
+  }
+
+  @Test
+  public void testBitmapRetainAll()
+  {
+    final long[] odds = new long[50000];
+    for (int i = 0; i < odds.length; i++)
+    {
+      odds[i] = i * 2 + 1;
+    }
+
+    EntryIDSet retained = bitmapSet(range(0, 100000));
+    retained.retainAll(bitmapSet(odds));
+    assertThat(retained.toLongArray()).isEqualTo(odds);
+
+    retained = bitmapSet(range(0, 100000));
+    retained.retainAll(newDefinedSet(3, 5, 150000));
+    assertThat(retained.toLongArray()).containsExactly(3, 5);
+
+    retained = newDefinedSet(3, 4, 150000);
+    retained.retainAll(bitmapSet(odds));
+    assertThat(retained.toLongArray()).containsExactly(3);
+
+    retained = newUndefinedSet();
+    retained.retainAll(bitmapSet(odds));
+    assertThat(retained.toLongArray()).isEqualTo(odds);
+  }
+
+  @Test
+  public void testBitmapAddAllAndRemoveAll()
+  {
+    final EntryIDSet set = newDefinedSet(1, 2, 3);
+    set.addAll(bitmapSet(range(10, 10000)));
+    assertThat(set.size()).isEqualTo(3 + 9990);
+
+    set.removeAll(bitmapSet(range(0, 9000)));
+    assertThat(set.toLongArray()).isEqualTo(range(9000, 10000));
+
+    final EntryIDSet other = newDefinedSet(1, 2, 9500, 9501);
+    other.removeAll(set);
+    assertThat(other.toLongArray()).containsExactly(1, 2);
+  }
+
+  @Test
+  public void testBitmapNewSetFromUnions()
+  {
+    final EntryIDSet union = newSetFromUnion(Arrays.asList(bitmapSet(range(0, 70000)), newDefinedSet(3, 100000)));
+    assertThat(union.size()).isEqualTo(70001);
+    assertThat(union.contains(id(100000))).isTrue();
+  }
+
+  @Test
+  public void testBitmapFromUnsortedIDs()
+  {
+    final EntryIDBitmap bitmap = EntryIDBitmap.valueOf(100000, 3, 70000, 3);
+    assertThat(bitmap.cardinality()).isEqualTo(3);
+    assertThat(bitmap.toArray()).containsExactly(3, 70000, 100000);
+  }
+
+  private static EntryIDSet bitmapSet(long... ids)
+  {
+    return CODEC_V4.decode(KEY, CODEC_V4.encode(newDefinedSet(ids)));
+  }
+
+  private static long[] range(long fromInclusive, long toExclusive)
+  {
+    final long[] ids = new long[(int) (toExclusive - fromInclusive)];
+    for (int i = 0; i < ids.length; i++)
+    {
+      ids[i] = fromInclusive + i;
+    }
+    return ids;
+  }
+
+  private static long[] concat(long[]... arrays)
+  {
+    long[] result = new long[0];
+    for (long[] array : arrays)
+    {
+      final int offset = result.length;
+      result = Arrays.copyOf(result, offset + array.length);
+      System.arraycopy(array, 0, result, offset, array.length);
+    }
+    return result;
+  }
+
   @DataProvider(name = "codecs")
   public static Object[][] codecs() {
-     return new Object[][] { { CODEC_V1 }, { CODEC_V2 } };
+     return new Object[][] { { CODEC_V1 }, { CODEC_V2 }, { CODEC_V4 } };
   }
 
 }
@@ -0,0 +1,137 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend" }, sequential = true)
+public class EntryIDSorterTest extends DirectoryServerTestCase
+{
+  private static final int NB_KEYS = 1000;
+
+  private File tmpDirectory;
+
+  @BeforeClass
+  public void createTmpDirectory() throws Exception
+  {
+    tmpDirectory = new File(TestCaseUtils.createTemporaryDirectory("sorter"), "sort");
+  }
+
+  @AfterClass
+  public void deleteTmpDirectory() throws Exception
+  {
+    TestCaseUtils.deleteDirectory(tmpDirectory.getParentFile());
+  }
+
+  @DataProvider
+  public Object[][] sorterParameters()
+  {
+    final int maxRuns = EntryIDSorter.MAX_MERGED_RUNS;
+    return new Object[][] {
+      // maxKeys, inMemoryLimit, maxMergedRuns
+      { Integer.MAX_VALUE, 100000, maxRuns }, // in memory
+      { Integer.MAX_VALUE, 64, maxRuns },     // spilled runs
+      { Integer.MAX_VALUE, 1, maxRuns },      // one key per run, merged once too many runs are spilled
+      { Integer.MAX_VALUE, 64, 2 },           // runs merged on each spill
+      { Integer.MAX_VALUE, 10, 3 },
+      { Integer.MAX_VALUE, 1, 4 },            // runs merged on several levels
+      { 10, 64, maxRuns },                    // top-K
+      { 0, 64, maxRuns },
+      { 200, 64, maxRuns },                   // more keys than held in memory
+    };
+  }
+
+  @Test(dataProvider = "sorterParameters")
+  public void testSortedKeys(int maxKeys, int inMemoryLimit, int maxMergedRuns) throws Exception
+  {
+    final List<ByteString> keys = new ArrayList<>();
+    final Random random = new Random(0);
+    for (int i = 0; i < NB_KEYS; i++)
+    {
+      keys.add(encodeKey("value" + random.nextInt(100), i));
+    }
+
+    final List<ByteString> sortedKeys = new ArrayList<>(keys);
+    Collections.sort(sortedKeys);
+    final List<ByteString> expectedKeys = sortedKeys.subList(0, Math.min(maxKeys, NB_KEYS));
+
+    try (EntryIDSorter sorter = new EntryIDSorter(maxKeys, inMemoryLimit, maxMergedRuns, tmpDirectory))
+    {
+      for (ByteString key : keys)
+      {
+        sorter.add(key);
+      }
+      assertThat(sorter.size()).isEqualTo(NB_KEYS);
+      assertThat(sorter.hasSpilled()).isEqualTo(maxKeys > inMemoryLimit && NB_KEYS >= inMemoryLimit);
+
+      final List<ByteString> actualKeys = new ArrayList<>();
+      try (SequentialCursor<ByteString, EntryID> cursor = sorter.openCursor())
+      {
+        while (cursor.next() && actualKeys.size() < expectedKeys.size())
+        {
+          assertThat(cursor.getValue()).isEqualTo(EntryIDSorter.getEntryID(cursor.getKey()));
+          actualKeys.add(cursor.getKey());
+        }
+      }
+      assertThat(actualKeys).isEqualTo(expectedKeys);
+      if (sorter.hasSpilled())
+      {
+        assertThat(tmpDirectory.list().length).isLessThan(maxMergedRuns);
+      }
+    }
+    assertThat(tmpDirectory.exists() ? tmpDirectory.list() : new String[0]).isEmpty();
+  }
+
+  @Test
+  public void testEmptySorter() throws Exception
+  {
+    try (EntryIDSorter sorter = new EntryIDSorter(Integer.MAX_VALUE, 16, EntryIDSorter.MAX_MERGED_RUNS, tmpDirectory);
+        SequentialCursor<ByteString, EntryID> cursor = sorter.openCursor())
+    {
+      assertThat(sorter.size()).isEqualTo(0);
+      assertThat(cursor.next()).isFalse();
+      assertThat(cursor.isDefined()).isFalse();
+    }
+  }
+
+  @Test
+  public void testGetEntryID()
+  {
+    assertThat(EntryIDSorter.getEntryID(encodeKey("value", 0x123456789L)).longValue()).isEqualTo(0x123456789L);
+  }
+
+  private static ByteString encodeKey(String value, long entryID)
+  {
+    return new ByteStringBuilder().appendUtf8(value).appendByte(0).appendLong(entryID).toByteString();
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.ImportLDIFReader.LDIFRegion;
+import org.opends.server.types.LDIFImportConfig;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend" }, sequential = true)
+public class ImportLDIFReaderTest extends DirectoryServerTestCase
+{
+  private static final int NB_ENTRIES = 200;
+
+  @Test
+  public void testCanSplit() throws Exception
+  {
+    final String ldif = TestCaseUtils.createTempFile("dn: dc=example,dc=com", "objectClass: domain");
+
+    assertThat(ImportLDIFReader.canSplit(new LDIFImportConfig(ldif))).isTrue();
+
+    final LDIFImportConfig compressed = new LDIFImportConfig(ldif);
+    compressed.setCompressed(true);
+    assertThat(ImportLDIFReader.canSplit(compressed)).isFalse();
+
+    final LDIFImportConfig stream = new LDIFImportConfig(new ByteArrayInputStream(new byte[0]));
+    assertThat(ImportLDIFReader.canSplit(stream)).isFalse();
+  }
+
+  @DataProvider
+  public Object[][] regionSizes()
+  {
+    return new Object[][] { { 1 }, { 7 }, { 64 }, { 1000 }, { 1024 * 1024 } };
+  }
+
+  @Test(dataProvider = "regionSizes")
+  public void testRegionsStartOnEntryBoundaries(int regionSize) throws Exception
+  {
+    final File ldif = createLDIFFile("\n");
+    final File ldifWithCRLF = createLDIFFile("\r\n");
+
+    final List<LDIFRegion> regions =
+        ImportLDIFReader.splitLDIFFiles(Arrays.asList(ldif.getPath(), ldifWithCRLF.getPath()), regionSize);
+
+    final List<String> dns = new ArrayList<>();
+    for (LDIFRegion region : regions)
+    {
+      final String content = new String(region.readBytes(), StandardCharsets.UTF_8);
+      final String trimmed = content.replaceFirst("^(\r?\n)+", "");
+      assertThat(trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith("dn: ")).isTrue();
+      for (String line : content.split("\r?\n"))
+      {
+        if (line.startsWith("dn: "))
+        {
+          dns.add(line);
+        }
+      }
+    }
+    // Each entry is found exactly once, in the order of the files
+    final List<String> expectedDNs = new ArrayList<>();
+    for (int file = 0; file < 2; file++)
+    {
+      for (int i = 0; i < NB_ENTRIES; i++)
+      {
+        expectedDNs.add("dn: uid=user." + i + ",dc=example,dc=com");
+      }
+    }
+    assertThat(dns).isEqualTo(expectedDNs);
+  }
+
+  private File createLDIFFile(String eol) throws IOException
+  {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < NB_ENTRIES; i++)
+    {
+      if (i % 10 == 0)
+      {
+        builder.append("# A comment").append(eol);
+      }
+      builder.append("dn: uid=user.").append(i).append(",dc=example,dc=com").append(eol);
+      builder.append("objectClass: person").append(eol);
+      builder.append("description: ");
+      for (int j = 0; j < i % 17; j++)
+      {
+        builder.append("continued ").append(eol).append(' ');
+      }
+      builder.append("end").append(eol);
+      builder.append(eol);
+      if (i % 7 == 0)
+      {
+        builder.append(eol);
+      }
+    }
+    final File file = File.createTempFile("ImportLDIFReaderTest", ".ldif");
+    file.deleteOnExit();
+    Files.write(file.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.DirectoryServerTestCase;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential=true)
+public class IndexStatisticsTest extends DirectoryServerTestCase
+{
+  private static final int NB_KEYS = 1000;
+
+  /** The first half of the keys reference one entry each, the second half reference 100 entries each. */
+  private static IndexStatistics newSkewedStatistics()
+  {
+    final IndexStatistics.Builder builder = new IndexStatistics.Builder();
+    for (int i = 0; i < NB_KEYS; i++)
+    {
+      builder.addKey(key(i), i < NB_KEYS / 2 ? 1 : 100);
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testEmptyIndex()
+  {
+    final IndexStatistics statistics = new IndexStatistics.Builder().build();
+    assertThat(statistics.getNbKeys()).isEqualTo(0);
+    assertThat(statistics.getNbEntryIDs()).isEqualTo(0);
+    assertThat(statistics.estimateKey(key(1))).isEqualTo(0);
+    assertThat(statistics.estimateRange(ByteString.empty(), ByteString.empty())).isEqualTo(0);
+    assertThat(statistics.isStale(0)).isFalse();
+  }
+
+  @Test
+  public void testTotals()
+  {
+    final IndexStatistics statistics = newSkewedStatistics();
+    assertThat(statistics.getNbKeys()).isEqualTo(NB_KEYS);
+    assertThat(statistics.getNbEntryIDs()).isEqualTo(NB_KEYS / 2 * 101);
+  }
+
+  @Test
+  public void testEstimateKey()
+  {
+    final IndexStatistics statistics = newSkewedStatistics();
+    assertThat(statistics.estimateKey(key(10))).isEqualTo(1);
+    assertThat(statistics.estimateKey(key(900))).isEqualTo(100);
+    assertThat(statistics.estimateKey(key(NB_KEYS * 2))).isEqualTo(0);
+  }
+
+  @Test
+  public void testEstimateRange()
+  {
+    final IndexStatistics statistics = newSkewedStatistics();
+    assertThat(statistics.estimateRange(ByteString.empty(), ByteString.empty()))
+        .isEqualTo(statistics.getNbEntryIDs());
+    assertThat(statistics.estimateRange(key(0), key(399))).isBetween(380L, 420L);
+    assertThat(statistics.estimateRange(key(600), ByteString.empty())).isBetween(38000L, 42000L);
+    assertThat(statistics.estimateRange(key(NB_KEYS * 2), key(NB_KEYS * 3))).isEqualTo(0);
+  }
+
+  @Test
+  public void testStaleAfterManyUpdates()
+  {
+    final IndexStatistics statistics = newSkewedStatistics();
+    assertThat(statistics.isStale(0)).isFalse();
+    assertThat(statistics.isStale(NB_KEYS)).isFalse();
+    assertThat(statistics.isStale(NB_KEYS + 1)).isTrue();
+  }
+
+  @Test
+  public void testOnlySampledKeysAreCounted()
+  {
+    final int nbKeys = 100000;
+    final IndexStatistics.Builder builder = new IndexStatistics.Builder();
+    int nbSampledKeys = 0;
+    for (int i = 0; i < nbKeys; i++)
+    {
+      if (builder.isNextKeySampled())
+      {
+        builder.addKey(key(i), i < nbKeys / 2 ? 1 : 100);
+        nbSampledKeys++;
+      }
+      else
+      {
+        builder.addKey(key(i));
+      }
+    }
+    final IndexStatistics statistics = builder.build();
+
+    assertThat(nbSampledKeys).isLessThan(nbKeys / 2);
+    assertThat(statistics.getNbKeys()).isEqualTo(nbKeys);
+    assertThat(statistics.getNbEntryIDs()).isBetween(nbKeys / 2 * 100L, nbKeys / 2 * 102L);
+    assertThat(statistics.estimateKey(key(10))).isEqualTo(1);
+    assertThat(statistics.estimateKey(key(90000))).isEqualTo(100);
+  }
+
+  private static ByteString key(int i)
+  {
+    return ByteString.valueOfInt(i);
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.config.ConfigurationMock.*;
+import static org.mockito.Mockito.*;
+import static org.opends.server.util.CollectionUtils.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.server.config.server.PDBBackendCfg;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.PromiseImpl;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pdb.PDBStorage;
+import org.opends.server.backends.pluggable.PersistentCompressionDictionaries.Dictionary;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.opends.server.types.Entry;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend" }, sequential = true)
+public class PersistentCompressionDictionariesTest extends DirectoryServerTestCase
+{
+  private static final int NB_ENTRIES = 1000;
+
+  private PDBStorage storage;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    ServerContext serverContext = mock(ServerContext.class);
+    when(serverContext.getMemoryQuota()).thenReturn(new MemoryQuota());
+    when(serverContext.getDiskSpaceMonitor()).thenReturn(mock(DiskSpaceMonitor.class));
+
+    storage = new PDBStorage(createBackendCfg(), serverContext);
+    storage.open(AccessMode.READ_WRITE);
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    storage.close();
+    storage.removeStorageFiles();
+  }
+
+  @Test
+  public void testTrainedDictionaryImprovesCompression() throws Exception
+  {
+    final List<byte[]> samples = new ArrayList<>();
+    for (int i = 0; i < NB_ENTRIES; i++)
+    {
+      samples.add(ByteString.valueOfUtf8(newEntry(i).toLDIFString()).toByteArray());
+    }
+
+    final byte[] dictionary = PersistentCompressionDictionaries.trainDictionary(samples);
+    assertThat(dictionary.length)
+        .isGreaterThan(0)
+        .isLessThanOrEqualTo(PersistentCompressionDictionaries.MAX_DICTIONARY_SIZE);
+
+    final byte[] sample = ByteString.valueOfUtf8(newEntry(NB_ENTRIES).toLDIFString()).toByteArray();
+    assertThat(deflatedLength(sample, dictionary)).isLessThan(deflatedLength(sample, null));
+  }
+
+  @Test
+  public void testDictionaryIsTrainedFromSampledEntriesAndPersisted() throws Exception
+  {
+    final ExecutorService trainer = Executors.newSingleThreadExecutor();
+    final PersistentCompressionDictionaries dictionaries = openDictionaries(trainer);
+    for (int i = 0; i < NB_ENTRIES; i++)
+    {
+      final ByteString encodedEntry = ByteString.valueOfUtf8(newEntry(i).toLDIFString());
+      if (i == 0)
+      {
+        assertThat(dictionaries.getDictionaryForCompressing(encodedEntry)).isNull();
+      }
+      else
+      {
+        dictionaries.getDictionaryForCompressing(encodedEntry);
+      }
+    }
+    awaitTraining(trainer);
+
+    final Dictionary dictionary = dictionaries.getDictionaryForCompressing(ByteString.valueOfUtf8("foo"));
+    assertThat(dictionary).isNotNull();
+    assertThat(dictionary.getId()).isEqualTo(1);
+
+    final PersistentCompressionDictionaries reloaded = openDictionaries(newDirectExecutor());
+    assertThat(reloaded.getDictionary(1).getBytes()).isEqualTo(dictionary.getBytes());
+    assertThat(reloaded.getDictionaryForCompressing(ByteString.valueOfUtf8("foo")).getId()).isEqualTo(1);
+  }
+
+  @Test
+  public void testDictionaryIsStoredOutsideTheTransactionOfTheSampledEntries() throws Exception
+  {
+    final ExecutorService trainer = Executors.newSingleThreadExecutor();
+    final PersistentCompressionDictionaries dictionaries = openDictionaries(trainer);
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          for (int i = 0; i < NB_ENTRIES; i++)
+          {
+            final ByteString encodedEntry = ByteString.valueOfUtf8(newEntry(i).toLDIFString());
+            dictionaries.getDictionaryForCompressing(encodedEntry);
+          }
+          throw new IllegalStateException("Rollback");
+        }
+      });
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    }
+    catch (IllegalStateException expected)
+    {
+      // Expected
+    }
+    awaitTraining(trainer);
+
+    final Dictionary dictionary = dictionaries.getDictionaryForCompressing(ByteString.valueOfUtf8("foo"));
+    assertThat(dictionary).isNotNull();
+    assertThat(openDictionaries(newDirectExecutor()).getDictionary(dictionary.getId())).isNotNull();
+  }
+
+  @Test
+  public void testDictionaryIsStoredThroughTheImporterWhileTheStorageIsClosed() throws Exception
+  {
+    final Executor trainer = mock(Executor.class);
+    final PersistentCompressionDictionaries dictionaries = openDictionaries(trainer);
+    storage.close();
+    try (Importer importer = storage.startImport())
+    {
+      dictionaries.startImport(importer);
+      for (int i = 0; i < NB_ENTRIES; i++)
+      {
+        dictionaries.getDictionaryForCompressing(ByteString.valueOfUtf8(newEntry(i).toLDIFString()));
+      }
+      assertThat(dictionaries.getDictionaryForCompressing(ByteString.valueOfUtf8("foo")).getId()).isEqualTo(1);
+    }
+    finally
+    {
+      dictionaries.endImport();
+    }
+    verifyZeroInteractions(trainer);
+
+    storage.open(AccessMode.READ_WRITE);
+    assertThat(openDictionaries(newDirectExecutor()).getDictionary(1)).isNotNull();
+  }
+
+  @Test
+  public void testEntriesCompressedWithDictionaryCanBeDecoded() throws Exception
+  {
+    final DataConfig dataConfig =
+        new DataConfig.Builder().compress(true).dictionaries(openDictionaries(newDirectExecutor())).build();
+    final ID2Entry id2entry = new ID2Entry(new TreeName("o=test", "id2entry"), dataConfig);
+
+    ByteString lastEncoded = null;
+    for (int i = 0; i < NB_ENTRIES + 1; i++)
+    {
+      final Entry entry = newEntry(i);
+      lastEncoded = id2entry.entryToDatabase(entry, dataConfig);
+      assertThat(id2entry.entryFromDatabase(lastEncoded, DirectoryServer.getDefaultCompressedSchema()))
+          .isEqualTo(entry);
+    }
+
+    // Decoding an entry compressed with a dictionary requires the dictionary
+    final DataConfig noDictionaries = new DataConfig.Builder().compress(true).build();
+    final ID2Entry id2entryWithoutDictionaries = new ID2Entry(new TreeName("o=test", "id2entry"), noDictionaries);
+    try
+    {
+      id2entryWithoutDictionaries.entryFromDatabase(lastEncoded, DirectoryServer.getDefaultCompressedSchema());
+      failBecauseExceptionWasNotThrown(DecodeException.class);
+    }
+    catch (DecodeException expected)
+    {
+      // Expected
+    }
+  }
+
+  private static void awaitTraining(ExecutorService trainer) throws InterruptedException
+  {
+    trainer.shutdown();
+    assertThat(trainer.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+  }
+
+  /** Trains the dictionaries in the thread sampling the entries. */
+  private static Executor newDirectExecutor()
+  {
+    return new Executor()
+    {
+      @Override
+      public void execute(Runnable command)
+      {
+        command.run();
+      }
+    };
+  }
+
+  private PersistentCompressionDictionaries openDictionaries(final Executor trainer) throws Exception
+  {
+    final PromiseImpl<PersistentCompressionDictionaries, NeverThrowsException> p = PromiseImpl.create();
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        p.handleResult(new PersistentCompressionDictionaries(storage, txn, AccessMode.READ_WRITE, trainer));
+      }
+    });
+    return p.get();
+  }
+
+  private static Entry newEntry(int i) throws Exception
+  {
+    return TestCaseUtils.makeEntry(
+        "dn: uid=user." + i + ",ou=People,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: user." + i,
+        "givenName: Aaccf",
+        "sn: Amar" + i,
+        "cn: Aaccf Amar" + i,
+        "mail: user." + i + "@maildomain.net",
+        "telephoneNumber: +1 685 622 " + (1000 + i),
+        "street: " + i + " Spruce Street",
+        "l: Panama City",
+        "st: DE",
+        "postalCode: 50369",
+        "description: This is the description for Aaccf Amar" + i + ".");
+  }
+
+  private static int deflatedLength(byte[] data, byte[] dictionary)
+  {
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    try
+    {
+      if (dictionary != null)
+      {
+        deflater.setDictionary(dictionary);
+      }
+      deflater.setInput(data);
+      deflater.finish();
+      final byte[] output = new byte[data.length * 2 + 64];
+      int length = 0;
+      while (!deflater.finished())
+      {
+        length += deflater.deflate(output, length, output.length - length);
+      }
+      return length;
+    }
+    finally
+    {
+      deflater.end();
+    }
+  }
+
+  private static PDBBackendCfg createBackendCfg() throws Exception
+  {
+    String homeDirName = "pdb_test";
+    PDBBackendCfg backendCfg = mockCfg(PDBBackendCfg.class);
+
+    when(backendCfg.getBackendId()).thenReturn("persTest" + homeDirName);
+    when(backendCfg.getDBDirectory()).thenReturn(homeDirName);
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.getDBCacheSize()).thenReturn(0L);
+    when(backendCfg.getDBCachePercent()).thenReturn(20);
+    when(backendCfg.getBaseDN()).thenReturn(newTreeSet(DN.valueOf("dc=test,dc=com")));
+    when(backendCfg.dn()).thenReturn(DN.valueOf("dc=test,dc=com"));
+    when(backendCfg.listBackendIndexes()).thenReturn(new String[0]);
+    when(backendCfg.listBackendVLVIndexes()).thenReturn(new String[0]);
+    return backendCfg;
+  }
+}
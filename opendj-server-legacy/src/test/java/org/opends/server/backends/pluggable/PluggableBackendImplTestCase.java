@@ -35,6 +35,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ConditionResult;
@@ -924,6 +928,26 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     }
   }
 
+  @Test
+  public void testParallelExportLDIFKeepsEntriesOrder() throws Exception
+  {
+    final String singleThreadedLDIF = exportLDIF(1);
+    assertThat(singleThreadedLDIF).contains(testBaseDN.toString());
+    assertThat(exportLDIF(4)).isEqualTo(singleThreadedLDIF);
+  }
+
+  private String exportLDIF(int threadCount) throws Exception
+  {
+    ByteArrayOutputStream ldifOutputContent = new ByteArrayOutputStream();
+    try (final LDIFExportConfig exportConfig = new LDIFExportConfig(ldifOutputContent))
+    {
+      exportConfig.setIncludeOperationalAttributes(true);
+      exportConfig.setThreadCount(threadCount);
+      backend.exportLDIF(exportConfig);
+    }
+    return ldifOutputContent.toString();
+  }
+
   @Test
   public void testExportLDIFAndImportLDIF() throws Exception
   {
@@ -1101,6 +1125,107 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     assertThat(backend.verifyBackend(config)).isEqualTo(0);
   }
 
+  @Test
+  public void testOnlineIndexBuildWithConcurrentUpdates() throws Exception
+  {
+    final DN parentDN = DN.valueOf("ou=Online," + testBaseDN);
+    final int nbEntries = 500;
+    final AddOperation addOp = mock(AddOperation.class);
+    backend.addEntry(TestCaseUtils.makeEntry(
+        "dn: " + parentDN,
+        "objectclass: top",
+        "objectclass: organizationalUnit",
+        "ou: Online"), addOp);
+    final List<Entry> onlineEntries = new ArrayList<>();
+    for (int i = 0; i < nbEntries; i++)
+    {
+      final Entry entry = TestCaseUtils.makeEntry(
+          "dn: uid=online." + i + "," + parentDN,
+          "objectClass: top",
+          "objectClass: person",
+          "objectClass: organizationalPerson",
+          "objectClass: inetOrgPerson",
+          "uid: online." + i,
+          "cn: Online " + i,
+          "sn: Before" + i);
+      backend.addEntry(entry, addOp);
+      onlineEntries.add(entry);
+    }
+
+    final EntryContainer entryContainer = backend.getRootContainer().getEntryContainer(testBaseDN);
+    final AttributeIndex snIndex = entryContainer.getAttributeIndex(DirectoryServer.getAttributeType("sn"));
+    // Throttle the scan so that the entries are updated while they are scanned
+    final OnlineIndexBuilder builder =
+        new OnlineIndexBuilder(entryContainer, snIndex.getNameToIndexes().values(), 2, 200);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try
+    {
+      final Future<Long> build = executor.submit(new Callable<Long>()
+      {
+        @Override
+        public Long call() throws Exception
+        {
+          return builder.build(nbEntries);
+        }
+      });
+
+      final ModifyOperation modifyOp = mock(ModifyOperation.class);
+      final DeleteOperation deleteOp = mock(DeleteOperation.class);
+      for (int i = 0; i < nbEntries; i += 5)
+      {
+        final Entry oldEntry = onlineEntries.get(i);
+        if (i % 10 == 0)
+        {
+          backend.deleteEntry(oldEntry.getName(), deleteOp);
+        }
+        else
+        {
+          final Entry newEntry = oldEntry.duplicate(false);
+          final List<Modification> mods = Arrays.asList(new Modification(REPLACE, create("sn", "After" + i)));
+          newEntry.applyModifications(mods);
+          when(modifyOp.getModifications()).thenReturn(mods);
+          backend.replaceEntry(oldEntry, newEntry, modifyOp);
+        }
+      }
+      assertThat(build.get()).isGreaterThanOrEqualTo(nbEntries - nbEntries / 10);
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+
+    for (AttributeIndex.MatchingRuleIndex index : snIndex.getNameToIndexes().values())
+    {
+      assertThat(index.isTrusted()).isTrue();
+      assertThat(index.isBuilding()).isFalse();
+    }
+    final VerifyConfig config = new VerifyConfig();
+    config.setBaseDN(testBaseDN);
+    config.addCleanIndex("sn");
+    assertThat(backend.verifyBackend(config)).isEqualTo(0);
+    final VerifyConfig completeConfig = new VerifyConfig();
+    completeConfig.setBaseDN(testBaseDN);
+    completeConfig.addCompleteIndex("sn");
+    assertThat(backend.verifyBackend(completeConfig)).isEqualTo(0);
+
+    final List<Entry> returnedEntries = new ArrayList<>();
+    backend.search(createSearchOperation(parentDN, SearchScope.WHOLE_SUBTREE, "(sn=After5)", returnedEntries));
+    backend.search(createSearchOperation(parentDN, SearchScope.WHOLE_SUBTREE, "(sn=Before5)", returnedEntries));
+    backend.search(createSearchOperation(parentDN, SearchScope.WHOLE_SUBTREE, "(sn=Before10)", returnedEntries));
+    backend.search(createSearchOperation(parentDN, SearchScope.WHOLE_SUBTREE, "(sn=Before11)", returnedEntries));
+    assertThat(returnedEntries).hasSize(2);
+
+    final DeleteOperation deleteOp = mock(DeleteOperation.class);
+    for (Entry entry : onlineEntries)
+    {
+      if (backend.getEntry(entry.getName()) != null)
+      {
+        backend.deleteEntry(entry.getName(), deleteOp);
+      }
+    }
+    backend.deleteEntry(parentDN, deleteOp);
+  }
+
   @Test
   public void testVerifyID2ChildrenCount() throws Exception
   {
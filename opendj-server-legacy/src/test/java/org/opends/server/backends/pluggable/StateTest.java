@@ -84,7 +84,7 @@ public class StateTest extends DirectoryServerTestCase
       }
     });
 
-    state = new State(stateTreeName);
+    state = new State(stateTreeName, false);
   }
 
   @AfterMethod
@@ -120,6 +120,30 @@ public class StateTest extends DirectoryServerTestCase
     assertThat(getFlags()).containsExactly(TRUSTED, COMPACTED);
   }
 
+  @Test
+  public void testBitmapEncodingOnlyAppliesToNewIndexes() throws Exception
+  {
+    addFlags();
+
+    state.setBitmapEncoding(true);
+    assertThat(getFlags()).containsExactly(COMPACTED);
+
+    removeFlags(COMPACTED);
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        state.deleteRecord(txn, indexTreeName);
+      }
+    });
+    assertThat(getFlags()).containsExactly(COMPACTED, BITMAP);
+
+    addFlags(TRUSTED);
+    state.setBitmapEncoding(false);
+    assertThat(getFlags()).containsExactly(TRUSTED, COMPACTED, BITMAP);
+  }
+
   @Test
   public void testUpdateNotSetDefault() throws Exception
   {
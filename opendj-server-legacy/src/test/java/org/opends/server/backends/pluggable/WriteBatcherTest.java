@@ -0,0 +1,216 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.types.DirectoryException;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend" }, sequential = true)
+public class WriteBatcherTest extends DirectoryServerTestCase
+{
+  private static final int NB_THREADS = 8;
+  private static final int NB_WRITES_PER_THREAD = 50;
+
+  private Storage storage;
+  /** The number of times the operation of a group failed with a storage error. */
+  private final AtomicInteger storageFailures = new AtomicInteger();
+  private volatile boolean failGroups;
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    storageFailures.set(0);
+    failGroups = false;
+    storage = mock(Storage.class);
+    doAnswer(new Answer<Void>()
+    {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable
+      {
+        final WriteOperation operation = (WriteOperation) invocation.getArguments()[0];
+        operation.run(mock(WriteableTransaction.class));
+        if (failGroups && operation.getClass().getEnclosingClass() == WriteBatcher.class)
+        {
+          storageFailures.incrementAndGet();
+          throw new StorageRuntimeException("commit failed");
+        }
+        // Simulates the cost of the commit, so that concurrent writes pile up.
+        Thread.sleep(1);
+        return null;
+      }
+    }).when(storage).write(any(WriteOperation.class));
+  }
+
+  @Test
+  public void testWriteAloneIsSubmittedDirectly() throws Exception
+  {
+    final WriteBatcher batcher = new WriteBatcher(storage, 32);
+    final CountingWrite write = new CountingWrite(false);
+
+    batcher.write(write);
+
+    assertThat(write.runs.get()).isEqualTo(1);
+    verify(storage).write(write);
+    assertThat(batcher.getWriteCount()).isEqualTo(1);
+    assertThat(batcher.getCommitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testConcurrentWritesAreGrouped() throws Exception
+  {
+    final WriteBatcher batcher = new WriteBatcher(storage, 32);
+    final List<CountingWrite> writes = runConcurrentWrites(batcher, -1);
+
+    for (CountingWrite write : writes)
+    {
+      assertThat(write.runs.get()).isGreaterThanOrEqualTo(1);
+    }
+    assertThat(batcher.getWriteCount()).isEqualTo(NB_THREADS * NB_WRITES_PER_THREAD);
+    assertThat(batcher.getCommitCount()).isLessThan(batcher.getWriteCount());
+  }
+
+  @Test
+  public void testGroupingDisabled() throws Exception
+  {
+    final WriteBatcher batcher = new WriteBatcher(storage, 1);
+    runConcurrentWrites(batcher, -1);
+
+    assertThat(batcher.getCommitCount()).isEqualTo(batcher.getWriteCount());
+  }
+
+  @Test
+  public void testFailedWriteDoesNotFailTheGroup() throws Exception
+  {
+    final WriteBatcher batcher = new WriteBatcher(storage, 32);
+    // Every tenth write fails, runConcurrentWrites() checks the others succeed.
+    runConcurrentWrites(batcher, 10);
+
+    assertThat(batcher.getWriteCount()).isEqualTo(NB_THREADS * NB_WRITES_PER_THREAD);
+  }
+
+  @Test
+  public void testStorageFailureFallsBackToSeparateTransactions() throws Exception
+  {
+    final WriteBatcher batcher = new WriteBatcher(storage, 32);
+    failGroups = true;
+
+    runConcurrentWrites(batcher, -1);
+
+    assertThat(storageFailures.get()).isGreaterThan(0);
+  }
+
+  /**
+   * Runs concurrent writes and checks each one succeeded or failed as expected.
+   *
+   * @param failureInterval
+   *          every write whose index is a multiple of this value fails, or
+   *          negative if no write fails
+   */
+  private List<CountingWrite> runConcurrentWrites(final WriteBatcher batcher, final int failureInterval)
+      throws Exception
+  {
+    final List<CountingWrite> allWrites = new ArrayList<>();
+    final CyclicBarrier barrier = new CyclicBarrier(NB_THREADS);
+    final ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+    try
+    {
+      final List<Future<List<CountingWrite>>> results = new ArrayList<>();
+      for (int i = 0; i < NB_THREADS; i++)
+      {
+        results.add(executor.submit(new Callable<List<CountingWrite>>()
+        {
+          @Override
+          public List<CountingWrite> call() throws Exception
+          {
+            final List<CountingWrite> writes = new ArrayList<>();
+            barrier.await();
+            for (int j = 0; j < NB_WRITES_PER_THREAD; j++)
+            {
+              final boolean fails = failureInterval > 0 && j % failureInterval == 0;
+              final CountingWrite write = new CountingWrite(fails);
+              writes.add(write);
+              try
+              {
+                batcher.write(write);
+                assertThat(fails).isFalse();
+              }
+              catch (DirectoryException e)
+              {
+                assertThat(fails).isTrue();
+              }
+            }
+            return writes;
+          }
+        }));
+      }
+      for (Future<List<CountingWrite>> result : results)
+      {
+        allWrites.addAll(result.get());
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+    return allWrites;
+  }
+
+  /** A write counting how many times it ran, which can fail like an add of an existing entry. */
+  private static final class CountingWrite implements WriteOperation
+  {
+    private final AtomicInteger runs = new AtomicInteger();
+    private final boolean fails;
+
+    private CountingWrite(boolean fails)
+    {
+      this.fails = fails;
+    }
+
+    @Override
+    public void run(WriteableTransaction txn) throws Exception
+    {
+      runs.incrementAndGet();
+      if (fails)
+      {
+        throw new DirectoryException(ResultCode.ENTRY_ALREADY_EXISTS, LocalizableMessage.raw("entry already exists"));
+      }
+    }
+  }
+}
@@ -380,11 +380,39 @@ public class ServerSideSortControlTestCase
         zorroDN);          // No first name
   }
 
+  /**
+   * Tests performing an internal search with an unindexed filter using the
+   * server-side sort control to sort the entries in order of ascending
+   * givenName values.
+   *
+   * @throws  Exception  If an unexpected problem occurred.
+   */
+  @Test
+  public void testInternalUnindexedSearchGivenNameAscending() throws Exception
+  {
+    testInternalSearchWithSort("(|(objectClass=person)(description=*))", "givenName",
+        aaccfJohnsonDN,    // Aaccf
+        aaronZimmermanDN,  // Aaron
+        albertZimmermanDN, // Albert, lower entry ID
+        albertSmithDN,     // Albert, higher entry ID
+        lowercaseMcGeeDN,  // lowercase
+        margaretJonesDN,   // Maggie
+        maryJonesDN,       // Mary
+        samZweckDN,        // Sam
+        zorroDN);          // No first name
+  }
+
   private void testInternalSearchWithSort(String sortOrderString, DN... expectedDNOrder) throws Exception
+  {
+    testInternalSearchWithSort("(objectClass=person)", sortOrderString, expectedDNOrder);
+  }
+
+  private void testInternalSearchWithSort(String filter, String sortOrderString, DN... expectedDNOrder)
+      throws Exception
   {
     populateDB();
 
-    SearchRequest request = newSearchRequest("dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(objectClass=person)")
+    SearchRequest request = newSearchRequest("dc=example,dc=com", SearchScope.WHOLE_SUBTREE, filter)
         .addControl(new ServerSideSortRequestControl(sortOrderString));
     InternalSearchOperation internalSearch = getRootConnection().processSearch(request);
     assertEquals(internalSearch.getResultCode(), ResultCode.SUCCESS);
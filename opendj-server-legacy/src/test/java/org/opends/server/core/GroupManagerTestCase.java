@@ -49,6 +49,7 @@ import static org.forgerock.opendj.ldap.ModificationType.*;
 import static org.forgerock.opendj.ldap.requests.Requests.*;
 import static org.opends.server.protocols.internal.InternalClientConnection.*;
 import static org.opends.server.protocols.internal.Requests.*;
+import static org.opends.server.util.CollectionUtils.*;
 import static org.opends.server.util.ServerConstants.*;
 import static org.testng.Assert.*;
 
@@ -199,6 +200,50 @@ public class GroupManagerTestCase
     assertTrue(group1Instance.isMember(user5DN));
   }
 
+  /**
+   * Tests that the groups of a user are retrieved from the membership index,
+   * through nested static and dynamic groups, and that the index follows the
+   * membership changes.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test
+  public void testGetGroupDNsNested() throws Exception {
+    TestCaseUtils.initializeTestBackend(true);
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    groupManager.deregisterAllGroups();
+    addNestedGroupTestEntries();
+    DN group1DN = DN.valueOf("cn=group 1,ou=Groups,o=test");
+    DN group2DN = DN.valueOf("cn=group 2,ou=Groups,o=test");
+    DN group3DN = DN.valueOf("cn=group 3,ou=Groups,o=test");
+    DN group4DN = DN.valueOf("cn=group 4,ou=Groups,o=test");
+    DN user1DN = DN.valueOf("uid=user.1,ou=People,o=test");
+    DN user2DN = DN.valueOf("uid=user.2,ou=People,o=test");
+    DN user5DN = DN.valueOf("uid=user.5,ou=People,o=test");
+    Entry user1Entry = DirectoryServer.getEntry(user1DN);
+    Entry user2Entry = DirectoryServer.getEntry(user2DN);
+    Entry user5Entry = DirectoryServer.getEntry(user5DN);
+    Group<?> group1Instance = groupManager.getGroupInstance(group1DN);
+    Group<?> group2Instance = groupManager.getGroupInstance(group2DN);
+    Group<?> group3Instance = groupManager.getGroupInstance(group3DN);
+    group1Instance.addNestedGroup(group2DN);
+    group2Instance.addNestedGroup(group3DN);
+    //Dynamic group 4 is added to nested list of group 3.
+    group3Instance.addNestedGroup(group4DN);
+    group1Instance.addMember(user1Entry);
+    group2Instance.addMember(user2Entry);
+
+    assertEquals(groupManager.getGroupDNs(user1Entry), newHashSet(group1DN));
+    assertEquals(groupManager.getGroupDNs(user2Entry), newHashSet(group1DN, group2DN));
+    assertEquals(groupManager.getGroupDNs(user5Entry), newHashSet(group1DN, group2DN, group3DN, group4DN));
+    assertEquals(groupManager.getGroupDNs(group3DN), newHashSet(group1DN, group2DN));
+
+    group2Instance.removeMember(user2DN);
+    group1Instance.removeNestedGroup(group2DN);
+    assertTrue(groupManager.getGroupDNs(user2Entry).isEmpty());
+    assertEquals(groupManager.getGroupDNs(user5Entry), newHashSet(group2DN, group3DN, group4DN));
+  }
+
   /**
    * Invokes membership and nested group APIs using a group instance that has
    * been changed by the group manager via ldap modify.
@@ -0,0 +1,311 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+import static org.opends.server.util.CollectionUtils.*;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.server.config.meta.VirtualThreadWorkQueueCfgDefn;
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
+import org.forgerock.opendj.server.config.server.VirtualThreadWorkQueueCfg;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.CompareOperation;
+import org.opends.server.core.CompareOperationBasis;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.plugins.DelayPreOpPlugin;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.protocols.internal.SearchRequest;
+import org.opends.server.types.Control;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.OperationType;
+import org.opends.server.util.InitializationUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * A set of test cases for the virtual thread work queue. The queues are created
+ * next to the server's own work queue, which keeps processing the other
+ * requests.
+ */
+public class VirtualThreadWorkQueueTestCase extends ExtensionsTestCase
+{
+  private static final String WORK_QUEUE_MONITOR = "work queue";
+
+  private MonitorProvider<? extends MonitorProviderCfg> serverWorkQueueMonitor;
+  private VirtualThreadWorkQueue workQueue;
+
+  /**
+   * Ensures that the Directory Server is running.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+    TestCaseUtils.initializeTestBackend(true);
+  }
+
+  /** Saves the monitor of the server's work queue, since the tested queues register their own. */
+  @BeforeMethod
+  public void saveWorkQueueMonitor()
+  {
+    serverWorkQueueMonitor = DirectoryServer.getMonitorProviders().get(WORK_QUEUE_MONITOR);
+  }
+
+  /** Stops the tested queue and restores the monitor of the server's work queue. */
+  @AfterMethod
+  public void finalizeWorkQueue()
+  {
+    if (workQueue != null)
+    {
+      workQueue.finalizeWorkQueue(LocalizableMessage.raw("test finished"));
+      workQueue = null;
+    }
+    MonitorProvider<? extends MonitorProviderCfg> monitor =
+        DirectoryServer.getMonitorProviders().get(WORK_QUEUE_MONITOR);
+    if (monitor != serverWorkQueueMonitor)
+    {
+      monitor.finalizeMonitorProvider();
+      DirectoryServer.deregisterMonitorProvider(monitor);
+      DirectoryServer.registerMonitorProvider(serverWorkQueueMonitor);
+    }
+  }
+
+  private VirtualThreadWorkQueueCfg newConfiguration(int maxConcurrentOperations, String... concurrencyLimits)
+      throws Exception
+  {
+    return newConfiguration(maxConcurrentOperations, 1000, concurrencyLimits);
+  }
+
+  private VirtualThreadWorkQueueCfg newConfiguration(int maxConcurrentOperations, int maxCapacity,
+      String... concurrencyLimits) throws Exception
+  {
+    List<String> ldif = newArrayList(
+        "dn: cn=Work Queue,cn=config",
+        "objectClass: top",
+        "objectClass: ds-cfg-work-queue",
+        "objectClass: ds-cfg-virtual-thread-work-queue",
+        "cn: Work Queue",
+        "ds-cfg-java-class: org.opends.server.extensions.VirtualThreadWorkQueue",
+        "ds-cfg-max-concurrent-operations: " + maxConcurrentOperations,
+        "ds-cfg-max-work-queue-capacity: " + maxCapacity);
+    for (String limit : concurrencyLimits)
+    {
+      ldif.add("ds-cfg-operation-concurrency-limit: " + limit);
+    }
+    Entry entry = TestCaseUtils.makeEntry(ldif.toArray(new String[ldif.size()]));
+    return InitializationUtils.getConfiguration(VirtualThreadWorkQueueCfgDefn.getInstance(), entry);
+  }
+
+  private VirtualThreadWorkQueue newWorkQueue(int maxConcurrentOperations, String... concurrencyLimits)
+      throws Exception
+  {
+    workQueue = new VirtualThreadWorkQueue();
+    workQueue.initializeWorkQueue(newConfiguration(maxConcurrentOperations, concurrencyLimits));
+    return workQueue;
+  }
+
+  private InternalSearchOperation newSearch(SearchScope scope, int delayMillis)
+  {
+    SearchRequest request = newSearchRequest(DN.valueOf("o=test"), scope);
+    if (delayMillis > 0)
+    {
+      request.addControl(DelayPreOpPlugin.createDelayControlList(delayMillis));
+    }
+    return new InternalSearchOperation(getRootConnection(), nextOperationID(), nextMessageID(), request);
+  }
+
+  /**
+   * Submits many operations and checks that all of them are processed.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testAllOperationsProcessed() throws Exception
+  {
+    VirtualThreadWorkQueue queue = newWorkQueue(16, "search:4");
+
+    List<InternalSearchOperation> operations = new ArrayList<>();
+    for (int i = 0; i < 500; i++)
+    {
+      InternalSearchOperation op = newSearch(SearchScope.WHOLE_SUBTREE, 0);
+      operations.add(op);
+      queue.submitOperation(op);
+    }
+
+    assertTrue(queue.waitUntilIdle(10000));
+    for (InternalSearchOperation op : operations)
+    {
+      assertEquals(op.getResultCode(), ResultCode.SUCCESS);
+    }
+    assertEquals(queue.getOpsSubmitted(), 500);
+    assertEquals(queue.size(), 0);
+    assertEquals(queue.getActiveOperationsCount(), 0);
+  }
+
+  /**
+   * Checks that operations beyond the limit of their type wait for the
+   * operations in progress to complete.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testConcurrencyLimit() throws Exception
+  {
+    VirtualThreadWorkQueue queue = newWorkQueue(16, "search:1");
+
+    long startTime = System.currentTimeMillis();
+    for (int i = 0; i < 3; i++)
+    {
+      queue.submitOperation(newSearch(SearchScope.BASE_OBJECT, 1000));
+    }
+    assertEquals(queue.size(), 2);
+
+    // Raising the limit starts the waiting operations immediately, instead of
+    // processing them one after the other.
+    queue.applyConfigurationChange(newConfiguration(16, "search:3"));
+    assertTrue(queue.waitUntilIdle(10000));
+    assertTrue(System.currentTimeMillis() - startTime < 2500);
+    assertEquals(queue.getOpsSubmitted(), 3);
+  }
+
+  /**
+   * Checks that blocked operations of one type do not prevent the operations
+   * of another type from being processed.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testBlockedOperationTypeDoesNotStarveOthers() throws Exception
+  {
+    VirtualThreadWorkQueue queue = newWorkQueue(16, "search:1");
+
+    queue.submitOperation(newSearch(SearchScope.BASE_OBJECT, 2000));
+    InternalSearchOperation waitingSearch = newSearch(SearchScope.BASE_OBJECT, 0);
+    queue.submitOperation(waitingSearch);
+
+    CompareOperation compare = newCompare();
+    queue.submitOperation(compare);
+    long stopTime = System.currentTimeMillis() + 1000;
+    while (compare.getResultCode() == ResultCode.UNDEFINED && System.currentTimeMillis() < stopTime)
+    {
+      Thread.sleep(10);
+    }
+    assertEquals(compare.getResultCode(), ResultCode.COMPARE_TRUE);
+    assertEquals(waitingSearch.getResultCode(), ResultCode.UNDEFINED);
+
+    assertTrue(queue.waitUntilIdle(10000));
+    assertEquals(waitingSearch.getResultCode(), ResultCode.SUCCESS);
+  }
+
+  /**
+   * Checks that operations are rejected with a busy result once the number of
+   * waiting operations reaches the capacity of the queue.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testFullQueueRejectsOperations() throws Exception
+  {
+    workQueue = new VirtualThreadWorkQueue();
+    workQueue.initializeWorkQueue(newConfiguration(16, 1, "search:1"));
+
+    workQueue.submitOperation(newSearch(SearchScope.BASE_OBJECT, 1000));
+    InternalSearchOperation waitingSearch = newSearch(SearchScope.BASE_OBJECT, 0);
+    workQueue.submitOperation(waitingSearch);
+    assertEquals(workQueue.size(), 1);
+
+    assertFalse(workQueue.trySubmitOperation(newSearch(SearchScope.BASE_OBJECT, 0)));
+    try
+    {
+      workQueue.submitOperation(newSearch(SearchScope.BASE_OBJECT, 0));
+      fail("Expected a busy result once the queue is full");
+    }
+    catch (DirectoryException e)
+    {
+      assertEquals(e.getResultCode(), ResultCode.BUSY);
+    }
+    assertEquals(workQueue.getOpsRejectedDueToQueueFull(), 2);
+
+    // Operations of other types do not wait, so they are still accepted.
+    CompareOperation compare = newCompare();
+    assertTrue(workQueue.trySubmitOperation(compare));
+
+    assertTrue(workQueue.waitUntilIdle(10000));
+    assertEquals(waitingSearch.getResultCode(), ResultCode.SUCCESS);
+    assertEquals(compare.getResultCode(), ResultCode.COMPARE_TRUE);
+    assertEquals(workQueue.getOpsSubmitted(), 3);
+  }
+
+  private CompareOperation newCompare()
+  {
+    return new CompareOperationBasis(getRootConnection(), nextOperationID(), nextMessageID(),
+        new ArrayList<Control>(), ByteString.valueOfUtf8("o=test"), "o", ByteString.valueOfUtf8("test"));
+  }
+
+  /** Checks the parsing of the operation-concurrency-limit values. */
+  @Test
+  public void testParseConcurrencyLimits()
+  {
+    Map<OperationType, Integer> limits = VirtualThreadWorkQueue.parseConcurrencyLimits(
+        new TreeSet<>(newArrayList("bind:4", "Search:10", "modify-dn:2")));
+    assertEquals(limits.size(), 3);
+    assertEquals(limits.get(OperationType.BIND), Integer.valueOf(4));
+    assertEquals(limits.get(OperationType.SEARCH), Integer.valueOf(10));
+    assertEquals(limits.get(OperationType.MODIFY_DN), Integer.valueOf(2));
+
+    assertNull(VirtualThreadWorkQueue.parseConcurrencyLimits(new TreeSet<>(newArrayList("unknown:4"))));
+    assertNull(VirtualThreadWorkQueue.parseConcurrencyLimits(new TreeSet<>(newArrayList("bind:0"))));
+  }
+
+  /**
+   * Checks that invalid concurrency limits are rejected.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testInvalidConcurrencyLimitRejected() throws Exception
+  {
+    VirtualThreadWorkQueue queue = newWorkQueue(16);
+    List<LocalizableMessage> unacceptableReasons = new ArrayList<>();
+    assertFalse(queue.isConfigurationChangeAcceptable(newConfiguration(16, "unknown:4"), unacceptableReasons));
+    assertFalse(unacceptableReasons.isEmpty());
+    assertTrue(queue.isConfigurationChangeAcceptable(newConfiguration(16, "bind:4"), unacceptableReasons));
+  }
+}
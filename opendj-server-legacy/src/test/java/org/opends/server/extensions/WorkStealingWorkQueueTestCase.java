@@ -0,0 +1,282 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.server.config.meta.WorkStealingWorkQueueCfgDefn;
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
+import org.forgerock.opendj.server.config.server.WorkStealingWorkQueueCfg;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.CompareOperation;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.plugins.DelayPreOpPlugin;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.protocols.internal.SearchRequest;
+import org.opends.server.types.Entry;
+import org.opends.server.util.InitializationUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * A set of test cases for the work stealing work queue. The queues are created
+ * next to the server's own work queue, which keeps processing the other
+ * requests.
+ */
+public class WorkStealingWorkQueueTestCase extends ExtensionsTestCase
+{
+  private static final String WORK_QUEUE_MONITOR = "work queue";
+
+  private MonitorProvider<? extends MonitorProviderCfg> serverWorkQueueMonitor;
+  private WorkStealingWorkQueue workQueue;
+
+  /**
+   * Ensures that the Directory Server is running.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+    TestCaseUtils.initializeTestBackend(true);
+  }
+
+  /** Saves the monitor of the server's work queue, since the tested queues register their own. */
+  @BeforeMethod
+  public void saveWorkQueueMonitor()
+  {
+    serverWorkQueueMonitor = DirectoryServer.getMonitorProviders().get(WORK_QUEUE_MONITOR);
+  }
+
+  /** Stops the tested queue and restores the monitor of the server's work queue. */
+  @AfterMethod
+  public void finalizeWorkQueue()
+  {
+    if (workQueue != null)
+    {
+      workQueue.finalizeWorkQueue(LocalizableMessage.raw("test finished"));
+      workQueue = null;
+    }
+    MonitorProvider<? extends MonitorProviderCfg> monitor =
+        DirectoryServer.getMonitorProviders().get(WORK_QUEUE_MONITOR);
+    if (monitor != serverWorkQueueMonitor)
+    {
+      monitor.finalizeMonitorProvider();
+      DirectoryServer.deregisterMonitorProvider(monitor);
+      DirectoryServer.registerMonitorProvider(serverWorkQueueMonitor);
+    }
+  }
+
+  private WorkStealingWorkQueueCfg newConfiguration(int numWorkerThreads, int maxCapacity, boolean inline)
+      throws Exception
+  {
+    Entry entry = TestCaseUtils.makeEntry(
+        "dn: cn=Work Queue,cn=config",
+        "objectClass: top",
+        "objectClass: ds-cfg-work-queue",
+        "objectClass: ds-cfg-work-stealing-work-queue",
+        "cn: Work Queue",
+        "ds-cfg-java-class: org.opends.server.extensions.WorkStealingWorkQueue",
+        "ds-cfg-num-worker-threads: " + numWorkerThreads,
+        "ds-cfg-max-work-queue-capacity: " + maxCapacity,
+        "ds-cfg-inline-cheap-operations: " + inline);
+    return InitializationUtils.getConfiguration(WorkStealingWorkQueueCfgDefn.getInstance(), entry);
+  }
+
+  private WorkStealingWorkQueue newWorkQueue(int numWorkerThreads, int maxCapacity, boolean inline)
+      throws Exception
+  {
+    workQueue = new WorkStealingWorkQueue();
+    workQueue.initializeWorkQueue(newConfiguration(numWorkerThreads, maxCapacity, inline));
+    return workQueue;
+  }
+
+  private InternalSearchOperation newSearch(SearchScope scope, int delayMillis)
+  {
+    SearchRequest request = newSearchRequest(DN.valueOf("o=test"), scope);
+    if (delayMillis > 0)
+    {
+      request.addControl(DelayPreOpPlugin.createDelayControlList(delayMillis));
+    }
+    return new InternalSearchOperation(getRootConnection(), nextOperationID(), nextMessageID(), request);
+  }
+
+  /**
+   * Submits many operations and checks that all of them are processed.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testAllOperationsProcessed() throws Exception
+  {
+    WorkStealingWorkQueue queue = newWorkQueue(4, 0, false);
+
+    List<InternalSearchOperation> operations = new ArrayList<>();
+    for (int i = 0; i < 500; i++)
+    {
+      InternalSearchOperation op = newSearch(SearchScope.WHOLE_SUBTREE, 0);
+      operations.add(op);
+      queue.submitOperation(op);
+    }
+
+    assertTrue(queue.waitUntilIdle(10000));
+    for (InternalSearchOperation op : operations)
+    {
+      assertEquals(op.getResultCode(), ResultCode.SUCCESS);
+    }
+    assertEquals(queue.getOpsSubmitted(), 500);
+    assertEquals(queue.getOpsProcessedInline(), 0);
+    assertEquals(queue.size(), 0);
+  }
+
+  /**
+   * Checks that idle workers steal the operations assigned to a busy worker.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testIdleWorkersStealOperations() throws Exception
+  {
+    WorkStealingWorkQueue queue = newWorkQueue(4, 0, false);
+
+    // Every operation waits, so operations assigned to a busy worker can
+    // only complete in time if the other workers take them.
+    long startTime = System.currentTimeMillis();
+    for (int i = 0; i < 8; i++)
+    {
+      queue.submitOperation(newSearch(SearchScope.BASE_OBJECT, 500));
+    }
+    assertTrue(queue.waitUntilIdle(10000));
+    assertTrue(System.currentTimeMillis() - startTime < 4000);
+    assertEquals(queue.getOpsSubmitted(), 8);
+  }
+
+  /**
+   * Checks that base object searches are processed by the submitting thread
+   * when cheap operations are processed inline.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testInlineCheapOperations() throws Exception
+  {
+    WorkStealingWorkQueue queue = newWorkQueue(2, 0, true);
+
+    InternalSearchOperation baseSearch = newSearch(SearchScope.BASE_OBJECT, 0);
+    queue.submitOperation(baseSearch);
+    // Processed before submitOperation() returned.
+    assertEquals(baseSearch.getResultCode(), ResultCode.SUCCESS);
+    assertEquals(queue.getOpsProcessedInline(), 1);
+
+    InternalSearchOperation subtreeSearch = newSearch(SearchScope.WHOLE_SUBTREE, 0);
+    queue.submitOperation(subtreeSearch);
+    assertTrue(queue.waitUntilIdle(10000));
+    assertEquals(subtreeSearch.getResultCode(), ResultCode.SUCCESS);
+    assertEquals(queue.getOpsProcessedInline(), 1);
+    assertEquals(queue.getOpsSubmitted(), 2);
+  }
+
+  /** Checks which operations are considered cheap enough to be processed inline. */
+  @Test
+  public void testIsCheapOperation()
+  {
+    assertTrue(WorkStealingWorkQueue.isCheapOperation(newSearch(SearchScope.BASE_OBJECT, 0)));
+    assertFalse(WorkStealingWorkQueue.isCheapOperation(newSearch(SearchScope.SINGLE_LEVEL, 0)));
+    assertFalse(WorkStealingWorkQueue.isCheapOperation(newSearch(SearchScope.WHOLE_SUBTREE, 0)));
+    CompareOperation compare = getRootConnection().processCompare("o=test", "o", "test");
+    assertTrue(WorkStealingWorkQueue.isCheapOperation(compare));
+  }
+
+  /**
+   * Checks that operations are rejected when the queue is full and the caller
+   * does not accept to wait.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testQueueFull() throws Exception
+  {
+    WorkStealingWorkQueue queue = newWorkQueue(1, 1, false);
+
+    // Keep the only worker busy, then fill the queue.
+    queue.submitOperation(newSearch(SearchScope.BASE_OBJECT, 2000));
+    long stopTime = System.currentTimeMillis() + 5000;
+    while (queue.size() > 0 && System.currentTimeMillis() < stopTime)
+    {
+      Thread.sleep(10);
+    }
+    assertTrue(queue.trySubmitOperation(newSearch(SearchScope.BASE_OBJECT, 0)));
+    assertFalse(queue.trySubmitOperation(newSearch(SearchScope.BASE_OBJECT, 0)));
+    assertEquals(queue.getOpsRejectedDueToQueueFull(), 1);
+
+    assertTrue(queue.waitUntilIdle(10000));
+    assertEquals(queue.getOpsSubmitted(), 2);
+  }
+
+  /**
+   * Checks that the number of worker threads can be changed on the fly without
+   * losing operations.
+   *
+   * @throws Exception
+   *           If an unexpected problem occurs.
+   */
+  @Test
+  public void testChangeNumWorkerThreads() throws Exception
+  {
+    WorkStealingWorkQueue queue = newWorkQueue(2, 0, false);
+    assertEquals(queue.getNumWorkerThreads(), 2);
+
+    queue.applyConfigurationChange(newConfiguration(6, 0, false));
+    assertEquals(queue.getNumWorkerThreads(), 6);
+
+    List<InternalSearchOperation> operations = new ArrayList<>();
+    for (int i = 0; i < 200; i++)
+    {
+      InternalSearchOperation op = newSearch(SearchScope.WHOLE_SUBTREE, 0);
+      operations.add(op);
+      queue.submitOperation(op);
+      if (i == 100)
+      {
+        queue.applyConfigurationChange(newConfiguration(1, 0, false));
+      }
+    }
+    assertEquals(queue.getNumWorkerThreads(), 1);
+
+    assertTrue(queue.waitUntilIdle(10000));
+    for (InternalSearchOperation op : operations)
+    {
+      assertEquals(op.getResultCode(), ResultCode.SUCCESS);
+    }
+  }
+}
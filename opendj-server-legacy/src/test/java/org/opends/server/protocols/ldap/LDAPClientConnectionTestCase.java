@@ -0,0 +1,82 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.List;
+
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.tools.RemoteConnection;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** Tests the search results written by LDAP client connections, which may be gathered before being written. */
+@SuppressWarnings("javadoc")
+public class LDAPClientConnectionTestCase extends LdapTestCase
+{
+  /** Enough entries for their search results to be written in several batches. */
+  private static final int NB_ENTRIES = 500;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startServer();
+    TestCaseUtils.initializeTestBackend(true);
+    for (int i = 0; i < NB_ENTRIES; i++)
+    {
+      TestCaseUtils.addEntry(
+          "dn: uid=user." + i + ",o=test",
+          "objectClass: top",
+          "objectClass: person",
+          "objectClass: organizationalPerson",
+          "objectClass: inetOrgPerson",
+          "uid: user." + i,
+          "cn: User " + i,
+          "sn: " + i,
+          "description: A description long enough for the entries to fill several batches of search results");
+    }
+  }
+
+  @Test
+  public void testSearchSingleEntry() throws Exception
+  {
+    try (RemoteConnection conn = new RemoteConnection("127.0.0.1", TestCaseUtils.getServerLdapPort()))
+    {
+      conn.bind("cn=Directory Manager", "password");
+      conn.search("uid=user.0,o=test", SearchScope.BASE_OBJECT, "(objectClass=*)");
+      List<SearchResultEntryProtocolOp> entries = conn.readEntries();
+      assertThat(entries).hasSize(1);
+      assertThat(entries.get(0).getDN().toString()).isEqualTo("uid=user.0,o=test");
+    }
+  }
+
+  @Test
+  public void testSearchManyEntries() throws Exception
+  {
+    try (RemoteConnection conn = new RemoteConnection("127.0.0.1", TestCaseUtils.getServerLdapPort()))
+    {
+      conn.bind("cn=Directory Manager", "password");
+      conn.search("o=test", SearchScope.SINGLE_LEVEL, "(objectClass=person)");
+      assertThat(conn.readEntries()).hasSize(NB_ENTRIES);
+
+      // The connection remains usable
+      conn.search("o=test", SearchScope.BASE_OBJECT, "(objectClass=*)");
+      assertThat(conn.readEntries()).hasSize(1);
+    }
+  }
+}
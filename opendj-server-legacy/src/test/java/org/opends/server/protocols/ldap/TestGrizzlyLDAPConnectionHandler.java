@@ -0,0 +1,249 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.server.config.server.LDAPConnectionHandlerCfg;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.ClientConnection;
+import org.opends.server.core.ServerContext;
+import org.opends.server.tools.LDAPSearch;
+import org.opends.server.tools.RemoteConnection;
+import org.opends.server.types.Entry;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class TestGrizzlyLDAPConnectionHandler extends LdapTestCase
+{
+  private static final int NB_SEARCHES = 100;
+  private static final String LARGE_ENTRIES_DN = "ou=large entries,o=test";
+  /** Enough entries to exceed by far the 1MB of pending responses, plus what the socket buffers can hold. */
+  private static final int NB_LARGE_ENTRIES = 100;
+  private static final int LARGE_VALUE_SIZE = 64 * 1024;
+  private static final int WRITE_TIME_LIMIT_SECONDS = 5;
+
+  private GrizzlyLDAPConnectionHandler handler;
+  private int port;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startServer();
+    TestCaseUtils.initializeTestBackend(true);
+
+    port = TestCaseUtils.findFreePort();
+    Entry handlerEntry = TestCaseUtils.makeEntry(
+        "dn: cn=Grizzly LDAP Connection Handler,cn=Connection Handlers,cn=config",
+        "objectClass: top",
+        "objectClass: ds-cfg-connection-handler",
+        "objectClass: ds-cfg-ldap-connection-handler",
+        "cn: Grizzly LDAP Connection Handler",
+        "ds-cfg-java-class: org.opends.server.protocols.ldap.GrizzlyLDAPConnectionHandler",
+        "ds-cfg-enabled: true",
+        "ds-cfg-listen-address: 127.0.0.1",
+        "ds-cfg-listen-port: " + port,
+        "ds-cfg-num-request-handlers: 2",
+        "ds-cfg-allow-start-tls: true",
+        "ds-cfg-use-ssl: false",
+        "ds-cfg-ssl-cert-nickname: server-cert",
+        "ds-cfg-key-manager-provider: cn=JKS,cn=Key Manager Providers,cn=config",
+        "ds-cfg-trust-manager-provider: cn=JKS,cn=Trust Manager Providers,cn=config",
+        "ds-cfg-max-blocked-write-time-limit: " + WRITE_TIME_LIMIT_SECONDS + " seconds");
+    LDAPConnectionHandlerCfg config = getConfiguration(handlerEntry);
+    handler = new GrizzlyLDAPConnectionHandler();
+    handler.initializeConnectionHandler(mock(ServerContext.class), config);
+    handler.start();
+
+    addLargeEntries();
+  }
+
+  private void addLargeEntries() throws Exception
+  {
+    final char[] value = new char[LARGE_VALUE_SIZE];
+    Arrays.fill(value, 'x');
+    final String description = new String(value);
+
+    final List<Entry> entries = new ArrayList<>();
+    entries.add(TestCaseUtils.makeEntry(
+        "dn: " + LARGE_ENTRIES_DN,
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: large entries"));
+    for (int i = 0; i < NB_LARGE_ENTRIES; i++)
+    {
+      entries.add(TestCaseUtils.makeEntry(
+          "dn: cn=user." + i + "," + LARGE_ENTRIES_DN,
+          "objectClass: top",
+          "objectClass: person",
+          "cn: user." + i,
+          "sn: " + i,
+          "description: " + description));
+    }
+    TestCaseUtils.addEntries(entries);
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    handler.finalizeConnectionHandler(LocalizableMessage.raw("Test finished"));
+  }
+
+  @Test
+  public void testBindAndSearch() throws Exception
+  {
+    try (RemoteConnection conn = new RemoteConnection("127.0.0.1", port))
+    {
+      conn.bind("cn=Directory Manager", "password");
+      conn.search("o=test", SearchScope.BASE_OBJECT, "(objectClass=*)");
+      List<SearchResultEntryProtocolOp> entries = conn.readEntries();
+      assertThat(entries).hasSize(1);
+      assertThat(entries.get(0).getDN().toString()).isEqualTo("o=test");
+      assertThat(handler.getClientConnections()).isNotEmpty();
+    }
+  }
+
+  @Test
+  public void testPipelinedSearches() throws Exception
+  {
+    try (RemoteConnection conn = new RemoteConnection("127.0.0.1", port))
+    {
+      conn.bind("cn=Directory Manager", "password");
+      // Send all the requests before reading any response
+      for (int i = 0; i < NB_SEARCHES; i++)
+      {
+        conn.search("o=test", SearchScope.BASE_OBJECT, "(objectClass=*)");
+      }
+      for (int i = 0; i < NB_SEARCHES; i++)
+      {
+        assertThat(conn.readEntries()).hasSize(1);
+      }
+    }
+  }
+
+  @Test
+  public void testStartTLS() throws Exception
+  {
+    String[] args =
+    {
+      "--noPropertiesFile",
+      "-h", "127.0.0.1",
+      "-p", String.valueOf(port),
+      "-q",
+      "-X",
+      "-b", "o=test",
+      "-s", "base",
+      "(objectClass=*)"
+    };
+    assertThat(LDAPSearch.mainSearch(args, false, null, System.err)).isEqualTo(0);
+  }
+
+  /** The worker thread waits for the client instead of accumulating all the responses in memory. */
+  @Test
+  public void testSlowClientReceivesAllResponses() throws Exception
+  {
+    try (RemoteConnection conn = new RemoteConnection(connectWithSmallReceiveBuffer()))
+    {
+      conn.bind("cn=Directory Manager", "password");
+      conn.search(LARGE_ENTRIES_DN, SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+      // Let the responses pile up, without exceeding the maximum blocked write time
+      Thread.sleep(1000);
+      assertThat(conn.readEntries()).hasSize(NB_LARGE_ENTRIES + 1);
+    }
+  }
+
+  @Test
+  public void testStuckClientIsDisconnected() throws Exception
+  {
+    Socket socket = connectWithSmallReceiveBuffer();
+    try (RemoteConnection conn = new RemoteConnection(socket))
+    {
+      conn.bind("cn=Directory Manager", "password");
+      conn.search(LARGE_ENTRIES_DN, SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+      // Never read the responses
+      Thread.sleep(1000);
+      assertThat(getClientConnection(socket)).isNotNull();
+      waitUntilRemoved(socket, 6 * WRITE_TIME_LIMIT_SECONDS * 1000);
+    }
+    assertBindAndSearchSucceed();
+  }
+
+  @Test
+  public void testClosedClientIsRemoved() throws Exception
+  {
+    Socket socket = connectWithSmallReceiveBuffer();
+    try (RemoteConnection conn = new RemoteConnection(socket))
+    {
+      conn.bind("cn=Directory Manager", "password");
+      assertThat(getClientConnection(socket)).isNotNull();
+      conn.search(LARGE_ENTRIES_DN, SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+    }
+    waitUntilRemoved(socket, 6 * WRITE_TIME_LIMIT_SECONDS * 1000);
+    assertBindAndSearchSucceed();
+  }
+
+  private Socket connectWithSmallReceiveBuffer() throws Exception
+  {
+    Socket socket = new Socket();
+    // Must be set before connecting to be taken into account
+    socket.setReceiveBufferSize(4096);
+    socket.connect(new InetSocketAddress("127.0.0.1", port));
+    return socket;
+  }
+
+  private ClientConnection getClientConnection(Socket socket)
+  {
+    for (ClientConnection clientConnection : handler.getClientConnections())
+    {
+      if (clientConnection.getClientPort() == socket.getLocalPort())
+      {
+        return clientConnection;
+      }
+    }
+    return null;
+  }
+
+  private void waitUntilRemoved(Socket socket, long timeoutMillis) throws Exception
+  {
+    final long stopTime = System.currentTimeMillis() + timeoutMillis;
+    while (getClientConnection(socket) != null && System.currentTimeMillis() < stopTime)
+    {
+      Thread.sleep(100);
+    }
+    assertThat(getClientConnection(socket)).isNull();
+  }
+
+  private void assertBindAndSearchSucceed() throws Exception
+  {
+    try (RemoteConnection conn = new RemoteConnection("127.0.0.1", port))
+    {
+      conn.bind("cn=Directory Manager", "password");
+      conn.search("o=test", SearchScope.BASE_OBJECT, "(objectClass=*)");
+      assertThat(conn.readEntries()).hasSize(1);
+    }
+  }
+}
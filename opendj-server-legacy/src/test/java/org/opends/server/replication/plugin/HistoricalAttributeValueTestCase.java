@@ -16,6 +16,8 @@
 package org.opends.server.replication.plugin;
 
 import org.assertj.core.api.Assertions;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.replication.common.CSN;
 import org.opends.server.replication.ReplicationTestCase;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -47,4 +49,29 @@ public class HistoricalAttributeValueTestCase extends ReplicationTestCase
     HistoricalAttributeValue val = new HistoricalAttributeValue(strVal);
     Assertions.assertThat(strVal).isEqualTo(val.toString());
   }
+
+  @Test(dataProvider = "values")
+  public void testDecodeWithoutParsing(String strVal)
+  {
+    HistoricalAttributeValue val = new HistoricalAttributeValue(strVal);
+    ByteString encodedVal = ByteString.valueOfUtf8(strVal);
+    Assertions.assertThat(HistoricalAttributeValue.decodeCSN(encodedVal)).isEqualTo(val.getCSN());
+    Assertions.assertThat(HistoricalAttributeValue.decodeAttributeString(encodedVal))
+        .isEqualTo(val.getAttributeDescription().toString());
+  }
+
+  @Test
+  public void testDecodeInvalidValues()
+  {
+    Assertions.assertThat(HistoricalAttributeValue.decodeCSN(ByteString.valueOfUtf8("description"))).isNull();
+    Assertions.assertThat(HistoricalAttributeValue.decodeCSN(ByteString.valueOfUtf8("description:0000014f:add")))
+        .isNull();
+    Assertions.assertThat(HistoricalAttributeValue.decodeCSN(
+        ByteString.valueOfUtf8("description:zzzzzzzzzzzzzzzzzzzzzzzzzzzz:add"))).isNull();
+    Assertions.assertThat(HistoricalAttributeValue.decodeAttributeString(ByteString.valueOfUtf8("description")))
+        .isNull();
+    Assertions.assertThat(HistoricalAttributeValue.decodeCSN(
+        ByteString.valueOfUtf8("description:0000014f2d0c9f53000100000001:del:a:b")))
+        .isEqualTo(new CSN("0000014f2d0c9f53000100000001"));
+  }
 }
@@ -58,7 +58,7 @@ public class NamingConflictTest extends ReplicationTestCase
   private LDAPReplicationDomain domain;
   private CSNGenerator gen;
 
-  private TestSynchronousReplayQueue queue;
+  private ReplayQueue queue;
 
   @BeforeMethod
   public void setUpLocal() throws Exception
@@ -67,7 +67,7 @@ public class NamingConflictTest extends ReplicationTestCase
 
     TestCaseUtils.initializeTestBackend(true);
 
-    queue = new TestSynchronousReplayQueue();
+    queue = new ReplayQueue(10000);
 
     final DomainFakeCfg conf = new DomainFakeCfg(baseDN, 1, new TreeSet<String>());
     conf.setIsolationPolicy(IsolationPolicy.ACCEPT_ALL_UPDATES);
@@ -366,8 +366,8 @@ public class NamingConflictTest extends ReplicationTestCase
   private void replayMsg(UpdateMsg updateMsg) throws InterruptedException
   {
     domain.processUpdate(updateMsg);
-    LDAPUpdateMsg ldapUpdate = queue.take().getUpdateMessage();
-    domain.markInProgress(ldapUpdate);
+    // processUpdate() already marked the update in progress
+    LDAPUpdateMsg ldapUpdate = queue.remove().getUpdateMessage();
     domain.replay(ldapUpdate, SHUTDOWN);
   }
 }
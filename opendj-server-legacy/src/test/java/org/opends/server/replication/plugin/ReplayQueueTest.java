@@ -0,0 +1,129 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.plugin;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ReplayQueueTest extends ReplicationTestCase
+{
+  private static final int NB_ENTRIES = 50;
+  private static final int NB_UPDATES_PER_ENTRY = 4;
+
+  @Test
+  public void testUpdatesOfAnEntryAreInTheSamePartition() throws Exception
+  {
+    final ReplayQueue queue = new ReplayQueue(1000);
+    queue.setNumberOfPartitions(8);
+    final List<UpdateToReplay> updates = offerUpdates(queue);
+
+    assertThat(queue).hasSize(updates.size());
+    assertUpdatesOfEachEntryAreInOrder(queue, updates);
+  }
+
+  @Test
+  public void testSetNumberOfPartitionsKeepsTheOrderOfUpdates() throws Exception
+  {
+    final ReplayQueue queue = new ReplayQueue(1000);
+    final List<UpdateToReplay> updates = offerUpdates(queue);
+    assertThat(queue.getNumberOfPartitions()).isEqualTo(1);
+
+    queue.setNumberOfPartitions(3);
+    assertThat(queue.getNumberOfPartitions()).isEqualTo(3);
+    assertThat(queue).hasSize(updates.size());
+    assertUpdatesOfEachEntryAreInOrder(queue, updates);
+  }
+
+  @Test
+  public void testUpdatesOfARenamedEntryAreInTheSamePartition() throws Exception
+  {
+    final int nbPartitions = 8;
+    for (int i = 0; i < NB_ENTRIES; i++)
+    {
+      final String entryUUID = "uuid-" + i;
+      final UpdateToReplay beforeRename = newUpdate("uid=user." + i + ",dc=example,dc=com", entryUUID, 2 * i);
+      final UpdateToReplay afterRename = newUpdate("uid=renamed." + i + ",dc=example,dc=com", entryUUID, 2 * i + 1);
+      assertThat(ReplayQueue.getPartitionIndex(afterRename, nbPartitions))
+          .isEqualTo(ReplayQueue.getPartitionIndex(beforeRename, nbPartitions));
+    }
+  }
+
+  @Test
+  public void testOfferTimesOutWhenPartitionIsFull() throws Exception
+  {
+    final ReplayQueue queue = new ReplayQueue(2);
+    queue.setNumberOfPartitions(2);
+    final UpdateToReplay update = newUpdate("uid=user.0,dc=example,dc=com", "uuid-0", 1);
+
+    assertThat(queue.offer(update, 10, TimeUnit.MILLISECONDS)).isTrue();
+    assertThat(queue.offer(update, 10, TimeUnit.MILLISECONDS)).isFalse();
+    assertThat(queue.remainingCapacity()).isEqualTo(1);
+  }
+
+  private List<UpdateToReplay> offerUpdates(ReplayQueue queue) throws Exception
+  {
+    final List<UpdateToReplay> updates = new ArrayList<>();
+    int seqNum = 0;
+    for (int i = 0; i < NB_UPDATES_PER_ENTRY; i++)
+    {
+      for (int j = 0; j < NB_ENTRIES; j++)
+      {
+        final UpdateToReplay update = newUpdate("uid=user." + j + ",dc=example,dc=com", "uuid-" + j, seqNum++);
+        assertThat(queue.offer(update, 1, TimeUnit.SECONDS)).isTrue();
+        updates.add(update);
+      }
+    }
+    return updates;
+  }
+
+  private UpdateToReplay newUpdate(String dn, String entryUUID, int seqNum)
+  {
+    return new UpdateToReplay(new DeleteMsg(DN.valueOf(dn), new CSN(1, seqNum, 1), entryUUID), null);
+  }
+
+  /** Each entry's updates must be found in a single partition, in the order they were offered. */
+  private void assertUpdatesOfEachEntryAreInOrder(ReplayQueue queue, List<UpdateToReplay> updates)
+  {
+    final List<UpdateToReplay> allUpdates = new ArrayList<>();
+    for (int i = 0; i < queue.getNumberOfPartitions(); i++)
+    {
+      final BlockingQueue<UpdateToReplay> partition = queue.getPartition(i);
+      final List<UpdateToReplay> partitionUpdates = new ArrayList<>(partition);
+      for (UpdateToReplay update : partitionUpdates)
+      {
+        assertThat(ReplayQueue.getPartitionIndex(update, queue.getNumberOfPartitions())).isEqualTo(i);
+      }
+      for (int j = 1; j < partitionUpdates.size(); j++)
+      {
+        final CSN previous = partitionUpdates.get(j - 1).getUpdateMessage().getCSN();
+        assertThat(partitionUpdates.get(j).getUpdateMessage().getCSN().isNewerThan(previous)).isTrue();
+      }
+      allUpdates.addAll(partitionUpdates);
+    }
+    assertThat(allUpdates).containsOnlyElementsOf(updates).hasSameSizeAs(updates);
+  }
+}
@@ -114,6 +114,49 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
     }
   }
 
+  /**
+   * Tests that records can be written then read correctly through a memory mapping for different block sizes.
+   */
+  @Test(dataProvider="recordsData")
+  public void testWriteThenReadMapped(int blockSize, int expectedSizeOfFile, List<Record<Integer, Integer>> records)
+      throws Exception
+  {
+    writeRecords(blockSize, records);
+
+    try (BlockLogReader<Integer, Integer> reader = newMappedReader(blockSize))
+    {
+      for (int i = 0; i < records.size(); i++)
+      {
+         Record<Integer, Integer> record = reader.readRecord();
+         assertThat(record).isEqualTo(records.get(i));
+      }
+      assertThat(reader.readRecord()).isNull();
+      assertThat(reader.getFilePosition()).isEqualTo(expectedSizeOfFile);
+    }
+  }
+
+  /** Tests that readers sharing the same memory mapping have independent positions. */
+  @Test
+  public void testMappedReadersAreIndependent() throws Exception
+  {
+    final int blockSize = 10;
+    writeRecords(blockSize, records(1, 2, 3));
+    final MappedLogFile mappedFile = MappedLogFile.map(TEST_FILE);
+
+    try (BlockLogReader<Integer, Integer> reader1 =
+            BlockLogReader.newMappedReaderForTests(TEST_FILE, mappedFile, RECORD_PARSER, blockSize);
+        BlockLogReader<Integer, Integer> reader2 =
+            BlockLogReader.newMappedReaderForTests(TEST_FILE, mappedFile, RECORD_PARSER, blockSize))
+    {
+      assertThat(reader1.readRecord()).isEqualTo(record(1));
+      assertThat(reader1.readRecord()).isEqualTo(record(2));
+      assertThat(reader2.readRecord()).isEqualTo(record(1));
+      assertThat(reader2.seekToRecord(3, EQUAL_TO_KEY, ON_MATCHING_KEY).getSecond()).isEqualTo(record(3));
+      assertThat(reader1.readRecord()).isEqualTo(record(3));
+      assertThat(reader1.readRecord()).isNull();
+    }
+  }
+
   @DataProvider(name = "recordsForSeek")
   Object[][] recordsForSeek()
   {
@@ -251,6 +294,24 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
     }
   }
 
+  @Test(dataProvider = "recordsForSeek")
+  public void testSeekToRecordMapped(int blockSize, List<Record<Integer, Integer>> records, int key,
+      KeyMatchingStrategy matchingStrategy, PositionStrategy positionStrategy, Record<Integer, Integer> expectedRecord,
+      boolean shouldBeFound) throws Exception
+  {
+    writeRecords(blockSize, records);
+
+    try (BlockLogReader<Integer, Integer> reader = newMappedReader(blockSize))
+    {
+      Pair<Boolean, Record<Integer, Integer>> result = reader.seekToRecord(key, matchingStrategy, positionStrategy);
+
+      final SoftAssertions softly = new SoftAssertions();
+      softly.assertThat(result.getFirst()).isEqualTo(shouldBeFound);
+      softly.assertThat(result.getSecond()).isEqualTo(expectedRecord);
+      softly.assertAll();
+    }
+  }
+
   @Test
   public void testGetClosestBlockStartBeforeOrAtPosition() throws Exception
   {
@@ -518,6 +579,11 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
         RECORD_PARSER, blockSize);
   }
 
+  private BlockLogReader<Integer, Integer> newMappedReader(int blockSize) throws IOException
+  {
+    return BlockLogReader.newMappedReaderForTests(TEST_FILE, MappedLogFile.map(TEST_FILE), RECORD_PARSER, blockSize);
+  }
+
   private BlockLogReader<Integer, Integer> newReaderWithNullFile(int blockSize) throws FileNotFoundException
   {
     return BlockLogReader.newReaderForTests(null, null, RECORD_PARSER, blockSize);
@@ -84,15 +84,26 @@ public final class RemoteConnection implements Closeable
   }
 
   public RemoteConnection(String host, int port, boolean secure) throws Exception
+  {
+    this(host, secure ? getSslSocket(host, port) : new Socket(host, port));
+  }
+
+  /** Uses a socket already connected to the server, for example after tuning its buffers. */
+  public RemoteConnection(Socket socket) throws Exception
+  {
+    this(socket.getInetAddress().getHostAddress(), socket);
+  }
+
+  private RemoteConnection(String host, Socket socket) throws Exception
   {
     this.host = host;
-    socket = secure ? getSslSocket(host, port) : new Socket(host, port);
+    this.socket = socket;
     r = new LDAPReader(socket);
     w = new LDAPWriter(socket);
     TestCaseUtils.configureSocket(socket);
   }
 
-  private Socket getSslSocket(String host, int port) throws Exception
+  private static Socket getSslSocket(String host, int port) throws Exception
   {
     SSLContext sslCtx = SSLContext.getInstance("TLSv1");
     TrustManager[] tm = new TrustManager[] { new BlindTrustManager() };
@@ -93,6 +93,10 @@ public class LockManagerTest extends TypesTestCase
     assertThat(lock1).isNotNull();
     assertThat(lock2).isNull(); // Timed out.
     unlockUsingThread(thread1, lock1);
+
+    assertThat(lockManager.getLockWaitCount()).isEqualTo(1);
+    assertThat(lockManager.getLockTimeoutCount()).isEqualTo(1);
+    assertThat(lockManager.getLockWaitTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(100);
   }
 
   @DataProvider
@@ -139,12 +143,11 @@ public class LockManagerTest extends TypesTestCase
     assertThat(lock2Future.isDone()).isFalse();
     unlockUsingThread(thread1, lock1);
     final DNLock lock2 = lock2Future.get();
+    assertThat(lock2).isNotNull();
     unlockUsingThread(thread2, lock2);
 
-    assertThat(getThreadLocalLockRefCountFor(thread1, lockManager, dn1)).isGreaterThan(0);
-    assertThat(getThreadLocalLockRefCountFor(thread2, lockManager, dn2)).isGreaterThan(0);
-    assertThat(lockManager.getLockTableRefCountFor(dn1)).isGreaterThan(0);
-    assertThat(lockManager.getLockTableRefCountFor(dn2)).isGreaterThan(0);
+    assertThat(lockManager.getLockWaitCount()).isEqualTo(1);
+    assertThat(lockManager.getLockTimeoutCount()).isEqualTo(0);
   }
 
   @DataProvider
@@ -178,14 +181,13 @@ public class LockManagerTest extends TypesTestCase
     final DNLock lock1 = lockUsingThread(thread1, lockManager, lock1Type, dn1).get();
     final DNLock lock2 = lockUsingThread(thread2, lockManager, lock2Type, dn2).get();
 
+    assertThat(lock1).isNotNull();
+    assertThat(lock2).isNotNull();
     assertThat(lock1).isNotSameAs(lock2);
     unlockUsingThread(thread1, lock1);
     unlockUsingThread(thread2, lock2);
 
-    assertThat(getThreadLocalLockRefCountFor(thread1, lockManager, dn1)).isGreaterThan(0);
-    assertThat(getThreadLocalLockRefCountFor(thread2, lockManager, dn2)).isGreaterThan(0);
-    assertThat(lockManager.getLockTableRefCountFor(dn1)).isGreaterThan(0);
-    assertThat(lockManager.getLockTableRefCountFor(dn2)).isGreaterThan(0);
+    assertThat(lockManager.getLockWaitCount()).isEqualTo(0);
   }
 
   @DataProvider
@@ -212,58 +214,181 @@ public class LockManagerTest extends TypesTestCase
     final DNLock lock1 = lock1Type.lock(lockManager, dnA);
     final DNLock lock2 = lock2Type.lock(lockManager, dnA);
 
+    assertThat(lock1).isNotNull();
+    assertThat(lock2).isNotNull();
     assertThat(lock1).isNotSameAs(lock2);
-    assertThat(lock1.refCount()).isEqualTo(3); // +1 for thread local cache
-    assertThat(lock2.refCount()).isEqualTo(3);
 
     lock1.unlock();
-    assertThat(lock1.refCount()).isEqualTo(2);
-    assertThat(lock2.refCount()).isEqualTo(2);
-
     lock2.unlock();
-    assertThat(lock1.refCount()).isEqualTo(1);
-    assertThat(lock2.refCount()).isEqualTo(1);
 
-    assertThat(lockManager.getThreadLocalCacheRefCountFor(dnA)).isGreaterThan(0);
-    assertThat(lockManager.getLockTableRefCountFor(dnA)).isGreaterThan(0);
+    // Another thread can now lock the whole subtree.
+    final DNLock lock3 = lockUsingThread(thread1, lockManager, LockType.WRITE_SUBTREE, dnA).get();
+    assertThat(lock3).isNotNull();
+    unlockUsingThread(thread1, lock3);
   }
 
   @Test
-  public void testThreadLocalCacheEviction() throws Exception
+  public void testUnlockTwice()
   {
     final LockManager lockManager = new LockManager();
+    final DNLock lock = lockManager.tryWriteLockEntry(dnABC);
+    lock.unlock();
+    try
+    {
+      lock.unlock();
+      fail("Expected an IllegalStateException");
+    }
+    catch (IllegalStateException expected)
+    {
+      // Expected
+    }
+  }
 
-    // Acquire 100 different locks. The first few locks should be evicted from the cache.
-    final LinkedList<DNLock> locks = new LinkedList<>();
-    for (int i = 0; i < 100; i++)
+  @Test
+  public void testWritesUnderTheSameParentDoNotBlock() throws Exception
+  {
+    final LockManager lockManager = new LockManager();
+    // Entries sharing a lock stripe would block each other.
+    int i = 1;
+    while (lockManager.isSameEntryLock(dn(0), dn(i)))
     {
-      locks.add(lockManager.tryWriteLockEntry(dn(i)));
+      i++;
     }
 
-    // The first lock should have been evicted from the cache, but still in the lock table because it is locked.
-    assertThat(locks.getFirst().refCount()).isEqualTo(1);
-    assertThat(lockManager.getThreadLocalCacheRefCountFor(dn(0))).isLessThan(0);
-    assertThat(lockManager.getLockTableRefCountFor(dn(0))).isGreaterThan(0);
+    final DNLock lock1 = lockUsingThread(thread1, lockManager, LockType.WRITE_ENTRY, dn(0)).get();
+    final DNLock lock2 = lockUsingThread(thread2, lockManager, LockType.WRITE_ENTRY, dn(i)).get();
+    assertThat(lock1).isNotNull();
+    assertThat(lock2).isNotNull();
+    unlockUsingThread(thread1, lock1);
+    unlockUsingThread(thread2, lock2);
+
+    assertThat(lockManager.getLockWaitCount()).isEqualTo(0);
+  }
 
-    // The last lock should still be in the cache and the lock table.
-    assertThat(locks.getLast().refCount()).isEqualTo(2);
-    assertThat(lockManager.getThreadLocalCacheRefCountFor(dn(99))).isGreaterThan(0);
-    assertThat(lockManager.getLockTableRefCountFor(dn(99))).isGreaterThan(0);
+  @Test
+  public void testSubtreeWriteLockWaitsForTheReaders() throws Exception
+  {
+    final LockManager lockManager = new LockManager();
+    final DN people = DN.valueOf("ou=people,dc=example,dc=com");
 
+    // Many locks under the same parent, each one read locking the parent subtree.
+    final LinkedList<DNLock> locks = new LinkedList<>();
+    for (int i = 0; i < 100; i++)
+    {
+      final DNLock lock = lockManager.tryWriteLockEntry(dn(i));
+      assertThat(lock).isNotNull();
+      locks.add(lock);
+    }
+    final Future<DNLock> subtreeLockFuture = lockUsingThread(thread1, lockManager, LockType.WRITE_SUBTREE, people);
     for (final DNLock lock : locks)
     {
+      try
+      {
+        subtreeLockFuture.get(1, TimeUnit.MILLISECONDS);
+      }
+      catch (final TimeoutException e)
+      {
+        // Ignore: we'll check the state of the future instead.
+      }
+      assertThat(subtreeLockFuture.isDone()).isFalse();
       lock.unlock();
     }
 
-    // The first lock should not be in the cache or the lock table.
-    assertThat(locks.getFirst().refCount()).isEqualTo(0);
-    assertThat(lockManager.getThreadLocalCacheRefCountFor(dn(0))).isLessThan(0);
-    assertThat(lockManager.getLockTableRefCountFor(dn(0))).isLessThan(0);
+    final DNLock subtreeLock = subtreeLockFuture.get();
+    assertThat(subtreeLock).isNotNull();
+    unlockUsingThread(thread1, subtreeLock);
+  }
+
+  @Test
+  public void testWriteLockSubtreesBlocksBothSubtrees() throws Exception
+  {
+    final LockManager lockManager = new LockManager(100, TimeUnit.MILLISECONDS);
+    final DNLock lock = lockManager.tryWriteLockSubtrees(dnABC, dnABD);
+    assertThat(lock).isNotNull();
+    assertThat(lockUsingThread(thread1, lockManager, LockType.READ_ENTRY, dnABC).get()).isNull();
+    assertThat(lockUsingThread(thread1, lockManager, LockType.READ_ENTRY, dnABD).get()).isNull();
+    lock.unlock();
+
+    final DNLock lock2 = lockUsingThread(thread1, lockManager, LockType.WRITE_SUBTREE, dnABD).get();
+    assertThat(lock2).isNotNull();
+    unlockUsingThread(thread1, lock2);
+  }
+
+  @Test
+  public void testConcurrentRenamesOfDNsSharingLocksDoNotDeadlock() throws Exception
+  {
+    final LockManager lockManager = new LockManager(1, TimeUnit.SECONDS);
+    // a and d share a subtree lock, b and c share another one: renaming a to b and c to d
+    // would lock them in opposite orders if the lock manager did not order them.
+    final DN a = dn(0);
+    int i = 1;
+    while (!lockManager.isSameSubtreeLock(a, dn(i)))
+    {
+      i++;
+    }
+    final DN d = dn(i);
+    int j = i + 1;
+    while (lockManager.isSameSubtreeLock(a, dn(j)))
+    {
+      j++;
+    }
+    final DN b = dn(j);
+    int k = j + 1;
+    while (!lockManager.isSameSubtreeLock(b, dn(k)))
+    {
+      k++;
+    }
+    final DN c = dn(k);
+
+    final Future<?> rename1 = renameUsingThread(thread1, lockManager, a, b);
+    final Future<?> rename2 = renameUsingThread(thread2, lockManager, c, d);
+    rename1.get();
+    rename2.get();
+    assertThat(lockManager.getLockTimeoutCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDeepDNsDoNotShareLocksWithTheirAncestors() throws Exception
+  {
+    final LockManager lockManager = new LockManager(100, TimeUnit.MILLISECONDS);
+    DN parent = DN.valueOf("dc=com");
+    while (parent.size() < 40)
+    {
+      parent = parent.child(DN.valueOf("ou=level" + parent.size()));
+    }
+    for (int i = 0; i < 1000; i++)
+    {
+      final DN dn = parent.child(DN.valueOf("uid=user." + i));
+      for (DN ancestor = parent; ancestor != null; ancestor = ancestor.parent())
+      {
+        assertThat(lockManager.isSameSubtreeLock(dn, ancestor)).isFalse();
+      }
+      // The subtree write lock would wait for the read lock of an ancestor sharing its stripe
+      final DNLock lock = lockManager.tryWriteLockSubtree(dn);
+      assertThat(lock).isNotNull();
+      lock.unlock();
+    }
+    assertThat(lockManager.getLockTimeoutCount()).isEqualTo(0);
+  }
 
-    // The last lock should still be in the cache and the lock table.
-    assertThat(locks.getLast().refCount()).isEqualTo(1);
-    assertThat(lockManager.getThreadLocalCacheRefCountFor(dn(99))).isGreaterThan(0);
-    assertThat(lockManager.getLockTableRefCountFor(dn(99))).isGreaterThan(0);
+  private Future<?> renameUsingThread(final ExecutorService thread, final LockManager lockManager, final DN dn1,
+      final DN dn2)
+  {
+    return thread.submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        for (int i = 0; i < 10000; i++)
+        {
+          final DNLock lock = lockManager.tryWriteLockSubtrees(dn1, dn2);
+          if (lock != null)
+          {
+            lock.unlock();
+          }
+        }
+      }
+    });
   }
 
   @Test(description = "OPENDJ-1984")
@@ -317,19 +442,6 @@ public class LockManagerTest extends TypesTestCase
     });
   }
 
-  private int getThreadLocalLockRefCountFor(final ExecutorService thread, final LockManager lockManager,
-      final DN dn) throws Exception
-  {
-    return thread.submit(new Callable<Integer>()
-    {
-      @Override
-      public Integer call() throws Exception
-      {
-        return lockManager.getThreadLocalCacheRefCountFor(dn);
-      }
-    }).get();
-  }
-
   private void unlockUsingThread(final ExecutorService thread, final DNLock lock) throws Exception
   {
     thread.submit(new Runnable()
@@ -31,6 +31,7 @@ import org.forgerock.i18n.LocalizableMessageBuilder;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
 import org.forgerock.opendj.ldap.AttributeDescription;
 import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.opends.server.TestCaseUtils;
@@ -640,4 +641,35 @@ public final class TestEntry extends TypesTestCase {
     assertThat(e.getOperationalAttribute(AttributeDescription.create(uidType, options))).isEmpty();
     assertThat(e.getOperationalAttribute(AttributeDescription.create(mnType, options))).isEmpty();
   }
+
+  /** Multi-valued attributes decoded with compressed attribute descriptions are only decoded when used. */
+  @Test
+  public void testEncodeDecodeMultiValuedAttributes() throws Exception
+  {
+    Entry e = TestCaseUtils.makeEntry(
+        "dn: cn=Test User,o=test",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: Test User",
+        "cn: Another Name",
+        "cn;lang-fr: Utilisateur",
+        "cn;lang-fr: Autre Nom",
+        "sn: User",
+        "description: first",
+        "description: second",
+        "description: third");
+
+    ByteStringBuilder buffer = new ByteStringBuilder();
+    e.encode(buffer, new EntryEncodeConfig(false, true, true));
+    Entry decoded = Entry.decode(buffer.toByteString().asReader());
+
+    assertEquals(decoded, e);
+    AttributeType descriptionType = DirectoryServer.getAttributeType("description");
+    Attribute description = decoded.getAttribute(descriptionType).get(0);
+    assertEquals(description.size(), 3);
+    assertTrue(description.contains(ByteString.valueOfUtf8("SECOND")));
+    assertThat(decoded.getAttribute(AttributeDescription.valueOf("cn;lang-fr"))).hasSize(1);
+    assertThat(decoded.getAttribute(AttributeDescription.valueOf("cn;lang-fr")).get(0))
+        .containsOnly(ByteString.valueOfUtf8("Utilisateur"), ByteString.valueOfUtf8("Autre Nom"));
+  }
 }